@@ -52,6 +52,10 @@ public class Detlef extends Application {
 
         com.dragontek.mygpoclient.Global.USER_AGENT = String.format("%s %s",
                 com.dragontek.mygpoclient.Global.USER_AGENT, USER_AGENT);
+
+        /* Finish file deletions which were interrupted by the last shutdown. */
+
+        Singletons.i().getFileDeletionQueue().drainAsync();
     }
 
     /**
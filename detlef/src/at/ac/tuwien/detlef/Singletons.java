@@ -19,6 +19,7 @@
 
 package at.ac.tuwien.detlef;
 
+import java.io.File;
 import java.util.HashMap;
 
 import android.content.Context;
@@ -29,12 +30,17 @@ import at.ac.tuwien.detlef.db.DatabaseHelper;
 import at.ac.tuwien.detlef.db.EpisodeActionDAO;
 import at.ac.tuwien.detlef.db.EpisodeActionDAOImpl;
 import at.ac.tuwien.detlef.db.EpisodeDAO;
+import at.ac.tuwien.detlef.db.EpisodeUpdateQueue;
+import at.ac.tuwien.detlef.db.FileDeletionQueue;
 import at.ac.tuwien.detlef.db.PlaylistDAO;
 import at.ac.tuwien.detlef.db.PlaylistDAOImpl;
 import at.ac.tuwien.detlef.db.PodcastDAO;
 import at.ac.tuwien.detlef.domain.Podcast;
 import at.ac.tuwien.detlef.download.DetlefDownloadManager;
 import at.ac.tuwien.detlef.gpodder.GPodderSync;
+import at.ac.tuwien.detlef.gpodder.GpodderClientFactory;
+import at.ac.tuwien.detlef.gpodder.HttpResponseCache;
+import at.ac.tuwien.detlef.gpodder.PodcastMetadataService;
 import at.ac.tuwien.detlef.gpodder.responders.SynchronousSyncResponder;
 import at.ac.tuwien.detlef.settings.ConnectionTester;
 import at.ac.tuwien.detlef.settings.ConnectionTesterGpodderNet;
@@ -56,12 +62,22 @@ public class Singletons {
 
     private static Singletons dependencyAssistant = null;
 
+    private static final String HTTP_CACHE_DIRECTORY = "http";
+
+    /** The size of the HTTP response cache in bytes. */
+    private static final long HTTP_CACHE_SIZE = 8 * 1024 * 1024;
+
     private DatabaseHelper databaseHelper = null;
     private DetlefDownloadManager downloadManager = null;
     private GPodderSync gPodderSync = null;
     private PodcastDAO podcastDAO = null;
     private EpisodeDAO episodeDAO = null;
     private EpisodeActionDAO episodeActionDAO = null;
+    private EpisodeUpdateQueue episodeUpdateQueue = null;
+    private FileDeletionQueue fileDeletionQueue = null;
+    private HttpResponseCache httpResponseCache = null;
+    private GpodderClientFactory gpodderClientFactory = null;
+    private PodcastMetadataService podcastMetadataService = null;
     private PlaylistDAO playlistDAO = null;
 
     public DatabaseHelper getDatabaseHelper() {
@@ -175,6 +191,59 @@ public class Singletons {
         return episodeDAO;
     }
 
+    /**
+     * @return The queue used to write episode updates in the background.
+     */
+    public synchronized EpisodeUpdateQueue getEpisodeUpdateQueue() {
+        if (episodeUpdateQueue == null) {
+            episodeUpdateQueue = new EpisodeUpdateQueue(getEpisodeDAO());
+        }
+        return episodeUpdateQueue;
+    }
+
+    /**
+     * @return The queue used to delete files in the background.
+     */
+    public synchronized FileDeletionQueue getFileDeletionQueue() {
+        if (fileDeletionQueue == null) {
+            fileDeletionQueue = new FileDeletionQueue(getDatabaseHelper());
+        }
+        return fileDeletionQueue;
+    }
+
+    /**
+     * @return The cache shared by the gpodder.net and feed service clients.
+     */
+    public synchronized HttpResponseCache getHttpResponseCache() {
+        if (httpResponseCache == null) {
+            httpResponseCache = new HttpResponseCache(
+                new File(Detlef.getAppContext().getCacheDir(), HTTP_CACHE_DIRECTORY),
+                HTTP_CACHE_SIZE);
+        }
+        return httpResponseCache;
+    }
+
+    /**
+     * @return The factory of the gpodder.net and feed service clients, which
+     *         share their connections.
+     */
+    public synchronized GpodderClientFactory getGpodderClientFactory() {
+        if (gpodderClientFactory == null) {
+            gpodderClientFactory = new GpodderClientFactory(getHttpResponseCache());
+        }
+        return gpodderClientFactory;
+    }
+
+    /**
+     * @return The service used to look up podcasts on gpodder.net.
+     */
+    public synchronized PodcastMetadataService getPodcastMetadataService() {
+        if (podcastMetadataService == null) {
+            podcastMetadataService = new PodcastMetadataService(getGpodderClientFactory());
+        }
+        return podcastMetadataService;
+    }
+
     public EpisodeActionDAO getEpisodeActionDAO() {
         if (episodeActionDAO == null) {
             episodeActionDAO = new EpisodeActionDAOImpl(Detlef.getAppContext());
@@ -46,7 +46,6 @@ import at.ac.tuwien.detlef.db.PodcastDAO;
 import at.ac.tuwien.detlef.domain.Podcast;
 import at.ac.tuwien.detlef.gpodder.GPodderSync;
 import at.ac.tuwien.detlef.gpodder.PodcastListResultHandler;
-import at.ac.tuwien.detlef.gpodder.PodcastResultHandler;
 import at.ac.tuwien.detlef.gpodder.ReliableResultHandler;
 
 import com.commonsware.cwac.merge.MergeAdapter;
@@ -406,7 +405,7 @@ public class AddPodcastActivity extends Activity {
     }
 
     private static class AddPodcastResultHandler extends ReliableResultHandler<AddPodcastActivity>
-        implements PodcastResultHandler<AddPodcastActivity> {
+        implements PodcastListResultHandler<AddPodcastActivity> {
 
         @Override
         public void handleFailure(int errCode, final String url) {
@@ -424,35 +423,45 @@ public class AddPodcastActivity extends Activity {
         }
 
         @Override
-        public void handleSuccess(final Podcast result) {
+        public void handleSuccess(final List<Podcast> results) {
             getRcv().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    PodcastDAO dao = Singletons.i().getPodcastDAO();
-                    for (Podcast p : dao.getAllPodcasts()) {
-                        if (p.getUrl().equals(result.getUrl())) {
-                            Toast.makeText(getRcv(),
-                                           "This podcast is already in your podcast list!",
-                                           Toast.LENGTH_LONG).show();
-                            getRcv().setBusy(false);
-                            return;
-                        }
-                    }
-                    result.setLocalAdd(true);
-                    if (dao.insertPodcast(result) == null) {
-                        Toast.makeText(getRcv(), "Add podcast from URL failed", Toast.LENGTH_SHORT);
-                        getRcv().setBusy(false);
-                        return;
+                    for (Podcast result : results) {
+                        addPodcast(result);
                     }
+                }
+            });
+        }
 
-                    getRcv().resultAdapter.removePodcast(result);
-                    getRcv().suggestionsAdapter.removePodcast(result);
-                    getRcv().toplistAdapter.removePodcast(result);
-                    Toast.makeText(getRcv(), "Add podcast from URL succeeded", Toast.LENGTH_SHORT).show();
-                    podcastsAdded++;
+        /**
+         * Adds the given podcast unless it is in the podcast list already.
+         * Must be called on the UI thread.
+         */
+        private void addPodcast(Podcast result) {
+            PodcastDAO dao = Singletons.i().getPodcastDAO();
+            for (Podcast p : dao.getAllPodcasts()) {
+                if (p.getUrl().equals(result.getUrl())) {
+                    Toast.makeText(getRcv(),
+                                   "This podcast is already in your podcast list!",
+                                   Toast.LENGTH_LONG).show();
                     getRcv().setBusy(false);
+                    return;
                 }
-            });
+            }
+            result.setLocalAdd(true);
+            if (dao.insertPodcast(result) == null) {
+                Toast.makeText(getRcv(), "Add podcast from URL failed", Toast.LENGTH_SHORT);
+                getRcv().setBusy(false);
+                return;
+            }
+
+            getRcv().resultAdapter.removePodcast(result);
+            getRcv().suggestionsAdapter.removePodcast(result);
+            getRcv().toplistAdapter.removePodcast(result);
+            Toast.makeText(getRcv(), "Add podcast from URL succeeded", Toast.LENGTH_SHORT).show();
+            podcastsAdded++;
+            getRcv().setBusy(false);
         }
     }
 
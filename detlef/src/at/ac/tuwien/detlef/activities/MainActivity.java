@@ -17,10 +17,11 @@
 
 package at.ac.tuwien.detlef.activities;
 
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.ActionBar;
 import android.app.ActionBar.Tab;
@@ -63,8 +64,8 @@ import at.ac.tuwien.detlef.fragments.EpisodeListSortDialogFragment;
 import at.ac.tuwien.detlef.fragments.PlayerFragment;
 import at.ac.tuwien.detlef.fragments.PodListFragment;
 import at.ac.tuwien.detlef.fragments.SettingsGpodderNet;
+import at.ac.tuwien.detlef.gpodder.FeedRefreshEngine;
 import at.ac.tuwien.detlef.gpodder.NoDataResultHandler;
-import at.ac.tuwien.detlef.gpodder.PullFeedAsyncTask;
 import at.ac.tuwien.detlef.gpodder.ReliableResultHandler;
 import at.ac.tuwien.detlef.gpodder.SyncEpisodeActionsAsyncTask;
 import at.ac.tuwien.detlef.gpodder.SyncSubscriptionsAsyncTask;
@@ -118,8 +119,7 @@ public class MainActivity extends FragmentActivity
          * abort any ongoing refresh.
          */
         if ((savedInstanceState != null) && (refreshBg != null)) {
-            curPodSync = new AtomicInteger(savedInstanceState.getInt(KEY_CUR_POD_SYNC, 0));
-            numPodSync = new AtomicInteger(savedInstanceState.getInt(KEY_NUM_POD_SYNC, -1));
+            refreshing = new AtomicBoolean(savedInstanceState.getBoolean(KEY_REFRESHING, false));
             showProgressDialog = savedInstanceState.getBoolean(KEY_SHOW_PROGRESS_DIALOG, false);
         } else {
             podcastHandler = new PodcastHandler();
@@ -131,6 +131,10 @@ public class MainActivity extends FragmentActivity
             refreshBg = Executors.newSingleThreadExecutor();
         }
 
+        if (refreshEngine == null) {
+            refreshEngine = new FeedRefreshEngine();
+        }
+
         MediaPlayerNotification.create(this, false, null);
 
         // Create the adapter that will return a fragment for each of the three
@@ -171,7 +175,7 @@ public class MainActivity extends FragmentActivity
         /* Ready the progress dialog */
         progressDialog = new ProgressDialog(this);
         prepareProgressDialog();
-        if ((numPodSync.get() != -1) && showProgressDialog) {
+        if (refreshing.get() && showProgressDialog) {
             progressDialog.show();
         }
 
@@ -272,8 +276,7 @@ public class MainActivity extends FragmentActivity
         super.onSaveInstanceState(savedInstanceState);
 
         savedInstanceState.putBoolean(KEY_SHOW_PROGRESS_DIALOG, progressDialog.isShowing());
-        savedInstanceState.putInt(KEY_NUM_POD_SYNC, numPodSync.get());
-        savedInstanceState.putInt(KEY_CUR_POD_SYNC, curPodSync.get());
+        savedInstanceState.putBoolean(KEY_REFRESHING, refreshing.get());
     }
 
     @Override
@@ -320,13 +323,14 @@ public class MainActivity extends FragmentActivity
     private void prepareProgressDialog() {
         progressDialog.setTitle(R.string.refreshing);
         progressDialog.setCancelable(true);
-        if (numPodSync.get() > 0) {
-            if (numPodSync.get() == curPodSync.get()) {
+        FeedRefreshEngine.Batch batch = refreshBatch;
+        if (batch != null) {
+            if (batch.isComplete()) {
                 progressDialog.setMessage(getString(R.string.syncing_episode_actions));
             } else {
                 progressDialog.setMessage(String.format(
                                               getString(R.string.refreshing_feed_x_of_y),
-                                              curPodSync.get() + 1, numPodSync.get()));
+                                              batch.getDone() + 1, batch.getTotal()));
             }
         } else {
             progressDialog.setMessage(getString(R.string.refreshing_feed_list));
@@ -338,10 +342,22 @@ public class MainActivity extends FragmentActivity
     private static EpisodeActionHandler episodeActionHandler = null;
 
     /**
-     * The Tasks for the refresh are run on a single thread.
+     * The subscription and episode action synchronization of the refresh are
+     * run on a single thread.
      */
     private static ExecutorService refreshBg = null;
 
+    /**
+     * Refreshes the feeds in parallel once the subscriptions are synchronized.
+     */
+    private static FeedRefreshEngine refreshEngine = null;
+
+    /**
+     * The feeds of the ongoing refresh, null while the subscriptions are
+     * synchronized.
+     */
+    private static volatile FeedRefreshEngine.Batch refreshBatch = null;
+
     /**
      * The Toast with the Output of the refresh operation is shown this long.
      */
@@ -352,9 +368,7 @@ public class MainActivity extends FragmentActivity
      */
     private ProgressDialog progressDialog;
 
-    private static final String KEY_NUM_POD_SYNC = "KEY_NUM_POD_SYNC";
-
-    private static final String KEY_CUR_POD_SYNC = "KEY_CUR_POD_SYNC";
+    private static final String KEY_REFRESHING = "KEY_REFRESHING";
 
     private static final String KEY_SHOW_PROGRESS_DIALOG = "KEY_SHOW_PROGRESS_DIALOG";
 
@@ -374,11 +388,8 @@ public class MainActivity extends FragmentActivity
      */
     public static final String PODCAST_ADD_REFRESH_FEED_LIST = "PODCAST_ADD_REFRESH_FEED_LIST";
 
-    /** Number of feeds to sync, -1 if no refresh is in progress. */
-    private AtomicInteger numPodSync = new AtomicInteger(-1);
-
-    /** Number of feeds already synchronized. */
-    private AtomicInteger curPodSync = new AtomicInteger(0);
+    /** Whether a refresh is in progress. */
+    private AtomicBoolean refreshing = new AtomicBoolean(false);
 
     private PlaylistDAO playlistDAO;
 
@@ -397,38 +408,45 @@ public class MainActivity extends FragmentActivity
             PodcastDAO pDao = Singletons.i().getPodcastDAO();
 
             final boolean showDialog = getBundle().getBoolean(EXTRA_REFRESH_FEED_LIST, false);
+            final Bundle bundle = getBundle();
 
-            synchronized (getRcv().numPodSync) {
-
-                for (Podcast p : pDao.getNonDeletedPodcasts()) {
-
-                    feedHandler.setBundle(getBundle());
-                    refreshBg.execute(new PullFeedAsyncTask(feedHandler, p));
-                    getRcv().numPodSync.incrementAndGet();
-                }
-
-                if (getRcv().numPodSync.get() == 0) {
-                    getRcv().runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (showDialog) {
-                                getRcv().onRefreshDone(getRcv().getString(R.string.setup_finished),
-                                                       RefreshDoneNotification.DIALOG);
-                            } else {
-                                getRcv().onRefreshDone(getRcv().getString(
-                                                           R.string.refresh_successful));
-                            }
-                        }
-                    });
-                }
-
+            List<Podcast> podcasts = pDao.getNonDeletedPodcasts();
+            if (podcasts.isEmpty()) {
                 getRcv().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        getRcv().prepareProgressDialog();
+                        if (showDialog) {
+                            getRcv().onRefreshDone(getRcv().getString(R.string.setup_finished),
+                                                   RefreshDoneNotification.DIALOG);
+                        } else {
+                            getRcv().onRefreshDone(getRcv().getString(
+                                                       R.string.refresh_successful));
+                        }
                     }
                 });
+                return;
             }
+
+            feedHandler.setBundle(bundle);
+            refreshBatch = refreshEngine.refresh(podcasts, feedHandler, new Runnable() {
+                @Override
+                public void run() {
+                    Log.d(TAG, "r bundle: " + bundle);
+
+                    episodeActionHandler.setBundle(bundle);
+                    refreshBg.execute(new SyncEpisodeActionsAsyncTask(episodeActionHandler));
+
+                    /* Let the feed handler show that the feeds are done. */
+                    feedHandler.sendEvent(new NoDataResultHandler.NoDataSuccessEvent(feedHandler));
+                }
+            });
+
+            getRcv().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    getRcv().prepareProgressDialog();
+                }
+            });
         }
 
         @Override
@@ -489,7 +507,7 @@ public class MainActivity extends FragmentActivity
             new Runnable() {
                 @Override
                 public void run() {
-                    checkDone();
+                    getRcv().prepareProgressDialog();
                 }
             });
         }
@@ -502,36 +520,10 @@ public class MainActivity extends FragmentActivity
                 public void run() {
                     Toast.makeText(getRcv(), errString, REFRESH_MSG_DURATION_MS).show();
 
-                    checkDone();
+                    getRcv().prepareProgressDialog();
                 }
             });
         }
-
-        /**
-         * Check whether we have refreshed all feeds and if yes call
-         * onRefreshDone.
-         */
-        private void checkDone() {
-            synchronized (getRcv().numPodSync) {
-                getRcv().curPodSync.incrementAndGet();
-
-                if (getRcv().curPodSync.get() == getRcv().numPodSync.get()) {
-
-                    final boolean showDialog = getBundle().getBoolean(EXTRA_REFRESH_FEED_LIST,
-                                               false);
-
-                    Log.d(TAG, "r bundle: " + getBundle());
-                    Log.d(TAG, "r bundle extra: " + showDialog);
-                    Log.d(TAG, "r handler: " + this);
-
-                    episodeActionHandler.setBundle(getBundle());
-                    refreshBg.execute(new SyncEpisodeActionsAsyncTask(episodeActionHandler));
-                }
-
-                getRcv().prepareProgressDialog();
-            }
-        }
-
     };
 
     /**
@@ -558,15 +550,11 @@ public class MainActivity extends FragmentActivity
             return;
         }
 
-        synchronized (numPodSync) {
-            if (numPodSync.get() != -1) {
-                progressDialog.show();
-                return;
-            }
-
-            numPodSync.incrementAndGet();
-            curPodSync.set(0);
+        if (!refreshing.compareAndSet(false, true)) {
+            progressDialog.show();
+            return;
         }
+        refreshBatch = null;
 
         podcastHandler.setBundle(pBundle);
 
@@ -592,7 +580,7 @@ public class MainActivity extends FragmentActivity
     }
 
     private void onRefreshDone(String msg, RefreshDoneNotification notificationType) {
-        numPodSync.set(-1);
+        refreshing.set(false);
         progressDialog.dismiss();
         hideRefreshProgressBar();
 
@@ -630,7 +618,7 @@ public class MainActivity extends FragmentActivity
         switch (mViewPager.getCurrentItem()) {
         case SectionsPagerAdapter.POSITION_PODCASTS:
             getMenuInflater().inflate(R.menu.podcast_menu, menu);
-            if (numPodSync.get() != -1) {
+            if (refreshing.get()) {
                 showRefreshProgressBar();
             } else {
                 // Hide progress bar explicitly because this also sets up
@@ -666,7 +654,7 @@ public class MainActivity extends FragmentActivity
             switch (tab.getPosition()) {
             case SectionsPagerAdapter.POSITION_PODCASTS:
                 getMenuInflater().inflate(R.menu.podcast_menu, menu);
-                if (numPodSync.get() != -1) {
+                if (refreshing.get()) {
                     showRefreshProgressBar();
                 } else {
                     // Hide progress bar explicitly because this also sets
@@ -872,8 +860,8 @@ public class MainActivity extends FragmentActivity
         Episode episode = getEpisodeFromView(v);
 
         if (episode != null) {
-            if (playlistDAO.getNonCachedEpisodes().contains(v.getTag())) {
-                playlistDAO.removeEpisodesById(((Episode) v.getTag()).getId());
+            if (playlistDAO.isInPlaylist(episode.getId())) {
+                playlistDAO.removeEpisodesById(episode.getId());
                 text = R.string.episode_removed_from_playlist;
             } else {
                 if (playlistDAO.addEpisodeToEndOfPlaylist(episode)) {
@@ -19,6 +19,8 @@ package at.ac.tuwien.detlef.activities;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import android.app.ListActivity;
 import android.content.ComponentName;
@@ -43,6 +45,7 @@ import at.ac.tuwien.detlef.db.PlaylistDAO;
 import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Episode.StorageState;
 import at.ac.tuwien.detlef.domain.EpisodePersistence;
+import at.ac.tuwien.detlef.domain.Podcast;
 import at.ac.tuwien.detlef.download.DetlefDownloadManager;
 import at.ac.tuwien.detlef.mediaplayer.IMediaPlayerService;
 import at.ac.tuwien.detlef.mediaplayer.MediaPlayerService;
@@ -174,6 +177,20 @@ public class PlaylistActivity extends ListActivity implements PlaylistDAO.OnPlay
         adapter.notifyDataSetChanged();
     }
 
+    @Override
+    public void onPlaylistBulkChanged(final List<Episode> playlist) {
+        /* Deleting a podcast removes its episodes on a background thread. */
+
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                playlistItems.clear();
+                playlistItems.addAll(playlist);
+                adapter.notifyDataSetChanged();
+            }
+        });
+    }
+
     public void removeFromPlaylist(View v) {
         int position = (Integer) v.getTag();
         playlistDAO.removeEpisode(position);
@@ -248,7 +265,7 @@ public class PlaylistActivity extends ListActivity implements PlaylistDAO.OnPlay
      */
     private void playlistClear() {
         Log.d(getClass().getName(), "Clearing playlist");
-        playlistDAO.clearPlaylist();
+        playlistDAO.clear();
     }
 
     @Override
@@ -263,18 +280,34 @@ public class PlaylistActivity extends ListActivity implements PlaylistDAO.OnPlay
 
     @Override
     public void onEpisodeChanged(Episode episode) {
-        adapter.notifyDataSetChanged();
+        /* Episode updates are written on background threads as well. */
+
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                adapter.notifyDataSetChanged();
+            }
+        });
     }
 
     @Override
     public void onEpisodeAdded(Episode episode) {
     }
 
+    @Override
+    public void onEpisodesAdded(List<Episode> episodes) {
+    }
+
     @Override
     public void onEpisodeDeleted(Episode episode) {
         // we get this automatically from the playlistDAO
     }
 
+    @Override
+    public void onEpisodesDeleted(Podcast podcast, Collection<Long> episodeIds) {
+        // we get this automatically from the playlistDAO
+    }
+
     public void downloadEpisode(View v) {
         Episode episode = ((Episode) v.getTag());
         String tag = getClass().getName();
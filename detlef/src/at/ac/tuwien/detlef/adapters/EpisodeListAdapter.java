@@ -17,6 +17,8 @@
 
 package at.ac.tuwien.detlef.adapters;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +28,7 @@ import android.graphics.Color;
 import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.text.Html;
 import android.text.Html.ImageGetter;
 import android.text.Spanned;
@@ -33,29 +36,157 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ArrayAdapter;
 import android.widget.ImageButton;
 import android.widget.TextView;
 import at.ac.tuwien.detlef.R;
 import at.ac.tuwien.detlef.Singletons;
+import at.ac.tuwien.detlef.db.EpisodeDAO;
+import at.ac.tuwien.detlef.db.EpisodePager;
 import at.ac.tuwien.detlef.db.PlaylistDAO;
 import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Episode.ActionState;
 import at.ac.tuwien.detlef.domain.Episode.StorageState;
 
-public class EpisodeListAdapter extends ArrayAdapter<Episode> {
+public class EpisodeListAdapter extends ArrayAdapter<Episode> implements OnScrollListener {
 
     private static final String TAG = EpisodeListAdapter.class.getName();
 
+    /**
+     * The next page is requested as soon as a row this close to the end of
+     * the loaded episodes is displayed.
+     */
+    private static final int PREFETCH_DISTANCE = 20;
+
     private final List<Episode> episodes;
     private final PlaylistDAO playlistDAO;
+    private final EpisodeDAO episodeDAO;
     private final FromHtmlCache fromHtmlCache = new FromHtmlCache();
 
+    /* Only accessed on the UI thread. */
+    private EpisodePager pager = null;
+    private boolean loading = false;
+
+    /* The rows pinned in the episode cache, see pinVisibleRows(). */
+    private int pinnedFirst = -1;
+    private int pinnedCount = 0;
+    private int scrollState = SCROLL_STATE_IDLE;
+
     public EpisodeListAdapter(Context context, int textViewResourceId,
                               List<Episode> episodes) {
         super(context, textViewResourceId, episodes);
         this.episodes = episodes;
         playlistDAO = Singletons.i().getPlaylistDAO();
+        episodeDAO = Singletons.i().getEpisodeDAO();
+    }
+
+    /**
+     * Shows the episodes of the given pager instead of the current ones, which
+     * stay on display until the first page has been loaded. All pages are
+     * loaded in the background, further ones as the list is scrolled towards
+     * their end. Must be called on the UI thread.
+     *
+     * @param newPager The pager, or null to clear the list.
+     */
+    public void setPager(EpisodePager newPager) {
+        pager = newPager;
+        loading = false;
+
+        if (pager == null) {
+            clear();
+            return;
+        }
+        load(0, true);
+    }
+
+    /**
+     * Reloads the episodes shown so far in the background, e.g. after
+     * episodes have been added, and then replaces them at once, so that the
+     * list keeps its scroll position. Must be called on the UI thread.
+     */
+    public void reload() {
+        if (pager == null) {
+            return;
+        }
+
+        pager = pager.restart();
+        load(getCount(), true);
+    }
+
+    /**
+     * Removes the episodes with the given ids, e.g. after their podcast has
+     * been deleted. Must be called on the UI thread.
+     */
+    public void removeAll(Collection<Long> episodeIds) {
+        List<Episode> remaining = new ArrayList<Episode>(episodes.size());
+        for (Episode episode : episodes) {
+            if (!episodeIds.contains(episode.getId())) {
+                remaining.add(episode);
+            }
+        }
+        if (remaining.size() == episodes.size()) {
+            return;
+        }
+
+        setNotifyOnChange(false);
+        clear();
+        addAll(remaining);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Loads the next page of the pager if the given row is close to the end.
+     */
+    private void prefetch(int position) {
+        if (pager == null || loading || pager.isExhausted()
+                || position < getCount() - PREFETCH_DISTANCE) {
+            return;
+        }
+
+        load(0, false);
+    }
+
+    /**
+     * Loads the next pages of the pager in the background, at least one.
+     *
+     * @param count The number of episodes to load at least, unless the pager
+     *            is exhausted before.
+     * @param replace Whether the pages replace the episodes shown so far.
+     */
+    private void load(final int count, final boolean replace) {
+        loading = true;
+        final EpisodePager requested = pager;
+        new AsyncTask<Void, Void, List<Episode>>() {
+            @Override
+            protected List<Episode> doInBackground(Void... params) {
+                List<Episode> ret = new ArrayList<Episode>(requested.nextPage());
+                while (ret.size() < count && !requested.isExhausted()) {
+                    ret.addAll(requested.nextPage());
+                }
+                return ret;
+            }
+
+            @Override
+            protected void onPostExecute(List<Episode> page) {
+                /* The pager may have been replaced in the meantime. */
+                if (pager != requested) {
+                    return;
+                }
+
+                loading = false;
+                if (!replace) {
+                    addAll(page);
+                    return;
+                }
+
+                setNotifyOnChange(false);
+                clear();
+                addAll(page);
+                notifyDataSetChanged();
+            }
+        }.execute();
     }
 
     @Override
@@ -63,6 +194,7 @@ public class EpisodeListAdapter extends ArrayAdapter<Episode> {
         View v = convertView;
 
         Episode episode = episodes.get(position);
+        prefetch(position);
 
         if (v == null) {
             LayoutInflater vi = (LayoutInflater) this.getContext()
@@ -95,7 +227,7 @@ public class EpisodeListAdapter extends ArrayAdapter<Episode> {
         ImageButton episodeListAddToPlaylist =
             (ImageButton) v.findViewById(R.id.episodeListAddToPlaylist);
         episodeListAddToPlaylist.setTag(episode);
-        if (playlistDAO.getNonCachedEpisodes().contains(episode)) {
+        if (playlistDAO.isInPlaylist(episode.getId())) {
             episodeListAddToPlaylist.setImageResource(R.drawable.ic_pl_remove);
         } else {
             episodeListAddToPlaylist.setImageResource(R.drawable.ic_pl_add);
@@ -103,6 +235,52 @@ public class EpisodeListAdapter extends ArrayAdapter<Episode> {
         return v;
     }
 
+    @Override
+    public void notifyDataSetChanged() {
+        /* The rows show other episodes now, pin them on the next layout. */
+        pinnedFirst = -1;
+        super.notifyDataSetChanged();
+    }
+
+    /**
+     * Pins the displayed rows once the list comes to rest. Set this adapter
+     * as the scroll listener of its list.
+     */
+    @Override
+    public void onScrollStateChanged(AbsListView view, int state) {
+        scrollState = state;
+        pinVisibleRows(view.getFirstVisiblePosition(), view.getChildCount());
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        pinVisibleRows(firstVisibleItem, visibleItemCount);
+    }
+
+    /**
+     * Keeps the episodes of all rows which are currently displayed in the
+     * episode cache. The cache is only updated when the range of displayed
+     * rows has changed and the list is not flung, during which rows scroll
+     * by too fast to be worth keeping.
+     */
+    private void pinVisibleRows(int first, int count) {
+        if (scrollState == SCROLL_STATE_FLING
+                || (first == pinnedFirst && count == pinnedCount)) {
+            return;
+        }
+
+        pinnedFirst = first;
+        pinnedCount = count;
+
+        int end = Math.min(first + count, episodes.size());
+        List<Episode> visible = new ArrayList<Episode>(Math.max(end - first, 0));
+        for (int i = Math.max(first, 0); i < end; i++) {
+            visible.add(episodes.get(i));
+        }
+        episodeDAO.pinEpisodes(this, visible);
+    }
+
     private void toggleEpisodeReadAppearance(Episode episode, TextView title,
             ImageButton markRead) {
         if (episode.getActionState() == ActionState.DELETE) {
@@ -1,21 +1,134 @@
 package at.ac.tuwien.detlef.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import android.app.ActivityManager;
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 import at.ac.tuwien.detlef.domain.Episode;
+import at.ac.tuwien.detlef.domain.EpisodeSortChoice;
 import at.ac.tuwien.detlef.domain.Podcast;
+import at.ac.tuwien.detlef.filter.FilterChain;
 
-public class CachingEpisodeDAO implements EpisodeDAO {
+public class CachingEpisodeDAO implements EpisodeDAO, PodcastEpisodeDeletion {
+
+    /** By default, episodes may take up this fraction of the app's heap. */
+    private static final int DEFAULT_BUDGET_FRACTION = 8;
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private static final Comparator<Episode> RELEASED_DESC = new Comparator<Episode>() {
+        @Override
+        public int compare(Episode lhs, Episode rhs) {
+            if (lhs.getReleased() == rhs.getReleased()) {
+                return 0;
+            }
+            return (lhs.getReleased() < rhs.getReleased() ? 1 : -1);
+        }
+    };
+
+    /** The fields written by {@link #upsertEpisodes(Podcast, Collection)}. */
+    private static final int FEED_DATA_FIELDS = Episode.FIELD_AUTHOR
+            | Episode.FIELD_DESCRIPTION | Episode.FIELD_FILE_SIZE | Episode.FIELD_LINK
+            | Episode.FIELD_MIMETYPE | Episode.FIELD_RELEASED | Episode.FIELD_TITLE
+            | Episode.FIELD_URL;
+
+    private final EpisodeCache cache;
+
+    /*
+     * The indexes only hold episode ids so that they cover evicted episodes as
+     * well. All of them are guarded by indexes, which keeps them consistent
+     * with each other; the maps keyed by id do not box their keys.
+     */
+    private final Object indexes = new Object();
+    private final HashMap<String, Long> byUrl = new HashMap<String, Long>();
+    private final HashMap<String, Long> byGuid = new HashMap<String, Long>();
+    private final LongIdentityMap<String> urlOf = new LongIdentityMap<String>();
+    private final LongIdentityMap<String> guidOf = new LongIdentityMap<String>();
+    private final LongIdentityMap<Set<Long>> byPodcast = new LongIdentityMap<Set<Long>>();
+
+    /** IDs of podcasts whose episodes are all contained in byPodcast. */
+    private final LongIdentityMap<Boolean> completePodcasts = new LongIdentityMap<Boolean>();
 
-    private final HashMap<Long, Episode> cache;
     private final SimpleEpisodeDAO dao;
 
+    private final Set<OnEpisodeChangeListener> listeners =
+        new HashSet<OnEpisodeChangeListener>();
+
+    /**
+     * Passes the changes made by the wrapped DAO on to the listeners, with
+     * the cached instances of the episodes.
+     */
+    private final OnEpisodeChangeListener forwarder = new OnEpisodeChangeListener() {
+        @Override
+        public void onEpisodeChanged(Episode episode) {
+            notifyListenersChanged(cachedInstance(episode));
+        }
+
+        @Override
+        public void onEpisodeAdded(Episode episode) {
+            notifyListenersAdded(admit(episode));
+        }
+
+        @Override
+        public void onEpisodeDeleted(Episode episode) {
+            notifyListenersDeleted(episode);
+        }
+
+        @Override
+        public void onEpisodesAdded(List<Episode> episodes) {
+            notifyListenersAdded(cacheResults(episodes));
+        }
+
+        @Override
+        public void onEpisodesDeleted(Podcast podcast, Collection<Long> episodeIds) {
+            notifyListenersDeleted(podcast, episodeIds);
+        }
+    };
+
     public CachingEpisodeDAO(Context context) {
-        cache = new HashMap<Long, Episode>();
+        this(context, defaultBudget(context));
+    }
+
+    /**
+     * @param budget The maximum estimated size of all cached episodes in bytes.
+     */
+    public CachingEpisodeDAO(Context context, long budget) {
+        cache = new EpisodeCache(budget);
         dao = new SimpleEpisodeDAO(context);
+        dao.addEpisodeChangedListener(forwarder);
+    }
+
+    private static long defaultBudget(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(
+                                 Context.ACTIVITY_SERVICE);
+        return am.getMemoryClass() * MEGABYTE / DEFAULT_BUDGET_FRACTION;
+    }
+
+    /**
+     * @return The hit, miss and eviction counters of the episode cache.
+     */
+    public EpisodeCache.Stats getCacheStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * Changes the maximum estimated size of all cached episodes.
+     *
+     * @param budget The new budget in bytes.
+     */
+    public void setCacheBudget(long budget) {
+        cache.setBudget(budget);
     }
 
     @Override
@@ -24,60 +137,213 @@ public class CachingEpisodeDAO implements EpisodeDAO {
             return null;
         }
 
-        synchronized (cache) {
-            cache.put(episode.getId(), episode);
+        return admit(episode);
+    }
+
+    @Override
+    public List<Episode> upsertEpisodes(Podcast podcast, Collection<Episode> episodes) {
+        List<Episode> added = new ArrayList<Episode>();
+        List<Episode> changed = new ArrayList<Episode>();
+        List<Episode> stored = dao.upsertEpisodes(podcast, episodes, added, changed);
+        if (stored == null) {
+            return null;
+        }
+
+        /* Episodes which are already cached keep their identity, they only
+         * receive the updated feed data. */
+
+        List<Episode> ret = new ArrayList<Episode>(stored.size());
+        Map<Episode, Episode> cachedOf = new IdentityHashMap<Episode, Episode>();
+        for (Episode e : stored) {
+            Episode cached = cache.peek(e.getId());
+            if (cached == null) {
+                cached = admit(e);
+            } else {
+                mergeFeedData(cached, e);
+                cache.reweigh(cached);
+                index(cached);
+            }
+            ret.add(cached);
+            cachedOf.put(e, cached);
         }
 
-        return episode;
+        /* Listeners only get to see the cached instances. */
+
+        if (!added.isEmpty()) {
+            List<Episode> addedCached = new ArrayList<Episode>(added.size());
+            for (Episode e : added) {
+                addedCached.add(cachedOf.get(e));
+            }
+            notifyListenersAdded(addedCached);
+        }
+        for (Episode e : changed) {
+            notifyListenersChanged(cachedOf.get(e));
+        }
+
+        return ret;
+    }
+
+    private static void mergeFeedData(Episode cached, Episode e) {
+        cached.setAuthor(e.getAuthor())
+        .setDescription(e.getDescription())
+        .setFileSize(e.getFileSize())
+        .setLink(e.getLink())
+        .setMimetype(e.getMimetype())
+        .setReleased(e.getReleased())
+        .setTitle(e.getTitle())
+        .setUrl(e.getUrl());
+
+        /* The feed data has just been stored, local changes stay pending. */
+
+        cached.markClean(FEED_DATA_FIELDS);
     }
 
     @Override
     public int deleteEpisode(Episode episode) {
-        synchronized (cache) {
-            cache.remove(episode.getId());
-        }
+        cache.remove(episode.getId());
+        unindex(episode);
 
         return dao.deleteEpisode(episode);
     }
 
+    @Override
+    public int deleteEpisodes(Podcast podcast) {
+        Set<Long> ids = dao.deleteEpisodesQuietly(podcast);
+        if (ids == null) {
+            return -1;
+        }
+
+        episodesDeleted(podcast, ids);
+        return ids.size();
+    }
+
+    @Override
+    public Set<Long> deleteEpisodes(SQLiteDatabase db, Podcast podcast) {
+        return dao.deleteEpisodes(db, podcast);
+    }
+
+    /**
+     * Drops the deleted episodes from the cache and the indexes before the
+     * listeners get to hear of them.
+     */
+    @Override
+    public void episodesDeleted(Podcast podcast, Collection<Long> episodeIds) {
+        long podcastId = podcast.getId();
+        synchronized (indexes) {
+            completePodcasts.remove(podcastId);
+            Set<Long> es = byPodcast.remove(podcastId);
+            if (es != null) {
+                for (Long id : es) {
+                    unindexKeys(id);
+                }
+            }
+            for (Long id : episodeIds) {
+                unindexKeys(id);
+                cache.remove(id);
+            }
+        }
+
+        dao.episodesDeleted(podcast, episodeIds);
+    }
+
     @Override
     public List<Episode> getAllEpisodes() {
         return cacheResults(dao.getAllEpisodes());
     }
 
+    /**
+     * Replaces all episodes of the given list by their cached instance, and
+     * adds those which are not cached yet.
+     */
     private List<Episode> cacheResults(List<Episode> es) {
         if (es == null) {
             return null;
         }
 
-        synchronized (cache) {
-            for (Episode e : es) {
-                if (!cache.containsKey(e.getId())) {
-                    cache.put(e.getId(), e);
-                }
-            }
-
-            return new ArrayList<Episode>(cache.values());
+        List<Episode> ret = new ArrayList<Episode>(es.size());
+        for (Episode e : es) {
+            ret.add(admit(e));
         }
+
+        return ret;
     }
 
     @Override
     public List<Episode> getEpisodes(Podcast podcast) {
-        return cacheResults(dao.getEpisodes(podcast));
+        List<Episode> es = cachedPodcastEpisodes(podcast.getId());
+        if (es != null) {
+            return es;
+        }
+
+        es = cacheResults(dao.getEpisodes(podcast));
+        if (es == null) {
+            return null;
+        }
+
+        synchronized (indexes) {
+            completePodcasts.put(podcast.getId(), Boolean.TRUE);
+        }
+
+        return es;
+    }
+
+    /**
+     * @return The episodes of the given podcast, latest first, or null if
+     *         they are not all available from the cache.
+     */
+    private List<Episode> cachedPodcastEpisodes(long podcastId) {
+        List<Long> ids;
+        synchronized (indexes) {
+            if (completePodcasts.get(podcastId) == null) {
+                return null;
+            }
+
+            Set<Long> es = byPodcast.get(podcastId);
+            ids = (es == null ? new ArrayList<Long>() : new ArrayList<Long>(es));
+        }
+
+        List<Episode> ret = new ArrayList<Episode>(ids.size());
+        for (Long id : ids) {
+            Episode e = cache.get(id);
+            if (e == null) {
+                return null;
+            }
+            ret.add(e);
+        }
+
+        Collections.sort(ret, RELEASED_DESC);
+        return ret;
     }
 
     @Override
     public int update(Episode episode) {
-        return dao.update(episode);
+        int rows = dao.update(episode);
+        refresh(episode);
+        return rows;
     }
 
     @Override
-    public Episode getEpisode(long id) {
-        Episode e;
-        synchronized (cache) {
-            e = cache.get(id);
+    public int update(Collection<Episode> episodes) {
+        int rows = dao.update(episodes);
+        for (Episode e : episodes) {
+            refresh(e);
         }
+        return rows;
+    }
+
+    /**
+     * Updates the weight and the indexes of an episode after it has changed.
+     */
+    private void refresh(Episode episode) {
+        if (cache.peek(episode.getId()) == episode) {
+            cache.reweigh(episode);
+            index(episode);
+        }
+    }
 
+    @Override
+    public Episode getEpisode(long id) {
+        Episode e = cache.get(id);
         if (e != null) {
             return e;
         }
@@ -87,26 +353,80 @@ public class CachingEpisodeDAO implements EpisodeDAO {
             return null;
         }
 
-        synchronized (cache) {
-            cache.put(e.getId(), e);
+        return admit(e);
+    }
+
+    @Override
+    public List<Episode> getEpisodesById(long[] ids) {
+        Episode[] found = new Episode[ids.length];
+        long[] missing = new long[ids.length];
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            found[i] = cache.get(ids[i]);
+            if (found[i] == null) {
+                missing[n++] = ids[i];
+            }
+        }
+
+        LongIdentityMap<Episode> loaded = new LongIdentityMap<Episode>();
+        if (n > 0) {
+            for (Episode e : dao.getEpisodesById(Arrays.copyOf(missing, n))) {
+                loaded.put(e.getId(), admit(e));
+            }
+        }
+
+        List<Episode> ret = new ArrayList<Episode>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            Episode e = (found[i] != null ? found[i] : loaded.get(ids[i]));
+            if (e != null) {
+                ret.add(e);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public List<Episode> query(FilterChain filters, EpisodeSortChoice sortChoice,
+                               boolean ascending, int limit, int offset) {
+        return cacheResults(dao.query(filters, sortChoice, ascending, limit, offset));
+    }
+
+    @Override
+    public List<Episode> getEpisodePage(FilterChain filters, EpisodeSortChoice sortChoice,
+                                        boolean ascending, Episode after, int count) {
+        return cacheResults(dao.getEpisodePage(filters, sortChoice, ascending, after, count));
+    }
+
+    @Override
+    public Episode loadDetails(Episode episode) {
+        if (episode.isDescriptionComplete()) {
+            return episode;
         }
 
-        return e;
+        dao.loadDetails(episode);
+        cache.reweigh(episode);
+        return episode;
+    }
+
+    @Override
+    public List<Long> searchEpisodes(String keyword) {
+        return dao.searchEpisodes(keyword);
     }
 
     @Override
     public Episode getEpisodeByUrlOrGuid(String url, String guid) {
-        synchronized (cache) {
-            for (Episode e : cache.values()) {
-                String otherUrl = e.getUrl();
-                if (otherUrl != null && otherUrl.equals(url)) {
-                    return e;
-                }
+        Long id;
+        synchronized (indexes) {
+            id = (url == null ? null : byUrl.get(url));
+            if (id == null && guid != null) {
+                id = byGuid.get(guid);
+            }
+        }
 
-                String otherGuid = e.getGuid();
-                if (otherGuid != null && otherGuid.equals(guid)) {
-                    return e;
-                }
+        if (id != null) {
+            Episode e = getEpisode(id);
+            if (e != null) {
+                return e;
             }
         }
 
@@ -115,21 +435,140 @@ public class CachingEpisodeDAO implements EpisodeDAO {
             return null;
         }
 
-        synchronized (cache) {
-            cache.put(e.getId(), e);
+        return admit(e);
+    }
+
+    @Override
+    public void pinEpisodes(Object owner, Collection<Episode> episodes) {
+        cache.setPinned(owner, episodes);
+    }
+
+    /**
+     * Adds an episode to the cache and the indexes unless it is cached
+     * already.
+     *
+     * @return The cached instance of the episode.
+     */
+    private Episode admit(Episode episode) {
+        Episode cached = cache.putIfAbsent(episode);
+        if (cached == episode) {
+            index(episode);
+        } else if (episode.isDescriptionComplete() && !cached.isDescriptionComplete()) {
+            /* Only the summary has been cached so far. */
+            cached.completeDescription(episode.getDescription());
+            cache.reweigh(cached);
+        }
+        return cached;
+    }
+
+    /**
+     * (Re)indexes an episode by its current url, guid and podcast.
+     */
+    private void index(Episode episode) {
+        long id = episode.getId();
+        synchronized (indexes) {
+            unindexKeys(id);
+
+            String url = episode.getUrl();
+            if (url != null) {
+                byUrl.put(url, id);
+                urlOf.put(id, url);
+            }
+            String guid = episode.getGuid();
+            if (guid != null) {
+                byGuid.put(guid, id);
+                guidOf.put(id, guid);
+            }
+
+            long podcastId = episode.getPodcast().getId();
+            Set<Long> es = byPodcast.get(podcastId);
+            if (es == null) {
+                es = new HashSet<Long>();
+                byPodcast.put(podcastId, es);
+            }
+            es.add(id);
         }
+    }
+
+    private void unindex(Episode episode) {
+        long id = episode.getId();
+        synchronized (indexes) {
+            unindexKeys(id);
 
-        return e;
+            long podcastId = episode.getPodcast().getId();
+            Set<Long> es = byPodcast.get(podcastId);
+            if (es != null) {
+                es.remove(id);
+                if (es.isEmpty()) {
+                    byPodcast.remove(podcastId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the url and guid the given episode is currently indexed by. Keys
+     * which have since been taken over by another episode are left alone.
+     * Must be called while holding the indexes lock.
+     */
+    private void unindexKeys(long id) {
+        String url = urlOf.remove(id);
+        if (url != null && Long.valueOf(id).equals(byUrl.get(url))) {
+            byUrl.remove(url);
+        }
+        String guid = guidOf.remove(id);
+        if (guid != null && Long.valueOf(id).equals(byGuid.get(guid))) {
+            byGuid.remove(guid);
+        }
+    }
+
+    /**
+     * @return The cached instance of the given episode, or the episode itself
+     *         if it is not cached.
+     */
+    private Episode cachedInstance(Episode episode) {
+        Episode cached = cache.peek(episode.getId());
+        return cached == null ? episode : cached;
     }
 
     @Override
     public void addEpisodeChangedListener(OnEpisodeChangeListener listener) {
-        dao.addEpisodeChangedListener(listener);
+        listeners.add(listener);
     }
 
     @Override
     public void removeEpisodeChangedListener(OnEpisodeChangeListener listener) {
-        dao.removeEpisodeChangedListener(listener);
+        listeners.remove(listener);
+    }
+
+    private void notifyListenersChanged(Episode episode) {
+        for (OnEpisodeChangeListener listener : listeners) {
+            listener.onEpisodeChanged(episode);
+        }
+    }
+
+    private void notifyListenersAdded(Episode episode) {
+        for (OnEpisodeChangeListener listener : listeners) {
+            listener.onEpisodeAdded(episode);
+        }
+    }
+
+    private void notifyListenersAdded(List<Episode> episodes) {
+        for (OnEpisodeChangeListener listener : listeners) {
+            listener.onEpisodesAdded(episodes);
+        }
+    }
+
+    private void notifyListenersDeleted(Episode episode) {
+        for (OnEpisodeChangeListener listener : listeners) {
+            listener.onEpisodeDeleted(episode);
+        }
+    }
+
+    private void notifyListenersDeleted(Podcast podcast, Collection<Long> episodeIds) {
+        for (OnEpisodeChangeListener listener : listeners) {
+            listener.onEpisodesDeleted(podcast, episodeIds);
+        }
     }
 
 }
@@ -9,12 +9,18 @@ import at.ac.tuwien.detlef.domain.Podcast;
 
 public class CachingPodcastDAO implements PodcastDAO {
 
-    private final HashMap<Long, Podcast> cache;
+    /* Lookups by id do not lock, modifications are guarded by indexes. */
+    private final LongIdentityMap<Podcast> cache = new LongIdentityMap<Podcast>();
+    private final Object indexes = new Object();
+    private final HashMap<String, Podcast> byUrl = new HashMap<String, Podcast>();
+
+    /** The url each cached podcast is currently indexed by, guarded by indexes. */
+    private final HashMap<Long, String> indexedUrls = new HashMap<Long, String>();
+
     private final SimplePodcastDAO dao;
 
     public CachingPodcastDAO(Context context) {
         dao = new SimplePodcastDAO(context);
-        cache = new HashMap<Long, Podcast>();
     }
 
     @Override
@@ -23,8 +29,8 @@ public class CachingPodcastDAO implements PodcastDAO {
             return null;
         }
 
-        synchronized (cache) {
-            cache.put(podcast.getId(), podcast);
+        synchronized (indexes) {
+            put(podcast);
         }
 
         return podcast;
@@ -32,11 +38,10 @@ public class CachingPodcastDAO implements PodcastDAO {
 
     @Override
     public Podcast getPodcastByUrl(String url) {
-        synchronized (cache) {
-            for (Podcast p : cache.values()) {
-                if (p.getUrl().equals(url)) {
-                    return p;
-                }
+        synchronized (indexes) {
+            Podcast p = byUrl.get(url);
+            if (p != null) {
+                return p;
             }
         }
 
@@ -45,29 +50,31 @@ public class CachingPodcastDAO implements PodcastDAO {
             return null;
         }
 
-        synchronized (cache) {
-            cache.put(p.getId(), p);
-        }
-
-        return p;
+        return cacheResult(p);
     }
 
     @Override
     public int deletePodcast(Podcast podcast) {
-        synchronized (cache) {
-            cache.remove(podcast.getId());
+        int ret = dao.deletePodcast(podcast);
+        if (ret >= 0) {
+            synchronized (indexes) {
+                remove(podcast.getId());
+            }
         }
-
-        return dao.deletePodcast(podcast);
+        return ret;
     }
 
     @Override
     public int deleteAllPodcasts() {
-        synchronized (cache) {
-            cache.clear();
+        int ret = dao.deleteAllPodcasts();
+        if (ret > 0) {
+            synchronized (indexes) {
+                cache.clear();
+                byUrl.clear();
+                indexedUrls.clear();
+            }
         }
-
-        return dao.deleteAllPodcasts();
+        return ret;
     }
 
     @Override
@@ -77,34 +84,90 @@ public class CachingPodcastDAO implements PodcastDAO {
         return cacheResults(ps);
     }
 
+    /**
+     * Replaces all podcasts of the given list by their cached instance, and
+     * adds those which are not cached yet.
+     */
     private List<Podcast> cacheResults(List<Podcast> ps) {
         if (ps == null) {
             return null;
         }
 
-        synchronized (cache) {
-            for (Podcast p : ps) {
-                if (!cache.containsKey(p.getId())) {
-                    cache.put(p.getId(), p);
-                }
+        List<Podcast> ret = new ArrayList<Podcast>(ps.size());
+        for (Podcast p : ps) {
+            Podcast cached = cache.get(p.getId());
+            ret.add(cached == null ? cacheResult(p) : cached);
+        }
+
+        return ret;
+    }
+
+    private Podcast cacheResult(Podcast p) {
+        synchronized (indexes) {
+            Podcast cached = cache.get(p.getId());
+            if (cached != null) {
+                return cached;
             }
 
-            return new ArrayList<Podcast>(cache.values());
+            put(p);
+            return p;
+        }
+    }
+
+    /**
+     * Adds a podcast to the cache and the url index. Must be called while
+     * holding the indexes lock.
+     */
+    private void put(Podcast podcast) {
+        cache.put(podcast.getId(), podcast);
+        index(podcast);
+    }
+
+    /**
+     * Removes a podcast from the cache and the url index. Must be called while
+     * holding the indexes lock.
+     */
+    private void remove(long id) {
+        Podcast podcast = cache.remove(id);
+        String url = indexedUrls.remove(id);
+        if (url != null && byUrl.get(url) == podcast) {
+            byUrl.remove(url);
+        }
+    }
+
+    /**
+     * (Re)indexes a cached podcast by its current url. Must be called while
+     * holding the indexes lock.
+     */
+    private void index(Podcast podcast) {
+        String oldUrl = indexedUrls.remove(podcast.getId());
+        if (oldUrl != null && byUrl.get(oldUrl) == podcast) {
+            byUrl.remove(oldUrl);
+        }
+
+        String url = podcast.getUrl();
+        if (url != null) {
+            byUrl.put(url, podcast);
+            indexedUrls.put(podcast.getId(), url);
         }
     }
 
     @Override
     public int update(Podcast podcast) {
-        return dao.update(podcast);
+        int rows = dao.update(podcast);
+
+        synchronized (indexes) {
+            if (cache.get(podcast.getId()) == podcast) {
+                index(podcast);
+            }
+        }
+
+        return rows;
     }
 
     @Override
     public Podcast getPodcastById(long podcastId) {
-        Podcast p;
-        synchronized (cache) {
-            p = cache.get(podcastId);
-        }
-
+        Podcast p = cache.get(podcastId);
         if (p != null) {
             return p;
         }
@@ -114,20 +177,19 @@ public class CachingPodcastDAO implements PodcastDAO {
             return null;
         }
 
-        synchronized (cache) {
-            cache.put(p.getId(), p);
-        }
-
-        return p;
+        return cacheResult(p);
     }
 
     @Override
     public boolean localDeletePodcast(Podcast podcast) {
-        synchronized (cache) {
-            cache.remove(podcast.getId());
+        if (!dao.localDeletePodcast(podcast)) {
+            return false;
         }
 
-        return dao.localDeletePodcast(podcast);
+        synchronized (indexes) {
+            remove(podcast.getId());
+        }
+        return true;
     }
 
     @Override
@@ -17,7 +17,13 @@
 
 package at.ac.tuwien.detlef.db;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
@@ -29,7 +35,28 @@ import at.ac.tuwien.detlef.settings.GpodderSettings;
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
-    static final int VERSION = 15;
+    private static final String TAG = DatabaseHelper.class.getName();
+
+    /** The schema version; see {@link Migrations} for how to change it. */
+    static final int VERSION = 21;
+
+    /*
+     * Connection tuning, see configure(). The page cache holds 2000 pages of
+     * the primary (writing) connection, and up to 8 MiB of the database file
+     * are memory mapped on platforms whose SQLite supports it (older versions
+     * ignore the pragma).
+     */
+    private static final int CACHE_SIZE_PAGES = 2000;
+    private static final long MMAP_SIZE = 8L * 1024L * 1024L;
+
+    /*
+     * Commits only checkpoint the write-ahead log once it has grown to this
+     * many pages, so that a feed refresh does not stall on checkpoints in
+     * between its transactions. The log is checkpointed as soon as the
+     * database has been idle for a while instead.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+    static final long IDLE_CHECKPOINT_DELAY = 10 * 1000;
 
     public static final String DB_NAME = "detlefDB";
 
@@ -85,6 +112,22 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_PLAYLIST_EPISODE = "episode";
     public static final String COLUMN_PLAYLIST_POSITION = "position";
 
+    /**
+     * Playlist positions are sparse ordering keys, spaced this far apart when
+     * they are (re)assigned. Items are inserted and moved by picking a key in
+     * between their new neighbours.
+     */
+    public static final long PLAYLIST_POSITION_GAP = 1L << 16;
+
+    /*
+     * Full text index of the episode titles and descriptions, one row per
+     * episode with the episode id as docid. The text is indexed without its
+     * HTML markup, see EpisodeSearchIndex.
+     */
+    public static final String TABLE_EPISODE_SEARCH = "Episode_search";
+    public static final String COLUMN_EPISODE_SEARCH_TITLE = "title";
+    public static final String COLUMN_EPISODE_SEARCH_DESCRIPTION = "description";
+
     /*
      * Locally deleted Podcasts These are still on the gpodder service but have
      * been removed locally.
@@ -99,7 +142,21 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String TABLE_PODCAST_LOCAL_ADD = "Podcast_local_add";
     public static final String COLUMN_PODCAST_ADD_ID = "_ID";
 
+    /*
+     * Files waiting to be deleted from the device. Database deletes only
+     * record the paths of their files here, FileDeletionQueue removes the
+     * files in the background.
+     */
+    public static final String TABLE_PENDING_FILE_DELETION = "Pending_file_deletion";
+    public static final String COLUMN_PENDING_FILE_DELETION_ID = "_ID";
+    public static final String COLUMN_PENDING_FILE_DELETION_PATH = "path";
+
     public static final String EPISODE_RELEASED_INDEX = "Episode_Released_Index";
+    public static final String EPISODE_GUID_INDEX = "Episode_Guid_Index";
+    public static final String EPISODE_URL_INDEX = "Episode_Url_Index";
+    public static final String EPISODE_FILEPATH_INDEX = "Episode_Filepath_Index";
+    public static final String PLAYLIST_POSITION_INDEX = "Playlist_Position_Index";
+    public static final String EPISODE_SEARCH_DELETE_TRIGGER = "Episode_Search_Delete";
 
     /* Create statement for the podcast table. */
     static final String CREATE_PODCAST_TABLE =
@@ -198,12 +255,82 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                       TABLE_PODCAST_LOCAL_ADD, COLUMN_PODCAST_ADD_ID, COLUMN_PODCAST_ADD_ID,
                       TABLE_PODCAST, COLUMN_PODCAST_ID);
 
+    /* Create statement for the pending file deletion table. */
+    static final String CREATE_PENDING_FILE_DELETION_TABLE =
+        String.format("create table if not exists %s ("
+                      + "%s integer primary key autoincrement, "
+                      + "%s text not null unique);",
+                      TABLE_PENDING_FILE_DELETION, COLUMN_PENDING_FILE_DELETION_ID,
+                      COLUMN_PENDING_FILE_DELETION_PATH);
+
     /* index on episode released column needed for sorting */
     static final String CREATE_EPISODE_RELEASED_INDEX =
         String.format("create index %s ON %s "
                       + "( %s DESC );",
                       EPISODE_RELEASED_INDEX, TABLE_EPISODE, COLUMN_EPISODE_RELEASED);
 
+    /*
+     * unique index on episode guid and podcast, used to find already known
+     * episodes during feed refreshes. guid comes first so that lookups by guid
+     * alone can use it as well.
+     */
+    static final String CREATE_EPISODE_GUID_INDEX =
+        String.format("create unique index %s ON %s "
+                      + "( %s, %s );",
+                      EPISODE_GUID_INDEX, TABLE_EPISODE, COLUMN_EPISODE_GUID,
+                      COLUMN_EPISODE_PODCAST);
+
+    /* index on episode url needed for episode action lookups */
+    static final String CREATE_EPISODE_URL_INDEX =
+        String.format("create index %s ON %s "
+                      + "( %s );",
+                      EPISODE_URL_INDEX, TABLE_EPISODE, COLUMN_EPISODE_URL);
+
+    /*
+     * index on episode file path, used to check whether a file pending
+     * deletion is referenced again
+     */
+    static final String CREATE_EPISODE_FILEPATH_INDEX =
+        String.format("create index %s ON %s "
+                      + "( %s );",
+                      EPISODE_FILEPATH_INDEX, TABLE_EPISODE, COLUMN_EPISODE_FILEPATH);
+
+    private final Runnable checkpointTask = new Runnable() {
+        @Override
+        public void run() {
+            checkpoint();
+        }
+    };
+
+    /* Compiled statements of the most frequent writes, see StatementCache. */
+    private final StatementCache statements = new StatementCache();
+
+    /* Guarded by this. */
+    private ScheduledExecutorService checkpointExecutor;
+    private ScheduledFuture<?> pendingCheckpoint;
+
+    /* index on the playlist ordering keys */
+    static final String CREATE_PLAYLIST_POSITION_INDEX =
+        String.format("create index %s ON %s "
+                      + "( %s );",
+                      PLAYLIST_POSITION_INDEX, TABLE_PLAYLIST, COLUMN_PLAYLIST_POSITION);
+
+    /* full text index of the episodes */
+    static final String CREATE_EPISODE_SEARCH_TABLE =
+        String.format("create virtual table %s using fts4 (%s, %s);",
+                      TABLE_EPISODE_SEARCH, COLUMN_EPISODE_SEARCH_TITLE,
+                      COLUMN_EPISODE_SEARCH_DESCRIPTION);
+
+    /*
+     * Deleted episodes leave the search index through a trigger, which also
+     * covers episodes deleted along with their podcast.
+     */
+    static final String CREATE_EPISODE_SEARCH_DELETE_TRIGGER =
+        String.format("create trigger %s after delete on %s "
+                      + "begin delete from %s where docid = old.%s; end;",
+                      EPISODE_SEARCH_DELETE_TRIGGER, TABLE_EPISODE, TABLE_EPISODE_SEARCH,
+                      COLUMN_EPISODE_ID);
+
     public DatabaseHelper(Context context) {
         super(context, DB_NAME, null, VERSION);
     }
@@ -218,7 +345,28 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(CREATE_PLAYLIST_TABLE);
         db.execSQL(CREATE_PODCAST_LOCAL_DEL_TABLE);
         db.execSQL(CREATE_PODCAST_LOCAL_ADD_TABLE);
+        db.execSQL(CREATE_PENDING_FILE_DELETION_TABLE);
         db.execSQL(CREATE_EPISODE_RELEASED_INDEX);
+        db.execSQL(CREATE_EPISODE_GUID_INDEX);
+        db.execSQL(CREATE_EPISODE_URL_INDEX);
+        db.execSQL(CREATE_EPISODE_FILEPATH_INDEX);
+        db.execSQL(CREATE_PLAYLIST_POSITION_INDEX);
+        db.execSQL(CREATE_EPISODE_SEARCH_TABLE);
+        db.execSQL(CREATE_EPISODE_SEARCH_DELETE_TRIGGER);
+    }
+
+    /**
+     * @return The pool of compiled statements for the database of this
+     *         helper.
+     */
+    StatementCache getStatementCache() {
+        return statements;
+    }
+
+    @Override
+    public synchronized void close() {
+        statements.clear();
+        super.close();
     }
 
     @Override
@@ -227,25 +375,100 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         if (!db.isReadOnly()) {
             // enable foreign key constraints
             db.execSQL("PRAGMA foreign_keys=ON;");
+            configure(db);
+        }
+    }
+
+    /**
+     * Switches the database to write-ahead logging, which lets the platform
+     * serve reads from a pool of connections while a write transaction (e.g.
+     * a feed refresh) is running, and tunes the connection. With WAL,
+     * synchronous=NORMAL is still safe: a crash may lose the latest commits,
+     * but never corrupts the database.
+     */
+    static void configure(SQLiteDatabase db) {
+        if (!db.enableWriteAheadLogging()) {
+            Log.w(TAG, "Write-ahead logging is not available");
+        }
+
+        /* Switching to WAL resets the synchronous mode of the primary
+         * connection to the platform's default for WAL, so the pragmas must
+         * follow it. They are per connection and only reach the primary
+         * connection, which does all the writing. */
+
+        pragma(db, "PRAGMA synchronous=NORMAL");
+        pragma(db, "PRAGMA cache_size=" + CACHE_SIZE_PAGES);
+        pragma(db, "PRAGMA mmap_size=" + MMAP_SIZE);
+        pragma(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * Runs a pragma. Some pragmas return their new value, which execSQL
+     * refuses to handle, so they are run as a query.
+     */
+    private static void pragma(SQLiteDatabase db, String sql) {
+        Cursor c = db.rawQuery(sql, null);
+        try {
+            c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Asks for the write-ahead log to be checkpointed once no further request
+     * has been made for {@link #IDLE_CHECKPOINT_DELAY} milliseconds. Writers
+     * call this after each (larger) write transaction.
+     */
+    public synchronized void requestIdleCheckpoint() {
+        if (checkpointExecutor == null) {
+            checkpointExecutor = Executors.newSingleThreadScheduledExecutor();
+        }
+        if (pendingCheckpoint != null) {
+            pendingCheckpoint.cancel(false);
+        }
+        pendingCheckpoint = checkpointExecutor.schedule(checkpointTask,
+                            IDLE_CHECKPOINT_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Copies the contents of the write-ahead log into the database, as far as
+     * this is possible without waiting for readers.
+     */
+    void checkpoint() {
+        synchronized (this) {
+            pendingCheckpoint = null;
+        }
+
+        try {
+            pragma(getWritableDatabase(), "PRAGMA wal_checkpoint");
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
         }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion < 15) {
-            db.execSQL("DROP INDEX IF EXISTS " + EPISODE_RELEASED_INDEX);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_PODCAST_LOCAL_DEL);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_PODCAST_LOCAL_ADD);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_PLAYLIST);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_EPISODE_PLAY_ACTION);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_EPISODE_ACTION);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_EPISODE);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_PODCAST);
-
-            GpodderSettings settings = Singletons.i().getGpodderSettings();
-            settings.setLastUpdate(0);
-            Singletons.i().getGpodderSettingsDAO().writeSettings(settings);
-            onCreate(db);
+        if (oldVersion >= Migrations.OLDEST_MIGRATABLE_VERSION) {
+            Migrations.migrate(db, oldVersion, newVersion);
+            return;
         }
+
+        /* Databases from before the migrations are recreated, and everything
+         * is fetched from the gpodder service again. */
+
+        db.execSQL("DROP INDEX IF EXISTS " + EPISODE_RELEASED_INDEX);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PODCAST_LOCAL_DEL);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PODCAST_LOCAL_ADD);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PLAYLIST);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EPISODE_PLAY_ACTION);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EPISODE_ACTION);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EPISODE);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PODCAST);
+
+        GpodderSettings settings = Singletons.i().getGpodderSettings();
+        settings.setLastUpdate(0);
+        Singletons.i().getGpodderSettingsDAO().writeSettings(settings);
+        onCreate(db);
     }
 }
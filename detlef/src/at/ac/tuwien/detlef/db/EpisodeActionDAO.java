@@ -43,9 +43,20 @@ public interface EpisodeActionDAO {
      */
     List<RemoteEpisodeAction> getAllEpisodeActions();
 
+    /**
+     * Collapses the stored episode actions to the latest action of each kind
+     * per episode, e.g. a single play action holding the last position
+     * instead of one for every seek. This should be called before the actions
+     * are uploaded.
+     *
+     * @return The number of deleted actions, -1 on failure.
+     */
+    int compactEpisodeActions();
+
     /**
      * Deletes all specified episode actions from the database. This should be
-     * called after they were persisted on the gpodder service.
+     * called after they were persisted on the gpodder service. All of them
+     * are deleted in a single transaction.
      *
      * @param episodeActions The episode actions to delete.
      * @return Returns true on success, false otherwise.
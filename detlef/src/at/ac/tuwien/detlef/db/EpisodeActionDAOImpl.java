@@ -20,11 +20,11 @@ package at.ac.tuwien.detlef.db;
 import java.util.LinkedList;
 import java.util.List;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 import at.ac.tuwien.detlef.Singletons;
 import at.ac.tuwien.detlef.domain.DeviceId;
@@ -38,10 +38,26 @@ import at.ac.tuwien.detlef.domain.RemoteEpisodeAction;
 public class EpisodeActionDAOImpl implements EpisodeActionDAO {
     private static final String TAG = SimpleEpisodeDAO.class.getName();
 
+    private static final String INSERT_EPISODE_ACTION = String.format(
+                "INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?)",
+                DatabaseHelper.TABLE_EPISODE_ACTION, DatabaseHelper.COLUMN_EPISODE_ACTION_ACTION,
+                DatabaseHelper.COLUMN_EPISODE_ACTION_EPISODE_ID,
+                DatabaseHelper.COLUMN_EPISODE_ACTION_PODCAST);
+
+    private static final String INSERT_EPISODE_PLAY_ACTION = String.format(
+                "INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, ?, ?)",
+                DatabaseHelper.TABLE_EPISODE_PLAY_ACTION,
+                DatabaseHelper.COLUMN_EPISODE_PLAY_ACTION_ID,
+                DatabaseHelper.COLUMN_EPISODE_PLAY_ACTION_STARTED,
+                DatabaseHelper.COLUMN_EPISODE_PLAY_ACTION_POSITION,
+                DatabaseHelper.COLUMN_EPISODE_PLAY_ACTION_TOTAL);
+
     private final DatabaseHelper dbHelper;
+    private final StatementCache statements;
 
     public EpisodeActionDAOImpl(Context context) {
         dbHelper = Singletons.i().getDatabaseHelper();
+        statements = dbHelper.getStatementCache();
 
         /* Take care of any pending database upgrades. */
 
@@ -57,33 +73,34 @@ public class EpisodeActionDAOImpl implements EpisodeActionDAO {
         SQLiteDatabase db = null;
         try {
             db = dbHelper.getWritableDatabase();
-
-            ContentValues values = new ContentValues();
-            values.put(DatabaseHelper.COLUMN_EPISODE_ACTION_ACTION,
-                       episodeAction.getActionString());
-            values.put(DatabaseHelper.COLUMN_EPISODE_ACTION_EPISODE_ID,
-                       episodeAction.getEpisode());
-            values.put(DatabaseHelper.COLUMN_EPISODE_ACTION_PODCAST, episodeAction.getPodcast()
-                       .getId());
-
             db.beginTransaction();
 
-            long id = db.insert(DatabaseHelper.TABLE_EPISODE_ACTION, null, values);
+            long id;
+            SQLiteStatement insert = statements.acquire(db, INSERT_EPISODE_ACTION);
+            try {
+                bindString(insert, 1, episodeAction.getActionString());
+                bindString(insert, 2, episodeAction.getEpisode());
+                insert.bindLong(3, episodeAction.getPodcast().getId());
+                id = insert.executeInsert();
+            } finally {
+                statements.release(db, INSERT_EPISODE_ACTION, insert);
+            }
             if (id == -1) {
                 throw new SQLiteException("Episode action insert failed");
             }
 
             if (episodeAction.getAction() == Episode.ActionState.PLAY) {
-                values = new ContentValues();
-                values.put(DatabaseHelper.COLUMN_EPISODE_PLAY_ACTION_ID, id);
-                values.put(DatabaseHelper.COLUMN_EPISODE_PLAY_ACTION_STARTED,
-                           episodeAction.getStarted());
-                values.put(DatabaseHelper.COLUMN_EPISODE_PLAY_ACTION_POSITION,
-                           episodeAction.getPosition());
-                values.put(DatabaseHelper.COLUMN_EPISODE_PLAY_ACTION_TOTAL,
-                           episodeAction.getTotal());
-
-                if (db.insert(DatabaseHelper.TABLE_EPISODE_PLAY_ACTION, null, values) == -1) {
+                insert = statements.acquire(db, INSERT_EPISODE_PLAY_ACTION);
+                try {
+                    insert.bindLong(1, id);
+                    bindInteger(insert, 2, episodeAction.getStarted());
+                    bindInteger(insert, 3, episodeAction.getPosition());
+                    bindInteger(insert, 4, episodeAction.getTotal());
+                    id = insert.executeInsert();
+                } finally {
+                    statements.release(db, INSERT_EPISODE_PLAY_ACTION, insert);
+                }
+                if (id == -1) {
                     throw new SQLiteException("Episode play action insert failed");
                 }
             }
@@ -101,6 +118,22 @@ public class EpisodeActionDAOImpl implements EpisodeActionDAO {
         return true;
     }
 
+    private static void bindString(SQLiteStatement stmt, int index, String value) {
+        if (value == null) {
+            stmt.bindNull(index);
+        } else {
+            stmt.bindString(index, value);
+        }
+    }
+
+    private static void bindInteger(SQLiteStatement stmt, int index, Integer value) {
+        if (value == null) {
+            stmt.bindNull(index);
+        } else {
+            stmt.bindLong(index, value);
+        }
+    }
+
     private static final String QUERY_ALL_EPISODE_ACTIONS = String.format("select "
             + "ea.%s, "
             + "p.%s, "
@@ -165,25 +198,85 @@ public class EpisodeActionDAOImpl implements EpisodeActionDAO {
         return episodeActions;
     }
 
+    /**
+     * Deletes all actions which are superseded by a later action of the same
+     * kind on the same episode. Play actions record the position reached, so
+     * only the latest one is of interest; repeated downloads and deletes are
+     * not either.
+     */
+    private static final String COMPACT_EPISODE_ACTIONS = String.format(
+                "delete from %s where %s not in (select max(%s) from %s group by %s, %s, %s);",
+                DatabaseHelper.TABLE_EPISODE_ACTION, DatabaseHelper.COLUMN_EPISODE_ACTION_ID,
+                DatabaseHelper.COLUMN_EPISODE_ACTION_ID, DatabaseHelper.TABLE_EPISODE_ACTION,
+                DatabaseHelper.COLUMN_EPISODE_ACTION_PODCAST,
+                DatabaseHelper.COLUMN_EPISODE_ACTION_EPISODE_ID,
+                DatabaseHelper.COLUMN_EPISODE_ACTION_ACTION);
+
+    /** The maximum number of ids deleted by a single statement. */
+    private static final int FLUSH_CHUNK_SIZE = 500;
+
+    @Override
+    public int compactEpisodeActions() {
+        SQLiteDatabase db = null;
+        int ret;
+        try {
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+
+            /* Play actions go with their action through the foreign key. */
+
+            SQLiteStatement stmt = db.compileStatement(COMPACT_EPISODE_ACTIONS);
+            try {
+                ret = stmt.executeUpdateDelete();
+            } finally {
+                stmt.close();
+            }
+
+            db.setTransactionSuccessful();
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return -1;
+        } finally {
+            if ((db != null) && db.isOpen()) {
+                db.endTransaction();
+            }
+        }
+
+        return ret;
+    }
+
     @Override
     public boolean flushEpisodeActions(List<RemoteEpisodeAction> episodeActions) {
         SQLiteDatabase db = null;
 
         try {
             db = dbHelper.getWritableDatabase();
-            String selection = DatabaseHelper.COLUMN_EPISODE_ACTION_ID + " = ?";
+            db.beginTransaction();
 
-            for (RemoteEpisodeAction a : episodeActions) {
-                String[] selectionArgs = {
-                    String.valueOf(a.getId())
-                };
+            for (int from = 0; from < episodeActions.size(); from += FLUSH_CHUNK_SIZE) {
+                List<RemoteEpisodeAction> chunk = episodeActions.subList(from,
+                                                  Math.min(from + FLUSH_CHUNK_SIZE,
+                                                           episodeActions.size()));
+                StringBuilder in = new StringBuilder();
+                for (RemoteEpisodeAction a : chunk) {
+                    if (in.length() > 0) {
+                        in.append(',');
+                    }
+                    in.append(a.getId());
+                }
 
-                db.delete(DatabaseHelper.TABLE_EPISODE_ACTION, selection, selectionArgs);
+                db.delete(DatabaseHelper.TABLE_EPISODE_ACTION,
+                          DatabaseHelper.COLUMN_EPISODE_ACTION_ID + " in (" + in + ")", null);
             }
 
+            db.setTransactionSuccessful();
         } catch (Exception ex) {
             Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
             return false;
+        } finally {
+            if ((db != null) && db.isOpen()) {
+                db.endTransaction();
+            }
         }
 
         return true;
@@ -0,0 +1,426 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.ac.tuwien.detlef.domain.Episode;
+
+/**
+ * A size bounded cache of {@link Episode Episodes}.
+ *
+ * <p>The weight of an entry is estimated from the length of its strings (most
+ * notably the description). Once the total weight exceeds the budget, entries
+ * which are not pinned are evicted in CLOCK order, an approximation of least
+ * recently used which does not need to reorder anything on a read. Evicted
+ * episodes are still remembered weakly, so as long as someone else holds on
+ * to an episode, it is handed out again instead of being reloaded as a second
+ * instance.</p>
+ *
+ * <p>All methods are thread safe. Hits are served without locking; misses and
+ * modifications are serialized on the cache.</p>
+ */
+public final class EpisodeCache {
+
+    /** Rough per entry overhead of the episode object and the cache node. */
+    private static final int ENTRY_OVERHEAD = 200;
+
+    /** Rough overhead of a String object besides its characters. */
+    private static final int STRING_OVERHEAD = 40;
+
+    /**
+     * A snapshot of the cache statistics.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+        private final long weight;
+        private final long budget;
+
+        private Stats(long hits, long misses, long evictions, int size, long weight,
+                      long budget) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+            this.weight = weight;
+            this.budget = budget;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return The number of episodes currently held by the cache.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return The estimated size of all held episodes in bytes.
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        public long getBudget() {
+            return budget;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits: %d, misses: %d, evictions: %d, size: %d, weight: %d/%d",
+                                 hits, misses, evictions, size, weight, budget);
+        }
+    }
+
+    private static final class Node {
+        private final Episode episode;
+        private int weight;
+
+        /** Set on every hit, cleared when the clock hand passes by. */
+        private volatile boolean referenced;
+
+        /** The index of this node in the clock. */
+        private int slot;
+
+        private Node(Episode episode) {
+            this.episode = episode;
+            this.weight = weigh(episode);
+        }
+    }
+
+    private static final class EvictedRef extends WeakReference<Episode> {
+        private final long id;
+
+        private EvictedRef(Episode episode, ReferenceQueue<Episode> queue) {
+            super(episode, queue);
+            this.id = episode.getId();
+        }
+    }
+
+    private final LongIdentityMap<Node> nodes = new LongIdentityMap<Node>();
+
+    /* The clock and everything below is guarded by this. */
+    private final ArrayList<Node> clock = new ArrayList<Node>();
+    private int hand;
+
+    private final HashMap<Long, EvictedRef> evicted = new HashMap<Long, EvictedRef>();
+    private final ReferenceQueue<Episode> evictedQueue = new ReferenceQueue<Episode>();
+
+    private final HashMap<Long, Integer> pinCounts = new HashMap<Long, Integer>();
+    private final Map<Object, Set<Long>> pinsByOwner = new IdentityHashMap<Object, Set<Long>>();
+
+    private long budget;
+    private long weight;
+    private long evictions;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param budget The maximum estimated size of all cached episodes in bytes.
+     */
+    public EpisodeCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Looks up an episode and counts the lookup as a hit or miss.
+     *
+     * @return The cached episode with the given id or null.
+     */
+    public Episode get(long id) {
+        Episode e = peek(id);
+        if (e == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return e;
+    }
+
+    /**
+     * Looks up an episode without counting the lookup in the statistics.
+     *
+     * @return The cached episode with the given id or null.
+     */
+    public Episode peek(long id) {
+        Node node = nodes.get(id);
+        if (node != null) {
+            node.referenced = true;
+            return node.episode;
+        }
+
+        synchronized (this) {
+            return lookup(id);
+        }
+    }
+
+    private Episode lookup(long id) {
+        Node node = nodes.get(id);
+        if (node != null) {
+            node.referenced = true;
+            return node.episode;
+        }
+
+        /* Still alive somewhere else? Then take it back in. */
+
+        EvictedRef ref = evicted.remove(id);
+        Episode e = (ref == null ? null : ref.get());
+        if (e != null) {
+            admit(e);
+        }
+        return e;
+    }
+
+    /**
+     * Adds an episode to the cache unless an episode with the same id is
+     * cached already.
+     *
+     * @return The cached instance, which is either the given or the already
+     *         cached episode.
+     */
+    public Episode putIfAbsent(Episode episode) {
+        Node node = nodes.get(episode.getId());
+        if (node != null) {
+            node.referenced = true;
+            return node.episode;
+        }
+
+        synchronized (this) {
+            Episode e = lookup(episode.getId());
+            if (e != null) {
+                return e;
+            }
+
+            admit(episode);
+            return episode;
+        }
+    }
+
+    private void admit(Episode episode) {
+        Node node = new Node(episode);
+        node.slot = clock.size();
+        clock.add(node);
+        nodes.put(episode.getId(), node);
+        weight += node.weight;
+        evict();
+    }
+
+    /**
+     * Takes a node out of the clock by moving the last node into its slot.
+     */
+    private void unlink(Node node) {
+        Node last = clock.remove(clock.size() - 1);
+        if (last != node) {
+            last.slot = node.slot;
+            clock.set(node.slot, last);
+        }
+        if (hand >= clock.size()) {
+            hand = 0;
+        }
+        weight -= node.weight;
+    }
+
+    /**
+     * Removes an episode from the cache, e.g. after it has been deleted.
+     */
+    public synchronized void remove(long id) {
+        Node node = nodes.remove(id);
+        if (node != null) {
+            unlink(node);
+        }
+        evicted.remove(id);
+        expungeEvicted();
+    }
+
+    /**
+     * Updates the weight of an episode after its contents have changed.
+     */
+    public synchronized void reweigh(Episode episode) {
+        Node node = nodes.get(episode.getId());
+        if (node == null || node.episode != episode) {
+            return;
+        }
+
+        int newWeight = weigh(episode);
+        weight += newWeight - node.weight;
+        node.weight = newWeight;
+        evict();
+    }
+
+    /**
+     * Replaces the set of episodes pinned by the given owner. Pinned episodes
+     * are never evicted. Pass an empty collection to release all pins of an
+     * owner.
+     *
+     * @param owner The owner of the pins, e.g. the player or an adapter.
+     * @param episodes The episodes the owner currently needs.
+     */
+    public synchronized void setPinned(Object owner, Collection<Episode> episodes) {
+        Set<Long> ids = new HashSet<Long>();
+        for (Episode e : episodes) {
+            if (e != null) {
+                ids.add(e.getId());
+            }
+        }
+
+        Set<Long> old = pinsByOwner.remove(owner);
+        for (Long id : ids) {
+            if (old == null || !old.contains(id)) {
+                Integer count = pinCounts.get(id);
+                pinCounts.put(id, count == null ? 1 : count + 1);
+            }
+        }
+        if (old != null) {
+            for (Long id : old) {
+                if (!ids.contains(id)) {
+                    unpin(id);
+                }
+            }
+        }
+        if (!ids.isEmpty()) {
+            pinsByOwner.put(owner, ids);
+        }
+
+        /* Pinned episodes must be resident. */
+
+        for (Episode e : episodes) {
+            if (e != null && lookup(e.getId()) == null) {
+                admit(e);
+            }
+        }
+
+        evict();
+    }
+
+    private void unpin(Long id) {
+        Integer count = pinCounts.get(id);
+        if (count == null) {
+            return;
+        }
+        if (count <= 1) {
+            pinCounts.remove(id);
+        } else {
+            pinCounts.put(id, count - 1);
+        }
+    }
+
+    public synchronized boolean isPinned(long id) {
+        return pinCounts.containsKey(id);
+    }
+
+    /**
+     * Changes the budget and evicts episodes if necessary.
+     *
+     * @param budget The maximum estimated size of all cached episodes in bytes.
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), misses.get(), evictions, clock.size(), weight, budget);
+    }
+
+    /**
+     * Evicts unpinned episodes which have not been used since the clock hand
+     * last passed them, until the weight fits into the budget again.
+     */
+    private void evict() {
+        expungeEvicted();
+
+        /* Two full turns clear all reference bits; if nothing could be evicted
+         * by then, everything left is pinned. */
+
+        int unsuccessfulSteps = 0;
+        while (weight > budget && !clock.isEmpty() && unsuccessfulSteps < 2 * clock.size()) {
+            Node node = clock.get(hand);
+            long id = node.episode.getId();
+            if (pinCounts.containsKey(id)) {
+                hand = (hand + 1) % clock.size();
+                unsuccessfulSteps++;
+            } else if (node.referenced) {
+                node.referenced = false;
+                hand = (hand + 1) % clock.size();
+                unsuccessfulSteps++;
+            } else {
+                nodes.remove(id);
+                unlink(node);
+                evictions++;
+                evicted.put(id, new EvictedRef(node.episode, evictedQueue));
+                unsuccessfulSteps = 0;
+            }
+        }
+    }
+
+    /**
+     * Forgets evicted episodes which have been garbage collected in the
+     * meantime.
+     */
+    private void expungeEvicted() {
+        EvictedRef ref;
+        while ((ref = (EvictedRef) evictedQueue.poll()) != null) {
+            if (evicted.get(ref.id) == ref) {
+                evicted.remove(ref.id);
+            }
+        }
+    }
+
+    /**
+     * @return The estimated heap size of an episode in bytes.
+     */
+    static int weigh(Episode e) {
+        return ENTRY_OVERHEAD
+               + weigh(e.getTitle())
+               + weigh(e.getDescription())
+               + weigh(e.getAuthor())
+               + weigh(e.getUrl())
+               + weigh(e.getGuid())
+               + weigh(e.getLink())
+               + weigh(e.getMimetype())
+               + weigh(e.getFilePath());
+    }
+
+    private static int weigh(String s) {
+        return (s == null ? 0 : STRING_OVERHEAD + 2 * s.length());
+    }
+}
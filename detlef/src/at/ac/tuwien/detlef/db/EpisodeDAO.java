@@ -18,10 +18,13 @@
 
 package at.ac.tuwien.detlef.db;
 
+import java.util.Collection;
 import java.util.List;
 
 import at.ac.tuwien.detlef.domain.Episode;
+import at.ac.tuwien.detlef.domain.EpisodeSortChoice;
 import at.ac.tuwien.detlef.domain.Podcast;
+import at.ac.tuwien.detlef.filter.FilterChain;
 
 /**
  * DAO for episode access.
@@ -35,6 +38,26 @@ public interface EpisodeDAO {
         void onEpisodeChanged(Episode episode);
         void onEpisodeAdded(Episode episode);
         void onEpisodeDeleted(Episode episode);
+
+        /**
+         * Called once after a batch of episodes has been added by
+         * {@link EpisodeDAO#upsertEpisodes(Podcast, Collection)}. No
+         * {@link #onEpisodeAdded(Episode)} calls are made for these episodes.
+         *
+         * @param episodes The episodes which have been added.
+         */
+        void onEpisodesAdded(List<Episode> episodes);
+
+        /**
+         * Called once after all episodes of a podcast have been deleted by
+         * {@link EpisodeDAO#deleteEpisodes(Podcast)}. No
+         * {@link #onEpisodeDeleted(Episode)} calls are made for these
+         * episodes.
+         *
+         * @param podcast The podcast whose episodes have been deleted.
+         * @param episodeIds The ids of the deleted episodes.
+         */
+        void onEpisodesDeleted(Podcast podcast, Collection<Long> episodeIds);
     }
 
     /**
@@ -46,6 +69,24 @@ public interface EpisodeDAO {
      */
     Episode insertEpisode(Episode episode);
 
+    /**
+     * Stores a batch of episodes belonging to the given podcast, e.g. the
+     * contents of a feed update. Episodes which are already stored (same guid,
+     * or same url if there is no guid) only get their feed data updated; their
+     * local state (file path, storage state, play position, action state) is
+     * kept and copied into the returned episode. The whole batch is written in
+     * a single transaction and listeners are notified once via
+     * {@link OnEpisodeChangeListener#onEpisodesAdded(List)} about the newly
+     * added episodes.
+     *
+     * @param podcast
+     *            : the podcast all of the episodes belong to
+     * @param episodes
+     *            : the episodes which should be saved into the database
+     * @return returns the stored episodes, null if the transaction failed
+     */
+    List<Episode> upsertEpisodes(Podcast podcast, Collection<Episode> episodes);
+
     /**
      * deletes an episode from the database.
      *
@@ -57,6 +98,20 @@ public interface EpisodeDAO {
      */
     int deleteEpisode(Episode episode);
 
+    /**
+     * Deletes all episodes of the given podcast together with their playlist
+     * entries in a single transaction, without loading the episodes first.
+     * Active downloads of the episodes are cancelled and downloaded files are
+     * removed in the background. Listeners are notified once via
+     * {@link OnEpisodeChangeListener#onEpisodesDeleted(Podcast, Collection)}.
+     *
+     * @param podcast
+     *            : the podcast whose episodes should be deleted
+     * @return returns the number of deleted episodes, -1 if the transaction
+     *         failed
+     */
+    int deleteEpisodes(Podcast podcast);
+
     /**
      * delivers all episodes which are stored in the database.
      *
@@ -74,13 +129,24 @@ public interface EpisodeDAO {
     List<Episode> getEpisodes(Podcast podcast);
 
     /**
-     * Updates the the given episode.
+     * Updates the the given episode. Only the fields which have been changed
+     * since the episode was last stored are written.
      *
      * @param episode the episode which should be updated
      * @return the number of updated rows
      */
     int update(Episode episode);
 
+    /**
+     * Updates all given episodes in a single transaction. If the transaction
+     * fails, none of the changes are written and they stay pending in the
+     * episodes. The changes of episodes which no longer exist are dropped.
+     *
+     * @param episodes the episodes which should be updated
+     * @return the number of updated rows
+     */
+    int update(Collection<Episode> episodes);
+
     /**
      * Gets an episode by ID.
      *
@@ -90,6 +156,16 @@ public interface EpisodeDAO {
      */
     Episode getEpisode(long id);
 
+    /**
+     * Gets the episodes with the given IDs using a single query.
+     *
+     * @param ids
+     *            The IDs of the episodes to fetch, duplicates are allowed.
+     * @return The episodes in the order of the given IDs. IDs without an
+     *         episode are skipped.
+     */
+    List<Episode> getEpisodesById(long[] ids);
+
     /**
      * Gets an episode by the given guid or the url (both should be unique).
      *
@@ -101,6 +177,94 @@ public interface EpisodeDAO {
      */
     Episode getEpisodeByUrlOrGuid(String url, String guid);
 
+    /**
+     * Loads the parts of an episode which are left out of the summaries
+     * returned by {@link #query} and {@link #getEpisodePage}, i.e. the full
+     * description. Views showing the details of an episode call this first.
+     *
+     * @param episode
+     *            The episode, which is returned unchanged if it is complete.
+     * @return The given episode.
+     */
+    Episode loadDetails(Episode episode);
+
+    /**
+     * Searches the titles and descriptions of all episodes. An episode matches
+     * if it contains every term of the keyword, each of them as a word or the
+     * beginning of a word, regardless of case and HTML markup.
+     *
+     * @param keyword
+     *            The search terms, separated by whitespace or punctuation.
+     * @return The IDs of the matching episodes, those with all terms in their
+     *         title first and latest first otherwise.
+     */
+    List<Long> searchEpisodes(String keyword);
+
+    /**
+     * Gets a page of the episodes which pass the given filters, in the order
+     * of {@link #query}. A page starts right after the last episode of the
+     * previous one rather than at an offset, so that getting a page takes the
+     * same time no matter how far into the list it is. The episodes are
+     * loaded as summaries, see {@link #loadDetails(Episode)}.
+     *
+     * @param filters
+     *            The filters to apply.
+     * @param sortChoice
+     *            The sort order, ignored when searching for a keyword.
+     * @param ascending
+     *            Whether to sort in ascending order.
+     * @param after
+     *            The last episode of the previous page, or null to get the
+     *            first page.
+     * @param count
+     *            The size of the page.
+     * @return The episodes of the page. Only the last page has less than
+     *         count episodes.
+     */
+    List<Episode> getEpisodePage(FilterChain filters, EpisodeSortChoice sortChoice,
+                                 boolean ascending, Episode after, int count);
+
+    /** The limit for {@link #query} to get all matching episodes. */
+    int NO_LIMIT = -1;
+
+    /**
+     * Gets the episodes which pass the given filters, in the given order.
+     * Filters which can be expressed in SQL are evaluated by the database,
+     * all others in memory. The episodes are loaded as summaries, see
+     * {@link #loadDetails(Episode)}. If the filters contain a
+     * {@link at.ac.tuwien.detlef.filter.KeywordFilter}, the episodes are
+     * ordered best matches first as by {@link #searchEpisodes(String)},
+     * regardless of the sort choice.
+     *
+     * @param filters
+     *            The filters to apply.
+     * @param sortChoice
+     *            The order of the episodes. Ties are broken by the episode ID.
+     * @param ascending
+     *            Whether to sort ascending or descending.
+     * @param limit
+     *            The maximum number of episodes to return, or
+     *            {@link #NO_LIMIT} for all of them.
+     * @param offset
+     *            The number of matching episodes to skip.
+     * @return The matching episodes.
+     */
+    List<Episode> query(FilterChain filters, EpisodeSortChoice sortChoice, boolean ascending,
+                        int limit, int offset);
+
+    /**
+     * Tells the DAO which episodes the given owner currently works with, e.g.
+     * the playlist, the episode which is being played or the rows visible in a
+     * list. Caching implementations must not evict these episodes. Each call
+     * replaces the previous set of the owner.
+     *
+     * @param owner
+     *            the object holding on to the episodes
+     * @param episodes
+     *            the episodes in use, an empty collection releases them all
+     */
+    void pinEpisodes(Object owner, Collection<Episode> episodes);
+
     void addEpisodeChangedListener(EpisodeDAO.OnEpisodeChangeListener listener);
 
     void removeEpisodeChangedListener(EpisodeDAO.OnEpisodeChangeListener listener);
@@ -0,0 +1,100 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.Collections;
+import java.util.List;
+
+import android.util.Log;
+import at.ac.tuwien.detlef.domain.Episode;
+import at.ac.tuwien.detlef.domain.EpisodeSortChoice;
+import at.ac.tuwien.detlef.filter.FilterChain;
+
+/**
+ * Loads the episodes passing a filter chain page by page, see
+ * {@link EpisodeDAO#getEpisodePage}. Pages may be loaded
+ * from any thread.
+ */
+public class EpisodePager {
+
+    private static final String TAG = EpisodePager.class.getName();
+
+    private final EpisodeDAO dao;
+    private final FilterChain filters;
+    private final EpisodeSortChoice sortChoice;
+    private final boolean ascending;
+    private final int pageSize;
+
+    /* Guarded by this. */
+    private Episode last = null;
+    private boolean exhausted = false;
+
+    /**
+     * @param filters The filters to apply. They are copied, so that changes
+     *            to the chain do not affect pages still being loaded.
+     */
+    public EpisodePager(EpisodeDAO dao, FilterChain filters, EpisodeSortChoice sortChoice,
+                        boolean ascending, int pageSize) {
+        this.dao = dao;
+        this.filters = new FilterChain(filters);
+        this.sortChoice = sortChoice;
+        this.ascending = ascending;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return The episodes following those of the previous call, or an empty
+     *         list once all have been loaded.
+     */
+    public synchronized List<Episode> nextPage() {
+        if (exhausted) {
+            return Collections.emptyList();
+        }
+
+        List<Episode> page;
+        try {
+            page = dao.getEpisodePage(filters, sortChoice, ascending, last, pageSize);
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            exhausted = true;
+            return Collections.emptyList();
+        }
+
+        if (page.size() < pageSize) {
+            exhausted = true;
+        }
+        if (!page.isEmpty()) {
+            last = page.get(page.size() - 1);
+        }
+        return page;
+    }
+
+    /**
+     * @return A new pager for the same episodes, starting at the first page.
+     */
+    public EpisodePager restart() {
+        return new EpisodePager(dao, filters, sortChoice, ascending, pageSize);
+    }
+
+    /**
+     * @return Whether all pages have been loaded.
+     */
+    public synchronized boolean isExhausted() {
+        return exhausted;
+    }
+}
@@ -0,0 +1,174 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.database.Cursor;
+import at.ac.tuwien.detlef.domain.Episode;
+import at.ac.tuwien.detlef.domain.Episode.ActionState;
+import at.ac.tuwien.detlef.domain.Episode.StorageState;
+import at.ac.tuwien.detlef.domain.Podcast;
+
+/**
+ * Turns the rows of an episode query into {@link Episode episodes}. The
+ * column indexes are looked up once per query, and each podcast once per
+ * query rather than once per row.
+ */
+final class EpisodeRowMapper {
+
+    /** Episodes loaded for list views only get this many characters of their description. */
+    static final int DESCRIPTION_EXCERPT_LENGTH = 500;
+
+    private static final String COLUMN_DESCRIPTION_EXCERPT = "descriptionExcerpt";
+
+    /** All columns of an episode. */
+    static final String[] FULL_PROJECTION = {
+        DatabaseHelper.COLUMN_EPISODE_AUTHOR,
+        DatabaseHelper.COLUMN_EPISODE_DESCRIPTION,
+        DatabaseHelper.COLUMN_EPISODE_FILESIZE,
+        DatabaseHelper.COLUMN_EPISODE_GUID,
+        DatabaseHelper.COLUMN_EPISODE_ID,
+        DatabaseHelper.COLUMN_EPISODE_LINK,
+        DatabaseHelper.COLUMN_EPISODE_MIMETYPE,
+        DatabaseHelper.COLUMN_EPISODE_PODCAST,
+        DatabaseHelper.COLUMN_EPISODE_RELEASED,
+        DatabaseHelper.COLUMN_EPISODE_TITLE,
+        DatabaseHelper.COLUMN_EPISODE_URL,
+        DatabaseHelper.COLUMN_EPISODE_FILEPATH,
+        DatabaseHelper.COLUMN_EPISODE_STATE,
+        DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION,
+        DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE
+    };
+
+    /**
+     * The columns needed by list views: all but the description, of which
+     * only an excerpt is loaded.
+     */
+    static final String[] SUMMARY_PROJECTION = {
+        DatabaseHelper.COLUMN_EPISODE_AUTHOR,
+        String.format("substr(%s, 1, %d) AS %s", DatabaseHelper.COLUMN_EPISODE_DESCRIPTION,
+                      DESCRIPTION_EXCERPT_LENGTH, COLUMN_DESCRIPTION_EXCERPT),
+        DatabaseHelper.COLUMN_EPISODE_FILESIZE,
+        DatabaseHelper.COLUMN_EPISODE_GUID,
+        DatabaseHelper.COLUMN_EPISODE_ID,
+        DatabaseHelper.COLUMN_EPISODE_LINK,
+        DatabaseHelper.COLUMN_EPISODE_MIMETYPE,
+        DatabaseHelper.COLUMN_EPISODE_PODCAST,
+        DatabaseHelper.COLUMN_EPISODE_RELEASED,
+        DatabaseHelper.COLUMN_EPISODE_TITLE,
+        DatabaseHelper.COLUMN_EPISODE_URL,
+        DatabaseHelper.COLUMN_EPISODE_FILEPATH,
+        DatabaseHelper.COLUMN_EPISODE_STATE,
+        DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION,
+        DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE
+    };
+
+    private final PodcastDAO podcastDAO;
+    private final Map<Long, Podcast> podcasts = new HashMap<Long, Podcast>();
+
+    private final int author;
+    private final int description;
+    private final int descriptionExcerpt;
+    private final int fileSize;
+    private final int guid;
+    private final int id;
+    private final int link;
+    private final int mimetype;
+    private final int podcast;
+    private final int released;
+    private final int title;
+    private final int url;
+    private final int filePath;
+    private final int state;
+    private final int playPosition;
+    private final int actionState;
+
+    /**
+     * @param c A cursor over one of the projections of this class.
+     */
+    EpisodeRowMapper(Cursor c, PodcastDAO podcastDAO) {
+        this.podcastDAO = podcastDAO;
+
+        author = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_AUTHOR);
+        description = c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_DESCRIPTION);
+        descriptionExcerpt = c.getColumnIndex(COLUMN_DESCRIPTION_EXCERPT);
+        fileSize = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_FILESIZE);
+        guid = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_GUID);
+        id = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_ID);
+        link = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_LINK);
+        mimetype = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_MIMETYPE);
+        podcast = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_PODCAST);
+        released = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_RELEASED);
+        title = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_TITLE);
+        url = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_URL);
+        filePath = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_FILEPATH);
+        state = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_STATE);
+        playPosition = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION);
+        actionState = c.getColumnIndexOrThrow(DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE);
+    }
+
+    /**
+     * @return The episode of the current row of the cursor.
+     */
+    Episode map(Cursor c) {
+        Episode e = new Episode(getPodcast(c.getLong(podcast)));
+        e.setAuthor(c.getString(author));
+        if (description != -1) {
+            e.setDescription(c.getString(description));
+        } else {
+            String excerpt = c.getString(descriptionExcerpt);
+            if (excerpt == null || excerpt.length() < DESCRIPTION_EXCERPT_LENGTH) {
+                e.setDescription(excerpt);
+            } else {
+                e.setDescriptionExcerpt(excerpt);
+            }
+        }
+        e.setFileSize(c.getLong(fileSize));
+        e.setGuid(c.getString(guid));
+        e.setId(c.getLong(id));
+        e.setLink(c.getString(link));
+        e.setMimetype(c.getString(mimetype));
+        e.setReleased(c.getLong(released));
+        e.setTitle(c.getString(title));
+        e.setUrl(c.getString(url));
+        e.setFilePath(c.getString(filePath));
+        e.setPlayPosition(c.getInt(playPosition));
+        String s = c.getString(state);
+        String aState = c.getString(actionState);
+        if (s != null) {
+            e.setStorageState(StorageState.valueOf(s));
+        }
+        if (aState != null) {
+            e.setActionState(ActionState.valueOf(aState));
+        }
+        e.markClean();
+
+        return e;
+    }
+
+    private Podcast getPodcast(long podcastId) {
+        Podcast p = podcasts.get(podcastId);
+        if (p == null) {
+            p = podcastDAO.getPodcastById(podcastId);
+            podcasts.put(podcastId, p);
+        }
+        return p;
+    }
+}
@@ -0,0 +1,249 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Maintains and queries the full text index of the episode titles and
+ * descriptions. Episodes are added to the index by the episode DAO whenever
+ * their title or description is written, since the markup has to be removed
+ * first; deleted episodes are removed by a trigger.
+ *
+ * <p>The tokenizer of the index only folds the case of ASCII letters, so the
+ * text and the search terms are lower cased here instead; otherwise a search
+ * for "österreich" would not find "Österreich".</p>
+ */
+public final class EpisodeSearchIndex {
+
+    private static final Pattern TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern ENTITY = Pattern.compile("&#?\\w+;");
+
+    private static final String DELETE = String.format(
+            "DELETE FROM %s WHERE docid = ?", DatabaseHelper.TABLE_EPISODE_SEARCH);
+
+    private static final String INSERT = String.format(
+            "INSERT INTO %s (docid, %s, %s) VALUES (?, ?, ?)",
+            DatabaseHelper.TABLE_EPISODE_SEARCH, DatabaseHelper.COLUMN_EPISODE_SEARCH_TITLE,
+            DatabaseHelper.COLUMN_EPISODE_SEARCH_DESCRIPTION);
+
+    /*
+     * Matches of all terms, those with all terms in the title first, latest
+     * first otherwise.
+     */
+    private static final String SEARCH = String.format(
+            "SELECT s.docid, s.docid IN (SELECT docid FROM %1$s WHERE %1$s MATCH ?) AS t "
+            + "FROM %1$s s JOIN %2$s e ON e.%3$s = s.docid WHERE %1$s MATCH ? "
+            + "ORDER BY t DESC, e.%4$s DESC",
+            DatabaseHelper.TABLE_EPISODE_SEARCH, DatabaseHelper.TABLE_EPISODE,
+            DatabaseHelper.COLUMN_EPISODE_ID, DatabaseHelper.COLUMN_EPISODE_RELEASED);
+
+    private final SQLiteStatement delete;
+    private final SQLiteStatement insert;
+
+    /**
+     * Compiles the statements used to index episodes. They must be released by
+     * {@link #close()}.
+     */
+    EpisodeSearchIndex(SQLiteDatabase db) {
+        delete = db.compileStatement(DELETE);
+        insert = db.compileStatement(INSERT);
+    }
+
+    /**
+     * (Re)indexes an episode.
+     */
+    void index(long id, String title, String description) {
+        delete.bindLong(1, id);
+        delete.execute();
+
+        insert.bindLong(1, id);
+        insert.bindString(2, toIndexText(title));
+        insert.bindString(3, toIndexText(description));
+        insert.executeInsert();
+    }
+
+    void close() {
+        delete.close();
+        insert.close();
+    }
+
+    /**
+     * Indexes all stored episodes from scratch.
+     */
+    static void rebuild(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + DatabaseHelper.TABLE_EPISODE_SEARCH);
+
+        Cursor c = db.query(DatabaseHelper.TABLE_EPISODE, new String[] {
+                                DatabaseHelper.COLUMN_EPISODE_ID,
+                                DatabaseHelper.COLUMN_EPISODE_TITLE,
+                                DatabaseHelper.COLUMN_EPISODE_DESCRIPTION
+                            }, null, null, null, null, null);
+        EpisodeSearchIndex index = new EpisodeSearchIndex(db);
+        try {
+            while (c.moveToNext()) {
+                index.index(c.getLong(0), c.getString(1), c.getString(2));
+            }
+        } finally {
+            index.close();
+            c.close();
+        }
+    }
+
+    /**
+     * Searches the index for episodes containing all terms of the given
+     * keyword, each of them as a word or the beginning of a word.
+     *
+     * @return The ids of the matching episodes, best matches first.
+     */
+    static List<Long> search(SQLiteDatabase db, String keyword) {
+        List<String> terms = toTerms(keyword);
+        List<Long> ret = new ArrayList<Long>();
+        if (terms.isEmpty()) {
+            return ret;
+        }
+
+        Cursor c = db.rawQuery(SEARCH, new String[] {
+                                   toQuery(terms, DatabaseHelper.COLUMN_EPISODE_SEARCH_TITLE + ":"),
+                                   toQuery(terms, "")
+                               });
+        try {
+            while (c.moveToNext()) {
+                ret.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        return ret;
+    }
+
+    /**
+     * @return A full text query matching all terms of the keyword as
+     *         prefixes, like {@link #search(SQLiteDatabase, String)}, or null
+     *         if the keyword has no terms.
+     */
+    public static String toMatchQuery(String keyword) {
+        List<String> terms = toTerms(keyword);
+        return terms.isEmpty() ? null : toQuery(terms, "");
+    }
+
+    /**
+     * @return Whether the {@link #toMatchQuery(String) query} of the keyword
+     *         matches an episode with the given title and description: each
+     *         term of the keyword must start a term of the text, which is
+     *         tokenized without its markup like the index does.
+     */
+    public static boolean matches(String keyword, String title, String description) {
+        List<String> terms = toTerms(keyword);
+        if (terms.isEmpty()) {
+            return false;
+        }
+
+        List<String> text = toTerms(stripHtml(title));
+        text.addAll(toTerms(stripHtml(description)));
+        for (String term : terms) {
+            if (!startsAny(text, term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsAny(List<String> text, String prefix) {
+        for (String term : text) {
+            if (term.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return A full text query matching the episodes with all terms of the
+     *         keyword in their title, or null if the keyword has no terms.
+     */
+    public static String toTitleMatchQuery(String keyword) {
+        List<String> terms = toTerms(keyword);
+        return terms.isEmpty() ? null
+               : toQuery(terms, DatabaseHelper.COLUMN_EPISODE_SEARCH_TITLE + ":");
+    }
+
+    /**
+     * @return The text as it is stored in the index: without markup and in
+     *         lower case.
+     */
+    private static String toIndexText(String text) {
+        return stripHtml(text).toLowerCase(Locale.ROOT);
+    }
+
+    static String stripHtml(String text) {
+        if (text == null) {
+            return "";
+        }
+        return ENTITY.matcher(TAG.matcher(text).replaceAll(" ")).replaceAll(" ");
+    }
+
+    /**
+     * Splits the keyword into terms the way the index tokenizes its text:
+     * ASCII letters and digits and all non-ASCII characters are part of a
+     * term, everything else separates terms. This also leaves out all
+     * characters with a meaning in queries. The terms are lower cased like
+     * the indexed text.
+     */
+    static List<String> toTerms(String keyword) {
+        List<String> terms = new ArrayList<String>();
+        if (keyword == null) {
+            return terms;
+        }
+
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= keyword.length(); i++) {
+            char ch = (i < keyword.length() ? keyword.charAt(i) : ' ');
+            if (ch >= 128 || Character.isLetterOrDigit(ch)) {
+                term.append(ch);
+            } else if (term.length() > 0) {
+                terms.add(term.toString().toLowerCase(Locale.ROOT));
+                term.setLength(0);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @return A query matching all terms as prefixes, e.g. <code>"mach*"
+     *         "deu*"</code>. Quoting keeps words like OR from being taken as
+     *         operators.
+     */
+    private static String toQuery(List<String> terms, String column) {
+        StringBuilder query = new StringBuilder();
+        for (String term : terms) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(column).append('"').append(term).append("*\"");
+        }
+        return query.toString();
+    }
+}
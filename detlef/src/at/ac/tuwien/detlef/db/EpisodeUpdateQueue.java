@@ -0,0 +1,181 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+import at.ac.tuwien.detlef.domain.Episode;
+
+/**
+ * Writes episode updates behind the back of the caller, e.g. play positions
+ * and action states changed by the player. Callers never touch the database
+ * themselves, so this is safe to use from the main thread.
+ *
+ * <p>Enqueued episodes are written at the latest after the given window has
+ * passed, all of them in a single transaction on a background thread. Since
+ * an episode collects its changes until it is stored, enqueueing the same
+ * episode again within the window just adds to the pending write: a dozen
+ * seeks result in a single UPDATE and a single play action.</p>
+ */
+public final class EpisodeUpdateQueue {
+
+    private static final String TAG = EpisodeUpdateQueue.class.getName();
+
+    /** The default time in milliseconds updates are held back. */
+    public static final long DEFAULT_WINDOW = 5000;
+
+    /**
+     * The number of times in a row failed writes are retried. After that,
+     * the changes stay pending in the episodes until their next update.
+     */
+    static final int MAX_RETRIES = 3;
+
+    private final EpisodeDAO dao;
+    private final long window;
+
+    private final ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    /* Guarded by this. */
+    private final Map<Episode, Boolean> pending = new IdentityHashMap<Episode, Boolean>();
+    private ScheduledFuture<?> scheduledFlush;
+    private int failures = 0;
+
+    public EpisodeUpdateQueue(EpisodeDAO dao) {
+        this(dao, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param dao The DAO used to write the episodes.
+     * @param window The time in milliseconds updates are held back.
+     */
+    public EpisodeUpdateQueue(EpisodeDAO dao, long window) {
+        this.dao = dao;
+        this.window = window;
+    }
+
+    /**
+     * Schedules the pending changes of the given episode to be written.
+     */
+    public synchronized void enqueue(Episode episode) {
+        if (episode == null) {
+            return;
+        }
+
+        pending.put(episode, Boolean.TRUE);
+        if (scheduledFlush == null) {
+            scheduledFlush = executor.schedule(flushTask, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts writing all pending updates right away without waiting for them,
+     * e.g. when the player is paused or destroyed.
+     */
+    public void flushAsync() {
+        executor.execute(flushTask);
+    }
+
+    /**
+     * Writes all pending updates and waits until they have been written. Must
+     * not be called from the main thread.
+     */
+    public void flush() {
+        Future<?> f = executor.submit(flushTask);
+        try {
+            f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        }
+    }
+
+    /**
+     * @return The number of episodes waiting to be written.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Called on the executor thread only.
+     */
+    private void writePending() {
+        List<Episode> episodes;
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            episodes = new ArrayList<Episode>(pending.keySet());
+            pending.clear();
+        }
+
+        dao.update(episodes);
+
+        /* If the transaction fails, the changes stay pending in the episodes,
+         * so they are enqueued again. */
+
+        List<Episode> failed = new ArrayList<Episode>();
+        for (Episode episode : episodes) {
+            if (episode.getDirtyFields() != 0) {
+                failed.add(episode);
+            }
+        }
+
+        synchronized (this) {
+            if (failed.isEmpty()) {
+                failures = 0;
+                return;
+            }
+            if (++failures > MAX_RETRIES) {
+                Log.w(TAG, String.format("Giving up on writing %d episodes", failed.size()));
+                failures = 0;
+                return;
+            }
+
+            for (Episode episode : failed) {
+                pending.put(episode, Boolean.TRUE);
+            }
+            if (scheduledFlush == null) {
+                scheduledFlush = executor.schedule(flushTask, window, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Deletes files (downloaded episodes, podcast logos) in the background, so
+ * that deleting their rows stays a pure database operation.
+ *
+ * <p>The paths are recorded in a table within the transaction deleting the
+ * rows and removed from it once the file is gone. A crash in between only
+ * means that the file is deleted again on the next drain, which is a no-op
+ * for files which no longer exist. Pending deletions left over by a previous
+ * run are picked up by the first drain.</p>
+ */
+public final class FileDeletionQueue {
+
+    private static final String TAG = FileDeletionQueue.class.getName();
+
+    /** The number of files deleted per round trip to the database. */
+    static final int BATCH_SIZE = 64;
+
+    private static final String INSERT_PATH = String.format(
+                "INSERT OR IGNORE INTO %s (%s) VALUES (?)",
+                DatabaseHelper.TABLE_PENDING_FILE_DELETION,
+                DatabaseHelper.COLUMN_PENDING_FILE_DELETION_PATH);
+
+    /* The third column tells whether an episode or podcast refers to the
+     * path again, e.g. because the episode has been downloaded anew. */
+    private static final String QUERY_BATCH = String.format(
+                "SELECT %1$s, %2$s, EXISTS (SELECT 1 FROM %4$s WHERE %5$s = %2$s)"
+                + " OR EXISTS (SELECT 1 FROM %6$s WHERE %7$s = %2$s)"
+                + " FROM %3$s WHERE %1$s > ? ORDER BY %1$s LIMIT %8$d",
+                DatabaseHelper.COLUMN_PENDING_FILE_DELETION_ID,
+                DatabaseHelper.COLUMN_PENDING_FILE_DELETION_PATH,
+                DatabaseHelper.TABLE_PENDING_FILE_DELETION,
+                DatabaseHelper.TABLE_EPISODE, DatabaseHelper.COLUMN_EPISODE_FILEPATH,
+                DatabaseHelper.TABLE_PODCAST, DatabaseHelper.COLUMN_PODCAST_LOGO_FILE_PATH,
+                BATCH_SIZE);
+
+    private final DatabaseHelper dbHelper;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /* Set while a drain is queued but has not started yet. */
+    private final AtomicBoolean drainQueued = new AtomicBoolean(false);
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainQueued.set(false);
+            deletePending();
+        }
+    };
+
+    public FileDeletionQueue(DatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /**
+     * Records the given paths for deletion as part of the current transaction
+     * of the given database. The files are deleted by the next drain after
+     * the transaction has been committed, see {@link #drainAsync()}.
+     */
+    static void enqueue(SQLiteDatabase db, Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement stmt = db.compileStatement(INSERT_PATH);
+        try {
+            for (String path : paths) {
+                stmt.bindString(1, path);
+                stmt.executeInsert();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Records the given paths for deletion in a transaction of its own and
+     * starts deleting the files in the background. Must not be called within
+     * another transaction, use {@link #enqueue(SQLiteDatabase, Collection)}
+     * there.
+     */
+    public void delete(Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = null;
+        try {
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+
+            enqueue(db, paths);
+
+            db.setTransactionSuccessful();
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
+        }
+
+        drainAsync();
+    }
+
+    /**
+     * Starts deleting all pending files in the background. Requests made
+     * while a drain is waiting to start are merged into it.
+     */
+    public void drainAsync() {
+        if (drainQueued.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    /**
+     * Deletes all pending files and waits until this is done. Must not be
+     * called from the main thread.
+     */
+    public void drain() {
+        Future<?> f = executor.submit(drainTask);
+        try {
+            f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        }
+    }
+
+    /**
+     * @return The number of files waiting to be deleted.
+     */
+    public int getPendingCount() {
+        Cursor c = dbHelper.getReadableDatabase().rawQuery(
+                       "SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_PENDING_FILE_DELETION, null);
+        try {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Deletes the pending files batch by batch. Files which cannot be deleted
+     * stay pending and are retried by the next drain. Files which are in use
+     * again are kept and no longer pending. Called on the executor thread
+     * only.
+     */
+    private void deletePending() {
+        long lastId = 0;
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            while (true) {
+                List<Long> deleted = new ArrayList<Long>();
+                int n = 0;
+
+                Cursor c = db.rawQuery(QUERY_BATCH, new String[] {
+                                           String.valueOf(lastId)
+                                       });
+                try {
+                    while (c.moveToNext()) {
+                        n++;
+                        lastId = c.getLong(0);
+                        File file = new File(c.getString(1));
+                        if (c.getInt(2) != 0 || !file.exists() || file.delete()) {
+                            deleted.add(lastId);
+                        } else {
+                            Log.w(TAG, String.format("Could not delete %s", file));
+                        }
+                    }
+                } finally {
+                    c.close();
+                }
+
+                if (!deleted.isEmpty()) {
+                    removePaths(db, deleted);
+                }
+                if (n < BATCH_SIZE) {
+                    return;
+                }
+            }
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        }
+    }
+
+    private static void removePaths(SQLiteDatabase db, List<Long> ids) {
+        StringBuilder in = new StringBuilder();
+        for (Long id : ids) {
+            if (in.length() > 0) {
+                in.append(',');
+            }
+            in.append(id.longValue());
+        }
+
+        db.delete(DatabaseHelper.TABLE_PENDING_FILE_DELETION,
+                  DatabaseHelper.COLUMN_PENDING_FILE_DELETION_ID + " IN (" + in + ")", null);
+    }
+}
@@ -0,0 +1,236 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from primitive long keys (database ids) to objects, used by the
+ * caching DAOs to hand out one instance per id.
+ *
+ * <p>Reads never lock and never box the key, so they do not have to wait for
+ * writers such as a sync thread caching thousands of episodes. Writes are
+ * serialized on the map itself.</p>
+ *
+ * <p>The table uses open addressing with linear probing. A slot's key is
+ * written at most once; removing an entry only clears its value, and such
+ * tombstones are dropped when the table is rebuilt. Values are published
+ * before their keys, so a reader which finds a key also sees its value.</p>
+ *
+ * @param <V> The value type.
+ */
+public final class LongIdentityMap<V> {
+
+    /** Marks unused slots. It can therefore not be used as a key. */
+    private static final long FREE = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Table<V> {
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<V> values;
+        private final int mask;
+
+        /** The number of slots with a key, including tombstones. */
+        private int used;
+
+        private Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicReferenceArray<V>(capacity);
+            mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                keys.set(i, FREE);
+            }
+        }
+    }
+
+    private volatile Table<V> table = new Table<V>(MIN_CAPACITY);
+
+    /** The number of live entries, guarded by this. */
+    private int size;
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return The value stored for the given key, or null.
+     */
+    public V get(long key) {
+        Table<V> t = table;
+        int i = hash(key) & t.mask;
+        while (true) {
+            long k = t.keys.get(i);
+            if (k == key) {
+                return t.values.get(i);
+            }
+            if (k == FREE) {
+                return null;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Stores a value for the given key.
+     *
+     * @param value The value, must not be null.
+     * @return The previous value stored for the key, or null.
+     */
+    public synchronized V put(long key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Stores a value unless one is stored for the given key already.
+     *
+     * @param value The value, must not be null.
+     * @return The value stored for the key before this call, or null if the
+     *         given value has been stored.
+     */
+    public synchronized V putIfAbsent(long key, V value) {
+        return put(key, value, true);
+    }
+
+    private V put(long key, V value, boolean onlyIfAbsent) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Unsupported key " + key);
+        }
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+
+        Table<V> t = table;
+        int i = hash(key) & t.mask;
+        while (true) {
+            long k = t.keys.get(i);
+            if (k == key) {
+                V old = t.values.get(i);
+                if (old == null) {
+                    size++;
+                }
+                if (old == null || !onlyIfAbsent) {
+                    t.values.set(i, value);
+                }
+                return old;
+            }
+            if (k == FREE) {
+                break;
+            }
+            i = (i + 1) & t.mask;
+        }
+
+        t.values.set(i, value);
+        t.keys.set(i, key);
+        t.used++;
+        size++;
+
+        /* Keep the load (including tombstones) below 2/3. */
+
+        if (3 * t.used > 2 * (t.mask + 1)) {
+            rebuild(t);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the value stored for the given key.
+     *
+     * @return The removed value, or null.
+     */
+    public synchronized V remove(long key) {
+        Table<V> t = table;
+        int i = hash(key) & t.mask;
+        while (true) {
+            long k = t.keys.get(i);
+            if (k == key) {
+                V old = t.values.getAndSet(i, null);
+                if (old != null) {
+                    size--;
+                }
+                return old;
+            }
+            if (k == FREE) {
+                return null;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        table = new Table<V>(MIN_CAPACITY);
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return A snapshot of all values.
+     */
+    public List<V> values() {
+        Table<V> t = table;
+        List<V> ret = new ArrayList<V>();
+        for (int i = 0; i <= t.mask; i++) {
+            V v = t.values.get(i);
+            if (v != null) {
+                ret.add(v);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Copies all live entries into a new table sized for them and publishes
+     * it. Readers still working on the old table see a consistent, if
+     * slightly outdated state.
+     */
+    private void rebuild(Table<V> old) {
+        int capacity = MIN_CAPACITY;
+        while (3 * size > capacity) {
+            capacity <<= 1;
+        }
+
+        Table<V> t = new Table<V>(capacity);
+        for (int i = 0; i <= old.mask; i++) {
+            V v = old.values.get(i);
+            if (v == null) {
+                continue;
+            }
+
+            long key = old.keys.get(i);
+            int j = hash(key) & t.mask;
+            while (t.keys.get(j) != FREE) {
+                j = (j + 1) & t.mask;
+            }
+            t.values.set(j, v);
+            t.keys.set(j, key);
+            t.used++;
+        }
+
+        table = t;
+    }
+}
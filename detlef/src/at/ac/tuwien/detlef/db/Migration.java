@@ -15,34 +15,40 @@
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
  ************************************************************************* */
 
-package at.ac.tuwien.detlef.gpodder;
+package at.ac.tuwien.detlef.db;
 
-import at.ac.tuwien.detlef.domain.Podcast;
+import android.database.sqlite.SQLiteDatabase;
 
 /**
- * This is the callback interface for jobs which return a list of podcasts on
- * success.
+ * A step of the schema upgrade from one database version to the next. Steps
+ * alter the tables and move their data in place; they must never drop data
+ * the app would have to download again.
+ *
+ * @see Migrations
  */
-public interface PodcastResultHandler<Receiver> extends ResultHandler<Receiver> {
-    /**
-     * Called to handle a successful fetching of a podcast list.
-     *
-     * @param result List of strings that has been successfully fetched.
-     */
-    void handleSuccess(Podcast result);
+abstract class Migration {
 
-    static class PodcastInfoSuccessEvent implements ResultEvent {
-        private final PodcastResultHandler<?> cb;
-        private final Podcast result;
+    private final int version;
 
-        public PodcastInfoSuccessEvent(PodcastResultHandler<?> cb, Podcast result) {
-            this.cb = cb;
-            this.result = result;
-        }
+    /**
+     * @param version The version of the database after this step.
+     */
+    Migration(int version) {
+        this.version = version;
+    }
 
-        @Override
-        public void deliver() {
-            cb.handleSuccess(result);
-        }
+    /**
+     * @return The version of the database after this step.
+     */
+    int getVersion() {
+        return version;
     }
+
+    /**
+     * Upgrades the database from the previous version. Runs within the
+     * transaction of the whole upgrade.
+     *
+     * @param db The database to upgrade.
+     */
+    abstract void apply(SQLiteDatabase db);
 }
@@ -0,0 +1,267 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import at.ac.tuwien.detlef.domain.Episode.ActionState;
+import at.ac.tuwien.detlef.domain.Episode.StorageState;
+
+/**
+ * The ordered schema migrations of the database. To change the schema, add a
+ * step for the next version to {@link #STEPS}, apply the change to the create
+ * statements in {@link DatabaseHelper} as well and increase
+ * {@link DatabaseHelper#VERSION}.
+ */
+final class Migrations {
+
+    private static final String TAG = Migrations.class.getName();
+
+    /**
+     * Databases older than this predate the migrations. Their schema is not
+     * known anymore, so they are recreated instead.
+     */
+    static final int OLDEST_MIGRATABLE_VERSION = 15;
+
+    private static final List<Migration> STEPS = Collections.unmodifiableList(Arrays.<Migration>asList(
+
+        /*
+         * Removes duplicate episodes (same guid within the same podcast) which
+         * previous versions could insert and creates the guid and url indexes.
+         * The queue of pending file deletions is created here already, since
+         * the files of removed duplicates are deleted through it.
+         */
+        new Migration(16) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                db.execSQL(DatabaseHelper.CREATE_PENDING_FILE_DELETION_TABLE);
+                removeDuplicateEpisodes(db);
+                db.execSQL(DatabaseHelper.CREATE_EPISODE_GUID_INDEX);
+                db.execSQL(DatabaseHelper.CREATE_EPISODE_URL_INDEX);
+            }
+        },
+
+        /*
+         * Spreads the dense playlist positions of previous versions into sparse
+         * ordering keys and indexes them.
+         */
+        new Migration(17) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                db.execSQL(String.format("UPDATE %s SET %s = %s * %d",
+                                         DatabaseHelper.TABLE_PLAYLIST,
+                                         DatabaseHelper.COLUMN_PLAYLIST_POSITION,
+                                         DatabaseHelper.COLUMN_PLAYLIST_POSITION,
+                                         DatabaseHelper.PLAYLIST_POSITION_GAP));
+                db.execSQL(DatabaseHelper.CREATE_PLAYLIST_POSITION_INDEX);
+            }
+        },
+
+        /*
+         * Adds the full text index for the episode search and fills it with
+         * the stored episodes.
+         */
+        new Migration(18) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                db.execSQL(DatabaseHelper.CREATE_EPISODE_SEARCH_TABLE);
+                db.execSQL(DatabaseHelper.CREATE_EPISODE_SEARCH_DELETE_TRIGGER);
+                EpisodeSearchIndex.rebuild(db);
+            }
+        },
+
+        /*
+         * Adds the queue of files to be deleted in the background, unless the
+         * removal of duplicate episodes has created it already.
+         */
+        new Migration(19) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                db.execSQL(DatabaseHelper.CREATE_PENDING_FILE_DELETION_TABLE);
+            }
+        },
+
+        /*
+         * Reindexes the episodes in lower case, so that the search folds the
+         * case of non-ASCII letters too.
+         */
+        new Migration(20) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                EpisodeSearchIndex.rebuild(db);
+            }
+        },
+
+        /*
+         * Indexes the episode file paths, which the queue of pending file
+         * deletions looks up for every path it deletes.
+         */
+        new Migration(21) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                db.execSQL(DatabaseHelper.CREATE_EPISODE_FILEPATH_INDEX);
+            }
+        }));
+
+    /*
+     * Orders the duplicates of each episode by their local state, the one to
+     * keep first: downloaded, then partly played, then acted on, then the
+     * oldest.
+     */
+    private static final String QUERY_DUPLICATE_EPISODES = String.format(
+                "SELECT e.%1$s, e.%2$s, e.%3$s, e.%4$s FROM %5$s e JOIN "
+                + "(SELECT %2$s, %3$s FROM %5$s WHERE %2$s IS NOT NULL GROUP BY %2$s, %3$s "
+                + "HAVING COUNT(*) > 1) d ON e.%2$s = d.%2$s AND e.%3$s = d.%3$s "
+                + "ORDER BY e.%3$s, e.%2$s, e.%6$s = '%9$s' DESC, e.%4$s IS NOT NULL DESC, "
+                + "IFNULL(e.%7$s, 0) DESC, IFNULL(e.%8$s, '%10$s') <> '%10$s' DESC, e.%1$s",
+                DatabaseHelper.COLUMN_EPISODE_ID, DatabaseHelper.COLUMN_EPISODE_GUID,
+                DatabaseHelper.COLUMN_EPISODE_PODCAST, DatabaseHelper.COLUMN_EPISODE_FILEPATH,
+                DatabaseHelper.TABLE_EPISODE, DatabaseHelper.COLUMN_EPISODE_STATE,
+                DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION,
+                DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE, StorageState.DOWNLOADED.name(),
+                ActionState.NEW.name());
+
+    private static final String REMAP_PLAYLIST_ENTRIES = String.format(
+                "UPDATE %s SET %s = ? WHERE %s = ?",
+                DatabaseHelper.TABLE_PLAYLIST, DatabaseHelper.COLUMN_PLAYLIST_EPISODE,
+                DatabaseHelper.COLUMN_PLAYLIST_EPISODE);
+
+    private static final String DELETE_EPISODE = String.format(
+                "DELETE FROM %s WHERE %s = ?",
+                DatabaseHelper.TABLE_EPISODE, DatabaseHelper.COLUMN_EPISODE_ID);
+
+    /* Keeps the first entry of episodes which are in the playlist repeatedly. */
+    private static final String DELETE_REPEATED_PLAYLIST_ENTRIES = String.format(
+                "DELETE FROM %1$s WHERE EXISTS (SELECT 1 FROM %1$s p WHERE p.%2$s = %1$s.%2$s "
+                + "AND (p.%3$s < %1$s.%3$s OR (p.%3$s = %1$s.%3$s AND p.%4$s < %1$s.%4$s)))",
+                DatabaseHelper.TABLE_PLAYLIST, DatabaseHelper.COLUMN_PLAYLIST_EPISODE,
+                DatabaseHelper.COLUMN_PLAYLIST_POSITION, DatabaseHelper.COLUMN_PLAYLIST_ID);
+
+    private Migrations() {
+    }
+
+    /**
+     * Keeps the duplicate of each episode with the most local state, moves the
+     * playlist entries of the others to it and queues their downloaded files
+     * for deletion.
+     */
+    private static void removeDuplicateEpisodes(SQLiteDatabase db) {
+        List<Long> removed = new ArrayList<Long>();
+        List<Long> kept = new ArrayList<Long>();
+        Set<String> orphanedFiles = new HashSet<String>();
+
+        Cursor c = db.rawQuery(QUERY_DUPLICATE_EPISODES, null);
+        try {
+            long keptId = -1;
+            String keptGuid = null;
+            long keptPodcast = -1;
+            String keptFile = null;
+
+            while (c.moveToNext()) {
+                long id = c.getLong(0);
+                String guid = c.getString(1);
+                long podcast = c.getLong(2);
+                String file = c.getString(3);
+
+                if (!guid.equals(keptGuid) || podcast != keptPodcast) {
+                    keptId = id;
+                    keptGuid = guid;
+                    keptPodcast = podcast;
+                    keptFile = file;
+                    continue;
+                }
+
+                removed.add(id);
+                kept.add(keptId);
+                if (file != null && !file.equals(keptFile)) {
+                    orphanedFiles.add(file);
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        for (int i = 0; i < removed.size(); i++) {
+            db.execSQL(REMAP_PLAYLIST_ENTRIES, new Object[] {kept.get(i), removed.get(i)});
+            db.execSQL(DELETE_EPISODE, new Object[] {removed.get(i)});
+        }
+        db.execSQL(DELETE_REPEATED_PLAYLIST_ENTRIES);
+
+        FileDeletionQueue.enqueue(db, orphanedFiles);
+    }
+
+    /**
+     * @return The version the last migration step upgrades to.
+     */
+    static int getLatestVersion() {
+        return STEPS.get(STEPS.size() - 1).getVersion();
+    }
+
+    /**
+     * Upgrades the database by applying all steps between the given versions
+     * in order, within a single transaction: either the database reaches the
+     * new version, or it is left untouched.
+     *
+     * @param db The database to upgrade.
+     * @param oldVersion The current version of the database, at least
+     *            {@link #OLDEST_MIGRATABLE_VERSION}.
+     * @param newVersion The version to upgrade to.
+     * @throws IllegalStateException If a step is missing.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            throw new IllegalArgumentException("Cannot migrate version " + oldVersion);
+        }
+
+        db.beginTransaction();
+        try {
+            int version = oldVersion;
+            for (Migration step : STEPS) {
+                if (step.getVersion() <= oldVersion) {
+                    continue;
+                }
+                if (step.getVersion() > newVersion) {
+                    break;
+                }
+                if (step.getVersion() != version + 1) {
+                    throw new IllegalStateException("No migration to version " + (version + 1));
+                }
+
+                Log.i(TAG, "Migrating database to version " + step.getVersion());
+                step.apply(db);
+                version = step.getVersion();
+            }
+
+            if (version != newVersion) {
+                throw new IllegalStateException("No migration to version " + (version + 1));
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -18,6 +18,8 @@
 package at.ac.tuwien.detlef.db;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import at.ac.tuwien.detlef.domain.Episode;
 
@@ -53,6 +55,17 @@ public interface PlaylistDAO {
          * @param position The position of the item to be removed.
          */
         void onPlaylistEpisodeRemoved(int position);
+
+        /**
+         * Gets called once after a bulk operation changed the playlist in
+         * possibly many places. No per-item events are sent for such
+         * operations, listeners should replace their view of the playlist
+         * instead.
+         *
+         * @param playlist The new playlist. It is shared between all listeners
+         *            and must not be modified.
+         */
+        void onPlaylistBulkChanged(List<Episode> playlist);
     }
 
     /**
@@ -78,6 +91,21 @@ public interface PlaylistDAO {
      */
     ArrayList<Episode> getNonCachedEpisodes();
 
+    /**
+     * @return The ids of the episodes in playlist order. Served from memory,
+     *         the array is a copy owned by the caller.
+     */
+    long[] getEpisodeIds();
+
+    /**
+     * Checks whether an episode is in the playlist. Served from memory, so it
+     * may be called for every row of a list.
+     *
+     * @param episodeId The id of the episode.
+     * @return True if the episode is in the playlist at least once.
+     */
+    boolean isInPlaylist(long episodeId);
+
     /**
      * Removes an episode from playlist.
      *
@@ -111,7 +139,45 @@ public interface PlaylistDAO {
     void removePlaylistChangeListener(OnPlaylistChangeListener listener);
 
     /**
-     * Removes all episodes from the playlist.
+     * Removes all episodes from the playlist in a single statement.
+     *
+     * @return True if successful, false if not.
+     */
+    boolean clear();
+
+    /**
+     * Removes all occurrences of the given episodes from the playlist in a
+     * single statement.
+     *
+     * @param episodeIds The ids of the episodes to remove.
+     * @return The number of removed playlist items.
+     */
+    int removeAll(Collection<Long> episodeIds);
+
+    /**
+     * Inserts episodes into the playlist in a single transaction.
+     *
+     * @param episodes The episodes to add, in the order they should appear.
+     * @param position The position the first of the episodes will be at; the
+     *            size of the playlist to append them.
+     * @return True if successful, false if not, e.g. if the position is not
+     *         within the playlist.
+     */
+    boolean addAll(List<Episode> episodes, int position);
+
+    /**
+     * Rearranges the whole playlist in a single transaction.
+     *
+     * @param permutation For each new position, the current position of the
+     *            item to put there. Must contain every current position
+     *            exactly once.
+     * @return True if successful, false if not, e.g. if the permutation does
+     *         not match the playlist.
+     */
+    boolean reorder(int[] permutation);
+
+    /**
+     * Removes all episodes from the playlist. Same as {@link #clear()}.
      */
     void clearPlaylist();
 
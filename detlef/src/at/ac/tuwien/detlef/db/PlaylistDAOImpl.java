@@ -18,37 +18,94 @@
 package at.ac.tuwien.detlef.db;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 import at.ac.tuwien.detlef.Singletons;
 import at.ac.tuwien.detlef.domain.Episode;
+import at.ac.tuwien.detlef.domain.Podcast;
 
 public final class PlaylistDAOImpl
     implements PlaylistDAO, EpisodeDAO.OnEpisodeChangeListener {
 
     private static final String TAG = PlaylistDAOImpl.class.getName();
 
+    /** Gaps below this size are restored in the background. */
+    private static final long MIN_GAP = 16;
+
+    /** The playlist order; the id breaks ties between equal keys. */
+    private static final String ORDER = DatabaseHelper.COLUMN_PLAYLIST_POSITION + ", "
+                                        + DatabaseHelper.COLUMN_PLAYLIST_ID;
+
+    private static final String INSERT_ITEM = String.format(
+                "INSERT INTO %s (%s, %s) VALUES (?, ?)", DatabaseHelper.TABLE_PLAYLIST,
+                DatabaseHelper.COLUMN_PLAYLIST_EPISODE, DatabaseHelper.COLUMN_PLAYLIST_POSITION);
+
+    private static final String DELETE_ITEM = String.format(
+                "DELETE FROM %s WHERE %s = ?", DatabaseHelper.TABLE_PLAYLIST,
+                DatabaseHelper.COLUMN_PLAYLIST_ID);
+
+    private static final String UPDATE_ITEM_KEY = String.format(
+                "UPDATE %s SET %s = ? WHERE %s = ?", DatabaseHelper.TABLE_PLAYLIST,
+                DatabaseHelper.COLUMN_PLAYLIST_POSITION, DatabaseHelper.COLUMN_PLAYLIST_ID);
+
     private final DatabaseHelper dbHelper;
+    private final StatementCache statements;
     private final List<PlaylistDAO.OnPlaylistChangeListener> listeners =
         new ArrayList<PlaylistDAO.OnPlaylistChangeListener>();
     private final EpisodeDAO edao;
 
+    private final ExecutorService renormalizer = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean renormalizationPending = new AtomicBoolean(false);
+
+    /**
+     * The playlist order as last written. All changes go through this DAO,
+     * which replaces the mirror while holding its lock after the change has
+     * been committed.
+     */
+    private volatile PlaylistMirror mirror;
+
     public PlaylistDAOImpl(Context context) {
         dbHelper = Singletons.i().getDatabaseHelper();
+        statements = dbHelper.getStatementCache();
         edao = Singletons.i().getEpisodeDAO();
         edao.addEpisodeChangedListener(this);
 
         /* Take care of any pending database upgrades. */
 
-        dbHelper.getWritableDatabase();
+        mirror = loadMirror(dbHelper.getWritableDatabase());
+    }
+
+    /**
+     * Reads the episode ids of the playlist in order.
+     *
+     * @param db The db with which to perform the query.
+     * @return The mirror of the playlist.
+     */
+    private PlaylistMirror loadMirror(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_PLAYLIST_EPISODE + " FROM "
+                               + DatabaseHelper.TABLE_PLAYLIST + " ORDER BY " + ORDER, null);
+        try {
+            long[] ids = new long[c.getCount()];
+            for (int i = 0; c.moveToNext(); i++) {
+                ids[i] = c.getLong(0);
+            }
+            return new PlaylistMirror(ids);
+        } finally {
+            c.close();
+        }
     }
 
     @Override
@@ -99,138 +156,333 @@ public final class PlaylistDAOImpl
     }
 
     /**
-     * Gets the next free ordering item.
+     * Notifies all the listeners that the playlist has changed as a whole.
+     */
+    private void notifyListenersBulkChanged() {
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        List<Episode> playlist = Collections.unmodifiableList(getNonCachedEpisodes());
+        for (OnPlaylistChangeListener listener : listeners) {
+            listener.onPlaylistBulkChanged(playlist);
+        }
+    }
+
+    /**
+     * An item of the playlist table: its row id and its ordering key.
+     */
+    private static final class Item {
+        private final long id;
+        private final long key;
+
+        private Item(long id, long key) {
+            this.id = id;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Gets the item at the given playlist position.
      *
      * @param db The db with which to perform the query.
-     * @return The next free ordering item; at least 0.
+     * @param position The position of the item, counted from 0.
+     * @return The item, or null if the playlist is shorter.
      */
-    private int getNextFreePosition(SQLiteDatabase db) {
-        Cursor cursor = db.rawQuery("SELECT IFNULL(MAX("
-                                    + DatabaseHelper.COLUMN_PLAYLIST_POSITION + "), (-1)) FROM "
-                                    + DatabaseHelper.TABLE_PLAYLIST, null);
-        if (cursor.moveToFirst()) {
-            return cursor.getInt(0) + 1;
-        } else {
-            return 0;
+    private Item getItemAt(SQLiteDatabase db, int position) {
+        if (position < 0) {
+            return null;
+        }
+
+        Cursor c = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_PLAYLIST_ID + ", "
+                               + DatabaseHelper.COLUMN_PLAYLIST_POSITION + " FROM "
+                               + DatabaseHelper.TABLE_PLAYLIST + " ORDER BY " + ORDER
+                               + " LIMIT 1 OFFSET " + position, null);
+        try {
+            if (c.moveToFirst()) {
+                return new Item(c.getLong(0), c.getLong(1));
+            }
+            return null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Computes an ordering key which sorts between the given items.
+     *
+     * @param prev The item before the new key, or null if there is none.
+     * @param next The item after the new key, or null if there is none.
+     * @return The key, or null if there is no free key left between the
+     *         items.
+     */
+    private Long keyBetween(Item prev, Item next) {
+        if (prev == null && next == null) {
+            return 0L;
+        }
+        if (prev == null) {
+            return next.key - DatabaseHelper.PLAYLIST_POSITION_GAP;
+        }
+        if (next == null) {
+            return prev.key + DatabaseHelper.PLAYLIST_POSITION_GAP;
+        }
+
+        long gap = next.key - prev.key;
+        if (gap < 2) {
+            return null;
+        }
+        if (gap < MIN_GAP) {
+            renormalizeLater();
+        }
+        return prev.key + gap / 2;
+    }
+
+    /**
+     * Computes the ordering key for an item which is to be put at the given
+     * position, making room first if necessary.
+     *
+     * @param db The db with which to perform the queries.
+     * @param position The position the item will be at.
+     * @param skip The position of an item which is moved and therefore must
+     *            be ignored, or -1.
+     * @return The ordering key.
+     */
+    private long keyForPosition(SQLiteDatabase db, int position, int skip) {
+        for (int attempt = 0;; attempt++) {
+            int before = position - 1;
+            int after = position;
+            if (skip >= 0 && skip <= before) {
+                before++;
+                after++;
+            } else if (skip >= 0 && skip == after) {
+                after++;
+            }
+
+            Long key = keyBetween(getItemAt(db, before), getItemAt(db, after));
+            if (key != null) {
+                return key;
+            }
+            if (attempt > 0) {
+                throw new SQLiteException("No free playlist position");
+            }
+            renormalize(db);
         }
     }
 
+    /**
+     * Inserts an item into the playlist table.
+     *
+     * @param db The db with which to perform the insert.
+     * @param episode The episode of the item.
+     * @param key The ordering key of the item.
+     * @return The row id of the new item.
+     */
+    private long insertItem(SQLiteDatabase db, Episode episode, long key) {
+        long id;
+        SQLiteStatement stmt = statements.acquire(db, INSERT_ITEM);
+        try {
+            stmt.bindLong(1, episode.getId());
+            stmt.bindLong(2, key);
+            id = stmt.executeInsert();
+        } finally {
+            statements.release(db, INSERT_ITEM, stmt);
+        }
+        if (id == -1) {
+            throw new SQLiteException("Failed to insert playlist item");
+        }
+        return id;
+    }
+
     @Override
-    public boolean addEpisodeToEndOfPlaylist(Episode episode) {
+    public synchronized boolean addEpisodeToEndOfPlaylist(Episode episode) {
         SQLiteDatabase db = null;
+        int position;
         try {
             db = dbHelper.getWritableDatabase();
-            int nextPosition = getNextFreePosition(db);
-            ContentValues values = new ContentValues();
-            values.put(DatabaseHelper.COLUMN_PLAYLIST_EPISODE, episode.getId());
-            values.put(DatabaseHelper.COLUMN_PLAYLIST_POSITION, nextPosition);
-
-            long id = db.insert(DatabaseHelper.TABLE_PLAYLIST, null, values);
-            if (id == -1) {
-                throw new SQLiteException("Failed to insert playlist item");
+            db.beginTransaction();
+
+            Cursor c = db.rawQuery("SELECT COUNT(*), MAX("
+                                   + DatabaseHelper.COLUMN_PLAYLIST_POSITION + ") FROM "
+                                   + DatabaseHelper.TABLE_PLAYLIST, null);
+            long key = 0;
+            try {
+                c.moveToFirst();
+                position = c.getInt(0);
+                if (!c.isNull(1)) {
+                    key = c.getLong(1) + DatabaseHelper.PLAYLIST_POSITION_GAP;
+                }
+            } finally {
+                c.close();
             }
 
-            notifyListenersAdded(nextPosition, episode);
-            return true;
+            insertItem(db, episode, key);
+            db.setTransactionSuccessful();
         } catch (Exception ex) {
             Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
             return false;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
         }
+
+        mirror = mirror.insert(position, episode.getId());
+        notifyListenersAdded(position, episode);
+        return true;
     }
 
     @Override
-    public boolean addEpisodeToBeginningOfPlaylist(Episode episode) {
+    public synchronized boolean addEpisodeToBeginningOfPlaylist(Episode episode) {
         SQLiteDatabase db = null;
         try {
             db = dbHelper.getWritableDatabase();
-            shiftPositionsFromBy(0, 1, db);
-
-            ContentValues values = new ContentValues();
-            values.put(DatabaseHelper.COLUMN_PLAYLIST_EPISODE, episode.getId());
-            values.put(DatabaseHelper.COLUMN_PLAYLIST_POSITION, 0);
-
-            long id = db.insert(DatabaseHelper.TABLE_PLAYLIST, null, values);
-            if (id == -1) {
-                throw new SQLiteException("Failed to insert playlist item");
-            }
+            db.beginTransaction();
 
-            notifyListenersAdded(0, episode);
-            return true;
+            insertItem(db, episode, keyForPosition(db, 0, -1));
+            db.setTransactionSuccessful();
         } catch (Exception ex) {
             Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
             return false;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
         }
+
+        mirror = mirror.insert(0, episode.getId());
+        notifyListenersAdded(0, episode);
+        return true;
     }
 
     /**
-     * Shifts the ordering by the specified amount, starting from the specified
-     * position.
+     * Spreads the ordering keys evenly again, keeping the order of all items.
+     * This is needed once repeated insertions between the same two items have
+     * used up the gap between them.
      *
-     * @param from All items >= from will be shifted.
-     * @param by The amount by which the items will be shifted. Can be negative
-     *            or positive.
-     * @param db The db with which to perform the shift.
+     * @param db The db with which to perform the update.
+     */
+    private void renormalize(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            assignKeys(db, getItemIds(db));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @param db The db with which to perform the query.
+     * @return The row ids of all items in playlist order.
      */
-    private void shiftPositionsFromBy(int from, int by, SQLiteDatabase db) {
-        String[] selectionArgs = {
-            String.valueOf(from)
-        };
-        String operator;
-        if (by >= 0) {
-            operator = "+";
-        } else {
-            operator = "-";
-            by *= (-1);
-        }
-        db.execSQL("UPDATE " + DatabaseHelper.TABLE_PLAYLIST + " SET "
-                   + DatabaseHelper.COLUMN_PLAYLIST_POSITION + " = "
-                   + DatabaseHelper.COLUMN_PLAYLIST_POSITION + operator + by + " WHERE "
-                   + DatabaseHelper.COLUMN_PLAYLIST_POSITION + " >= ?", selectionArgs);
+    private List<Long> getItemIds(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_PLAYLIST_ID + " FROM "
+                               + DatabaseHelper.TABLE_PLAYLIST + " ORDER BY " + ORDER, null);
+        try {
+            List<Long> ids = new ArrayList<Long>(c.getCount());
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+            return ids;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Gives the items evenly spread ordering keys in the given order. Must be
+     * called within a transaction.
+     *
+     * @param db The db with which to perform the update.
+     * @param ids The row ids of the items in their new order.
+     */
+    private void assignKeys(SQLiteDatabase db, List<Long> ids) {
+        SQLiteStatement stmt = statements.acquire(db, UPDATE_ITEM_KEY);
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.bindLong(1, i * DatabaseHelper.PLAYLIST_POSITION_GAP);
+                stmt.bindLong(2, ids.get(i));
+                stmt.execute();
+            }
+        } finally {
+            statements.release(db, UPDATE_ITEM_KEY, stmt);
+        }
+    }
+
+    /**
+     * Schedules a renormalization on a background thread, so that the gaps
+     * are restored before they run out in the middle of a drag.
+     */
+    private void renormalizeLater() {
+        if (!renormalizationPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        renormalizer.execute(new Runnable() {
+            @Override
+            public void run() {
+                renormalizationPending.set(false);
+                try {
+                    renormalize(dbHelper.getWritableDatabase());
+                } catch (Exception ex) {
+                    Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+                }
+            }
+        });
     }
 
     @Override
     public ArrayList<Episode> getNonCachedEpisodes() {
-        SQLiteDatabase db = null;
-        ArrayList<Episode> allEpisodes = new ArrayList<Episode>();
-        db = dbHelper.getReadableDatabase();
-        Cursor c = db.rawQuery(
-                       "SELECT "
-                       + DatabaseHelper.COLUMN_PLAYLIST_EPISODE + " FROM "
-                       + DatabaseHelper.TABLE_PLAYLIST + " ORDER BY "
-                       + DatabaseHelper.COLUMN_PLAYLIST_POSITION + " ASC", null);
-        if (c.moveToFirst()) {
-            do {
-                Episode e = edao.getEpisode(c.getLong(0));
-                allEpisodes.add(e);
-            } while (c.moveToNext());
-        }
-        c.close();
+        ArrayList<Episode> allEpisodes =
+            new ArrayList<Episode>(edao.getEpisodesById(mirror.getIds()));
+
+        /* Keep the playlist in memory. */
+
+        edao.pinEpisodes(this, allEpisodes);
         return allEpisodes;
     }
 
+    @Override
+    public long[] getEpisodeIds() {
+        return mirror.getIds();
+    }
+
+    @Override
+    public boolean isInPlaylist(long episodeId) {
+        return mirror.contains(episodeId);
+    }
+
     /**
-     * Removes an item from the playlist and shifts the ordering accordingly.
+     * Removes an item from the playlist. The positions of the following items
+     * are derived from the order, so nothing else needs to be updated.
      *
      * @param position The position of the episode to remove.
      * @param db The db with which to perform the operations.
      * @return The number of affected rows.
      */
     private int removePosition(int position, SQLiteDatabase db) {
-        int ret = 0;
-        String selection = DatabaseHelper.COLUMN_PLAYLIST_POSITION + " = ?";
-        String[] selectionArgs = {
-            String.valueOf(position)
-        };
-
-        ret = db.delete(DatabaseHelper.TABLE_PLAYLIST, selection, selectionArgs);
+        Item item = getItemAt(db, position);
+        if (item == null) {
+            return 0;
+        }
 
-        shiftPositionsFromBy(position, -1, db);
-        notifyListenersRemoved(position);
+        int ret;
+        SQLiteStatement stmt = statements.acquire(db, DELETE_ITEM);
+        try {
+            stmt.bindLong(1, item.id);
+            ret = stmt.executeUpdateDelete();
+        } finally {
+            statements.release(db, DELETE_ITEM, stmt);
+        }
+        if (ret > 0) {
+            mirror = mirror.remove(position);
+            notifyListenersRemoved(position);
+        }
         return ret;
     }
 
     @Override
-    public boolean removeEpisode(int position) {
+    public synchronized boolean removeEpisode(int position) {
         int ret = 0;
         SQLiteDatabase db = null;
         try {
@@ -245,54 +497,46 @@ public final class PlaylistDAOImpl
     }
 
     @Override
-    public boolean moveEpisode(int firstPosition, int secondPosition) {
+    public synchronized boolean moveEpisode(int firstPosition, int secondPosition) {
         SQLiteDatabase db = null;
         int ret = 0;
 
-        db = dbHelper.getWritableDatabase();
-        long id = getIdAt(firstPosition, db);
+        try {
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
 
-        shiftPositionsFromBy(firstPosition, -1, db);
-        shiftPositionsFromBy(secondPosition, 1, db);
+            Item item = getItemAt(db, firstPosition);
+            if (item == null) {
+                return false;
+            }
 
-        ContentValues values = new ContentValues();
-        values.put(DatabaseHelper.COLUMN_PLAYLIST_POSITION, secondPosition);
+            long key = keyForPosition(db, secondPosition, firstPosition);
+
+            SQLiteStatement stmt = statements.acquire(db, UPDATE_ITEM_KEY);
+            try {
+                stmt.bindLong(1, key);
+                stmt.bindLong(2, item.id);
+                ret = stmt.executeUpdateDelete();
+            } finally {
+                statements.release(db, UPDATE_ITEM_KEY, stmt);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return false;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
+        }
 
-        ret = db.update(DatabaseHelper.TABLE_PLAYLIST, values,
-                        DatabaseHelper.COLUMN_PLAYLIST_ID
-                        + " = ?", new String[] {
-                            String.valueOf(id)
-                        });
         if (ret == 1) {
+            mirror = mirror.move(firstPosition, secondPosition);
             notifyListenersChanged(firstPosition, secondPosition);
         }
         return ret == 1;
     }
 
-    /**
-     * Gets the playlist database id at the specified playlist position.
-     *
-     * @param position The position for which to get the id.
-     * @param db The DB with which to perform the query.
-     * @return The database ID.
-     */
-    private long getIdAt(int position, SQLiteDatabase db) {
-        String[] selectionArgs = {
-            String.valueOf(position)
-        };
-        Cursor c = db.rawQuery(
-                       "SELECT "
-                       + DatabaseHelper.COLUMN_PLAYLIST_ID + " FROM "
-                       + DatabaseHelper.TABLE_PLAYLIST + " WHERE "
-                       + DatabaseHelper.COLUMN_PLAYLIST_POSITION + " = ?", selectionArgs);
-        long ret = -1;
-        if (c.moveToFirst()) {
-            ret = c.getLong(0);
-        }
-        c.close();
-        return ret;
-    }
-
     @Override
     public void onEpisodeChanged(Episode episode) {
         // do nothing
@@ -303,56 +547,43 @@ public final class PlaylistDAOImpl
         // not of interest
     }
 
+    @Override
+    public void onEpisodesAdded(List<Episode> episodes) {
+        // not of interest
+    }
+
     @Override
     public void onEpisodeDeleted(Episode episode) {
-        SQLiteDatabase db = null;
-        try {
-            db = dbHelper.getWritableDatabase();
-            Set<Integer> positions = getPositionsOfEpisode(episode, db);
-            for (int position : positions) {
-                removePosition(position, db);
-            }
-        } catch (Exception ex) {
-            Log.e(getClass().getName(),
-                  ex.getMessage() != null ? ex.getMessage() : ex.toString());
-        }
+        removeAll(Collections.singleton(episode.getId()));
     }
 
     /**
-     * Gets all the position of a specified episode in the playlist.
-     *
-     * @param episode The episode for which to search.
-     * @param db The database with which to perform the search.
-     * @return All the position of the specified episode in the playlist.
+     * The playlist items of the episodes have already been deleted along with
+     * them, only the mirror needs to catch up.
      */
-    private Set<Integer> getPositionsOfEpisode(Episode episode, SQLiteDatabase db) {
-        HashSet<Integer> ret = new HashSet<Integer>();
-        String selection = DatabaseHelper.COLUMN_PLAYLIST_EPISODE + " = ?";
-        String[] selectionArgs = {
-            String.valueOf(episode.getId())
-        };
-        Cursor c = db.query(DatabaseHelper.TABLE_PLAYLIST, new String[] {
-                                DatabaseHelper.COLUMN_PLAYLIST_POSITION
-                            }, selection, selectionArgs, null, null, null);
-        if (c.moveToFirst()) {
-            do {
-                ret.add(c.getInt(0));
-            } while (c.moveToNext());
+    @Override
+    public synchronized void onEpisodesDeleted(Podcast podcast, Collection<Long> episodeIds) {
+        PlaylistMirror remaining = mirror.removeAll(episodeIds);
+        if (remaining.size() != mirror.size()) {
+            mirror = remaining;
+            notifyListenersBulkChanged();
         }
-        return ret;
     }
 
     /**
-     * @return Returns true if there are no gaps in the playlist ordering in the
-     *         DB. This is not of general interest and exists for testing
-     *         purposes only.
+     * The ordering keys are sparse, positions are derived from their order.
+     * The order is well defined as long as no two items share a key.
+     *
+     * @return Returns true if the ordering keys in the DB are strictly
+     *         increasing. This is not of general interest and exists for
+     *         testing purposes only.
      */
     public boolean checkNoGaps() {
         SQLiteDatabase db = null;
         db = dbHelper.getWritableDatabase();
-        List<Integer> positions = getAllPositions(db);
+        List<Long> positions = getAllPositions(db);
         for (int i = 0; i < (positions.size() - 1); i++) {
-            if (positions.get(i + 1) != (positions.get(i) + 1)) {
+            if (positions.get(i + 1) <= positions.get(i)) {
                 return false;
             }
         }
@@ -361,44 +592,190 @@ public final class PlaylistDAOImpl
 
     /**
      * @param db The DB with which to perform the query.
-     * @return A list of all occupied positions in the DB, including doubles and
-     *         gaps.
+     * @return A list of all ordering keys in the DB, including doubles.
      */
-    private List<Integer> getAllPositions(SQLiteDatabase db) {
-        List<Integer> ret = new ArrayList<Integer>();
+    private List<Long> getAllPositions(SQLiteDatabase db) {
+        List<Long> ret = new ArrayList<Long>();
         Cursor c = db.query(DatabaseHelper.TABLE_PLAYLIST, new String[] {
                                 DatabaseHelper.COLUMN_PLAYLIST_POSITION
                             }, null, null, null, null, DatabaseHelper.COLUMN_PLAYLIST_POSITION);
-        if (c.moveToFirst()) {
-            do {
-                ret.add(c.getInt(0));
-            } while (c.moveToNext());
+        try {
+            while (c.moveToNext()) {
+                ret.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
         }
         return ret;
     }
 
     @Override
-    public void clearPlaylist() {
-        List<Episode> currentEpisodes = getNonCachedEpisodes();
-        for (int i = 0; i < currentEpisodes.size(); i++) {
-            removeEpisode(0);
+    public synchronized boolean clear() {
+        int ret;
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            ret = db.delete(DatabaseHelper.TABLE_PLAYLIST, null, null);
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return false;
         }
-        SQLiteDatabase db = null;
-        db = dbHelper.getReadableDatabase();
-        db.execSQL("DELETE FROM " + DatabaseHelper.TABLE_PLAYLIST);
+
+        mirror = PlaylistMirror.EMPTY;
+        if (ret > 0) {
+            notifyListenersBulkChanged();
+        }
+        return true;
     }
 
     @Override
-    public void removeEpisodesById(long id) {
-        List<Episode> currentEpisodes = getNonCachedEpisodes();
-        List<Integer> positionsToRemove = new ArrayList<Integer>();
-        for (int i = 0; i < currentEpisodes.size(); i++) {
-            if (currentEpisodes.get(i).getId() == id) {
-                positionsToRemove.add(i);
+    public synchronized int removeAll(Collection<Long> episodeIds) {
+        Set<Long> ids = new HashSet<Long>(episodeIds);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        StringBuilder in = new StringBuilder();
+        for (Long id : ids) {
+            if (in.length() > 0) {
+                in.append(',');
+            }
+            in.append(id.longValue());
+        }
+
+        int ret;
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            ret = db.delete(DatabaseHelper.TABLE_PLAYLIST, DatabaseHelper.COLUMN_PLAYLIST_EPISODE
+                            + " IN (" + in + ")", null);
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return 0;
+        }
+
+        if (ret > 0) {
+            mirror = mirror.removeAll(ids);
+            notifyListenersBulkChanged();
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized boolean addAll(List<Episode> episodes, int position) {
+        if (position < 0 || position > mirror.size()) {
+            return false;
+        }
+        if (episodes.isEmpty()) {
+            return true;
+        }
+
+        SQLiteDatabase db = null;
+        try {
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+
+            Item prev = getItemAt(db, position - 1);
+            Item next = getItemAt(db, position);
+
+            long n = episodes.size();
+            long first;
+            long step = DatabaseHelper.PLAYLIST_POSITION_GAP;
+            if (prev == null && next == null) {
+                first = 0;
+            } else if (next == null) {
+                first = prev.key + step;
+            } else if (prev == null) {
+                first = next.key - n * step;
+            } else {
+                step = (next.key - prev.key) / (n + 1);
+                first = prev.key + step;
+            }
+
+            if (step > 0) {
+                for (int i = 0; i < n; i++) {
+                    insertItem(db, episodes.get(i), first + i * step);
+                }
+                if (step < MIN_GAP) {
+                    renormalizeLater();
+                }
+            } else {
+
+                /* Not enough room between the neighbours: insert the new
+                 * items anywhere and spread out all keys in one go. */
+
+                List<Long> ids = getItemIds(db);
+                List<Long> added = new ArrayList<Long>(episodes.size());
+                for (Episode episode : episodes) {
+                    added.add(insertItem(db, episode, 0));
+                }
+                ids.addAll(position, added);
+                assignKeys(db, ids);
+            }
+
+            db.setTransactionSuccessful();
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return false;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
             }
         }
-        for (int i = 0; i < positionsToRemove.size(); i++) {
-            removeEpisode(positionsToRemove.get(i) - i);
+
+        long[] ids = new long[episodes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = episodes.get(i).getId();
         }
+        mirror = mirror.insert(position, ids);
+
+        notifyListenersBulkChanged();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean reorder(int[] permutation) {
+        SQLiteDatabase db = null;
+        try {
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+
+            List<Long> ids = getItemIds(db);
+            if (permutation.length != ids.size()) {
+                return false;
+            }
+
+            boolean[] seen = new boolean[permutation.length];
+            List<Long> reordered = new ArrayList<Long>(ids.size());
+            for (int from : permutation) {
+                if (from < 0 || from >= seen.length || seen[from]) {
+                    return false;
+                }
+                seen[from] = true;
+                reordered.add(ids.get(from));
+            }
+
+            assignKeys(db, reordered);
+            db.setTransactionSuccessful();
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return false;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
+        }
+
+        mirror = mirror.reorder(permutation);
+        notifyListenersBulkChanged();
+        return true;
+    }
+
+    @Override
+    public void clearPlaylist() {
+        clear();
+    }
+
+    @Override
+    public void removeEpisodesById(long id) {
+        removeAll(Collections.singleton(id));
     }
 }
@@ -0,0 +1,172 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable copy of the playlist order: the episode ids in playlist order
+ * and how often each of them occurs.
+ *
+ * <p>The playlist DAO replaces its mirror with a new one after each change,
+ * so readers such as list adapters can check membership without locking and
+ * without touching the database. Playlists are short, so copying on each
+ * change is cheap compared to the queries it saves.</p>
+ *
+ * <p>The counts are kept in an open addressing table with linear probing,
+ * which avoids boxing the ids.</p>
+ */
+final class PlaylistMirror {
+
+    /** Marks unused slots. It can therefore not be used as an id. */
+    private static final long FREE = Long.MIN_VALUE;
+
+    static final PlaylistMirror EMPTY = new PlaylistMirror(new long[0]);
+
+    private final long[] ids;
+
+    private final long[] keys;
+    private final int[] counts;
+    private final int mask;
+
+    PlaylistMirror(long[] ids) {
+        this.ids = ids;
+
+        int capacity = Integer.highestOneBit(Math.max(ids.length, 4) * 2) * 2;
+        keys = new long[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, FREE);
+
+        for (long id : ids) {
+            counts[slot(id)]++;
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return The slot of the given id, claimed for it if it is not in the
+     *         table yet. Only used while constructing.
+     */
+    private int slot(long id) {
+        if (id == FREE) {
+            throw new IllegalArgumentException("Unsupported id " + id);
+        }
+
+        int i = hash(id) & mask;
+        while (keys[i] != id && keys[i] != FREE) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        return i;
+    }
+
+    /**
+     * @return How often the episode with the given id is in the playlist.
+     */
+    int count(long id) {
+        int i = hash(id) & mask;
+        while (true) {
+            long k = keys[i];
+            if (k == id) {
+                return counts[i];
+            }
+            if (k == FREE) {
+                return 0;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    boolean contains(long id) {
+        return count(id) > 0;
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return A copy of the episode ids in playlist order.
+     */
+    long[] getIds() {
+        return ids.clone();
+    }
+
+    /**
+     * @return A mirror with the given ids inserted at the given position.
+     */
+    PlaylistMirror insert(int position, long... added) {
+        long[] ret = new long[ids.length + added.length];
+        System.arraycopy(ids, 0, ret, 0, position);
+        System.arraycopy(added, 0, ret, position, added.length);
+        System.arraycopy(ids, position, ret, position + added.length, ids.length - position);
+        return new PlaylistMirror(ret);
+    }
+
+    /**
+     * @return A mirror without the item at the given position.
+     */
+    PlaylistMirror remove(int position) {
+        long[] ret = new long[ids.length - 1];
+        System.arraycopy(ids, 0, ret, 0, position);
+        System.arraycopy(ids, position + 1, ret, position, ids.length - position - 1);
+        return new PlaylistMirror(ret);
+    }
+
+    /**
+     * @return A mirror without any occurrence of the given ids.
+     */
+    PlaylistMirror removeAll(Collection<Long> removed) {
+        long[] ret = new long[ids.length];
+        int n = 0;
+        for (long id : ids) {
+            if (!removed.contains(id)) {
+                ret[n++] = id;
+            }
+        }
+        return new PlaylistMirror(Arrays.copyOf(ret, n));
+    }
+
+    /**
+     * @return A mirror with the item at the first position moved to the
+     *         second one.
+     */
+    PlaylistMirror move(int firstPosition, int secondPosition) {
+        long id = ids[firstPosition];
+        return remove(firstPosition).insert(secondPosition, id);
+    }
+
+    /**
+     * @param permutation For each new position, the current position of the
+     *            item to put there.
+     * @return The reordered mirror.
+     */
+    PlaylistMirror reorder(int[] permutation) {
+        long[] ret = new long[permutation.length];
+        for (int i = 0; i < permutation.length; i++) {
+            ret[i] = ids[permutation[i]];
+        }
+        return new PlaylistMirror(ret);
+    }
+}
@@ -0,0 +1,50 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.Collection;
+import java.util.Set;
+
+import android.database.sqlite.SQLiteDatabase;
+import at.ac.tuwien.detlef.domain.Podcast;
+
+/**
+ * Deletes the episodes of a podcast as part of a transaction of the
+ * {@link PodcastDAO}, which only reports the deletion once it has committed.
+ *
+ * @see EpisodeDAO#deleteEpisodes(Podcast)
+ */
+interface PodcastEpisodeDeletion {
+
+    /**
+     * Deletes the episodes of the given podcast within the current transaction
+     * of the given database, without any other side effects.
+     *
+     * @return The ids of the deleted episodes.
+     */
+    Set<Long> deleteEpisodes(SQLiteDatabase db, Podcast podcast);
+
+    /**
+     * Cancels the downloads of the deleted episodes, starts deleting their
+     * files and notifies the listeners. Must only be called after the
+     * transaction deleting the episodes has been committed.
+     *
+     * @param episodeIds The ids returned by {@link #deleteEpisodes}.
+     */
+    void episodesDeleted(Podcast podcast, Collection<Long> episodeIds);
+}
@@ -20,36 +20,119 @@
 package at.ac.tuwien.detlef.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 import at.ac.tuwien.detlef.Singletons;
 import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Episode.ActionState;
 import at.ac.tuwien.detlef.domain.Episode.StorageState;
 import at.ac.tuwien.detlef.domain.EpisodePersistence;
+import at.ac.tuwien.detlef.domain.EpisodeSortChoice;
 import at.ac.tuwien.detlef.domain.LocalEpisodeAction;
 import at.ac.tuwien.detlef.domain.Podcast;
+import at.ac.tuwien.detlef.filter.FilterChain;
+import at.ac.tuwien.detlef.filter.KeywordFilter;
+import at.ac.tuwien.detlef.filter.SqlPredicate;
 
-public final class SimpleEpisodeDAO implements EpisodeDAO {
+public final class SimpleEpisodeDAO implements EpisodeDAO, PodcastEpisodeDeletion {
 
     private static final String TAG = SimpleEpisodeDAO.class.getName();
 
+    private static final String INSERT_EPISODE = String.format(
+        "INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s) "
+        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+        DatabaseHelper.TABLE_EPISODE,
+        DatabaseHelper.COLUMN_EPISODE_AUTHOR,
+        DatabaseHelper.COLUMN_EPISODE_DESCRIPTION,
+        DatabaseHelper.COLUMN_EPISODE_FILESIZE,
+        DatabaseHelper.COLUMN_EPISODE_GUID,
+        DatabaseHelper.COLUMN_EPISODE_LINK,
+        DatabaseHelper.COLUMN_EPISODE_MIMETYPE,
+        DatabaseHelper.COLUMN_EPISODE_PODCAST,
+        DatabaseHelper.COLUMN_EPISODE_RELEASED,
+        DatabaseHelper.COLUMN_EPISODE_TITLE,
+        DatabaseHelper.COLUMN_EPISODE_URL,
+        DatabaseHelper.COLUMN_EPISODE_FILEPATH,
+        DatabaseHelper.COLUMN_EPISODE_STATE,
+        DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION,
+        DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE);
+
+    private static final String DELETE_EPISODE = String.format(
+        "DELETE FROM %s WHERE %s = ?",
+        DatabaseHelper.TABLE_EPISODE, DatabaseHelper.COLUMN_EPISODE_ID);
+
+    /*
+     * The fields which can be updated and their columns, in the order they are
+     * bound by bindFields().
+     */
+    private static final int[] UPDATED_FIELDS = {
+        Episode.FIELD_AUTHOR, Episode.FIELD_DESCRIPTION, Episode.FIELD_FILE_SIZE,
+        Episode.FIELD_GUID, Episode.FIELD_LINK, Episode.FIELD_MIMETYPE, Episode.FIELD_RELEASED,
+        Episode.FIELD_TITLE, Episode.FIELD_URL, Episode.FIELD_FILE_PATH,
+        Episode.FIELD_STORAGE_STATE, Episode.FIELD_PLAY_POSITION, Episode.FIELD_ACTION_STATE
+    };
+    private static final String[] UPDATED_COLUMNS = {
+        DatabaseHelper.COLUMN_EPISODE_AUTHOR, DatabaseHelper.COLUMN_EPISODE_DESCRIPTION,
+        DatabaseHelper.COLUMN_EPISODE_FILESIZE, DatabaseHelper.COLUMN_EPISODE_GUID,
+        DatabaseHelper.COLUMN_EPISODE_LINK, DatabaseHelper.COLUMN_EPISODE_MIMETYPE,
+        DatabaseHelper.COLUMN_EPISODE_RELEASED, DatabaseHelper.COLUMN_EPISODE_TITLE,
+        DatabaseHelper.COLUMN_EPISODE_URL, DatabaseHelper.COLUMN_EPISODE_FILEPATH,
+        DatabaseHelper.COLUMN_EPISODE_STATE, DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION,
+        DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE
+    };
+
+    /* The UPDATE statements by the fields they write, built on first use. */
+    private static final Map<Integer, String> UPDATE_SQL = new HashMap<Integer, String>();
+
+    /*
+     * Merges feed data into an existing episode row. Local state (file path,
+     * storage state, play position, action state) is left untouched, and the
+     * row is only written if anything actually changed.
+     */
+    private static final String UPDATE_EPISODE_FEED_DATA = String.format(
+        "UPDATE %1$s SET %2$s = ?1, %3$s = ?2, %4$s = ?3, %5$s = ?4, %6$s = ?5, "
+        + "%7$s = ?6, %8$s = ?7, %9$s = ?8 WHERE %10$s = ?9 AND NOT ("
+        + "%2$s IS ?1 AND %3$s IS ?2 AND %4$s IS ?3 AND %5$s IS ?4 AND %6$s IS ?5 AND "
+        + "%7$s IS ?6 AND %8$s IS ?7 AND %9$s IS ?8)",
+        DatabaseHelper.TABLE_EPISODE,
+        DatabaseHelper.COLUMN_EPISODE_AUTHOR,
+        DatabaseHelper.COLUMN_EPISODE_DESCRIPTION,
+        DatabaseHelper.COLUMN_EPISODE_FILESIZE,
+        DatabaseHelper.COLUMN_EPISODE_LINK,
+        DatabaseHelper.COLUMN_EPISODE_MIMETYPE,
+        DatabaseHelper.COLUMN_EPISODE_RELEASED,
+        DatabaseHelper.COLUMN_EPISODE_TITLE,
+        DatabaseHelper.COLUMN_EPISODE_URL,
+        DatabaseHelper.COLUMN_EPISODE_ID);
+
+    /* Changes to these fields have to be written to the search index. */
+    private static final int SEARCHED_FIELDS = Episode.FIELD_TITLE | Episode.FIELD_DESCRIPTION;
+
     private final DatabaseHelper dbHelper;
     private final PodcastDAO podcastDAO;
+    private final FileDeletionQueue fileDeletions;
+    private final StatementCache statements;
     private final Set<EpisodeDAO.OnEpisodeChangeListener> listeners =
         new HashSet<EpisodeDAO.OnEpisodeChangeListener>();
 
     public SimpleEpisodeDAO(Context context) {
         dbHelper = Singletons.i().getDatabaseHelper();
         podcastDAO = Singletons.i().getPodcastDAO();
+        fileDeletions = Singletons.i().getFileDeletionQueue();
+        statements = dbHelper.getStatementCache();
 
         /* Take care of any pending database upgrades. */
 
@@ -62,68 +145,384 @@ public final class SimpleEpisodeDAO implements EpisodeDAO {
     @Override
     public Episode insertEpisode(Episode episode) {
         SQLiteDatabase db = null;
+        EpisodeSearchIndex index = null;
+        long id;
         try {
-            db = dbHelper.getWritableDatabase();
+            if (episode.getPodcast() == null) {
+                throw new IllegalArgumentException("The episode must belong to a podcast");
+            }
 
-            ContentValues values = toContentValues(episode);
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
 
-            long id = db.insert(DatabaseHelper.TABLE_EPISODE, null, values);
+            SQLiteStatement insert = statements.acquire(db, INSERT_EPISODE);
+            try {
+                bindEpisode(insert, episode);
+                id = insert.executeInsert();
+            } finally {
+                statements.release(db, INSERT_EPISODE, insert);
+            }
             if (id == -1) {
                 throw new SQLiteException("Episode insert failed");
             }
 
-            episode.setId(id);
-            notifyListenersAdded(episode);
+            index = new EpisodeSearchIndex(db);
+            index.index(id, episode.getTitle(), episode.getDescription());
 
+            db.setTransactionSuccessful();
         } catch (Exception ex) {
             Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
             return null;
+        } finally {
+            if (index != null) {
+                index.close();
+            }
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
         }
 
+        episode.setId(id);
+        episode.markClean();
+        notifyListenersAdded(episode);
+
         return episode;
     }
 
-    private ContentValues toContentValues(Episode episode) {
-        ContentValues values = new ContentValues();
-        values.put(DatabaseHelper.COLUMN_EPISODE_AUTHOR,
-                   episode.getAuthor());
-        values.put(DatabaseHelper.COLUMN_EPISODE_DESCRIPTION,
-                   episode.getDescription());
-        values.put(DatabaseHelper.COLUMN_EPISODE_FILESIZE,
-                   episode.getFileSize());
-        values.put(DatabaseHelper.COLUMN_EPISODE_GUID, episode.getGuid());
-        values.put(DatabaseHelper.COLUMN_EPISODE_LINK, episode.getLink());
-        values.put(DatabaseHelper.COLUMN_EPISODE_MIMETYPE,
-                   episode.getMimetype());
-        if (episode.getPodcast() == null) {
-            throw new IllegalArgumentException("The episode must belong to a podcast");
-        }
-        values.put(DatabaseHelper.COLUMN_EPISODE_PODCAST, episode
-                   .getPodcast().getId());
-        values.put(DatabaseHelper.COLUMN_EPISODE_RELEASED,
-                   episode.getReleased());
-        values.put(DatabaseHelper.COLUMN_EPISODE_TITLE, episode.getTitle());
-        values.put(DatabaseHelper.COLUMN_EPISODE_URL, episode.getUrl());
-        if (episode.getFilePath() == null) {
-            values.putNull(DatabaseHelper.COLUMN_EPISODE_FILEPATH);
-        } else {
-            values.put(DatabaseHelper.COLUMN_EPISODE_FILEPATH,
-                       episode.getFilePath());
+    /**
+     * @see EpisodeDAO#upsertEpisodes(Podcast, Collection)
+     */
+    @Override
+    public List<Episode> upsertEpisodes(Podcast podcast, Collection<Episode> episodes) {
+        List<Episode> added = new ArrayList<Episode>();
+        List<Episode> changed = new ArrayList<Episode>();
+        List<Episode> stored = upsertEpisodes(podcast, episodes, added, changed);
+        if (stored == null) {
+            return null;
+        }
+
+        if (!added.isEmpty()) {
+            notifyListenersAdded(added);
+        }
+        for (Episode episode : changed) {
+            notifyListenersChanged(episode);
+        }
+
+        return stored;
+    }
+
+    /**
+     * Stores the episodes like {@link #upsertEpisodes(Podcast, Collection)},
+     * but leaves notifying the listeners to the caller.
+     *
+     * @param added Receives the episodes which have been added.
+     * @param changed Receives the episodes whose feed data has changed.
+     */
+    List<Episode> upsertEpisodes(Podcast podcast, Collection<Episode> episodes,
+                                 List<Episode> added, List<Episode> changed) {
+        if (episodes.isEmpty()) {
+            return Collections.emptyList();
         }
-        if (episode.getStorageState() == null) {
-            values.putNull(DatabaseHelper.COLUMN_EPISODE_STATE);
+
+        List<Episode> stored = new ArrayList<Episode>(episodes.size());
+        List<StoredRow> rows = new ArrayList<StoredRow>(episodes.size());
+        Set<Long> seen = new HashSet<Long>();
+        SQLiteDatabase db = null;
+        SQLiteStatement insert = null;
+        SQLiteStatement update = null;
+        EpisodeSearchIndex index = null;
+        try {
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+
+            insert = statements.acquire(db, INSERT_EPISODE);
+            update = statements.acquire(db, UPDATE_EPISODE_FEED_DATA);
+            index = new EpisodeSearchIndex(db);
+            for (Episode episode : episodes) {
+                if (episode.getPodcast() != podcast) {
+                    throw new IllegalArgumentException(
+                        "All episodes must belong to the given podcast");
+                }
+
+                StoredRow row = findStoredRow(db, episode);
+                if (row == null) {
+                    bindEpisode(insert, episode);
+                    long id = insert.executeInsert();
+                    if (id == -1) {
+                        throw new SQLiteException("Episode insert failed");
+                    }
+                    row = new StoredRow(id);
+                    index.index(id, episode.getTitle(), episode.getDescription());
+                } else if (!seen.contains(row.id)) {
+                    bindFeedData(update, episode, row.id);
+                    row.changed = update.executeUpdateDelete() > 0;
+                    if (row.changed) {
+                        index.index(row.id, episode.getTitle(), episode.getDescription());
+                    }
+                } else {
+                    /* The feed lists this episode more than once. */
+                    continue;
+                }
+
+                seen.add(row.id);
+                stored.add(episode);
+                rows.add(row);
+            }
+
+            db.setTransactionSuccessful();
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return null;
+        } finally {
+            if (insert != null) {
+                statements.release(db, INSERT_EPISODE, insert);
+            }
+            if (update != null) {
+                statements.release(db, UPDATE_EPISODE_FEED_DATA, update);
+            }
+            if (index != null) {
+                index.close();
+            }
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
+        }
+
+        dbHelper.requestIdleCheckpoint();
+
+        /* Only touch the given episodes once the transaction has actually been committed. */
+
+        for (int i = 0; i < stored.size(); i++) {
+            Episode episode = stored.get(i);
+            StoredRow row = rows.get(i);
+            row.applyTo(episode);
+            episode.markClean();
+            if (row.isNew) {
+                added.add(episode);
+            } else if (row.changed) {
+                changed.add(episode);
+            }
+        }
+
+        return stored;
+    }
+
+    /**
+     * Looks up the row an episode of a feed is already stored in. Episodes are
+     * identified by their guid within their podcast, or by their url if the
+     * feed does not provide a guid.
+     *
+     * @return The stored row including the local state of the episode, or null
+     *         if the episode is not known yet.
+     */
+    private StoredRow findStoredRow(SQLiteDatabase db, Episode episode) {
+        String selection;
+        String[] selectionArgs = new String[2];
+        if (episode.getGuid() != null) {
+            selection = DatabaseHelper.COLUMN_EPISODE_GUID + " = ? AND "
+                        + DatabaseHelper.COLUMN_EPISODE_PODCAST + " = ?";
+            selectionArgs[0] = episode.getGuid();
         } else {
-            values.put(DatabaseHelper.COLUMN_EPISODE_STATE, episode
-                       .getStorageState().toString());
+            selection = DatabaseHelper.COLUMN_EPISODE_URL + " = ? AND "
+                        + DatabaseHelper.COLUMN_EPISODE_PODCAST + " = ?";
+            selectionArgs[0] = episode.getUrl();
+        }
+        selectionArgs[1] = String.valueOf(episode.getPodcast().getId());
+
+        String[] projection = {
+            DatabaseHelper.COLUMN_EPISODE_ID,
+            DatabaseHelper.COLUMN_EPISODE_FILEPATH,
+            DatabaseHelper.COLUMN_EPISODE_STATE,
+            DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION,
+            DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE
+        };
+
+        Cursor c = db.query(DatabaseHelper.TABLE_EPISODE, projection, selection,
+                            selectionArgs, null, null, null, "1");
+        try {
+            if (!c.moveToFirst()) {
+                return null;
+            }
+
+            StoredRow row = new StoredRow(c.getLong(0));
+            row.isNew = false;
+            row.filePath = c.getString(1);
+            row.storageState = c.isNull(2) ? null : StorageState.valueOf(c.getString(2));
+            row.playPosition = c.getInt(3);
+            row.actionState = c.isNull(4) ? null : ActionState.valueOf(c.getString(4));
+            return row;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * An episode row touched by {@link #upsertEpisodes(Podcast, Collection)}.
+     * For rows which already existed it carries the local state which must
+     * survive the feed update.
+     */
+    private static final class StoredRow {
+        private final long id;
+        private boolean isNew = true;
+        private boolean changed;
+        private String filePath;
+        private StorageState storageState;
+        private int playPosition;
+        private ActionState actionState;
+
+        private StoredRow(long id) {
+            this.id = id;
+        }
+
+        private void applyTo(Episode episode) {
+            episode.setId(id);
+            if (!isNew) {
+                episode.setFilePath(filePath)
+                .setStorageState(storageState)
+                .setPlayPosition(playPosition)
+                .setActionState(actionState);
+            }
         }
-        values.put(DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION, episode.getPlayPosition());
-        if (episode.getActionState() == null) {
-            values.putNull(DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE);
+    }
+
+    /**
+     * Binds the feed provided columns of the given episode to
+     * {@link #UPDATE_EPISODE_FEED_DATA}.
+     */
+    private static void bindFeedData(SQLiteStatement stmt, Episode episode, long id) {
+        stmt.clearBindings();
+        bindString(stmt, 1, episode.getAuthor());
+        bindString(stmt, 2, episode.getDescription());
+        stmt.bindLong(3, episode.getFileSize());
+        bindString(stmt, 4, episode.getLink());
+        bindString(stmt, 5, episode.getMimetype());
+        stmt.bindLong(6, episode.getReleased());
+        bindString(stmt, 7, episode.getTitle());
+        bindString(stmt, 8, episode.getUrl());
+        stmt.bindLong(9, id);
+    }
+
+    /**
+     * Binds all columns of {@link #INSERT_EPISODE} to the values of the given
+     * episode.
+     */
+    private static void bindEpisode(SQLiteStatement stmt, Episode episode) {
+        stmt.clearBindings();
+        bindString(stmt, 1, episode.getAuthor());
+        bindString(stmt, 2, episode.getDescription());
+        stmt.bindLong(3, episode.getFileSize());
+        bindString(stmt, 4, episode.getGuid());
+        bindString(stmt, 5, episode.getLink());
+        bindString(stmt, 6, episode.getMimetype());
+        stmt.bindLong(7, episode.getPodcast().getId());
+        stmt.bindLong(8, episode.getReleased());
+        bindString(stmt, 9, episode.getTitle());
+        bindString(stmt, 10, episode.getUrl());
+        bindString(stmt, 11, episode.getFilePath());
+        bindString(stmt, 12, episode.getStorageState() == null
+                   ? null : episode.getStorageState().toString());
+        stmt.bindLong(13, episode.getPlayPosition());
+        bindString(stmt, 14, episode.getActionState() == null
+                   ? null : episode.getActionState().toString());
+    }
+
+    private static void bindString(SQLiteStatement stmt, int index, String value) {
+        if (value == null) {
+            stmt.bindNull(index);
         } else {
-            values.put(DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE,
-                       episode.getActionState().toString());
+            stmt.bindString(index, value);
+        }
+    }
+
+    /**
+     * @param fields The fields to write, a combination of the
+     *            Episode.FIELD_* constants.
+     * @return The statement updating the given fields of an episode, see
+     *         {@link #bindFields(SQLiteStatement, Episode, int)}.
+     */
+    private static String getUpdateSql(int fields) {
+        synchronized (UPDATE_SQL) {
+            String sql = UPDATE_SQL.get(fields);
+            if (sql == null) {
+                StringBuilder sb = new StringBuilder("UPDATE ")
+                .append(DatabaseHelper.TABLE_EPISODE).append(" SET ");
+                String sep = "";
+                for (int i = 0; i < UPDATED_FIELDS.length; i++) {
+                    if ((fields & UPDATED_FIELDS[i]) != 0) {
+                        sb.append(sep).append(UPDATED_COLUMNS[i]).append(" = ?");
+                        sep = ", ";
+                    }
+                }
+                sb.append(" WHERE ").append(DatabaseHelper.COLUMN_EPISODE_ID).append(" = ?");
+
+                sql = sb.toString();
+                UPDATE_SQL.put(fields, sql);
+            }
+            return sql;
+        }
+    }
+
+    /**
+     * Binds the given fields of the episode followed by its id to the
+     * statement returned by {@link #getUpdateSql(int)}.
+     */
+    private static void bindFields(SQLiteStatement stmt, Episode episode, int fields) {
+        stmt.clearBindings();
+        int index = 1;
+        for (int field : UPDATED_FIELDS) {
+            if ((fields & field) != 0) {
+                bindField(stmt, index++, episode, field);
+            }
+        }
+        stmt.bindLong(index, episode.getId());
+    }
+
+    private static void bindField(SQLiteStatement stmt, int index, Episode episode, int field) {
+        switch (field) {
+        case Episode.FIELD_AUTHOR:
+            bindString(stmt, index, episode.getAuthor());
+            break;
+        case Episode.FIELD_DESCRIPTION:
+            bindString(stmt, index, episode.getDescription());
+            break;
+        case Episode.FIELD_FILE_SIZE:
+            stmt.bindLong(index, episode.getFileSize());
+            break;
+        case Episode.FIELD_GUID:
+            bindString(stmt, index, episode.getGuid());
+            break;
+        case Episode.FIELD_LINK:
+            bindString(stmt, index, episode.getLink());
+            break;
+        case Episode.FIELD_MIMETYPE:
+            bindString(stmt, index, episode.getMimetype());
+            break;
+        case Episode.FIELD_RELEASED:
+            stmt.bindLong(index, episode.getReleased());
+            break;
+        case Episode.FIELD_TITLE:
+            bindString(stmt, index, episode.getTitle());
+            break;
+        case Episode.FIELD_URL:
+            bindString(stmt, index, episode.getUrl());
+            break;
+        case Episode.FIELD_FILE_PATH:
+            bindString(stmt, index, episode.getFilePath());
+            break;
+        case Episode.FIELD_STORAGE_STATE:
+            bindString(stmt, index, episode.getStorageState() == null
+                       ? null : episode.getStorageState().toString());
+            break;
+        case Episode.FIELD_PLAY_POSITION:
+            stmt.bindLong(index, episode.getPlayPosition());
+            break;
+        case Episode.FIELD_ACTION_STATE:
+            bindString(stmt, index, episode.getActionState() == null
+                       ? null : episode.getActionState().toString());
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown field " + field);
         }
-        return values;
     }
 
     /**
@@ -131,21 +530,149 @@ public final class SimpleEpisodeDAO implements EpisodeDAO {
      */
     @Override
     public int deleteEpisode(Episode episode) {
-        EpisodePersistence.delete(episode);
+        String path = episode.getFilePath();
 
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        String selection = DatabaseHelper.COLUMN_EPISODE_ID + " = ?";
-        String[] selectionArgs = {
-            String.valueOf(episode.getId())
-        };
+        int ret = 0;
+        SQLiteDatabase db = null;
+        try {
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
 
-        int ret = db.delete(DatabaseHelper.TABLE_EPISODE, selection, selectionArgs);
+            SQLiteStatement delete = statements.acquire(db, DELETE_EPISODE);
+            try {
+                delete.bindLong(1, episode.getId());
+                ret = delete.executeUpdateDelete();
+            } finally {
+                statements.release(db, DELETE_EPISODE, delete);
+            }
+            if (ret > 0 && path != null) {
+                FileDeletionQueue.enqueue(db, Collections.singleton(path));
+            }
+
+            db.setTransactionSuccessful();
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return 0;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
+        }
+
+        EpisodePersistence.cancelDownload(episode);
+        episode.setFilePath(null);
+        episode.setStorageState(StorageState.NOT_ON_DEVICE);
+        fileDeletions.drainAsync();
 
         notifyListenersDeleted(episode);
 
         return ret;
     }
 
+    private static final String DELETE_PODCAST_PLAYLIST_ITEMS = String.format(
+                "%s IN (SELECT %s FROM %s WHERE %s = ?)",
+                DatabaseHelper.COLUMN_PLAYLIST_EPISODE, DatabaseHelper.COLUMN_EPISODE_ID,
+                DatabaseHelper.TABLE_EPISODE, DatabaseHelper.COLUMN_EPISODE_PODCAST);
+
+    private static final String ENQUEUE_PODCAST_FILES = String.format(
+                "INSERT OR IGNORE INTO %s (%s) SELECT %s FROM %s WHERE %s = ? AND %s IS NOT NULL",
+                DatabaseHelper.TABLE_PENDING_FILE_DELETION,
+                DatabaseHelper.COLUMN_PENDING_FILE_DELETION_PATH,
+                DatabaseHelper.COLUMN_EPISODE_FILEPATH, DatabaseHelper.TABLE_EPISODE,
+                DatabaseHelper.COLUMN_EPISODE_PODCAST, DatabaseHelper.COLUMN_EPISODE_FILEPATH);
+
+    /**
+     * Deletes the episodes with a few set based statements. Search index rows
+     * go along through their trigger; the playlist has no foreign key and is
+     * cleaned up explicitly. The downloaded files are handed over to the
+     * {@link FileDeletionQueue}.
+     *
+     * @see EpisodeDAO#deleteEpisodes(Podcast)
+     */
+    @Override
+    public int deleteEpisodes(Podcast podcast) {
+        Set<Long> ids = deleteEpisodesQuietly(podcast);
+        if (ids == null) {
+            return -1;
+        }
+
+        episodesDeleted(podcast, ids);
+        return ids.size();
+    }
+
+    /**
+     * Deletes the episodes of the given podcast in a transaction of its own,
+     * but leaves the side effects to the caller, see
+     * {@link #episodesDeleted(Podcast, Collection)}.
+     *
+     * @return The ids of the deleted episodes, or null if the transaction
+     *         failed.
+     */
+    Set<Long> deleteEpisodesQuietly(Podcast podcast) {
+        Set<Long> ids;
+        SQLiteDatabase db = null;
+        try {
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+
+            ids = deleteEpisodes(db, podcast);
+
+            db.setTransactionSuccessful();
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return null;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @see PodcastEpisodeDeletion#deleteEpisodes(SQLiteDatabase, Podcast)
+     */
+    @Override
+    public Set<Long> deleteEpisodes(SQLiteDatabase db, Podcast podcast) {
+        String selection = DatabaseHelper.COLUMN_EPISODE_PODCAST + " = ?";
+        String[] selectionArgs = {
+            String.valueOf(podcast.getId())
+        };
+        String[] columns = {
+            DatabaseHelper.COLUMN_EPISODE_ID
+        };
+
+        Set<Long> ids = new HashSet<Long>();
+        Cursor c = db.query(DatabaseHelper.TABLE_EPISODE, columns, selection, selectionArgs,
+                            null, null, null);
+        try {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+
+        db.execSQL(ENQUEUE_PODCAST_FILES, selectionArgs);
+        db.delete(DatabaseHelper.TABLE_PLAYLIST, DELETE_PODCAST_PLAYLIST_ITEMS, selectionArgs);
+        db.delete(DatabaseHelper.TABLE_EPISODE, selection, selectionArgs);
+        return ids;
+    }
+
+    /**
+     * @see PodcastEpisodeDeletion#episodesDeleted(Podcast, Collection)
+     */
+    @Override
+    public void episodesDeleted(Podcast podcast, Collection<Long> episodeIds) {
+        if (episodeIds.isEmpty()) {
+            return;
+        }
+
+        EpisodePersistence.cancelDownloads(episodeIds);
+        fileDeletions.drainAsync();
+        notifyListenersDeleted(podcast, episodeIds);
+    }
+
     /**
      * @see EpisodeDAO#getAllEpisodes()
      */
@@ -167,6 +694,269 @@ public final class SimpleEpisodeDAO implements EpisodeDAO {
         return ret.get(0);
     }
 
+    @Override
+    public List<Episode> getEpisodesById(long[] ids) {
+        if (ids.length == 0) {
+            return new ArrayList<Episode>();
+        }
+
+        StringBuilder in = new StringBuilder();
+        for (long id : ids) {
+            if (in.length() > 0) {
+                in.append(',');
+            }
+            in.append(id);
+        }
+
+        Map<Long, Episode> byId = new HashMap<Long, Episode>();
+        for (Episode e : getEpisodesWhere(DatabaseHelper.COLUMN_EPISODE_ID
+                                          + " IN (" + in + ")", null)) {
+            byId.put(e.getId(), e);
+        }
+
+        List<Episode> ret = new ArrayList<Episode>(ids.length);
+        for (long id : ids) {
+            Episode e = byId.get(id);
+            if (e != null) {
+                ret.add(e);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @see EpisodeDAO#loadDetails(Episode)
+     */
+    @Override
+    public Episode loadDetails(Episode episode) {
+        if (episode.isDescriptionComplete()) {
+            return episode;
+        }
+
+        episode.completeDescription(loadDescription(dbHelper.getReadableDatabase(),
+                                    episode.getId()));
+        return episode;
+    }
+
+    /**
+     * @return The stored description of the episode with the given id.
+     */
+    private static String loadDescription(SQLiteDatabase db, long id) {
+        Cursor c = db.query(DatabaseHelper.TABLE_EPISODE, new String[] {
+                                DatabaseHelper.COLUMN_EPISODE_DESCRIPTION
+                            }, DatabaseHelper.COLUMN_EPISODE_ID + " = ?", new String[] {
+                                String.valueOf(id)
+                            }, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @see EpisodeDAO#searchEpisodes(String)
+     */
+    @Override
+    public List<Long> searchEpisodes(String keyword) {
+        return EpisodeSearchIndex.search(dbHelper.getReadableDatabase(), keyword);
+    }
+
+    /**
+     * @see EpisodeDAO#query(FilterChain, EpisodeSortChoice, boolean, int, int)
+     */
+    @Override
+    public List<Episode> query(FilterChain filters, EpisodeSortChoice sortChoice,
+                               boolean ascending, int limit, int offset) {
+        SqlPredicate predicate = filters.toSqlPredicate();
+        FilterChain remaining = filters.getRemainingFilters();
+        SqlPredicate rank = toRankExpression(filters);
+        String orderBy = toOrderBy(sortChoice, ascending, rank);
+
+        /* The order by clause follows the where clause, so are its arguments. */
+        String[] args = predicate.getSelectionArgs();
+        if (rank != null) {
+            args = concat(args, rank.getSelectionArgs());
+        }
+
+        if (remaining.countFilters() == 0) {
+            String window = null;
+            if (limit != NO_LIMIT || offset > 0) {
+                window = offset + ", " + (limit != NO_LIMIT ? limit : Integer.MAX_VALUE);
+            }
+            return getEpisodesWhere(EpisodeRowMapper.SUMMARY_PROJECTION,
+                                    predicate.getSelection(), args, orderBy, window);
+        }
+
+        /* The window can only be applied after the remaining filters. */
+
+        List<Episode> ret = new ArrayList<Episode>();
+        int skipped = 0;
+        for (Episode e : getEpisodesWhere(EpisodeRowMapper.SUMMARY_PROJECTION,
+                                          predicate.getSelection(), args, orderBy, null)) {
+            if (limit != NO_LIMIT && ret.size() == limit) {
+                break;
+            }
+            if (remaining.filter(e)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            ret.add(e);
+        }
+        return ret;
+    }
+
+    /**
+     * @see EpisodeDAO#getEpisodePage(FilterChain, EpisodeSortChoice, boolean,
+     *      Episode, int)
+     */
+    @Override
+    public List<Episode> getEpisodePage(FilterChain filters, EpisodeSortChoice sortChoice,
+                                        boolean ascending, Episode after, int count) {
+        SqlPredicate predicate = filters.toSqlPredicate();
+        FilterChain remaining = filters.getRemainingFilters();
+        KeywordFilter keyword = (KeywordFilter) filters.getEpisodeFilterByType(new KeywordFilter());
+        SqlPredicate rank = (keyword == null ? null : keyword.toRankExpression());
+        String orderBy = toOrderBy(sortChoice, ascending, rank);
+        String[] orderArgs = (rank == null ? new String[0] : rank.getSelectionArgs());
+        String limit = String.valueOf(count);
+
+        /* Episodes dropped by the remaining filters leave the page short, so
+         * further rows are fetched until it is full. */
+
+        List<Episode> ret = new ArrayList<Episode>(count);
+        Episode last = after;
+        while (ret.size() < count) {
+            SqlPredicate where = (last == null ? predicate : SqlPredicate.and(
+                                      Arrays.asList(predicate, toKeysetPredicate(
+                                                        last, sortChoice, ascending, keyword))));
+            List<Episode> rows = getEpisodesWhere(EpisodeRowMapper.SUMMARY_PROJECTION,
+                                                  where.getSelection(),
+                                                  concat(where.getSelectionArgs(), orderArgs),
+                                                  orderBy, limit);
+            for (Episode e : rows) {
+                if (ret.size() < count && !remaining.filter(e)) {
+                    ret.add(e);
+                }
+            }
+
+            if (rows.size() < count) {
+                break;
+            }
+            last = rows.get(rows.size() - 1);
+        }
+        return ret;
+    }
+
+    /**
+     * @param keyword The keyword filter of the query, or null. Search results
+     *            are ordered by rank, see {@link #toOrderBy}.
+     * @return A predicate matching the episodes after the given one in the
+     *         order of {@link #toOrderBy}. The redundant bound on the first
+     *         column lets SQLite seek in the index on it.
+     */
+    private static SqlPredicate toKeysetPredicate(Episode episode, EpisodeSortChoice sortChoice,
+            boolean ascending, KeywordFilter keyword) {
+        SqlPredicate rank = (keyword == null ? null : keyword.toRankExpression());
+        String op = (rank != null || !ascending ? "<" : ">");
+        SqlPredicate byId = new SqlPredicate(DatabaseHelper.COLUMN_EPISODE_ID + " " + op + " ?",
+                                             String.valueOf(episode.getId()));
+        SqlPredicate byReleased = toKeysetPredicate(
+                                      new SqlPredicate(DatabaseHelper.COLUMN_EPISODE_RELEASED),
+                                      new SqlPredicate("?", String.valueOf(episode.getReleased())),
+                                      op, byId);
+
+        if (rank != null) {
+            /* An episode deleted since it was loaded has rank 0, so the
+             * remaining best matches are skipped until the list is reloaded. */
+            return toKeysetPredicate(rank, keyword.toRankExpression(episode.getId()), op,
+                                     byReleased);
+        }
+
+        String column;
+        String value;
+        SqlPredicate next;
+        switch (sortChoice) {
+        case Podcast:
+            column = DatabaseHelper.COLUMN_EPISODE_PODCAST;
+            value = String.valueOf(episode.getPodcast().getId());
+            next = toKeysetPredicate(new SqlPredicate(column), new SqlPredicate("?", value), op,
+                                     byId);
+            break;
+        case ReleaseDate:
+            column = DatabaseHelper.COLUMN_EPISODE_RELEASED;
+            value = String.valueOf(episode.getReleased());
+            next = byReleased;
+            break;
+        default:
+            throw new IllegalArgumentException("Illegal sort choice");
+        }
+        return SqlPredicate.and(Arrays.asList(
+                                    new SqlPredicate(column + " " + op + "= ?", value), next));
+    }
+
+    /**
+     * @return A predicate matching the rows whose key comes after the given
+     *         value, and those with an equal key which match the tie breaker.
+     */
+    private static SqlPredicate toKeysetPredicate(SqlPredicate key, SqlPredicate value, String op,
+            SqlPredicate tieBreaker) {
+        String selection = String.format("(%1$s) %3$s (%2$s) OR ((%1$s) = (%2$s) AND (%4$s))",
+                                         key.getSelection(), value.getSelection(), op,
+                                         tieBreaker.getSelection());
+        String[] args = concat(concat(key.getSelectionArgs(), value.getSelectionArgs()),
+                               concat(concat(key.getSelectionArgs(), value.getSelectionArgs()),
+                                      tieBreaker.getSelectionArgs()));
+        return new SqlPredicate(selection, args);
+    }
+
+    /**
+     * @return The rank expression of the keyword filter in the chain, or null
+     *         if the chain does not search for a keyword.
+     */
+    private static SqlPredicate toRankExpression(FilterChain filters) {
+        KeywordFilter keyword = (KeywordFilter) filters.getEpisodeFilterByType(new KeywordFilter());
+        return keyword == null ? null : keyword.toRankExpression();
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        String[] ret = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, ret, first.length, second.length);
+        return ret;
+    }
+
+    /**
+     * @param rank The rank expression of a search, or null. Search results
+     *            are ordered by it, latest first among equal ranks, regardless
+     *            of the sort choice.
+     * @return The order by clause for the given sort choice. Sorting by the
+     *         release date uses the index on it.
+     */
+    private static String toOrderBy(EpisodeSortChoice sortChoice, boolean ascending,
+                                    SqlPredicate rank) {
+        if (rank != null) {
+            return rank.getSelection() + " DESC, " + DatabaseHelper.COLUMN_EPISODE_RELEASED
+                   + " DESC, " + DatabaseHelper.COLUMN_EPISODE_ID + " DESC";
+        }
+
+        String direction = (ascending ? " ASC" : " DESC");
+        String column;
+        switch (sortChoice) {
+        case Podcast:
+            column = DatabaseHelper.COLUMN_EPISODE_PODCAST;
+            break;
+        case ReleaseDate:
+            column = DatabaseHelper.COLUMN_EPISODE_RELEASED;
+            break;
+        default:
+            throw new IllegalArgumentException("Illegal sort choice");
+        }
+        return column + direction + ", " + DatabaseHelper.COLUMN_EPISODE_ID + direction;
+    }
+
     /**
      * @see EpisodeDAO#getEpisodes(Podcast)
      */
@@ -184,51 +974,138 @@ public final class SimpleEpisodeDAO implements EpisodeDAO {
      */
     @Override
     public int update(Episode episode) {
-        ContentValues values = toContentValues(episode);
-        SQLiteDatabase db = null;
-        int rows = 0;
-
-        /* We need the old state of the episode in order to deduct current changes
-         * for episode actions. */
+        return update(Collections.singletonList(episode));
+    }
 
-        Episode oldEpisode = getEpisode(episode.getId());
+    /**
+     * Writes the fields of the episodes which have been changed since they
+     * were last stored. Episode actions for a finished download and a changed
+     * play position are recorded in the same transaction.
+     *
+     * @see EpisodeDAO#update(Collection)
+     */
+    @Override
+    public int update(Collection<Episode> episodes) {
+        List<Episode> dirty = new ArrayList<Episode>(episodes.size());
+        List<Episode.Changes> changes = new ArrayList<Episode.Changes>(episodes.size());
+        for (Episode episode : episodes) {
+            Episode.Changes c = episode.takeChanges();
+            if (!c.isEmpty()) {
+                dirty.add(episode);
+                changes.add(c);
+            }
+        }
+        if (dirty.isEmpty()) {
+            return 0;
+        }
 
+        boolean[] written = new boolean[dirty.size()];
+        boolean committed = false;
+        SQLiteDatabase db = null;
+        EpisodeSearchIndex index = null;
         try {
             db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
 
-            String selection = DatabaseHelper.COLUMN_EPISODE_ID + " = ?";
-            String[] selectionArgs = {
-                String.valueOf(episode.getId())
-            };
-
-            rows = db.update(DatabaseHelper.TABLE_EPISODE, values, selection, selectionArgs);
-
-            /* Trigger download and play position episode actions if applicable. */
+            for (int i = 0; i < dirty.size(); i++) {
+                Episode episode = dirty.get(i);
+                Episode.Changes c = changes.get(i);
 
-            EpisodeActionDAO epDao = Singletons.i().getEpisodeActionDAO();
-            if (episode.getStorageState() == Episode.StorageState.DOWNLOADED &&
-                    oldEpisode.getStorageState() != episode.getStorageState()) {
-                LocalEpisodeAction action = new LocalEpisodeAction(episode.getPodcast(),
-                        episode.getUrl(), Episode.ActionState.DOWNLOAD, null, null, null);
-                epDao.insertEpisodeAction(action);
-            }
+                String sql = getUpdateSql(c.getFields());
+                SQLiteStatement stmt = statements.acquire(db, sql);
+                int updated;
+                try {
+                    bindFields(stmt, episode, c.getFields());
+                    updated = stmt.executeUpdateDelete();
+                } finally {
+                    statements.release(db, sql, stmt);
+                }
 
-            if (oldEpisode.getPlayPosition() != episode.getPlayPosition()) {
-                LocalEpisodeAction action = new LocalEpisodeAction(episode.getPodcast(),
-                        episode.getUrl(), Episode.ActionState.PLAY, null,
-                        episode.getPlayPosition() / 1000,
-                        null);
-                epDao.insertEpisodeAction(action);
+                if (updated == 1) {
+                    if ((c.getFields() & SEARCHED_FIELDS) != 0) {
+                        if (index == null) {
+                            index = new EpisodeSearchIndex(db);
+                        }
+                        /* Summaries only hold an excerpt of the description. */
+                        String description = (episode.isDescriptionComplete()
+                                              ? episode.getDescription()
+                                              : loadDescription(db, episode.getId()));
+                        index.index(episode.getId(), episode.getTitle(), description);
+                    }
+                    insertEpisodeActions(episode, c);
+                    written[i] = true;
+                }
             }
 
-            notifyListenersChanged(episode);
+            db.setTransactionSuccessful();
+            committed = true;
         } catch (Exception ex) {
             Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        } finally {
+            if (index != null) {
+                index.close();
+            }
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
+        }
+
+        dbHelper.requestIdleCheckpoint();
+
+        /* Changes stay pending if the transaction failed. Changes of episodes
+         * which have been deleted in the meantime are dropped, retrying them
+         * would never succeed. */
+
+        int rows = 0;
+        for (int i = 0; i < dirty.size(); i++) {
+            if (!committed) {
+                dirty.get(i).restoreChanges(changes.get(i));
+            } else if (written[i]) {
+                rows++;
+                notifyListenersChanged(dirty.get(i));
+            }
         }
 
         return rows;
     }
 
+    /**
+     * Triggers download and play position episode actions if applicable. Must
+     * be called within the transaction writing the changes.
+     */
+    private void insertEpisodeActions(Episode episode, Episode.Changes changes) {
+        if (episode.getPodcast() == null) {
+            return;
+        }
+
+        EpisodeActionDAO epDao = Singletons.i().getEpisodeActionDAO();
+        if (changes.contains(Episode.FIELD_STORAGE_STATE)
+                && episode.getStorageState() == Episode.StorageState.DOWNLOADED
+                && changes.getPreviousStorageState() != Episode.StorageState.DOWNLOADED) {
+            LocalEpisodeAction action = new LocalEpisodeAction(episode.getPodcast(),
+                    episode.getUrl(), Episode.ActionState.DOWNLOAD, null, null, null);
+            if (!epDao.insertEpisodeAction(action)) {
+                throw new SQLiteException("Download episode action insert failed");
+            }
+        }
+
+        if (changes.contains(Episode.FIELD_PLAY_POSITION)
+                && changes.getPreviousPlayPosition() != episode.getPlayPosition()) {
+            LocalEpisodeAction action = new LocalEpisodeAction(episode.getPodcast(),
+                    episode.getUrl(), Episode.ActionState.PLAY, null,
+                    episode.getPlayPosition() / 1000,
+                    null);
+            if (!epDao.insertEpisodeAction(action)) {
+                throw new SQLiteException("Play episode action insert failed");
+            }
+        }
+    }
+
+    @Override
+    public void pinEpisodes(Object owner, Collection<Episode> episodes) {
+        // nothing is cached here
+    }
+
     @Override
     public void addEpisodeChangedListener(EpisodeDAO.OnEpisodeChangeListener listener) {
         listeners.add(listener);
@@ -251,12 +1128,24 @@ public final class SimpleEpisodeDAO implements EpisodeDAO {
         }
     }
 
+    private void notifyListenersAdded(List<Episode> episodes) {
+        for (EpisodeDAO.OnEpisodeChangeListener listener : listeners) {
+            listener.onEpisodesAdded(episodes);
+        }
+    }
+
     private void notifyListenersDeleted(Episode episode) {
         for (EpisodeDAO.OnEpisodeChangeListener listener : listeners) {
             listener.onEpisodeDeleted(episode);
         }
     }
 
+    private void notifyListenersDeleted(Podcast podcast, Collection<Long> episodeIds) {
+        for (EpisodeDAO.OnEpisodeChangeListener listener : listeners) {
+            listener.onEpisodesDeleted(podcast, episodeIds);
+        }
+    }
+
     @Override
     public Episode getEpisodeByUrlOrGuid(String url, String guid) {
         String selection = DatabaseHelper.COLUMN_EPISODE_URL + " = ? OR "
@@ -273,74 +1162,31 @@ public final class SimpleEpisodeDAO implements EpisodeDAO {
 
     private List<Episode> getEpisodesWhere(String selection,
                                            String[] selectionArgs) {
+        return getEpisodesWhere(EpisodeRowMapper.FULL_PROJECTION, selection, selectionArgs,
+                                DatabaseHelper.COLUMN_EPISODE_RELEASED + " DESC", null);
+    }
+
+    /**
+     * @param projection One of the projections of {@link EpisodeRowMapper}.
+     * @param orderBy The order by clause.
+     * @param limit The limit clause, or null to get all matching episodes.
+     */
+    private List<Episode> getEpisodesWhere(String[] projection, String selection,
+                                           String[] selectionArgs, String orderBy, String limit) {
         List<Episode> allEpisodes = new ArrayList<Episode>();
         SQLiteDatabase db = dbHelper.getReadableDatabase();
-        String[] projection = {
-            DatabaseHelper.COLUMN_EPISODE_AUTHOR,
-            DatabaseHelper.COLUMN_EPISODE_DESCRIPTION,
-            DatabaseHelper.COLUMN_EPISODE_FILESIZE,
-            DatabaseHelper.COLUMN_EPISODE_GUID,
-            DatabaseHelper.COLUMN_EPISODE_ID,
-            DatabaseHelper.COLUMN_EPISODE_LINK,
-            DatabaseHelper.COLUMN_EPISODE_MIMETYPE,
-            DatabaseHelper.COLUMN_EPISODE_PODCAST,
-            DatabaseHelper.COLUMN_EPISODE_RELEASED,
-            DatabaseHelper.COLUMN_EPISODE_TITLE,
-            DatabaseHelper.COLUMN_EPISODE_URL,
-            DatabaseHelper.COLUMN_EPISODE_FILEPATH,
-            DatabaseHelper.COLUMN_EPISODE_STATE,
-            DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION,
-            DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE
-        };
 
-        Cursor c =
-            db.query(DatabaseHelper.TABLE_EPISODE, projection, selection, // columns
-                     // for
-                     // where
-                     // clause
-                     selectionArgs, // values for where clause
-                     null, // group
-                     null, // filter by row group
-                     DatabaseHelper.COLUMN_EPISODE_RELEASED + " DESC" // sort order
-                    );
-
-        if (c.moveToFirst()) {
-            do {
-                Episode e = getEpisode(c);
-                allEpisodes.add(e);
-            } while (c.moveToNext());
-        }
-        c.close();
+        Cursor c = db.query(DatabaseHelper.TABLE_EPISODE, projection, selection, selectionArgs,
+                            null, null, orderBy, limit);
+        try {
+            EpisodeRowMapper mapper = new EpisodeRowMapper(c, podcastDAO);
+            while (c.moveToNext()) {
+                allEpisodes.add(mapper.map(c));
+            }
+        } finally {
+            c.close();
+        }
         return allEpisodes;
     }
 
-    private Episode getEpisode(Cursor c) {
-        long key = c.getLong(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_ID));
-
-        Episode e = new Episode(podcastDAO.getPodcastById(c.getLong(
-                                    c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_PODCAST))));
-        e.setAuthor(c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_AUTHOR)));
-        e.setDescription(c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_DESCRIPTION)));
-        e.setFileSize(c.getLong(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_FILESIZE)));
-        e.setGuid(c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_GUID)));
-        e.setId(key);
-        e.setLink(c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_LINK)));
-        e.setMimetype(c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_MIMETYPE)));
-        e.setReleased(c.getLong(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_RELEASED)));
-        e.setTitle(c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_TITLE)));
-        e.setUrl(c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_URL)));
-        e.setFilePath(c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_FILEPATH)));
-        e.setPlayPosition(c.getInt(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION)));
-        String state = c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_STATE));
-        String aState = c.getString(c.getColumnIndex(DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE));
-        if (state != null) {
-            e.setStorageState(StorageState.valueOf(state));
-        }
-        if (aState != null) {
-            e.setActionState(ActionState.valueOf(aState));
-        }
-
-        return e;
-    }
-
 }
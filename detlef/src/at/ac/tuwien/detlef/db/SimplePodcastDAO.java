@@ -20,6 +20,7 @@
 package at.ac.tuwien.detlef.db;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -31,7 +32,6 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.util.Log;
 import at.ac.tuwien.detlef.Singletons;
-import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Podcast;
 import at.ac.tuwien.detlef.domain.PodcastPersistence;
 
@@ -40,11 +40,13 @@ public class SimplePodcastDAO implements PodcastDAO {
     private static final String TAG = SimplePodcastDAO.class.getName();
 
     private final DatabaseHelper dbHelper;
+    private final FileDeletionQueue fileDeletions;
     private final Set<PodcastDAO.OnPodcastChangeListener> listeners =
         new HashSet<PodcastDAO.OnPodcastChangeListener>();
 
     public SimplePodcastDAO(Context context) {
         dbHelper = Singletons.i().getDatabaseHelper();
+        fileDeletions = Singletons.i().getFileDeletionQueue();
 
         /* Take care of any pending database upgrades. */
 
@@ -126,41 +128,74 @@ public class SimplePodcastDAO implements PodcastDAO {
         return values;
     }
 
-    private void deleteEpisodesForPodcast(Podcast podcast) {
-        // delete podcasts manually because of refreshing
-        // the episodeListFragment
-        EpisodeDAO epDao = Singletons.i().getEpisodeDAO();
-        List<Episode> epList = epDao.getEpisodes(podcast);
-        for (Episode ep : epList) {
-            epDao.deleteEpisode(ep);
+    private static PodcastEpisodeDeletion episodeDeletion() {
+        return (PodcastEpisodeDeletion) Singletons.i().getEpisodeDAO();
+    }
+
+    /**
+     * Deletes the podcast and its episodes within the current transaction.
+     * Episode actions go along through their foreign key, the logo is handed
+     * over to the {@link FileDeletionQueue}. The deletion of the episodes is
+     * only reported once the transaction has been committed, see
+     * {@link PodcastEpisodeDeletion#episodesDeleted(Podcast, java.util.Collection)}.
+     *
+     * @param episodeIds Receives the ids of the deleted episodes.
+     * @return The number of deleted podcasts.
+     */
+    private int deletePodcast(SQLiteDatabase db, Podcast podcast, Set<Long> episodeIds) {
+        if (podcast.getLogoFilePath() != null) {
+            FileDeletionQueue.enqueue(db, Collections.singleton(podcast.getLogoFilePath()));
         }
+
+        episodeIds.addAll(episodeDeletion().deleteEpisodes(db, podcast));
+
+        String selection = DatabaseHelper.COLUMN_PODCAST_ID + " = ?";
+        String[] selectionArgs = {
+            String.valueOf(podcast.getId())
+        };
+
+        return db.delete(DatabaseHelper.TABLE_PODCAST, selection, selectionArgs);
     }
+
     /**
      * @see at.ac.tuwien.detlef.db.PodcastDAO#deletePodcast(at.ac.tuwien.detlef.domain
      *      .Podcast)
      */
     @Override
     public int deletePodcast(Podcast podcast) {
-        PodcastPersistence.delete(podcast);
-
+        int ret;
+        Set<Long> episodeIds = new HashSet<Long>();
         SQLiteDatabase db = null;
         try {
-            deleteEpisodesForPodcast(podcast);
-
             db = dbHelper.getWritableDatabase();
-            String selection = DatabaseHelper.COLUMN_PODCAST_ID + " = ?";
-            String[] selectionArgs = {
-                String.valueOf(podcast.getId())
-            };
+            db.beginTransaction();
 
-            int ret = db.delete(DatabaseHelper.TABLE_PODCAST, selection, selectionArgs);
+            ret = deletePodcast(db, podcast, episodeIds);
 
-            notifyListenersDeleted(podcast);
-            return ret;
+            db.setTransactionSuccessful();
         } catch (Exception ex) {
             Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
             return -1;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
         }
+
+        episodeDeletion().episodesDeleted(podcast, episodeIds);
+        podcastDeleted(podcast);
+        fileDeletions.drainAsync();
+
+        notifyListenersDeleted(podcast);
+        return ret;
+    }
+
+    /**
+     * Cancels the logo download of a deleted podcast.
+     */
+    private static void podcastDeleted(Podcast podcast) {
+        PodcastPersistence.cancelDownload(podcast);
+        podcast.setLogoFilePath(null);
     }
 
     private static final String QUERY_COLUMN_PODCAST_LOCAL_ADD = "lAdd";
@@ -313,14 +348,40 @@ public class SimplePodcastDAO implements PodcastDAO {
 
     @Override
     public int deleteAllPodcasts() {
+        List<Podcast> podcasts = getAllPodcasts();
+        List<Set<Long>> episodeIds = new ArrayList<Set<Long>>(podcasts.size());
 
-        int numOfDeletedPocasts = 0;
+        SQLiteDatabase db = null;
+        try {
+            db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+
+            for (Podcast podcast : podcasts) {
+                Set<Long> ids = new HashSet<Long>();
+                deletePodcast(db, podcast, ids);
+                episodeIds.add(ids);
+            }
+
+            db.setTransactionSuccessful();
+        } catch (Exception ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return 0;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
+        }
 
-        for (Podcast podcast : getAllPodcasts()) {
-            deletePodcast(podcast);
-            numOfDeletedPocasts++;
+        for (int i = 0; i < podcasts.size(); i++) {
+            episodeDeletion().episodesDeleted(podcasts.get(i), episodeIds.get(i));
+            podcastDeleted(podcasts.get(i));
         }
-        return numOfDeletedPocasts;
+        fileDeletions.drainAsync();
+
+        for (Podcast podcast : podcasts) {
+            notifyListenersDeleted(podcast);
+        }
+        return podcasts.size();
     }
 
     @Override
@@ -329,11 +390,13 @@ public class SimplePodcastDAO implements PodcastDAO {
             return deletePodcast(podcast) > 0;
         }
 
+        Set<Long> episodeIds;
         SQLiteDatabase db = null;
         try {
-            deleteEpisodesForPodcast(podcast);
-
             db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+
+            episodeIds = episodeDeletion().deleteEpisodes(db, podcast);
 
             ContentValues values = new ContentValues();
             values.put(DatabaseHelper.COLUMN_PODCAST_DEL_ID, podcast.getId());
@@ -342,15 +405,22 @@ public class SimplePodcastDAO implements PodcastDAO {
                 throw new SQLiteException("Failed to insert podcast into local del table");
             }
 
-            podcast.setLocalDel(true);
-            notifyListenersDeleted(podcast);
-
-            return true;
+            db.setTransactionSuccessful();
         } catch (Exception ex) {
             Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return false;
+        } finally {
+            if (db != null && db.isOpen()) {
+                db.endTransaction();
+            }
         }
 
-        return false;
+        episodeDeletion().episodesDeleted(podcast, episodeIds);
+
+        podcast.setLocalDel(true);
+        notifyListenersDeleted(podcast);
+
+        return true;
     }
 
     @Override
@@ -0,0 +1,122 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * A pool of compiled statements for the SQL of the most frequent writes, so
+ * that these neither build ContentValues nor have SQLite parse their SQL
+ * again on each call.
+ *
+ * <p>A statement keeps its bindings until it is executed, so each one is
+ * used by a single thread at a time: {@link #acquire(SQLiteDatabase, String)}
+ * hands it out exclusively and {@link #release(SQLiteDatabase, String,
+ * SQLiteStatement)} puts it back. No lock is held while a statement runs, so
+ * threads waiting for the database connection cannot block each other
+ * through the pool.</p>
+ *
+ * <p>Statements belong to the database they have been compiled for. The pool
+ * is emptied when the database is closed, and when a different database is
+ * passed in; statements still in use at that point are closed on release.</p>
+ */
+final class StatementCache {
+
+    /** The number of idle statements kept per SQL string. */
+    private static final int MAX_IDLE = 4;
+
+    /* Guarded by this. */
+    private final Map<String, List<SQLiteStatement>> idle =
+        new HashMap<String, List<SQLiteStatement>>();
+    private SQLiteDatabase db = null;
+
+    /**
+     * @return A statement for the given SQL, which must be returned with
+     *         {@link #release(SQLiteDatabase, String, SQLiteStatement)}.
+     */
+    SQLiteStatement acquire(SQLiteDatabase database, String sql) {
+        synchronized (this) {
+            if (database != db) {
+                clear();
+                db = database;
+            }
+
+            List<SQLiteStatement> statements = idle.get(sql);
+            if (statements != null && !statements.isEmpty()) {
+                return statements.remove(statements.size() - 1);
+            }
+        }
+
+        return database.compileStatement(sql);
+    }
+
+    /**
+     * Returns a statement obtained from
+     * {@link #acquire(SQLiteDatabase, String)} to the pool.
+     */
+    void release(SQLiteDatabase database, String sql, SQLiteStatement statement) {
+        statement.clearBindings();
+
+        synchronized (this) {
+            if (database == db) {
+                List<SQLiteStatement> statements = idle.get(sql);
+                if (statements == null) {
+                    statements = new ArrayList<SQLiteStatement>(MAX_IDLE);
+                    idle.put(sql, statements);
+                }
+                if (statements.size() < MAX_IDLE) {
+                    statements.add(statement);
+                    return;
+                }
+            }
+        }
+
+        statement.close();
+    }
+
+    /**
+     * Closes all idle statements.
+     */
+    synchronized void clear() {
+        for (List<SQLiteStatement> statements : idle.values()) {
+            for (SQLiteStatement statement : statements) {
+                statement.close();
+            }
+        }
+        idle.clear();
+        db = null;
+    }
+
+    /**
+     * @return The number of idle statements. This is not of general interest
+     *         and exists for testing purposes only.
+     */
+    synchronized int getIdleCount() {
+        int ret = 0;
+        for (List<SQLiteStatement> statements : idle.values()) {
+            ret += statements.size();
+        }
+        return ret;
+    }
+}
@@ -44,6 +44,73 @@ public class Episode implements IEpisode {
         NEW
     }
 
+    /*
+     * Bits of the dirty mask, one per persisted field. A field is dirty if it
+     * has been set since the episode was last loaded from or written to the
+     * database.
+     */
+
+    public static final int FIELD_TITLE = 1 << 0;
+    public static final int FIELD_STORAGE_STATE = 1 << 1;
+    public static final int FIELD_FILE_SIZE = 1 << 2;
+    public static final int FIELD_AUTHOR = 1 << 3;
+    public static final int FIELD_DESCRIPTION = 1 << 4;
+    public static final int FIELD_MIMETYPE = 1 << 5;
+    public static final int FIELD_GUID = 1 << 6;
+    public static final int FIELD_LINK = 1 << 7;
+    public static final int FIELD_RELEASED = 1 << 8;
+    public static final int FIELD_URL = 1 << 9;
+    public static final int FIELD_FILE_PATH = 1 << 10;
+    public static final int FIELD_PLAY_POSITION = 1 << 11;
+    public static final int FIELD_ACTION_STATE = 1 << 12;
+    public static final int ALL_FIELDS = (1 << 13) - 1;
+
+    /**
+     * The changes made to an episode since it has last been stored, as taken
+     * by {@link Episode#takeChanges()}.
+     */
+    public static final class Changes {
+        private final int fields;
+        private final StorageState previousStorageState;
+        private final int previousPlayPosition;
+
+        private Changes(int fields, StorageState previousStorageState,
+                        int previousPlayPosition) {
+            this.fields = fields;
+            this.previousStorageState = previousStorageState;
+            this.previousPlayPosition = previousPlayPosition;
+        }
+
+        /**
+         * @return The dirty mask, a combination of the FIELD_* constants.
+         */
+        public int getFields() {
+            return fields;
+        }
+
+        public boolean contains(int field) {
+            return (fields & field) != 0;
+        }
+
+        public boolean isEmpty() {
+            return fields == 0;
+        }
+
+        /**
+         * @return The storage state as it was last stored.
+         */
+        public StorageState getPreviousStorageState() {
+            return previousStorageState;
+        }
+
+        /**
+         * @return The play position as it was last stored.
+         */
+        public int getPreviousPlayPosition() {
+            return previousPlayPosition;
+        }
+    }
+
     private long id;
     private String title;
     private final Podcast podcast;
@@ -51,6 +118,7 @@ public class Episode implements IEpisode {
     private long fileSize;
     private String author;
     private String description;
+    private boolean descriptionComplete = true;
     private String mimetype; // enclosure
     private String guid;
     private String link;
@@ -60,6 +128,11 @@ public class Episode implements IEpisode {
     private int playPosition = 0;
     private Episode.ActionState actionState;
 
+    /* The change tracking state is guarded by this. */
+    private int dirtyFields = ALL_FIELDS;
+    private Episode.StorageState storedStorageState;
+    private int storedPlayPosition;
+
     public Episode(Podcast podcast) {
         this.podcast = podcast;
         this.storageState = StorageState.NOT_ON_DEVICE;
@@ -89,13 +162,15 @@ public class Episode implements IEpisode {
         return storageState;
     }
 
-    public Episode setStorageState(Episode.StorageState storageState) {
+    public synchronized Episode setStorageState(Episode.StorageState storageState) {
         this.storageState = storageState;
+        dirtyFields |= FIELD_STORAGE_STATE;
         return this;
     }
 
-    public Episode setTitle(String titleIn) {
+    public synchronized Episode setTitle(String titleIn) {
         this.title = titleIn;
+        dirtyFields |= FIELD_TITLE;
         return this;
     }
 
@@ -107,8 +182,9 @@ public class Episode implements IEpisode {
         return fileSize;
     }
 
-    public Episode setFileSize(long fileSizeIn) {
+    public synchronized Episode setFileSize(long fileSizeIn) {
         this.fileSize = fileSizeIn;
+        dirtyFields |= FIELD_FILE_SIZE;
         return this;
     }
 
@@ -117,8 +193,9 @@ public class Episode implements IEpisode {
         return author;
     }
 
-    public Episode setAuthor(String authorIn) {
+    public synchronized Episode setAuthor(String authorIn) {
         this.author = authorIn;
+        dirtyFields |= FIELD_AUTHOR;
         return this;
     }
 
@@ -127,18 +204,52 @@ public class Episode implements IEpisode {
         return description;
     }
 
-    public Episode setDescription(String descriptionIn) {
+    public synchronized Episode setDescription(String descriptionIn) {
         this.description = descriptionIn;
+        descriptionComplete = true;
+        dirtyFields |= FIELD_DESCRIPTION;
         return this;
     }
 
+    /**
+     * Sets the beginning of the stored description, as loaded for list views.
+     * This does not count as a change, the full description is loaded by
+     * {@link at.ac.tuwien.detlef.db.EpisodeDAO#loadDetails(Episode)}.
+     */
+    public synchronized Episode setDescriptionExcerpt(String excerpt) {
+        this.description = excerpt;
+        descriptionComplete = false;
+        return this;
+    }
+
+    /**
+     * Replaces an {@link #setDescriptionExcerpt(String) excerpt} by the full
+     * stored description. Does nothing if the description is complete
+     * already, e.g. because it has been changed in the meantime.
+     */
+    public synchronized void completeDescription(String storedDescription) {
+        if (!descriptionComplete) {
+            description = storedDescription;
+            descriptionComplete = true;
+        }
+    }
+
+    /**
+     * @return false if only an {@link #setDescriptionExcerpt(String) excerpt}
+     *         of the description has been loaded.
+     */
+    public synchronized boolean isDescriptionComplete() {
+        return descriptionComplete;
+    }
+
     @Override
     public String getGuid() {
         return guid;
     }
 
-    public Episode setGuid(String guidIn) {
+    public synchronized Episode setGuid(String guidIn) {
         this.guid = guidIn;
+        dirtyFields |= FIELD_GUID;
         return this;
     }
 
@@ -147,8 +258,9 @@ public class Episode implements IEpisode {
         return link;
     }
 
-    public Episode setLink(String linkIn) {
+    public synchronized Episode setLink(String linkIn) {
         this.link = linkIn;
+        dirtyFields |= FIELD_LINK;
         return this;
     }
 
@@ -157,8 +269,9 @@ public class Episode implements IEpisode {
         return released;
     }
 
-    public Episode setReleased(long releasedIn) {
+    public synchronized Episode setReleased(long releasedIn) {
         this.released = releasedIn;
+        dirtyFields |= FIELD_RELEASED;
         return this;
     }
 
@@ -166,8 +279,9 @@ public class Episode implements IEpisode {
         return mimetype;
     }
 
-    public Episode setMimetype(String mimetypeIn) {
+    public synchronized Episode setMimetype(String mimetypeIn) {
         this.mimetype = mimetypeIn;
+        dirtyFields |= FIELD_MIMETYPE;
         return this;
     }
 
@@ -197,8 +311,9 @@ public class Episode implements IEpisode {
         return url;
     }
 
-    public Episode setUrl(String urlIn) {
+    public synchronized Episode setUrl(String urlIn) {
         this.url = urlIn;
+        dirtyFields |= FIELD_URL;
         return this;
     }
 
@@ -215,8 +330,9 @@ public class Episode implements IEpisode {
         return filePath;
     }
 
-    public Episode setFilePath(String filePathIn) {
+    public synchronized Episode setFilePath(String filePathIn) {
         this.filePath = filePathIn;
+        dirtyFields |= FIELD_FILE_PATH;
         return this;
     }
 
@@ -233,17 +349,75 @@ public class Episode implements IEpisode {
      * @param playPosition
      * @return
      */
-    public Episode setPlayPosition(int playPosition) {
+    public synchronized Episode setPlayPosition(int playPosition) {
         this.playPosition = playPosition;
+        dirtyFields |= FIELD_PLAY_POSITION;
         return this;
     }
 
+    /**
+     * @return The fields which have been set since the episode has last been
+     *         stored, a combination of the FIELD_* constants.
+     */
+    public synchronized int getDirtyFields() {
+        return dirtyFields;
+    }
+
+    /**
+     * Marks all fields as stored.
+     */
+    public void markClean() {
+        markClean(ALL_FIELDS);
+    }
+
+    /**
+     * Marks the given fields as stored, e.g. after they have been loaded from
+     * or written to the database.
+     *
+     * @param fields A combination of the FIELD_* constants.
+     */
+    public synchronized void markClean(int fields) {
+        dirtyFields &= ~fields;
+        if ((fields & FIELD_STORAGE_STATE) != 0) {
+            storedStorageState = storageState;
+        }
+        if ((fields & FIELD_PLAY_POSITION) != 0) {
+            storedPlayPosition = playPosition;
+        }
+    }
+
+    /**
+     * Atomically returns the pending changes and marks all fields as stored.
+     * If storing the changes fails, they must be handed back to
+     * {@link #restoreChanges(Changes)}.
+     */
+    public synchronized Changes takeChanges() {
+        Changes changes = new Changes(dirtyFields, storedStorageState, storedPlayPosition);
+        markClean();
+        return changes;
+    }
+
+    /**
+     * Marks changes taken by {@link #takeChanges()} as pending again after
+     * they could not be stored.
+     */
+    public synchronized void restoreChanges(Changes changes) {
+        dirtyFields |= changes.fields;
+        if (changes.contains(FIELD_STORAGE_STATE)) {
+            storedStorageState = changes.previousStorageState;
+        }
+        if (changes.contains(FIELD_PLAY_POSITION)) {
+            storedPlayPosition = changes.previousPlayPosition;
+        }
+    }
+
     public Episode.ActionState getActionState() {
         return actionState;
     }
 
-    public Episode setActionState(Episode.ActionState actionState) {
+    public synchronized Episode setActionState(Episode.ActionState actionState) {
         this.actionState = actionState;
+        dirtyFields |= FIELD_ACTION_STATE;
         return this;
     }
 }
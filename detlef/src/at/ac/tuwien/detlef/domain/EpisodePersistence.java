@@ -21,6 +21,8 @@ package at.ac.tuwien.detlef.domain;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 
 import android.app.DownloadManager;
 import android.content.Context;
@@ -76,18 +78,34 @@ public final class EpisodePersistence {
      * Delete the specified episode file from disk. Automatically cancels
      * any ongoing downloads (see {@link EpisodePersistence#cancelDownload(Episode)}).
      * Never fails, even if the episode is currently not stored on the device and if
-     * there is no active download.
+     * there is no active download. The file itself is deleted in the background
+     * by the {@link at.ac.tuwien.detlef.db.FileDeletionQueue}.
      * @param episode The episode to delete.
      */
     public static void delete(Episode episode) {
+        String path = episode.getFilePath();
+
         episode.setFilePath(null);
         episode.setStorageState(StorageState.NOT_ON_DEVICE);
 
         cancelDownload(episode);
 
-        if (episode.getFilePath() != null) {
-            File file = new File(episode.getFilePath());
-            file.delete();
+        if (path != null) {
+            Singletons.i().getFileDeletionQueue().delete(Collections.singleton(path));
+        }
+    }
+
+    /**
+     * Cancels the active downloads of the episodes with the given ids. Used
+     * when the episodes have been deleted without being loaded.
+     * @param episodeIds The ids of the episodes whose downloads to cancel.
+     */
+    public static void cancelDownloads(Collection<Long> episodeIds) {
+        DetlefDownloadManager downloadManager = getDownloadManager();
+        for (Object object : downloadManager.getActiveObjects()) {
+            if (object instanceof Episode && episodeIds.contains(((Episode) object).getId())) {
+                downloadManager.cancel(object);
+            }
         }
     }
 
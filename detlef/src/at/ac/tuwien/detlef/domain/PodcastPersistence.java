@@ -21,6 +21,7 @@ package at.ac.tuwien.detlef.domain;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 
 import android.app.DownloadManager;
 import android.content.Context;
@@ -66,14 +67,15 @@ public final class PodcastPersistence {
 
     /**
      * Delete the specified podcast image file from disk. Automatically cancels
-     * any ongoing downloads.
+     * any ongoing downloads. The file itself is deleted in the background by
+     * the {@link at.ac.tuwien.detlef.db.FileDeletionQueue}.
      */
     public static void delete(Podcast podcast) {
         cancelDownload(podcast);
 
         if (podcast.getLogoFilePath() != null) {
-            File file = new File(podcast.getLogoFilePath());
-            file.delete();
+            Singletons.i().getFileDeletionQueue().delete(
+                Collections.singleton(podcast.getLogoFilePath()));
             podcast.setLogoFilePath(null);
         }
     }
@@ -21,6 +21,8 @@ package at.ac.tuwien.detlef.download;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -102,6 +104,18 @@ public class DetlefDownloadManager {
         }
     }
 
+    /**
+     * @return The objects (see {@link DownloadCallback#getObject()}) of all
+     *         active downloads.
+     */
+    public List<Object> getActiveObjects() {
+        List<Object> ret = new ArrayList<Object>();
+        for (DownloadCallback callback : activeDownloads.values()) {
+            ret.add(callback.getObject());
+        }
+        return ret;
+    }
+
     /**
      * Cancels all active downloads.
      */
@@ -1,6 +1,8 @@
 package at.ac.tuwien.detlef.filter;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import at.ac.tuwien.detlef.domain.Episode;
@@ -23,6 +25,18 @@ public class FilterChain implements EpisodeFilter {
      */
     private final Map<String, EpisodeFilter> filters = new HashMap<String, EpisodeFilter>();
 
+    public FilterChain() {
+    }
+
+    /**
+     * Creates a chain with the same filters as the given one. Later changes
+     * to either chain do not affect the other.
+     * @param other The chain to copy.
+     */
+    public FilterChain(FilterChain other) {
+        filters.putAll(other.filters);
+    }
+
     /**
      * Goes through the set of provided {@link EpisodeFilters} and checks
      * for each of them, if {@link EpisodeFilter#filter(Episode)} returns
@@ -119,6 +133,44 @@ public class FilterChain implements EpisodeFilter {
         return filters.size();
     }
 
+    /**
+     * @return A predicate matching the episodes which pass all filters in
+     *     the chain that can be expressed in SQL, see
+     *     {@link SqlEpisodeFilter}. The others are left out, they are
+     *     returned by {@link #getRemainingFilters()}.
+     */
+    public SqlPredicate toSqlPredicate() {
+        List<SqlPredicate> predicates = new ArrayList<SqlPredicate>();
+        for (EpisodeFilter f : filters.values()) {
+            SqlPredicate predicate = toSqlPredicate(f);
+            if (predicate != null) {
+                predicates.add(predicate);
+            }
+        }
+        return SqlPredicate.and(predicates);
+    }
+
+    /**
+     * @return A chain of the filters which cannot be expressed in SQL, and
+     *     thus have to be evaluated in memory.
+     */
+    public FilterChain getRemainingFilters() {
+        FilterChain ret = new FilterChain();
+        for (EpisodeFilter f : filters.values()) {
+            if (toSqlPredicate(f) == null) {
+                ret.putEpisodeFilter(f);
+            }
+        }
+        return ret;
+    }
+
+    private static SqlPredicate toSqlPredicate(EpisodeFilter f) {
+        if (!(f instanceof SqlEpisodeFilter)) {
+            return null;
+        }
+        return ((SqlEpisodeFilter) f).toSqlPredicate();
+    }
+
     @Override
     public String getFilterName() {
         return getClass().getCanonicalName();
@@ -1,12 +1,17 @@
 package at.ac.tuwien.detlef.filter;
 
+import at.ac.tuwien.detlef.db.DatabaseHelper;
+import at.ac.tuwien.detlef.db.EpisodeDAO;
+import at.ac.tuwien.detlef.db.EpisodeSearchIndex;
 import at.ac.tuwien.detlef.domain.Episode;
 
 /**
- * An {@link EpisodeFilter} that filters by a keyword.
+ * An {@link EpisodeFilter} that filters by a keyword. Queries use the
+ * matches of the episode search index instead of looking at the text of each
+ * episode.
  * @author moe
  */
-public class KeywordFilter implements EpisodeFilter {
+public class KeywordFilter implements SqlEpisodeFilter {
 
     /** serialization id. */
     private static final long serialVersionUID = -7024572083865033288L;
@@ -35,11 +40,12 @@ public class KeywordFilter implements EpisodeFilter {
     }
 
     /**
-     * @return false, if the Episode's {@link Episode#getTitle() title}
-     *     or the {@link Episode#getDescription() description} contains
-     *     the {@link #setKeyword(String) keyword}, true else. This method
-     *     is case insensitive, i.e. it does not matter if the keyword
-     *     and the actual title and description have the same cases.
+     * @return false, if each word of the {@link #setKeyword(String) keyword}
+     *     starts a word of the Episode's {@link Episode#getTitle() title} or
+     *     {@link Episode#getDescription() description}, true else. Words are
+     *     compared case insensitively and without markup, so this agrees with
+     *     the search index which queries use instead, see
+     *     {@link #toSqlPredicate()}.
      */
     @Override
     public boolean filter(Episode episode) {
@@ -48,13 +54,67 @@ public class KeywordFilter implements EpisodeFilter {
             return false;
         }
 
-        String index = String.format(
-                           "%s %s",
-                           episode.getTitle() != null ? episode.getTitle() : "",
-                           episode.getDescription() != null ? episode.getDescription() : ""
-                       );
+        return !EpisodeSearchIndex.matches(keyword, episode.getTitle(), episode.getDescription());
+    }
+
+    /**
+     * @return A predicate matching the episodes found by the search index,
+     *     see {@link EpisodeDAO#searchEpisodes(String)}.
+     */
+    @Override
+    public SqlPredicate toSqlPredicate() {
+
+        if (keyword == null) {
+            return SqlPredicate.ALL;
+        }
+
+        String query = EpisodeSearchIndex.toMatchQuery(keyword);
+        if (query == null) {
+            return SqlPredicate.NONE;
+        }
+
+        return new SqlPredicate(String.format("%s IN (SELECT docid FROM %s WHERE %s MATCH ?)",
+                                              DatabaseHelper.COLUMN_EPISODE_ID,
+                                              DatabaseHelper.TABLE_EPISODE_SEARCH,
+                                              DatabaseHelper.TABLE_EPISODE_SEARCH),
+                                query);
+    }
+
+    /**
+     * @return An expression which is 1 for the episodes with all terms of
+     *     the keyword in their title and 0 for all others. Queries order the
+     *     matches by it, best matches first. Null if no keyword is set.
+     */
+    public SqlPredicate toRankExpression() {
+        return toRankExpression(DatabaseHelper.COLUMN_EPISODE_ID);
+    }
+
+    /**
+     * @return The value of the {@link #toRankExpression() rank expression}
+     *     for the episode with the given id, which is 0 if the episode does
+     *     not exist (anymore). Null if no keyword is set.
+     */
+    public SqlPredicate toRankExpression(long episodeId) {
+        SqlPredicate rank = toRankExpression("?");
+        if (rank == null) {
+            return null;
+        }
+
+        return new SqlPredicate(rank.getSelection(), String.valueOf(episodeId),
+                                rank.getSelectionArgs()[0]);
+    }
+
+    private SqlPredicate toRankExpression(String id) {
+
+        String query = (keyword == null ? null : EpisodeSearchIndex.toTitleMatchQuery(keyword));
+        if (query == null) {
+            return null;
+        }
 
-        return !(index.toLowerCase().contains(keyword));
+        return new SqlPredicate(String.format("%s IN (SELECT docid FROM %s WHERE %s MATCH ?)",
+                                              id, DatabaseHelper.TABLE_EPISODE_SEARCH,
+                                              DatabaseHelper.TABLE_EPISODE_SEARCH),
+                                query);
     }
 
     @Override
@@ -1,5 +1,6 @@
 package at.ac.tuwien.detlef.filter;
 
+import at.ac.tuwien.detlef.db.DatabaseHelper;
 import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Episode.ActionState;
 
@@ -8,7 +9,7 @@ import at.ac.tuwien.detlef.domain.Episode.ActionState;
  * {@link Episode episodes} that are not {@link ActionState#NEW new}.
  * @author moe
  */
-public class NewFilter implements EpisodeFilter {
+public class NewFilter implements SqlEpisodeFilter {
 
     /** serialization id. */
     private static final long serialVersionUID = 4318458607820746610L;
@@ -22,6 +23,12 @@ public class NewFilter implements EpisodeFilter {
         return !episode.getActionState().equals(Episode.ActionState.NEW);
     }
 
+    @Override
+    public SqlPredicate toSqlPredicate() {
+        return new SqlPredicate(DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE + " = ?",
+                                Episode.ActionState.NEW.toString());
+    }
+
     @Override
     public String getFilterName() {
         return getClass().getCanonicalName();
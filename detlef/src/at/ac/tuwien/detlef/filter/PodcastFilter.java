@@ -1,5 +1,6 @@
 package at.ac.tuwien.detlef.filter;
 
+import at.ac.tuwien.detlef.db.DatabaseHelper;
 import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Podcast;
 
@@ -9,7 +10,7 @@ import at.ac.tuwien.detlef.domain.Podcast;
  * {@link Podcast}.
  * @author moe
  */
-public class PodcastFilter implements EpisodeFilter {
+public class PodcastFilter implements SqlEpisodeFilter {
 
     /** serialization id. */
     private static final long serialVersionUID = 6156719201776953724L;
@@ -52,6 +53,17 @@ public class PodcastFilter implements EpisodeFilter {
 
     }
 
+    @Override
+    public SqlPredicate toSqlPredicate() {
+
+        if (podcast == null) {
+            return SqlPredicate.ALL;
+        }
+
+        return new SqlPredicate(DatabaseHelper.COLUMN_EPISODE_PODCAST + " = ?",
+                                String.valueOf(podcast.getId()));
+    }
+
     @Override
     public String getFilterName() {
         return getClass().getCanonicalName();
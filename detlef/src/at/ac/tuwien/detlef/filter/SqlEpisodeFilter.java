@@ -0,0 +1,18 @@
+package at.ac.tuwien.detlef.filter;
+
+import at.ac.tuwien.detlef.domain.Episode;
+
+/**
+ * An {@link EpisodeFilter} which can describe itself as a condition on the
+ * episode table, so that the database can do the filtering.
+ */
+public interface SqlEpisodeFilter extends EpisodeFilter {
+
+    /**
+     * @return A predicate matching exactly those {@link Episode episodes}
+     *     for which {@link #filter(Episode)} returns false, or null if the
+     *     filter cannot be expressed in SQL in its current state. In the
+     *     latter case, the filter is evaluated in memory.
+     */
+    SqlPredicate toSqlPredicate();
+}
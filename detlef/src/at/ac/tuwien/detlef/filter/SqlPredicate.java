@@ -0,0 +1,67 @@
+package at.ac.tuwien.detlef.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A condition on the rows of the episode table: an SQL expression with
+ * <code>?</code> placeholders, and the arguments to bind to them.
+ */
+public final class SqlPredicate {
+
+    /** Matches every episode. */
+    public static final SqlPredicate ALL = new SqlPredicate("1");
+
+    /** Matches no episode. */
+    public static final SqlPredicate NONE = new SqlPredicate("0");
+
+    private final String selection;
+    private final String[] selectionArgs;
+
+    /**
+     * @param selection The SQL expression, as in a where clause.
+     * @param selectionArgs The values of the placeholders in the expression.
+     */
+    public SqlPredicate(String selection, String... selectionArgs) {
+        this.selection = selection;
+        this.selectionArgs = selectionArgs.clone();
+    }
+
+    public String getSelection() {
+        return selection;
+    }
+
+    public String[] getSelectionArgs() {
+        return selectionArgs.clone();
+    }
+
+    /**
+     * @return A predicate matching the episodes matched by all of the given
+     *     predicates.
+     */
+    public static SqlPredicate and(List<SqlPredicate> predicates) {
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<String>();
+        for (SqlPredicate predicate : predicates) {
+            if (predicate == ALL) {
+                continue;
+            }
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append('(').append(predicate.selection).append(')');
+            args.addAll(Arrays.asList(predicate.selectionArgs));
+        }
+
+        if (selection.length() == 0) {
+            return ALL;
+        }
+        return new SqlPredicate(selection.toString(), args.toArray(new String[args.size()]));
+    }
+
+    @Override
+    public String toString() {
+        return selection + " " + Arrays.toString(selectionArgs);
+    }
+}
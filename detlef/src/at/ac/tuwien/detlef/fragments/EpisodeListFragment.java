@@ -19,12 +19,14 @@ package at.ac.tuwien.detlef.fragments;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.List;
 
 import android.app.Activity;
 import android.app.Fragment;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.ListFragment;
 import android.util.Log;
 import android.view.ContextMenu;
@@ -37,6 +39,7 @@ import at.ac.tuwien.detlef.R;
 import at.ac.tuwien.detlef.Singletons;
 import at.ac.tuwien.detlef.adapters.EpisodeListAdapter;
 import at.ac.tuwien.detlef.db.EpisodeDAO;
+import at.ac.tuwien.detlef.db.EpisodePager;
 import at.ac.tuwien.detlef.db.PlaylistDAO;
 import at.ac.tuwien.detlef.db.PodcastDAO;
 import at.ac.tuwien.detlef.domain.Episode;
@@ -49,7 +52,6 @@ import at.ac.tuwien.detlef.filter.FilterChain;
 import at.ac.tuwien.detlef.filter.KeywordFilter;
 import at.ac.tuwien.detlef.filter.NewFilter;
 import at.ac.tuwien.detlef.filter.PodcastFilter;
-import at.ac.tuwien.detlef.models.EpisodeListModel;
 import at.ac.tuwien.detlef.settings.GpodderSettings;
 import at.ac.tuwien.detlef.util.GUIUtils;
 
@@ -65,7 +67,15 @@ public class EpisodeListFragment extends ListFragment
 
     private static final long ID_NONE = -1;
 
-    private EpisodeListModel model;
+    /** The number of episodes loaded at once, enough to fill a screen. */
+    private static final int PAGE_SIZE = 30;
+
+    /**
+     * The milliseconds to wait for further added episodes before reloading
+     * the list, so that a feed update reloads it only once.
+     */
+    private static final long RELOAD_DELAY = 1000;
+
     private EpisodeListAdapter adapter;
     private FilterChain filter = new FilterChain();
     private Podcast filteredByPodcast = null;
@@ -74,6 +84,16 @@ public class EpisodeListFragment extends ListFragment
 
     private GpodderSettings settings;
 
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable reload = new Runnable() {
+        @Override
+        public void run() {
+            if (getActivity() != null) {
+                adapter.reload();
+            }
+        }
+    };
+
     /**
      * The parent activity must implement this interface in order to interact
      * with this fragment. The listener is called whenever an episode is
@@ -106,16 +126,13 @@ public class EpisodeListFragment extends ListFragment
         playlistDAO = Singletons.i().getPlaylistDAO();
         playlistDAO.addPlaylistChangedListener(this);
 
-        List<Episode> eplist = dao.getAllEpisodes();
-        model = new EpisodeListModel(eplist);
-
         adapter = new EpisodeListAdapter(getActivity(),
                                          android.R.layout.simple_list_item_1,
-                                         new ArrayList<Episode>(eplist));
+                                         new ArrayList<Episode>());
         setListAdapter(adapter);
 
-        restoreSortOrder();
         restoreFilter(savedInstanceState);
+        refresh();
     }
 
     /**
@@ -133,7 +150,6 @@ public class EpisodeListFragment extends ListFragment
         try {
             FilterChain pFilter = (FilterChain) savedInstanceState.getSerializable(BUNDLE_FILTERS);
             setFilter(pFilter);
-            refresh();
         } catch (Exception e) {
             Log.e(TAG, "Exception restoring filter chain", e);
         }
@@ -153,6 +169,7 @@ public class EpisodeListFragment extends ListFragment
     public void onActivityCreated(Bundle savedState) {
         super.onActivityCreated(savedState);
         registerForContextMenu(getListView());
+        getListView().setOnScrollListener(adapter);
 
         /* Restore selected podcast. */
 
@@ -164,8 +181,6 @@ public class EpisodeListFragment extends ListFragment
                 filterByPodcast();
             }
         }
-        /* restore sort order */
-        restoreSortOrder();
     }
 
     @Override
@@ -186,6 +201,7 @@ public class EpisodeListFragment extends ListFragment
         EpisodeDAO dao = Singletons.i().getEpisodeDAO();
         dao.removeEpisodeChangedListener(this);
         playlistDAO.removePlaylistChangeListener(this);
+        handler.removeCallbacks(reload);
 
         super.onDestroy();
     }
@@ -223,14 +239,6 @@ public class EpisodeListFragment extends ListFragment
         if (selectionChanged) {
             setSelection(0);
         }
-
-        /* restore sort order */
-        restoreSortOrder();
-    }
-
-    private void restoreSortOrder() {
-        settings = Singletons.i().getGpodderSettings();
-        this.sortEpisodeList(settings.getSortChoice(), settings.isAscending());
     }
 
     private void filterByPodcast() {
@@ -244,18 +252,13 @@ public class EpisodeListFragment extends ListFragment
         refresh();
     }
 
-    private void filterByPodcastOnUiThread() {
-        Activity activity = getActivity();
-        if (activity == null) {
-            return;
-        }
-
-        activity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                filterByPodcast();
-            }
-        });
+    /**
+     * Reloads the episodes shown so far once no further episodes have been
+     * added for a while. Keeps the scroll position, unlike a refresh.
+     */
+    private void reloadDelayed() {
+        handler.removeCallbacks(reload);
+        handler.postDelayed(reload, RELOAD_DELAY);
     }
 
     @Override
@@ -264,7 +267,17 @@ public class EpisodeListFragment extends ListFragment
     }
 
     @Override
-    public void onEpisodeAdded(final Episode episode) {
+    public void onEpisodeAdded(Episode episode) {
+        reloadDelayed();
+    }
+
+    @Override
+    public void onEpisodesAdded(List<Episode> episodes) {
+        reloadDelayed();
+    }
+
+    @Override
+    public void onEpisodeDeleted(final Episode episode) {
         Activity activity = getActivity();
         if (activity == null) {
             return;
@@ -273,14 +286,13 @@ public class EpisodeListFragment extends ListFragment
         activity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                model.addEpisode(episode);
+                adapter.remove(episode);
             }
         });
-        filterByPodcastOnUiThread();
     }
 
     @Override
-    public void onEpisodeDeleted(final Episode episode) {
+    public void onEpisodesDeleted(Podcast podcast, final Collection<Long> episodeIds) {
         Activity activity = getActivity();
         if (activity == null) {
             return;
@@ -289,14 +301,13 @@ public class EpisodeListFragment extends ListFragment
         activity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                model.removeEpisode(episode);
-                adapter.notifyDataSetChanged();
+                adapter.removeAll(episodeIds);
             }
         });
     }
 
     /**
-     * Updates the displayed list based on the current model contents. Ensures
+     * Updates the displayed list based on the current adapter contents. Ensures
      * that UI methods are called on the UI thread.
      */
     private void updateEpisodeList() {
@@ -378,34 +389,8 @@ public class EpisodeListFragment extends ListFragment
      * @param choice The sort choice
      * @param ascending Whether to sort ascending/descending
      */
-    public void sortEpisodeList(EpisodeSortChoice choice, final boolean ascending) {
-        Comparator<Episode> comparator = null;
-
-        switch (choice) {
-        case Podcast:
-            comparator = new Comparator<Episode>() {
-                @Override
-                public int compare(Episode lhs, Episode rhs) {
-                    int diff = (int)(rhs.getPodcast().getId() - lhs.getPodcast().getId());
-                    return (ascending ? -1 * diff : diff);
-                }
-            };
-            break;
-        case ReleaseDate:
-            comparator = new Comparator<Episode>() {
-                @Override
-                public int compare(Episode lhs, Episode rhs) {
-                    int diff = (int)(rhs.getReleased() - lhs.getReleased());
-                    return (ascending ? -1 * diff : diff);
-                }
-            };
-            break;
-        default:
-            throw new IllegalArgumentException("Illegal sort choice");
-        }
-
-        adapter.sort(comparator);
-        updateEpisodeList();
+    public void sortEpisodeList(EpisodeSortChoice choice, boolean ascending) {
+        show(choice, ascending);
     }
 
     /**
@@ -422,20 +407,19 @@ public class EpisodeListFragment extends ListFragment
      * Refreshes the episode list view.
      */
     public void refresh() {
-        adapter.clear();
-
-        List<Episode> filteredEpisodes = new ArrayList<Episode>();
-        for (Episode e : model.getAll()) {
-            if (filter.filter(e)) {
-                continue;
-            }
-            filteredEpisodes.add(e);
-        }
-        adapter.addAll(filteredEpisodes);
-
-        restoreSortOrder();
-        updateEpisodeList();
+        settings = Singletons.i().getGpodderSettings();
+        show(settings.getSortChoice(), settings.isAscending());
+    }
 
+    /**
+     * Shows the episodes passing the filters in the given order. The database
+     * does the filtering and sorting, and the episodes are loaded page by
+     * page in the background as the list is scrolled. Search results come
+     * best matches first.
+     */
+    private void show(EpisodeSortChoice choice, boolean ascending) {
+        EpisodeDAO dao = Singletons.i().getEpisodeDAO();
+        adapter.setPager(new EpisodePager(dao, filter, choice, ascending, PAGE_SIZE));
     }
 
     /**
@@ -485,4 +469,19 @@ public class EpisodeListFragment extends ListFragment
     public void onPlaylistEpisodeRemoved(int position) {
         adapter.notifyDataSetChanged();
     }
+
+    @Override
+    public void onPlaylistBulkChanged(List<Episode> playlist) {
+        Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                adapter.notifyDataSetChanged();
+            }
+        });
+    }
 }
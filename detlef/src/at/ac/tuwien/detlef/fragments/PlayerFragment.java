@@ -17,6 +17,8 @@
 
 package at.ac.tuwien.detlef.fragments;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import android.app.Activity;
@@ -25,6 +27,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.media.MediaMetadataRetriever;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
@@ -48,6 +51,7 @@ import at.ac.tuwien.detlef.db.EpisodeDAO;
 import at.ac.tuwien.detlef.db.PlaylistDAO;
 import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Episode.StorageState;
+import at.ac.tuwien.detlef.domain.Podcast;
 import at.ac.tuwien.detlef.mediaplayer.IMediaPlayerService;
 import at.ac.tuwien.detlef.mediaplayer.MediaPlayerService;
 
@@ -60,6 +64,9 @@ public class PlayerFragment extends Fragment implements PlaylistDAO.OnPlaylistCh
     private IMediaPlayerService service;
     private Episode activeEpisode = null;
 
+    /* The episode whose description is shown or being loaded. */
+    private Episode describedEpisode = null;
+
     private boolean fragmentPaused = true;
     private boolean progressUpdaterRunning = false;
     private boolean bound = false;
@@ -123,6 +130,7 @@ public class PlayerFragment extends Fragment implements PlaylistDAO.OnPlaylistCh
                 service.seekTo(seekBar1.getProgress());
                 if (activeEpisode != null) {
                     activeEpisode.setPlayPosition(seekBar1.getProgress());
+                    Singletons.i().getEpisodeUpdateQueue().enqueue(activeEpisode);
                 }
                 trackingTouch = false;
             }
@@ -240,6 +248,7 @@ public class PlayerFragment extends Fragment implements PlaylistDAO.OnPlaylistCh
         if (service != null) {
             service.stopStreamingIfPaused();
         }
+        Singletons.i().getEpisodeUpdateQueue().flushAsync();
         super.onPause();
     }
 
@@ -427,6 +436,7 @@ public class PlayerFragment extends Fragment implements PlaylistDAO.OnPlaylistCh
         episodeDescription.loadData("", "text/html; charset=UTF-8", null);
 
 
+        describedEpisode = ep;
         if (ep == null) {
             episode.setText(
                 getActivity().getText(R.string.no_episode_selected)
@@ -434,9 +444,7 @@ public class PlayerFragment extends Fragment implements PlaylistDAO.OnPlaylistCh
             podcast.setText("");
             podcastIcon.setImageDrawable(getResources().getDrawable(R.drawable.ic_feed_icon));
         } else {
-            episodeDescription.loadData("", "text/html; charset=UTF-8", null);
-            episodeDescription.loadData(ep.getDescription() == null ? "" : ep.getDescription(),
-                                        "text/html; charset=UTF-8", null);
+            showDescription(ep);
             podcast.setText(ep.getPodcast().getTitle() == null ? "" : ep.getPodcast()
                             .getTitle());
             episode.setText(ep.getTitle() == null ? "" : ep.getTitle());
@@ -452,6 +460,43 @@ public class PlayerFragment extends Fragment implements PlaylistDAO.OnPlaylistCh
         return this;
     }
 
+    /**
+     * Shows the full description of the given episode, loading it in the
+     * background first if only an excerpt has been loaded.
+     */
+    private void showDescription(final Episode ep) {
+        if (ep.isDescriptionComplete()) {
+            setDescription(ep);
+            return;
+        }
+
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                Singletons.i().getEpisodeDAO().loadDetails(ep);
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                /* Another episode may have been shown in the meantime. */
+                if (describedEpisode == ep) {
+                    setDescription(ep);
+                }
+            }
+        }.execute();
+    }
+
+    private void setDescription(Episode ep) {
+        View view = getView();
+        if (view == null) {
+            return;
+        }
+        WebView episodeDescription = (WebView) view.findViewById(R.id.playerEpisodeDescription);
+        episodeDescription.loadData(ep.getDescription() == null ? "" : ep.getDescription(),
+                                    "text/html; charset=UTF-8", null);
+    }
+
     private void setNotPlayingSeekBarAndTime(Episode ep) {
         if (service == null) {
             return;
@@ -555,6 +600,11 @@ public class PlayerFragment extends Fragment implements PlaylistDAO.OnPlaylistCh
         // not of interest here.
     }
 
+    @Override
+    public void onPlaylistBulkChanged(List<Episode> playlist) {
+        // not of interest here either.
+    }
+
     @Override
     public void onEpisodeChanged(Episode episode) {
         // don't care - let's suppose this doesn't happen,
@@ -567,6 +617,11 @@ public class PlayerFragment extends Fragment implements PlaylistDAO.OnPlaylistCh
         // thankfully I can be totally indifferent about this
     }
 
+    @Override
+    public void onEpisodesAdded(List<Episode> episodes) {
+        // same as above
+    }
+
     @Override
     public void onEpisodeDeleted(final Episode episode) {
         Activity activity = getActivity();
@@ -586,6 +641,25 @@ public class PlayerFragment extends Fragment implements PlaylistDAO.OnPlaylistCh
         });
     }
 
+    @Override
+    public void onEpisodesDeleted(Podcast podcast, final Collection<Long> episodeIds) {
+        Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (activeEpisode != null && episodeIds.contains(activeEpisode.getId())) {
+                    stopPlaying();
+                    activeEpisode = null;
+                    setEpisodeInfoControls(activeEpisode);
+                }
+            }
+        });
+    }
+
     public PlayerFragment setManualEpisode(Episode episode) {
         if (service == null) {
             return this;
@@ -0,0 +1,88 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.io.IOException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import com.dragontek.mygpoclient.feeds.FeedServiceClient;
+
+/**
+ * A {@link FeedServiceClient} whose responses are cached by a
+ * {@link HttpResponseCache}.
+ *
+ * <p>The client posts its parameters as a form, but the feed service answers
+ * the same query as a GET request, which can be revalidated. Queries are
+ * therefore sent as GET requests unless they would make the uri too long.</p>
+ *
+ * <p>Requests are sent over the connections of the given connection manager,
+ * see {@link GpodderClientFactory}.</p>
+ */
+public class CachingFeedServiceClient extends FeedServiceClient {
+
+    /** Longer queries are posted, uncached. */
+    private static final int MAX_GET_URI_LENGTH = 4096;
+
+    private final String username;
+    private final HttpResponseCache cache;
+    private final ClientConnectionManager connections;
+
+    /**
+     * @param host The feed service url.
+     * @param username The user name, or null for anonymous requests.
+     * @param password The password, or null for anonymous requests.
+     * @param cache The cache, or null to disable caching.
+     * @param connections The shared connection manager, or null for a
+     *            connection of this client's own.
+     */
+    public CachingFeedServiceClient(String host, String username, String password,
+                                    HttpResponseCache cache, ClientConnectionManager connections) {
+        super(host, username, password);
+        this.username = username;
+        this.cache = cache;
+        this.connections = connections;
+
+        /* The credentials are meant for gpodder.net, not for the feed service. */
+        GpodderClientFactory.configure(this, false);
+    }
+
+    @Override
+    protected ClientConnectionManager createClientConnectionManager() {
+        return connections != null ? connections : super.createClientConnectionManager();
+    }
+
+    @Override
+    protected String request(String method, String uri, HttpEntity entity) throws IOException {
+        if (cache != null && "POST".equals(method) && entity instanceof UrlEncodedFormEntity) {
+            String query = EntityUtils.toString(entity);
+            String getUri = uri + (uri.indexOf('?') < 0 ? "?" : "&") + query;
+            if (getUri.length() <= MAX_GET_URI_LENGTH) {
+                return cache.execute(this, prepareRequest("GET", getUri, null),
+                                     HttpResponseCache.key(username, getUri));
+            }
+        }
+
+        HttpResponse response = execute(prepareRequest(method, uri, entity));
+        return GpodderClientFactory.readBody(response);
+    }
+}
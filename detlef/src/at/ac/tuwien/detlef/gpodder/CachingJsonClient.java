@@ -0,0 +1,71 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.io.IOException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+
+import com.dragontek.mygpoclient.json.JsonClient;
+
+/**
+ * A {@link JsonClient} which answers GET requests through a
+ * {@link HttpResponseCache}. Other requests are passed through unchanged.
+ * Requests are sent over the connections of the given connection manager,
+ * see {@link GpodderClientFactory}.
+ */
+public class CachingJsonClient extends JsonClient {
+
+    private final String username;
+    private final HttpResponseCache cache;
+    private final ClientConnectionManager connections;
+
+    /**
+     * @param username The user name, or null for anonymous requests.
+     * @param password The password, or null for anonymous requests.
+     * @param cache The cache, or null to disable caching.
+     * @param connections The shared connection manager, or null for a
+     *            connection of this client's own.
+     */
+    public CachingJsonClient(String username, String password, HttpResponseCache cache,
+                             ClientConnectionManager connections) {
+        super(username, password);
+        this.username = username;
+        this.cache = cache;
+        this.connections = connections;
+        GpodderClientFactory.configure(this, true);
+    }
+
+    @Override
+    protected ClientConnectionManager createClientConnectionManager() {
+        return connections != null ? connections : super.createClientConnectionManager();
+    }
+
+    @Override
+    protected String request(String method, String uri, HttpEntity entity) throws IOException {
+        if (cache == null || !"GET".equals(method)) {
+            HttpResponse response = execute(prepareRequest(method, uri, entity));
+            return GpodderClientFactory.readBody(response);
+        }
+
+        return cache.execute(this, prepareRequest(method, uri, entity),
+                             HttpResponseCache.key(username, uri));
+    }
+}
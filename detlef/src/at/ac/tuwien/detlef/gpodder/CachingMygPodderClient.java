@@ -15,37 +15,29 @@
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
  ************************************************************************* */
 
+package at.ac.tuwien.detlef.gpodder;
 
-package at.ac.tuwien.detlef.models;
+import org.apache.http.conn.ClientConnectionManager;
 
-import java.util.Collections;
-import java.util.List;
-
-import at.ac.tuwien.detlef.domain.Episode;
-
-import com.dragontek.mygpoclient.feeds.IFeed.IEpisode;
+import com.dragontek.mygpoclient.api.MygPodderClient;
 
 /**
- * EpisodeListModel consists of a list of episodes.
+ * A {@link MygPodderClient} whose GET requests are cached by a
+ * {@link HttpResponseCache}.
  */
-public class EpisodeListModel {
-
-    /** Contains all known episodes. */
-    private final List<Episode> eplist;
-
-    public EpisodeListModel(List<Episode> eplist) {
-        this.eplist = eplist;
-    }
-
-    public List<Episode> getAll() {
-        return Collections.unmodifiableList(eplist);
-    }
-
-    public void addEpisode(Episode episode) {
-        eplist.add(episode);
-    }
-
-    public void removeEpisode(IEpisode episode) {
-        eplist.remove(episode);
+public class CachingMygPodderClient extends MygPodderClient {
+
+    /**
+     * @param username The user name.
+     * @param password The password.
+     * @param host The gpodder.net host name.
+     * @param cache The cache, or null to disable caching.
+     * @param connections The shared connection manager, or null for a
+     *            connection of this client's own.
+     */
+    public CachingMygPodderClient(String username, String password, String host,
+                                  HttpResponseCache cache, ClientConnectionManager connections) {
+        super(username, password, host);
+        _client = new CachingJsonClient(username, password, cache, connections);
     }
 }
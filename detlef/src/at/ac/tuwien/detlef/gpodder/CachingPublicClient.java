@@ -0,0 +1,53 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import org.apache.http.conn.ClientConnectionManager;
+
+import com.dragontek.mygpoclient.pub.PublicClient;
+
+/**
+ * A {@link PublicClient} whose requests are cached by a
+ * {@link HttpResponseCache}.
+ */
+public class CachingPublicClient extends PublicClient {
+
+    /**
+     * Uses the default gpodder.net host.
+     *
+     * @param cache The cache, or null to disable caching.
+     * @param connections The shared connection manager, or null for a
+     *            connection of this client's own.
+     */
+    public CachingPublicClient(HttpResponseCache cache, ClientConnectionManager connections) {
+        super();
+        _client = new CachingJsonClient(null, null, cache, connections);
+    }
+
+    /**
+     * @param host The gpodder.net host name.
+     * @param cache The cache, or null to disable caching.
+     * @param connections The shared connection manager, or null for a
+     *            connection of this client's own.
+     */
+    public CachingPublicClient(String host, HttpResponseCache cache,
+                               ClientConnectionManager connections) {
+        super(host);
+        _client = new CachingJsonClient(null, null, cache, connections);
+    }
+}
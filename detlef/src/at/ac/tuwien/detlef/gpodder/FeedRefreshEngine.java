@@ -0,0 +1,268 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+import at.ac.tuwien.detlef.domain.Podcast;
+
+/**
+ * Refreshes feeds in parallel.
+ *
+ * <p>Feeds are pulled through the gpodder.net feed service, which accepts
+ * several feed urls per request. Podcasts are grouped into requests of at
+ * most {@link #getFeedsPerRequest()} feeds by their url, so a full refresh
+ * takes a handful of requests, and the same groups are requested again by
+ * the next refresh, whose responses can then be revalidated, see
+ * {@link HttpResponseCache}.</p>
+ *
+ * <p>All requests go to the same server, so at most
+ * {@link #getMaxInFlight()} of them are sent at the same time. The others
+ * wait in the order they have been submitted.</p>
+ *
+ * <p>Each call to {@link #refresh} returns a {@link Batch} which tracks how
+ * many of its feeds are done and runs a callback once all of them are.</p>
+ */
+public final class FeedRefreshEngine {
+
+    private static final String TAG = FeedRefreshEngine.class.getName();
+
+    /** The default number of requests sent to the feed service at the same time. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    /** The default number of feeds pulled with one request. */
+    public static final int DEFAULT_FEEDS_PER_REQUEST = 20;
+
+    /** Idle worker threads are stopped after this many seconds. */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final int maxInFlight;
+    private final int feedsPerRequest;
+
+    private final ThreadPoolExecutor workers;
+
+    /* Guarded by this. */
+    private final LinkedList<Job> pending = new LinkedList<Job>();
+    private int running = 0;
+
+    public FeedRefreshEngine() {
+        this(DEFAULT_MAX_IN_FLIGHT, DEFAULT_FEEDS_PER_REQUEST);
+    }
+
+    public FeedRefreshEngine(int maxInFlight, int feedsPerRequest) {
+        if (maxInFlight < 1 || feedsPerRequest < 1) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+
+        this.maxInFlight = maxInFlight;
+        this.feedsPerRequest = feedsPerRequest;
+
+        /* Jobs are only handed to the pool when a thread is free for them. */
+        workers = new ThreadPoolExecutor(maxInFlight, maxInFlight, KEEP_ALIVE_SECONDS,
+                                         TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getFeedsPerRequest() {
+        return feedsPerRequest;
+    }
+
+    /**
+     * Refreshes the feeds of the given podcasts.
+     *
+     * @param podcasts The podcasts to refresh.
+     * @param callback Receives the result of each feed, see
+     *            {@link PullFeedAsyncTask}.
+     * @param onComplete Run on a worker thread once all feeds are done. May be
+     *            null.
+     * @return The batch tracking the progress of the refresh.
+     */
+    public Batch refresh(Collection<Podcast> podcasts, NoDataResultHandler<?> callback,
+                         Runnable onComplete) {
+        List<List<Podcast>> groups = group(podcasts, feedsPerRequest);
+        List<Runnable> tasks = new ArrayList<Runnable>(groups.size());
+        int[] sizes = new int[groups.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            tasks.add(new PullFeedAsyncTask(callback, groups.get(i)));
+            sizes[i] = groups.get(i).size();
+        }
+        return submit(tasks, sizes, onComplete);
+    }
+
+    /**
+     * Splits the given podcasts into groups of at most the given size. The
+     * podcasts are ordered by their url, so a group only changes with the
+     * subscriptions and its request stays the same until one of its podcasts
+     * has new episodes.
+     */
+    static List<List<Podcast>> group(Collection<Podcast> podcasts, int size) {
+        List<Podcast> sorted = new ArrayList<Podcast>(podcasts);
+        Collections.sort(sorted, new Comparator<Podcast>() {
+            @Override
+            public int compare(Podcast lhs, Podcast rhs) {
+                String l = (lhs.getUrl() == null ? "" : lhs.getUrl());
+                String r = (rhs.getUrl() == null ? "" : rhs.getUrl());
+                return l.compareTo(r);
+            }
+        });
+
+        List<List<Podcast>> ret = new ArrayList<List<Podcast>>();
+        for (int i = 0; i < sorted.size(); i += size) {
+            ret.add(new ArrayList<Podcast>(sorted.subList(i, Math.min(i + size, sorted.size()))));
+        }
+        return ret;
+    }
+
+    /**
+     * Runs the given tasks, each counting as one feed, under the limits of
+     * this engine.
+     */
+    Batch submit(List<Runnable> tasks, Runnable onComplete) {
+        int[] sizes = new int[tasks.size()];
+        Arrays.fill(sizes, 1);
+        return submit(tasks, sizes, onComplete);
+    }
+
+    /**
+     * Runs the given tasks under the limits of this engine.
+     *
+     * @param tasks The tasks.
+     * @param sizes The number of feeds each task refreshes.
+     * @param onComplete Run once all tasks are done. May be null.
+     */
+    Batch submit(List<Runnable> tasks, int[] sizes, Runnable onComplete) {
+        int total = 0;
+        for (int size : sizes) {
+            total += size;
+        }
+
+        Batch batch = new Batch(total, onComplete);
+        if (tasks.isEmpty()) {
+            batch.jobDone(0);
+            return batch;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < tasks.size(); i++) {
+                pending.add(new Job(tasks.get(i), sizes[i], batch));
+            }
+        }
+        dispatch();
+
+        return batch;
+    }
+
+    /**
+     * Starts as many pending jobs as the limit allows, in the order they have
+     * been submitted.
+     */
+    private synchronized void dispatch() {
+        while (running < maxInFlight && !pending.isEmpty()) {
+            final Job job = pending.removeFirst();
+            running++;
+
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        job.task.run();
+                    } catch (RuntimeException ex) {
+                        Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+                    } finally {
+                        finished(job);
+                    }
+                }
+            });
+        }
+    }
+
+    private void finished(Job job) {
+        synchronized (this) {
+            running--;
+        }
+
+        dispatch();
+        job.batch.jobDone(job.size);
+    }
+
+    private static final class Job {
+        private final Runnable task;
+        private final int size;
+        private final Batch batch;
+
+        private Job(Runnable task, int size, Batch batch) {
+            this.task = task;
+            this.size = size;
+            this.batch = batch;
+        }
+    }
+
+    /**
+     * The progress of one call to {@link FeedRefreshEngine#refresh}.
+     */
+    public static final class Batch {
+        private final int total;
+        private final AtomicInteger done = new AtomicInteger(0);
+        private final Runnable onComplete;
+
+        private Batch(int total, Runnable onComplete) {
+            this.total = total;
+            this.onComplete = onComplete;
+        }
+
+        /**
+         * @return The number of feeds in this batch.
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return The number of feeds which have been refreshed, whether
+         *         successfully or not.
+         */
+        public int getDone() {
+            return Math.min(done.get(), total);
+        }
+
+        public boolean isComplete() {
+            return done.get() >= total;
+        }
+
+        private void jobDone(int size) {
+            if (done.addAndGet(size) == total && onComplete != null) {
+                onComplete.run();
+            }
+        }
+    }
+}
@@ -290,11 +290,12 @@ public class GPodderSync {
     }
 
     /**
-     * Adds a "get podcast info" job for a specific URL.
+     * Adds a "get podcast info" job for the given URLs. The handler receives
+     * the podcasts which were found, and a failure if none was.
      *
-     * @param url The url to get the podcast info from.
+     * @param urls The urls to get the podcast info from.
      */
-    public void addGetPodcastInfoJob(final PodcastResultHandler<?> handler,
+    public void addGetPodcastInfoJob(final PodcastListResultHandler<?> handler,
                                      final List<String> urls) {
         Log.d(TAG, "addGetPodcastInfoJob");
 
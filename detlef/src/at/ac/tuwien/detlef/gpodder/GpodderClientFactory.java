@@ -0,0 +1,332 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.AuthState;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+import com.dragontek.mygpoclient.api.MygPodderClient;
+import com.dragontek.mygpoclient.feeds.FeedServiceClient;
+import com.dragontek.mygpoclient.pub.PublicClient;
+
+/**
+ * Hands out the gpodder.net and feed service clients of this process.
+ *
+ * <p>All clients share one pool of keep-alive connections, so consecutive
+ * requests to the same host skip the connection setup and TLS handshake.
+ * Clients are reused per host and user: they keep their session cookies and
+ * send their credentials with the first request instead of waiting for a
+ * challenge, and a successful login is remembered for
+ * {@link #SESSION_TTL_MS}. Responses are requested gzip compressed.</p>
+ *
+ * <p>The clients are safe for concurrent requests.</p>
+ */
+public class GpodderClientFactory {
+
+    /** Connections kept open at most, over all hosts. */
+    private static final int MAX_CONNECTIONS = 8;
+
+    /** Connections kept open at most per host. */
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+    /** Requests wait this many milliseconds at most for a free connection. */
+    private static final long CONNECTION_WAIT_MS = 30 * 1000;
+
+    /**
+     * Idle connections are not reused after this many milliseconds unless the
+     * server allows a shorter time; servers and mobile networks drop idle
+     * connections silently after a while.
+     */
+    private static final long MAX_KEEP_ALIVE_MS = 30 * 1000;
+
+    /** A login is trusted for this many milliseconds. */
+    public static final long SESSION_TTL_MS = 30 * 60 * 1000;
+
+    private static final HttpRequestInterceptor ACCEPT_GZIP = new HttpRequestInterceptor() {
+        @Override
+        public void process(HttpRequest request, HttpContext context) {
+            if (!request.containsHeader("Accept-Encoding")) {
+                request.addHeader("Accept-Encoding", "gzip");
+            }
+        }
+    };
+
+    /**
+     * Sends the credentials of the target host with the request, which saves
+     * the round trip for the <tt>401</tt> challenge.
+     */
+    private static final HttpRequestInterceptor PREEMPTIVE_AUTH = new HttpRequestInterceptor() {
+        @Override
+        public void process(HttpRequest request, HttpContext context)
+            throws HttpException, IOException {
+            AuthState authState = (AuthState) context.getAttribute(
+                                      ClientContext.TARGET_AUTH_STATE);
+            CredentialsProvider provider = (CredentialsProvider) context.getAttribute(
+                                               ClientContext.CREDS_PROVIDER);
+            HttpHost target = (HttpHost) context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+            if (authState == null || authState.getAuthScheme() != null || provider == null
+                    || target == null) {
+                return;
+            }
+
+            Credentials credentials = provider.getCredentials(
+                                          new AuthScope(target.getHostName(), target.getPort()));
+            if (credentials != null) {
+                authState.setAuthScheme(new BasicScheme());
+                authState.setCredentials(credentials);
+            }
+        }
+    };
+
+    private static final ConnectionKeepAliveStrategy KEEP_ALIVE =
+    new ConnectionKeepAliveStrategy() {
+        private final ConnectionKeepAliveStrategy server =
+            new DefaultConnectionKeepAliveStrategy();
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = server.getKeepAliveDuration(response, context);
+            return duration < 0 ? MAX_KEEP_ALIVE_MS : Math.min(duration, MAX_KEEP_ALIVE_MS);
+        }
+    };
+
+    /**
+     * The client of a user on a gpodder.net host.
+     */
+    private static final class Session {
+        private final String password;
+        private final MygPodderClient client;
+
+        /* Guarded by this. */
+        private long authenticatedAt = 0;
+
+        private Session(String password, MygPodderClient client) {
+            this.password = password;
+            this.client = client;
+        }
+    }
+
+    private final HttpResponseCache cache;
+    private final ClientConnectionManager connections;
+
+    /* Guarded by this. Keyed by host and user name. */
+    private final Map<String, Session> sessions = new HashMap<String, Session>();
+
+    /* Guarded by this. Keyed by host. */
+    private final Map<String, PublicClient> publicClients = new HashMap<String, PublicClient>();
+
+    /* Guarded by this. Keyed by host, user name and password. */
+    private final Map<String, FeedServiceClient> feedServiceClients =
+        new HashMap<String, FeedServiceClient>();
+
+    /**
+     * @param cache The cache for GET requests, or null to disable caching.
+     */
+    public GpodderClientFactory(HttpResponseCache cache) {
+        this(cache, createConnectionManager());
+    }
+
+    public GpodderClientFactory(HttpResponseCache cache, ClientConnectionManager connections) {
+        this.cache = cache;
+        this.connections = connections;
+    }
+
+    private static ClientConnectionManager createConnectionManager() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params,
+                new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST));
+        ConnManagerParams.setTimeout(params, CONNECTION_WAIT_MS);
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        return new ThreadSafeClientConnManager(params, registry);
+    }
+
+    /**
+     * Sets up gzip negotiation and the keep-alive strategy of a client. The
+     * client must read its responses with {@link #readBody(HttpResponse)}.
+     *
+     * @param preemptiveAuth Whether to send credentials without waiting for a
+     *            challenge. Only for clients whose credentials belong to the
+     *            host they talk to.
+     */
+    static void configure(AbstractHttpClient client, boolean preemptiveAuth) {
+        client.addRequestInterceptor(ACCEPT_GZIP);
+        if (preemptiveAuth) {
+            client.addRequestInterceptor(PREEMPTIVE_AUTH, 0);
+        }
+        client.setKeepAliveStrategy(KEEP_ALIVE);
+    }
+
+    /**
+     * Reads the body of a <tt>200 OK</tt> response and decompresses it if
+     * needed. Responses are not decompressed while they are received, since
+     * a connection whose response length is unknown cannot be kept alive.
+     *
+     * @throws HttpResponseException If the response is not <tt>200 OK</tt>.
+     *             The body of a failed response is consumed, so its
+     *             connection goes back to the pool.
+     */
+    static String readBody(HttpResponse response) throws IOException {
+        checkStatus(response);
+        return HttpResponseCache.readBody(response.getEntity());
+    }
+
+    private static void checkStatus(HttpResponse response) throws IOException {
+        StatusLine status = response.getStatusLine();
+        if (status.getStatusCode() == HttpStatus.SC_OK) {
+            return;
+        }
+
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            entity.consumeContent();
+        }
+        throw new HttpResponseException(status.getStatusCode(), status.toString());
+    }
+
+    private static String key(String host, String username) {
+        return host + '\n' + username;
+    }
+
+    public ClientConnectionManager getConnectionManager() {
+        return connections;
+    }
+
+    private synchronized Session getSession(String host, String username, String password) {
+        String key = key(host, username);
+        Session session = sessions.get(key);
+        if (session == null || !equal(session.password, password)) {
+            session = new Session(password, new CachingMygPodderClient(username, password, host,
+                                  cache, connections));
+            sessions.put(key, session);
+        }
+        return session;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @param host The gpodder.net host name.
+     * @return The client of the given user. A changed password replaces the
+     *         client.
+     */
+    public MygPodderClient getMygPodderClient(String host, String username, String password) {
+        return getSession(host, username, password).client;
+    }
+
+    /**
+     * Logs in unless the user has logged in with the same password within
+     * {@link #SESSION_TTL_MS}.
+     *
+     * @return Whether the login succeeded.
+     */
+    public boolean authenticate(String host, String username, String password) {
+        Session session = getSession(host, username, password);
+
+        /* Concurrent logins of the same user wait for the first one. */
+        synchronized (session) {
+            long now = System.currentTimeMillis();
+            if (session.authenticatedAt != 0 && now - session.authenticatedAt < SESSION_TTL_MS) {
+                return true;
+            }
+
+            if (!session.client.authenticate(username, password)) {
+                return false;
+            }
+            session.authenticatedAt = now;
+            return true;
+        }
+    }
+
+    /**
+     * Forgets the login of the given user, for example after the server
+     * rejected the credentials.
+     */
+    public synchronized void invalidateSession(String host, String username) {
+        sessions.remove(key(host, username));
+    }
+
+    /**
+     * @param host The gpodder.net host name, or null for the default host.
+     */
+    public synchronized PublicClient getPublicClient(String host) {
+        PublicClient client = publicClients.get(host);
+        if (client == null) {
+            client = host == null ? new CachingPublicClient(cache, connections)
+                     : new CachingPublicClient(host, cache, connections);
+            publicClients.put(host, client);
+        }
+        return client;
+    }
+
+    /**
+     * @param host The feed service url.
+     */
+    public synchronized FeedServiceClient getFeedServiceClient(String host, String username,
+            String password) {
+        String key = key(host, username) + '\n' + password;
+        FeedServiceClient client = feedServiceClients.get(key);
+        if (client == null) {
+            client = new CachingFeedServiceClient(host, username, password, cache, connections);
+            feedServiceClients.put(key, client);
+        }
+        return client;
+    }
+}
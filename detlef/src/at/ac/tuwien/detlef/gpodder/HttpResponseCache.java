@@ -0,0 +1,520 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import android.util.Log;
+
+/**
+ * A disk backed cache for the responses of the gpodder.net and feed service
+ * clients.
+ *
+ * <p>Responses are stored together with their <tt>ETag</tt> and
+ * <tt>Last-Modified</tt> validators. A stored response is served without a
+ * request while the <tt>max-age</tt> of its <tt>Cache-Control</tt> header
+ * holds; after that it is revalidated with a conditional request, and a
+ * <tt>304 Not Modified</tt> answer is served from disk. Responses marked
+ * <tt>no-store</tt>, or which can neither be revalidated nor reused, are not
+ * stored. The least recently used entries are evicted once the cache grows
+ * beyond its size limit.</p>
+ *
+ * <p>Each entry is a file of its own which is replaced atomically, so the
+ * application and the podder service process may use the same directory.
+ * Each process only accounts for the entries it has seen, so the size limit
+ * is approximate in that case.</p>
+ */
+public final class HttpResponseCache {
+
+    private static final String TAG = HttpResponseCache.class.getName();
+
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".entry";
+
+    /**
+     * Temporary files older than this are left over by an interrupted write.
+     * Younger ones may still be written by another process.
+     */
+    static final long STALE_TEMP_FILE_AGE = 60 * 60 * 1000;
+
+    private final File directory;
+    private final long maxSize;
+
+    /* Guarded by this. Entry file names and sizes, least recently used first. */
+    private final LinkedHashMap<String, Long> index =
+        new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size = 0;
+    private boolean loaded = false;
+
+    private final AtomicInteger hitCount = new AtomicInteger(0);
+    private final AtomicInteger revalidationCount = new AtomicInteger(0);
+    private final AtomicInteger missCount = new AtomicInteger(0);
+
+    /**
+     * @param directory The directory the entries are stored in.
+     * @param maxSize The size in bytes the entries may take up.
+     */
+    public HttpResponseCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return The cache key of a request for the given uri made by the given
+     *         user, which may be null for anonymous requests.
+     */
+    public static String key(String username, String uri) {
+        return (username == null ? "" : username) + " " + uri;
+    }
+
+    /**
+     * Executes the given request unless it can be answered from the cache and
+     * returns the response body.
+     *
+     * @param client The client executing the request.
+     * @param request The request. Validators of a stored response are added
+     *            to it.
+     * @param key The cache key of the request, see {@link #key}.
+     * @return The response body.
+     * @throws HttpResponseException If the response is neither 200 OK nor a
+     *             304 Not Modified for a stored response.
+     */
+    public String execute(HttpClient client, HttpUriRequest request, String key)
+        throws IOException {
+        String name = fileName(key);
+        long now = System.currentTimeMillis();
+
+        Entry cached = read(name, key);
+        if (cached != null && cached.isFresh(now)) {
+            hitCount.incrementAndGet();
+            return cached.body;
+        }
+
+        if (cached != null) {
+            if (cached.etag != null) {
+                request.setHeader("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                request.setHeader("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        HttpResponse response = client.execute(request);
+        StatusLine status = response.getStatusLine();
+
+        if (status.getStatusCode() == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+            consume(response.getEntity());
+            revalidationCount.incrementAndGet();
+
+            Entry updated = Entry.revalidate(cached, response, now);
+            if (updated == null) {
+                remove(name);
+            } else {
+                write(name, updated);
+            }
+            return cached.body;
+        }
+
+        if (status.getStatusCode() != HttpStatus.SC_OK) {
+            consume(response.getEntity());
+            throw new HttpResponseException(status.getStatusCode(), status.toString());
+        }
+
+        missCount.incrementAndGet();
+
+        String body = readBody(response.getEntity());
+        Entry entry = body == null ? null : Entry.create(key, response, body, now);
+        if (entry == null) {
+            remove(name);
+        } else {
+            write(name, entry);
+        }
+        return body;
+    }
+
+    /**
+     * @return The number of requests answered from the cache without a
+     *         request.
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of requests answered from the cache after the
+     *         server confirmed that the stored response is still valid.
+     */
+    public int getRevalidationCount() {
+        return revalidationCount.get();
+    }
+
+    /**
+     * @return The number of requests whose response had to be downloaded.
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return The share of requests which did not download a response body,
+     *         or 0 if there were no requests yet.
+     */
+    public double getHitRatio() {
+        int hits = hitCount.get() + revalidationCount.get();
+        int total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return The size of the entries known to this process.
+     */
+    public synchronized long getSize() {
+        ensureLoaded();
+        return size;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        for (String name : index.keySet()) {
+            new File(directory, name).delete();
+        }
+        index.clear();
+        size = 0;
+    }
+
+    private static String fileName(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+
+            StringBuilder sb = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                sb.append(String.format(Locale.US, "%02x", b & 0xff));
+            }
+            return sb.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode()) + SUFFIX;
+        } catch (IOException e) {
+            return Integer.toHexString(key.hashCode()) + SUFFIX;
+        }
+    }
+
+    /**
+     * Builds the index from the entries on disk, oldest first.
+     */
+    private synchronized void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                if (lhs.lastModified() == rhs.lastModified()) {
+                    return 0;
+                }
+                return lhs.lastModified() < rhs.lastModified() ? -1 : 1;
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        for (File f : files) {
+            if (f.getName().endsWith(SUFFIX)) {
+                index.put(f.getName(), f.length());
+                size += f.length();
+            } else if (now - f.lastModified() > STALE_TEMP_FILE_AGE) {
+                f.delete();
+            }
+        }
+        evict();
+    }
+
+    private Entry read(String name, String key) {
+        synchronized (this) {
+            ensureLoaded();
+            if (index.get(name) == null) {
+                return null;
+            }
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(new File(directory, name))));
+            try {
+                Entry entry = Entry.read(in);
+                if (entry != null && key.equals(entry.key)) {
+                    return entry;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        }
+
+        remove(name);
+        return null;
+    }
+
+    private void write(String name, Entry entry) {
+        long length;
+        try {
+            synchronized (this) {
+                ensureLoaded();
+            }
+
+            File tmp = File.createTempFile("entry", ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tmp)));
+            try {
+                entry.write(out);
+            } finally {
+                out.close();
+            }
+
+            length = tmp.length();
+            if (!tmp.renameTo(new File(directory, name))) {
+                tmp.delete();
+                throw new IOException("Could not store " + name);
+            }
+        } catch (IOException ex) {
+            Log.e(TAG, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+            return;
+        }
+
+        synchronized (this) {
+            Long old = index.put(name, length);
+            size += length - (old == null ? 0 : old);
+            evict();
+        }
+    }
+
+    private synchronized void remove(String name) {
+        Long old = index.remove(name);
+        if (old != null) {
+            size -= old;
+        }
+        new File(directory, name).delete();
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            size -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    private static void consume(HttpEntity entity) throws IOException {
+        if (entity != null) {
+            entity.consumeContent();
+        }
+    }
+
+    /**
+     * @return The body of the entity, decompressed if it is gzip encoded.
+     */
+    static String readBody(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return null;
+        }
+
+        InputStream in = entity.getContent();
+        try {
+            Header encoding = entity.getContentEncoding();
+            if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
+                in = new GZIPInputStream(in);
+            }
+            return com.dragontek.mygpoclient.http.HttpClient.convertStreamToString(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A stored response.
+     */
+    private static final class Entry {
+        private final String key;
+        private final String etag;
+        private final String lastModified;
+        private final long storedAt;
+
+        /** Seconds the response may be used without revalidation. */
+        private final long maxAge;
+
+        private final String body;
+
+        private Entry(String key, String etag, String lastModified, long storedAt, long maxAge,
+                      String body) {
+            this.key = key;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+            this.maxAge = maxAge;
+            this.body = body;
+        }
+
+        private boolean isFresh(long now) {
+            return now >= storedAt && now - storedAt < maxAge * 1000;
+        }
+
+        /**
+         * @return The entry for the given response, or null if it must not
+         *         or need not be stored.
+         */
+        private static Entry create(String key, HttpResponse response, String body, long now) {
+            long maxAge = parseMaxAge(response);
+            if (maxAge < 0) {
+                return null;
+            }
+
+            String etag = getHeader(response, "ETag");
+            String lastModified = getHeader(response, "Last-Modified");
+            if (etag == null && lastModified == null && maxAge == 0) {
+                return null;
+            }
+
+            return new Entry(key, etag, lastModified, now, maxAge, body);
+        }
+
+        /**
+         * @return The entry updated with the headers of a 304 response, or
+         *         null if it must not be stored anymore.
+         */
+        private static Entry revalidate(Entry entry, HttpResponse response, long now) {
+            long maxAge = entry.maxAge;
+            if (response.getFirstHeader("Cache-Control") != null) {
+                maxAge = parseMaxAge(response);
+                if (maxAge < 0) {
+                    return null;
+                }
+            }
+
+            String etag = getHeader(response, "ETag");
+            String lastModified = getHeader(response, "Last-Modified");
+            return new Entry(entry.key, etag != null ? etag : entry.etag,
+                             lastModified != null ? lastModified : entry.lastModified, now, maxAge,
+                             entry.body);
+        }
+
+        private static String getHeader(HttpResponse response, String name) {
+            Header h = response.getFirstHeader(name);
+            return h == null ? null : h.getValue();
+        }
+
+        /**
+         * @return The max-age of the response's Cache-Control header in
+         *         seconds, 0 if it has to be revalidated on each use and -1 if
+         *         it must not be stored.
+         */
+        private static long parseMaxAge(HttpResponse response) {
+            long maxAge = 0;
+            boolean noCache = false;
+            for (Header h : response.getHeaders("Cache-Control")) {
+                for (String directive : h.getValue().split(",")) {
+                    String d = directive.trim().toLowerCase(Locale.US);
+                    if (d.equals("no-store")) {
+                        return -1;
+                    } else if (d.equals("no-cache")) {
+                        noCache = true;
+                    } else if (d.startsWith("max-age=")) {
+                        try {
+                            maxAge = Math.max(0, Long.parseLong(d.substring(8).replace("\"", "")));
+                        } catch (NumberFormatException e) {
+                            maxAge = 0;
+                        }
+                    }
+                }
+            }
+            return noCache ? 0 : maxAge;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeUTF(etag == null ? "" : etag);
+            out.writeUTF(lastModified == null ? "" : lastModified);
+            out.writeLong(storedAt);
+            out.writeLong(maxAge);
+
+            byte[] data = body.getBytes("UTF-8");
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+
+            String key = in.readUTF();
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            long storedAt = in.readLong();
+            long maxAge = in.readLong();
+
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+
+            return new Entry(key, etag.length() == 0 ? null : etag,
+                             lastModified.length() == 0 ? null : lastModified, storedAt, maxAge,
+                             new String(data, "UTF-8"));
+        }
+    }
+}
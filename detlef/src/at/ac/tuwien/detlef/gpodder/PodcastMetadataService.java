@@ -0,0 +1,226 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import com.dragontek.mygpoclient.pub.PublicClient;
+import com.dragontek.mygpoclient.simple.IPodcast;
+
+/**
+ * Retrieves the gpodder.net metadata of podcasts by their feed url.
+ *
+ * <p>Podcasts are fetched in parallel on a small worker pool. A podcast which
+ * is already being fetched is not requested a second time; the callers share
+ * the result. Fetched podcasts are kept for {@link #getTtl()} milliseconds.
+ * Failures are not cached.</p>
+ */
+public final class PodcastMetadataService {
+
+    private static final String TAG = PodcastMetadataService.class.getName();
+
+    /** The default number of podcasts fetched at the same time. */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /** The default time fetched podcasts are kept, one hour. */
+    public static final long DEFAULT_TTL_MS = 60 * 60 * 1000;
+
+    /** At most this many podcasts are kept. */
+    private static final int MAX_ENTRIES = 512;
+
+    /** Idle worker threads are stopped after this many seconds. */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Fetches the metadata of a single podcast.
+     */
+    public interface Fetcher {
+        /**
+         * @param host The gpodder.net host name, or null for the default.
+         * @param url The feed url of the podcast.
+         * @return The podcast, or null if it is not known.
+         */
+        IPodcast fetch(String host, String url) throws IOException;
+    }
+
+    /**
+     * Fetches podcasts with the shared {@link PublicClient} of the host.
+     */
+    private static final class PublicClientFetcher implements Fetcher {
+        private final GpodderClientFactory clients;
+
+        private PublicClientFetcher(GpodderClientFactory clients) {
+            this.clients = clients;
+        }
+
+        @Override
+        public IPodcast fetch(String host, String url) throws IOException {
+            return clients.getPublicClient(host).getPodcastData(url);
+        }
+    }
+
+    private static final class Entry {
+        private final IPodcast podcast;
+        private final long fetchedAt;
+
+        private Entry(IPodcast podcast, long fetchedAt) {
+            this.podcast = podcast;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final Fetcher fetcher;
+    private final long ttl;
+    private final ThreadPoolExecutor workers;
+
+    /* Guarded by this. Keyed by host and url. */
+    private final LinkedHashMap<String, Entry> cache =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final Map<String, Future<IPodcast>> inFlight = new HashMap<String, Future<IPodcast>>();
+
+    /**
+     * Fetches podcasts with the clients of the given factory.
+     */
+    public PodcastMetadataService(GpodderClientFactory clients) {
+        this(new PublicClientFetcher(clients), DEFAULT_TTL_MS, DEFAULT_PARALLELISM);
+    }
+
+    public PodcastMetadataService(Fetcher fetcher, long ttl, int parallelism) {
+        this.fetcher = fetcher;
+        this.ttl = ttl;
+
+        workers = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE_SECONDS,
+                                         TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Returns the podcasts with the given feed urls. Blocks until all of them
+     * have been fetched.
+     *
+     * @param host The gpodder.net host name, or null for the default.
+     * @param urls The feed urls. Duplicates are fetched once.
+     * @return The podcasts in the order of their urls. Podcasts which could
+     *         not be fetched are left out.
+     */
+    public List<IPodcast> getPodcasts(String host, Collection<String> urls) {
+        List<Future<IPodcast>> futures = new ArrayList<Future<IPodcast>>(urls.size());
+        for (String url : new LinkedHashSet<String>(urls)) {
+            futures.add(submit(host, url));
+        }
+
+        List<IPodcast> ret = new ArrayList<IPodcast>(futures.size());
+        for (Future<IPodcast> f : futures) {
+            try {
+                IPodcast podcast = f.get();
+                if (podcast != null) {
+                    ret.add(podcast);
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                Log.w(TAG, "failed fetching podcast details: " + cause.toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Forgets all fetched podcasts.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    private static String key(String host, String url) {
+        return (host == null ? "" : host) + " " + url;
+    }
+
+    private synchronized Future<IPodcast> submit(final String host, final String url) {
+        final String key = key(host, url);
+
+        Entry entry = cache.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.fetchedAt < ttl) {
+            final IPodcast podcast = entry.podcast;
+            FutureTask<IPodcast> done = new FutureTask<IPodcast>(new Callable<IPodcast>() {
+                @Override
+                public IPodcast call() {
+                    return podcast;
+                }
+            });
+            done.run();
+            return done;
+        }
+
+        Future<IPodcast> running = inFlight.get(key);
+        if (running != null) {
+            return running;
+        }
+
+        FutureTask<IPodcast> task = new FutureTask<IPodcast>(new Callable<IPodcast>() {
+            @Override
+            public IPodcast call() throws IOException {
+                try {
+                    IPodcast podcast = fetcher.fetch(host, url);
+                    if (podcast != null) {
+                        synchronized (PodcastMetadataService.this) {
+                            cache.put(key, new Entry(podcast, System.currentTimeMillis()));
+                        }
+                    }
+                    return podcast;
+                } finally {
+                    synchronized (PodcastMetadataService.this) {
+                        inFlight.remove(key);
+                    }
+                }
+            }
+        });
+        inFlight.put(key, task);
+        workers.execute(task);
+        return task;
+    }
+}
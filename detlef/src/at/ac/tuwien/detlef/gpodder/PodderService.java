@@ -19,7 +19,6 @@ package at.ac.tuwien.detlef.gpodder;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
 import org.apache.http.auth.AuthenticationException;
@@ -31,8 +30,10 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.text.TextUtils;
 import android.util.Log;
 import at.ac.tuwien.detlef.Detlef;
+import at.ac.tuwien.detlef.Singletons;
 import at.ac.tuwien.detlef.domain.EnhancedSubscriptionChanges;
 import at.ac.tuwien.detlef.domain.Podcast;
 import at.ac.tuwien.detlef.gpodder.plumbing.CachingCallbackProxy;
@@ -101,16 +102,15 @@ public class PodderService extends Service {
             return null;
         }
 
-        SimpleClient sc = new SimpleClient(cinfo.getUsername(), cinfo.getPassword(),
-                                           cinfo.getHostname());
-
-        boolean ok = sc.authenticate(cinfo.getUsername(), cinfo.getPassword());
-
-        if (!ok) {
+        GpodderClientFactory clients = Singletons.i().getGpodderClientFactory();
+        if (!clients.authenticate(cinfo.getHostname(), cinfo.getUsername(),
+                                  cinfo.getPassword())) {
             cb.gponetLoginFailed(reqId, ErrorCode.AUTHENTICATION_FAILED, "authentication failed");
+            return null;
         }
 
-        return sc;
+        return clients.getMygPodderClient(cinfo.getHostname(), cinfo.getUsername(),
+                                          cinfo.getPassword());
     }
 
     private static boolean isOnline() {
@@ -120,28 +120,6 @@ public class PodderService extends Service {
         return (netInfo != null && netInfo.isConnectedOrConnecting());
     }
 
-    /**
-     * Fetches details about podcasts specified by the given URLs.
-     *
-     * @param pc The gpodder.net-compatible public API client.
-     * @param urls URLs to fetch.
-     * @return
-     */
-    protected static ArrayList<IPodcast> fetchPodcastsDetails(PublicClient pc,
-            Collection<String> urls) {
-        ArrayList<IPodcast> ret = new ArrayList<IPodcast>(urls.size());
-        for (String url : urls) {
-            try {
-                IPodcast thePodcast = pc.getPodcastData(url);
-                ret.add(thePodcast);
-            } catch (IOException ioe) {
-                Log.w(TAG, "failed fetching details of podcast @ " + url + ": " + ioe.getMessage());
-                // don't add to list
-            }
-        }
-        return ret;
-    }
-
     /**
      * Contains the error codes for failures reported by the
      * {@link PodderService}.
@@ -237,6 +215,8 @@ public class PodderService extends Service {
                 casts = sc.getSubscriptions(cinfo.getDeviceId());
             } catch (AuthenticationException ae) {
                 Log.w(TAG, "getSubscriptions AuthenticationException: " + ae.getMessage());
+                Singletons.i().getGpodderClientFactory().invalidateSession(cinfo.getHostname(),
+                        cinfo.getUsername());
                 theMagicalProxy.downloadPodcastListFailed(reqId, ErrorCode.AUTHENTICATION_FAILED,
                         ae.getMessage());
                 return;
@@ -268,17 +248,17 @@ public class PodderService extends Service {
             Log.d(TAG, "downloadChangesSince() on " + Thread.currentThread().getId());
             theMagicalProxy.setTarget(cb);
 
-            MygPodderClient cl = new MygPodderClient(cinfo.getUsername(), cinfo.getPassword(),
-                    cinfo.getHostname());
+            MygPodderClient cl = Singletons.i().getGpodderClientFactory().getMygPodderClient(
+                                     cinfo.getHostname(), cinfo.getUsername(), cinfo.getPassword());
 
             try {
                 // fetch the subscription changes
                 SubscriptionChanges scs = cl.pullSubscriptions(cinfo.getDeviceId(), ts);
 
                 // get all the juicy details
-                PublicClient pc = new PublicClient(cinfo.getHostname());
-                List<IPodcast> added = fetchPodcastsDetails(pc, scs.add);
-                List<IPodcast> removed = fetchPodcastsDetails(pc, scs.remove);
+                PodcastMetadataService metadata = Singletons.i().getPodcastMetadataService();
+                List<IPodcast> added = metadata.getPodcasts(cinfo.getHostname(), scs.add);
+                List<IPodcast> removed = metadata.getPodcasts(cinfo.getHostname(), scs.remove);
                 EnhancedSubscriptionChanges esc = new EnhancedSubscriptionChanges(added, removed,
                         scs.timestamp);
 
@@ -302,7 +282,8 @@ public class PodderService extends Service {
             Log.d(TAG, "searchPodcasts() on " + Thread.currentThread().getId());
             theMagicalProxy.setTarget(cb);
 
-            PublicClient pc = new PublicClient(cinfo.getHostname());
+            PublicClient pc = Singletons.i().getGpodderClientFactory().getPublicClient(
+                                  cinfo.getHostname());
 
             try {
                 List<IPodcast> ipodcasts = pc.searchPodcast(query);
@@ -327,7 +308,8 @@ public class PodderService extends Service {
             Log.d(TAG, "getToplist() on " + Thread.currentThread().getId());
             theMagicalProxy.setTarget(cb);
 
-            PublicClient pc = new PublicClient(cinfo.getHostname());
+            PublicClient pc = Singletons.i().getGpodderClientFactory().getPublicClient(
+                                  cinfo.getHostname());
 
             try {
                 List<IPodcast> ipodcasts = pc.getToplist();
@@ -352,10 +334,8 @@ public class PodderService extends Service {
             Log.d(TAG, "getSuggestions() on " + Thread.currentThread().getId());
             theMagicalProxy.setTarget(cb);
 
-            MygPodderClient mpc = new MygPodderClient(
-                cinfo.getUsername(),
-                cinfo.getPassword(),
-                cinfo.getHostname());
+            MygPodderClient mpc = Singletons.i().getGpodderClientFactory().getMygPodderClient(
+                                      cinfo.getHostname(), cinfo.getUsername(), cinfo.getPassword());
 
             try {
                 List <? extends IPodcast > ipodcasts = mpc.getSuggestions(DEFAULT_SUGGESTIONS_COUNT);
@@ -385,10 +365,8 @@ public class PodderService extends Service {
             Log.d(TAG, "updateSubscriptions() on " + Thread.currentThread().getId());
             theMagicalProxy.setTarget(cb);
 
-            MygPodderClient mpc = new MygPodderClient(
-                cinfo.getUsername(),
-                cinfo.getPassword(),
-                cinfo.getHostname());
+            MygPodderClient mpc = Singletons.i().getGpodderClientFactory().getMygPodderClient(
+                                      cinfo.getHostname(), cinfo.getUsername(), cinfo.getPassword());
 
             try {
                 UpdateResult result = mpc.updateSubscriptions(
@@ -416,16 +394,23 @@ public class PodderService extends Service {
             Log.d(TAG, "getPodcastInfo() on " + Thread.currentThread().getId());
             theMagicalProxy.setTarget(cb);
 
-            PublicClient pc = new PublicClient(cinfo.getHostname());
-            String url = urls.get(0);
-            try {
-                com.dragontek.mygpoclient.simple.Podcast podcast = pc.getPodcastData(url);
-                Podcast ret = new Podcast(podcast);
-                theMagicalProxy.getPodcastInfoSucceeded(reqId, ret);
-            } catch (IOException e) {
-                Log.w(TAG, "getPodcastInfo IOException: " + e.getMessage());
-                theMagicalProxy.getPodcastInfoFailed(reqId, ErrorCode.IO_PROBLEM, url);
+            List<IPodcast> ipodcasts = Singletons.i().getPodcastMetadataService().getPodcasts(
+                                           cinfo.getHostname(), urls);
+            if (ipodcasts.isEmpty()) {
+                Log.w(TAG, "getPodcastInfo found none of " + urls);
+                theMagicalProxy.getPodcastInfoFailed(reqId, ErrorCode.IO_PROBLEM,
+                                                     TextUtils.join(", ", urls));
+                return;
             }
+
+            /* Convert the list into podcasts. */
+
+            List<Podcast> podcasts = new ArrayList<Podcast>(ipodcasts.size());
+            for (IPodcast ip : ipodcasts) {
+                podcasts.add(new Podcast(ip));
+            }
+
+            theMagicalProxy.getPodcastInfoSucceeded(reqId, podcasts);
         }
     }
 }
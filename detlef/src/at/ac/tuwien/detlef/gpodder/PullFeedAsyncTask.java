@@ -19,6 +19,11 @@
 package at.ac.tuwien.detlef.gpodder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.http.client.ClientProtocolException;
 
@@ -44,74 +49,160 @@ import com.google.gson.JsonParseException;
  * A Runnable to fetch feed changes. It should be started in its own Thread
  * and sends a reply via the specified callback. The user of the Task needs to implement
  * the Callback's handle & handleFailure methods.
+ *
+ * <p>Several feeds can be pulled with one request to the feed service. The
+ * callback then receives one event per podcast. Podcasts which are missing
+ * from the response are requested again, up to {@link #MAX_ATTEMPTS} times in
+ * total.</p>
  */
 public class PullFeedAsyncTask implements Runnable {
 
     private static final int GENERIC_ERROR = -1;
 
+    /** How often the feed of a podcast is requested before giving up. */
+    private static final int MAX_ATTEMPTS = 2;
+
     private static final String TAG = PullFeedAsyncTask.class.getName();
 
     private final NoDataResultHandler<?> callback;
-    private final Podcast podcast;
+    private final List<Podcast> podcasts;
 
     public PullFeedAsyncTask(NoDataResultHandler<?> callback, Podcast podcast) {
+        this(callback, Collections.singletonList(podcast));
+    }
+
+    /**
+     * @param callback Receives the result of each podcast.
+     * @param podcasts The podcasts whose feeds are pulled with one request.
+     */
+    public PullFeedAsyncTask(NoDataResultHandler<?> callback, List<Podcast> podcasts) {
         this.callback = callback;
-        this.podcast = podcast;
+        this.podcasts = podcasts;
     }
 
     @Override
     public void run() {
-        String err = Detlef.getAppContext().getString(R.string.no_podcast_specified);
-
-        if (podcast == null) {
+        if (podcasts.isEmpty() || podcasts.contains(null)) {
+            String err = Detlef.getAppContext().getString(R.string.no_podcast_specified);
             sendError(GENERIC_ERROR, err);
+            return;
         }
 
-        long since = podcast.getLastUpdate();
-
         /* Retrieve settings.*/
         GpodderSettings gps = Singletons.i().getGpodderSettings();
 
         String username = gps.getUsername();
         String password = gps.getPassword();
 
-        FeedServiceClient fsc = new FeedServiceClient(
-            "http://" + gps.getFeedHostname(),
-            username,
-            password
-        );
+        FeedServiceClient fsc = Singletons.i().getGpodderClientFactory().getFeedServiceClient(
+                                    "http://" + gps.getFeedHostname(), username, password);
+
+        List<Podcast> remaining = podcasts;
+        String err = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !remaining.isEmpty(); attempt++) {
+            try {
+                remaining = pullFeeds(fsc, remaining);
+                err = null;
+            } catch (JsonParseException e) {
+                err = e.getLocalizedMessage();
+            } catch (ClientProtocolException e) {
+                err = e.getLocalizedMessage();
+            } catch (IOException e) {
+                err = e.getLocalizedMessage();
+            }
+        }
 
-        FeedUpdate feed = null;
-        try {
-            /* Get the feed */
-            FeedServiceResponse fsr = fsc.parseFeeds(new String[] {podcast.getUrl()}, since);
-            if (fsr == null || fsr.size() == 0) {
-                String e = Detlef.getAppContext().getString(R.string.failed_to_download_feed);
-                sendError(GENERIC_ERROR, String.format("%s: %s", podcast.getTitle(), e));
-                return;
+        if (err == null) {
+            err = Detlef.getAppContext().getString(R.string.failed_to_download_feed);
+        }
+        for (Podcast p : remaining) {
+            sendError(GENERIC_ERROR, String.format("%s: %s", p.getTitle(), err));
+        }
+    }
+
+    /**
+     * Pulls the feeds of the given podcasts with one request and stores the
+     * new episodes.
+     *
+     * @return The podcasts which were not contained in the response.
+     */
+    private List<Podcast> pullFeeds(FeedServiceClient fsc, List<Podcast> batch)
+        throws IOException {
+        String[] urls = new String[batch.size()];
+        long since = Long.MAX_VALUE;
+        for (int i = 0; i < urls.length; i++) {
+            Podcast p = batch.get(i);
+            urls[i] = p.getUrl();
+
+            /* FeedUpdate drops what each podcast already has. */
+            since = Math.min(since, p.getLastUpdate());
+        }
+
+        /* Get the feeds */
+        FeedServiceResponse fsr = fsc.parseFeeds(urls, since);
+
+        List<IFeed> feeds = demultiplex(batch, fsr);
+        List<Podcast> missing = new ArrayList<Podcast>();
+        PodcastDAO pdao = Singletons.i().getPodcastDAO();
+
+        for (int i = 0; i < batch.size(); i++) {
+            Podcast podcast = batch.get(i);
+            if (feeds.get(i) == null) {
+                missing.add(podcast);
+                continue;
             }
 
-            feed = new FeedUpdate(fsr.get(0), podcast);
+            FeedUpdate feed = new FeedUpdate(feeds.get(i), podcast);
 
             upsertAndDeleteEpisodes(Detlef.getAppContext(), podcast, feed);
 
             /* Update last changed timestamp.*/
             podcast.setLastUpdate(feed.getLastReleaseTime());
-
-            PodcastDAO pdao = Singletons.i().getPodcastDAO();
             pdao.update(podcast);
-        } catch (JsonParseException e) {
-            sendError(GENERIC_ERROR, e.getLocalizedMessage());
-        } catch (ClientProtocolException e) {
-            sendError(GENERIC_ERROR, e.getLocalizedMessage());
-            return;
-        } catch (IOException e) {
-            sendError(GENERIC_ERROR, e.getLocalizedMessage());
-            return;
+
+            /* Tell receiver we're done.. */
+            callback.sendEvent(new NoDataResultHandler.NoDataSuccessEvent(callback));
         }
 
-        /* Tell receiver we're done.. */
-        callback.sendEvent(new NoDataResultHandler.NoDataSuccessEvent(callback));
+        return missing;
+    }
+
+    /**
+     * Assigns the feeds of a response to the podcasts they were requested
+     * for. Feeds are matched by url; if that fails and the response has one
+     * feed per requested url, by position.
+     *
+     * @return For each podcast of the batch its feed, or null if the response
+     *         does not contain it.
+     */
+    static List<IFeed> demultiplex(List<Podcast> batch, List<? extends IFeed> response) {
+        List<IFeed> ret = new ArrayList<IFeed>(Collections.<IFeed>nCopies(batch.size(), null));
+        if (response == null) {
+            return ret;
+        }
+
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            positions.put(batch.get(i).getUrl(), i);
+        }
+
+        boolean positional = response.size() == batch.size();
+        for (int i = 0; i < response.size(); i++) {
+            IFeed feed = response.get(i);
+            if (feed == null) {
+                continue;
+            }
+
+            Integer pos = positions.get(feed.getUrl());
+            if (pos == null && positional) {
+                pos = i;
+            }
+            if (pos != null && ret.get(pos) == null) {
+                ret.set(pos, feed);
+            }
+        }
+
+        return ret;
     }
 
     /**
@@ -127,19 +218,22 @@ public class PullFeedAsyncTask implements Runnable {
 
     private void upsertAndDeleteEpisodes(Context context, Podcast p, IFeed feed) {
         try {
-            EpisodeDAO dao = Singletons.i().getEpisodeDAO();
+            List<Episode> episodes = new ArrayList<Episode>();
             for (IEpisode ep : feed.getEpisodes()) {
                 try {
                     if (ep.getEnclosure() != null) {
-                        Episode newEp = new Episode(ep, p);
-
-                        dao.insertEpisode(newEp);
+                        episodes.add(new Episode(ep, p));
                     }
                 } catch (Exception ex) {
                     Log.i(TAG, ("enclosure missing, " + ex.getMessage()) != null ? ex.getMessage()
                           : ex.toString());
                 }
             }
+
+            /* Store the whole feed in one transaction. */
+
+            EpisodeDAO dao = Singletons.i().getEpisodeDAO();
+            dao.upsertEpisodes(p, episodes);
         } catch (Exception ex) {
             Log.e(TAG, ex.getMessage());
         }
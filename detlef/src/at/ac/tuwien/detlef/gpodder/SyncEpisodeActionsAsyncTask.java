@@ -72,12 +72,18 @@ public class SyncEpisodeActionsAsyncTask implements Runnable {
         String username = gps.getUsername();
         String password = gps.getPassword();
 
-        MygPodderClient gpc = new MygPodderClient(username, password, gps.getApiHostname());
+        MygPodderClient gpc = Singletons.i().getGpodderClientFactory().getMygPodderClient(
+                                  gps.getApiHostname(), username, password);
+
+        /* Play positions held back by the player must be part of the upload. */
+
+        Singletons.i().getEpisodeUpdateQueue().flush();
 
         EpisodeActionChanges changes = null;
         try {
             /* Send our episode actions */
             EpisodeActionDAO eaDao = Singletons.i().getEpisodeActionDAO();
+            eaDao.compactEpisodeActions();
             List<RemoteEpisodeAction> localChanges = eaDao.getAllEpisodeActions();
 
             List<EpisodeAction> sndLocalChanges = new ArrayList<EpisodeAction>(localChanges.size());
@@ -87,6 +93,9 @@ public class SyncEpisodeActionsAsyncTask implements Runnable {
 
             long since = gpc.uploadEpisodeActions(sndLocalChanges);
 
+            /* Uploaded actions must not be sent again with the next sync. */
+            eaDao.flushEpisodeActions(localChanges);
+
             /* Get episode actions. */
             changes = gpc.downloadEpisodeActions(gps.getLastEpisodeActionUpdate());
 
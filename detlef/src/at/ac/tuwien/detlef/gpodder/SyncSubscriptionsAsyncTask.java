@@ -18,7 +18,6 @@
 package at.ac.tuwien.detlef.gpodder;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -41,7 +40,6 @@ import at.ac.tuwien.detlef.settings.GpodderSettings;
 import com.dragontek.mygpoclient.api.MygPodderClient;
 import com.dragontek.mygpoclient.api.SubscriptionChanges;
 import com.dragontek.mygpoclient.api.UpdateResult;
-import com.dragontek.mygpoclient.pub.PublicClient;
 import com.dragontek.mygpoclient.simple.IPodcast;
 
 /**
@@ -83,11 +81,8 @@ public class SyncSubscriptionsAsyncTask implements Runnable {
 
         long lastUpdate = gps.getLastUpdate();
 
-        MygPodderClient gpc = new MygPodderClient(
-            gps.getUsername(),
-            gps.getPassword(),
-            gps.getApiHostname()
-        );
+        MygPodderClient gpc = Singletons.i().getGpodderClientFactory().getMygPodderClient(
+                                  gps.getApiHostname(), gps.getUsername(), gps.getPassword());
 
         try {
             EnhancedSubscriptionChanges localChanges = new EnhancedSubscriptionChanges(
@@ -231,10 +226,10 @@ public class SyncSubscriptionsAsyncTask implements Runnable {
      * EnhancedSubscriptionChanges.
      */
     private static class PodcastDetailsRetriever {
-        private final PublicClient pub;
+        private final PodcastMetadataService metadata;
 
         public PodcastDetailsRetriever() {
-            pub = new PublicClient();
+            metadata = Singletons.i().getPodcastMetadataService();
         }
 
         /**
@@ -249,28 +244,8 @@ public class SyncSubscriptionsAsyncTask implements Runnable {
                                                    getPodcastSetDetails(changes.remove), changes.timestamp);
         }
 
-        public IPodcast getPodcastDetails(String url) {
-            try {
-                return pub.getPodcastData(url);
-            } catch (ClientProtocolException e) {
-                /* do nothing */
-            } catch (IOException e) {
-                /* do nothing */
-            }
-
-            return null;
-        }
-
         private List<IPodcast> getPodcastSetDetails(Set<String> urls) {
-            List<IPodcast> podcasts = new ArrayList<IPodcast>(urls.size());
-            for (String url : urls) {
-                IPodcast podcast = getPodcastDetails(url);
-                if (podcast != null) {
-                    podcasts.add(getPodcastDetails(url));
-                }
-            }
-
-            return podcasts;
+            return metadata.getPodcasts(null, urls);
         }
     }
 }
@@ -368,13 +368,13 @@ public class CachingCallbackProxy implements PodderServiceCallback {
     }
 
     @Override
-    public void getPodcastInfoSucceeded(final int reqId, final Podcast result)
+    public void getPodcastInfoSucceeded(final int reqId, final List<Podcast> results)
     throws RemoteException {
         queuedMessages.add(new CachedCallback() {
             @Override
             public boolean resend(PodderServiceCallback cb) {
                 try {
-                    cb.getPodcastInfoSucceeded(reqId, result);
+                    cb.getPodcastInfoSucceeded(reqId, results);
                 } catch (RemoteException rex) {
                     return false;
                 }
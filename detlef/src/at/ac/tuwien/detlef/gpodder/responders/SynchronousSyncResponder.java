@@ -28,7 +28,6 @@ import at.ac.tuwien.detlef.domain.EnhancedSubscriptionChanges;
 import at.ac.tuwien.detlef.domain.Podcast;
 import at.ac.tuwien.detlef.gpodder.NoDataResultHandler;
 import at.ac.tuwien.detlef.gpodder.PodcastListResultHandler;
-import at.ac.tuwien.detlef.gpodder.PodcastResultHandler;
 import at.ac.tuwien.detlef.gpodder.PodderService;
 import at.ac.tuwien.detlef.gpodder.PushSubscriptionChangesResultHandler;
 import at.ac.tuwien.detlef.gpodder.ResultHandler;
@@ -157,10 +156,10 @@ public class SynchronousSyncResponder extends SyncResponder {
     }
 
     @Override
-    public void getPodcastInfoSucceeded(int reqId, Podcast result) throws RemoteException {
-        final PodcastResultHandler<?> prh =
-            (PodcastResultHandler<?>) getGps().getReq(reqId);
-        prh.sendEvent(new PodcastResultHandler.PodcastInfoSuccessEvent(prh, result));
+    public void getPodcastInfoSucceeded(int reqId, List<Podcast> results) throws RemoteException {
+        final PodcastListResultHandler<?> plrh =
+            (PodcastListResultHandler<?>) getGps().getReq(reqId);
+        plrh.sendEvent(new PodcastListResultHandler.PodcastListSuccessEvent(plrh, results));
         getGps().removeReq(reqId);
         stoplight.release();
     }
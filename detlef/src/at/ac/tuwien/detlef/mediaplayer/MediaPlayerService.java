@@ -20,6 +20,10 @@ package at.ac.tuwien.detlef.mediaplayer;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import android.app.Service;
 import android.content.BroadcastReceiver;
@@ -38,10 +42,12 @@ import android.util.Log;
 import at.ac.tuwien.detlef.Detlef;
 import at.ac.tuwien.detlef.Singletons;
 import at.ac.tuwien.detlef.db.EpisodeDAO;
+import at.ac.tuwien.detlef.db.EpisodeUpdateQueue;
 import at.ac.tuwien.detlef.db.PlaylistDAO;
 import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Episode.ActionState;
 import at.ac.tuwien.detlef.domain.Episode.StorageState;
+import at.ac.tuwien.detlef.domain.Podcast;
 
 /**
  * A service that provides methods for playing episodes.
@@ -65,6 +71,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
 
     private PlaylistDAO playlistDAO;
     private EpisodeDAO episodeDAO;
+    private EpisodeUpdateQueue updateQueue;
     private ArrayList<Episode> playlistItems;
     private boolean manual = false;
     private Episode manualEpisode;
@@ -97,6 +104,11 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
     private Episode activeEpisode;
     private Episode nextEpisode;
     private int currentPlaylistPosition = 0;
+
+    /* The episodes last pinned in the episode cache, see pinWorkingSet(). */
+    private Episode pinnedActiveEpisode;
+    private Episode pinnedNextEpisode;
+    private Episode pinnedManualEpisode;
     private static boolean running = false;
     private boolean wasPlayingBeforeCall = false;
 
@@ -149,10 +161,12 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
 
         episodeDAO = Singletons.i().getEpisodeDAO();
         episodeDAO.addEpisodeChangedListener(this);
+        updateQueue = Singletons.i().getEpisodeUpdateQueue();
 
         if ((nextEpisode == null) && !playlistItems.isEmpty()) {
             nextEpisode = playlistItems.get(0);
         }
+        pinWorkingSet();
 
         telManager = (TelephonyManager) Detlef.getAppContext().getSystemService(
                          Context.TELEPHONY_SERVICE);
@@ -196,7 +210,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
         }
         if (!episodeFileOK(activeEpisode)) {
             activeEpisode.setStorageState(StorageState.NOT_ON_DEVICE);
-            episodeDAO.update(activeEpisode);
+            updateQueue.enqueue(activeEpisode);
             return null;
         }
 
@@ -222,6 +236,11 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
     public void onDestroy() {
         running = false;
 
+        /* Save the play position before the player is torn down. */
+
+        updateEpisodePlayState();
+        updateQueue.flushAsync();
+
         mediaPlayerPrepared = false;
         mediaPlayer.reset();
         mediaPlayer.release();
@@ -229,6 +248,8 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
 
         unregisterReceiver(mediaBroadcastReceiver);
 
+        episodeDAO.pinEpisodes(this, Collections.<Episode>emptyList());
+
         super.onDestroy();
     }
 
@@ -258,7 +279,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
             if ((activeEpisode.getActionState() == ActionState.NEW)
                     || (activeEpisode.getActionState() == ActionState.DOWNLOAD)) {
                 activeEpisode.setActionState(ActionState.PLAY);
-                episodeDAO.update(activeEpisode);
+                updateQueue.enqueue(activeEpisode);
             }
         }
         mediaPlayer.start();
@@ -291,6 +312,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
                 nextEpisode = null;
             }
         }
+        pinWorkingSet();
     }
 
     @Override
@@ -373,6 +395,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
     public IMediaPlayerService pausePlaying() {
         mediaPlayer.pause();
         updateEpisodePlayState();
+        updateQueue.flushAsync();
         setCurrentlyPlaying(false);
         return this;
     }
@@ -388,7 +411,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
             mediaPlayer.seekTo(seekTo);
         } else if (getNextEpisode() != null) {
             getNextEpisode().setPlayPosition(progress);
-            episodeDAO.update(getNextEpisode());
+            updateQueue.enqueue(getNextEpisode());
         }
         return this;
     }
@@ -414,6 +437,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
             currentPlaylistPosition = 0;
             nextEpisode = playlistItems.get(currentPlaylistPosition);
         }
+        pinWorkingSet();
         return this;
     }
 
@@ -430,6 +454,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
                 nextEpisode = playlistItems.get(currentPlaylistPosition);
             }
         }
+        pinWorkingSet();
         return this;
     }
 
@@ -446,6 +471,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
         currentPlaylistPosition = position;
         nextEpisode = playlistItems.get(currentPlaylistPosition);
         manualEpisode = null;
+        pinWorkingSet();
         return this;
     }
 
@@ -478,6 +504,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
             mediaPlayer.start();
         } else {
             activeEpisode = getNextEpisode();
+            pinWorkingSet();
             if (activeEpisode != null) {
                 prepareEpisodePlayback();
             } else {
@@ -532,9 +559,27 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
     @Override
     public IMediaPlayerService setNextEpisode(Episode ep) {
         this.nextEpisode = ep;
+        pinWorkingSet();
         return this;
     }
 
+    /**
+     * Keeps the episodes the player currently works with in the episode cache.
+     * Must be called whenever one of them has changed; the cache is only
+     * updated if one actually did.
+     */
+    private void pinWorkingSet() {
+        if ((pinnedActiveEpisode == activeEpisode) && (pinnedNextEpisode == nextEpisode)
+                && (pinnedManualEpisode == manualEpisode)) {
+            return;
+        }
+
+        pinnedActiveEpisode = activeEpisode;
+        pinnedNextEpisode = nextEpisode;
+        pinnedManualEpisode = manualEpisode;
+        episodeDAO.pinEpisodes(this, Arrays.asList(activeEpisode, nextEpisode, manualEpisode));
+    }
+
     @Override
     public Episode getNextEpisode() {
         if (manual) {
@@ -575,6 +620,31 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
                 nextEpisode = playlistItems.get(currentPlaylistPosition);
             }
         }
+        pinWorkingSet();
+    }
+
+    @Override
+    public void onPlaylistBulkChanged(List<Episode> playlist) {
+        Episode current = null;
+        if (currentPlaylistPosition < playlistItems.size()) {
+            current = playlistItems.get(currentPlaylistPosition);
+        }
+
+        playlistItems = new ArrayList<Episode>(playlist);
+
+        /* Stay on the current item if it is still there. */
+
+        int position = playlistItems.indexOf(current);
+        if (position >= 0) {
+            currentPlaylistPosition = position;
+        } else {
+            currentPlaylistPosition = Math.max(Math.min(currentPlaylistPosition,
+                                               playlistItems.size() - 1), 0);
+            if (!playlistItems.isEmpty()) {
+                nextEpisode = playlistItems.get(currentPlaylistPosition);
+            }
+        }
+        pinWorkingSet();
     }
 
     @Override
@@ -587,6 +657,15 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
         if (nextEpisode == null) {
             nextEpisode = episode;
         }
+        pinWorkingSet();
+    }
+
+    @Override
+    public void onEpisodesAdded(List<Episode> episodes) {
+        if (nextEpisode == null && !episodes.isEmpty()) {
+            nextEpisode = episodes.get(0);
+        }
+        pinWorkingSet();
     }
 
     @Override
@@ -602,12 +681,27 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
         if (manualEpisode == episode) {
             manualEpisode = null;
         }
+        pinWorkingSet();
+    }
+
+    @Override
+    public void onEpisodesDeleted(Podcast podcast, Collection<Long> episodeIds) {
+        if (activeEpisode != null && episodeIds.contains(activeEpisode.getId())) {
+            onEpisodeDeleted(activeEpisode);
+        }
+        if (nextEpisode != null && episodeIds.contains(nextEpisode.getId())) {
+            onEpisodeDeleted(nextEpisode);
+        }
+        if (manualEpisode != null && episodeIds.contains(manualEpisode.getId())) {
+            onEpisodeDeleted(manualEpisode);
+        }
     }
 
     @Override
     public void setManualEpisode(Episode manualEpisode) {
         this.manualEpisode = manualEpisode;
         manual = true;
+        pinWorkingSet();
     }
 
     private void updateEpisodeCompleted() {
@@ -616,7 +710,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
         }
         activeEpisode.setPlayPosition(0);
         activeEpisode.setActionState(ActionState.DELETE);
-        episodeDAO.update(activeEpisode);
+        updateQueue.enqueue(activeEpisode);
     }
 
     private void updateEpisodePlayState() {
@@ -625,7 +719,7 @@ public class MediaPlayerService extends Service implements IMediaPlayerService,
         }
         if (mediaPlayerPrepared) {
             activeEpisode.setPlayPosition(mediaPlayer.getCurrentPosition());
-            episodeDAO.update(activeEpisode);
+            updateQueue.enqueue(activeEpisode);
         }
     }
 
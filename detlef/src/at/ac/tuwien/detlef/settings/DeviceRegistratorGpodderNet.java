@@ -23,11 +23,10 @@ public class DeviceRegistratorGpodderNet
                                               .i()
                                               .getGpodderSettings();
 
-            MygPodderClient gpc = new MygPodderClient(
-                gpodderSettings.getUsername(),
-                gpodderSettings.getPassword(),
-                gpodderSettings.getApiHostname()
-            );
+            MygPodderClient gpc = Singletons.i().getGpodderClientFactory().getMygPodderClient(
+                                      gpodderSettings.getApiHostname(),
+                                      gpodderSettings.getUsername(),
+                                      gpodderSettings.getPassword());
 
             gpc.updateDeviceSettings(
                 deviceId.toString(),
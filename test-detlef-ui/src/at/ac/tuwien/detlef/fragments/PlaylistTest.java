@@ -77,12 +77,12 @@ public class PlaylistTest extends ActivityInstrumentationTestCase2<MainActivity>
         e2.setAuthor("author");
         e2.setDescription("description");
         e2.setFileSize(0);
-        e2.setGuid("guid");
+        e2.setGuid("guid2");
         e2.setLink("link");
         e2.setMimetype("mimetype");
         e2.setReleased(System.currentTimeMillis());
         e2.setTitle("MYEPISODE102");
-        e2.setUrl("url");
+        e2.setUrl("url2");
         e2.setStorageState(StorageState.NOT_ON_DEVICE);
         e2.setFilePath("path");
 
@@ -118,4 +118,45 @@ public class EpisodeActionDAOImplTest extends AndroidTestCase {
         assertEquals(0, dao.getAllEpisodeActions().size());
     }
 
+    /**
+     * Tests whether compacting keeps only the latest action of each kind per
+     * episode.
+     */
+    public void testCompactEpisodeActions() {
+        dao.flushEpisodeActions(dao.getAllEpisodeActions());
+
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(dao.insertEpisodeAction(new LocalEpisodeAction(
+                                                   p1, "ep1", Episode.ActionState.PLAY, 0, i, 42)));
+        }
+        assertTrue(dao.insertEpisodeAction(lea1));
+        assertTrue(dao.insertEpisodeAction(lea1));
+        assertTrue(dao.insertEpisodeAction(new LocalEpisodeAction(
+                                               p1, "ep2", Episode.ActionState.PLAY, 0, 3, 42)));
+
+        assertEquals(10, dao.compactEpisodeActions());
+
+        List<RemoteEpisodeAction> all = dao.getAllEpisodeActions();
+        assertEquals(3, all.size());
+        for (RemoteEpisodeAction a : all) {
+            if (a.episode.equals("ep1") && a.action.equals("play")) {
+                assertEquals(Integer.valueOf(10), a.position);
+            }
+        }
+
+        assertEquals(0, dao.compactEpisodeActions());
+    }
+
+    /**
+     * Tests flushing more actions than are deleted by a single statement.
+     */
+    public void testFlushManyEpisodeActions() {
+        for (int i = 0; i < 1200; i++) {
+            assertTrue(dao.insertEpisodeAction(lea2));
+        }
+
+        List<RemoteEpisodeAction> all = dao.getAllEpisodeActions();
+        assertTrue(dao.flushEpisodeActions(all));
+        assertEquals(0, dao.getAllEpisodeActions().size());
+    }
 }
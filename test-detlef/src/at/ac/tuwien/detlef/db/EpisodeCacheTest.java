@@ -0,0 +1,117 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import at.ac.tuwien.detlef.domain.Episode;
+import at.ac.tuwien.detlef.domain.Podcast;
+
+public class EpisodeCacheTest extends TestCase {
+
+    private Podcast podcast;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        podcast = new Podcast();
+    }
+
+    private Episode episode(long id) {
+        Episode e = new Episode(podcast);
+        e.setId(id);
+        e.setTitle("title " + id);
+        e.setDescription("description");
+        return e;
+    }
+
+    public void testGetCountsHitsAndMisses() {
+        EpisodeCache cache = new EpisodeCache(Long.MAX_VALUE);
+        Episode e1 = episode(1);
+        assertSame(e1, cache.putIfAbsent(e1));
+        assertSame(e1, cache.putIfAbsent(episode(1)));
+
+        assertSame(e1, cache.get(1));
+        assertNull(cache.get(2));
+
+        EpisodeCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getSize());
+        assertEquals(EpisodeCache.weigh(e1), stats.getWeight());
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        Episode e1 = episode(1);
+        Episode e2 = episode(2);
+        Episode e3 = episode(3);
+        EpisodeCache cache = new EpisodeCache(EpisodeCache.weigh(e1) * 2);
+
+        cache.putIfAbsent(e1);
+        cache.putIfAbsent(e2);
+        cache.peek(1);
+        cache.putIfAbsent(e3);
+
+        EpisodeCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getEvictions());
+        assertEquals(2, stats.getSize());
+        assertTrue(stats.getWeight() <= stats.getBudget());
+    }
+
+    public void testPinnedEpisodesAreNotEvicted() {
+        Episode e1 = episode(1);
+        Episode e2 = episode(2);
+        EpisodeCache cache = new EpisodeCache(EpisodeCache.weigh(e1));
+
+        cache.putIfAbsent(e1);
+        cache.setPinned(this, Arrays.asList(e1));
+        assertTrue(cache.isPinned(1));
+
+        cache.putIfAbsent(e2);
+        assertEquals(1, cache.getStats().getSize());
+        assertTrue(cache.isPinned(1));
+
+        cache.setPinned(this, Collections.<Episode>emptyList());
+        assertFalse(cache.isPinned(1));
+    }
+
+    public void testEvictedEpisodesKeepTheirIdentity() {
+        Episode e1 = episode(1);
+        Episode e2 = episode(2);
+        EpisodeCache cache = new EpisodeCache(EpisodeCache.weigh(e1));
+
+        cache.putIfAbsent(e1);
+        cache.putIfAbsent(e2);
+        assertEquals(1, cache.getStats().getEvictions());
+
+        /* e1 is still referenced here and must therefore come back. */
+
+        assertSame(e1, cache.putIfAbsent(episode(1)));
+    }
+
+    public void testRemove() {
+        EpisodeCache cache = new EpisodeCache(Long.MAX_VALUE);
+        cache.putIfAbsent(episode(1));
+        cache.remove(1);
+
+        assertNull(cache.peek(1));
+        assertEquals(0, cache.getStats().getWeight());
+    }
+}
@@ -20,13 +20,23 @@
 package at.ac.tuwien.detlef.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 
 import android.test.AndroidTestCase;
 import at.ac.tuwien.detlef.Singletons;
 import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Episode.ActionState;
 import at.ac.tuwien.detlef.domain.Episode.StorageState;
+import at.ac.tuwien.detlef.domain.EpisodeSortChoice;
 import at.ac.tuwien.detlef.domain.Podcast;
+import at.ac.tuwien.detlef.filter.EpisodeFilter;
+import at.ac.tuwien.detlef.filter.FilterChain;
+import at.ac.tuwien.detlef.filter.KeywordFilter;
+import at.ac.tuwien.detlef.filter.NewFilter;
+import at.ac.tuwien.detlef.filter.PodcastFilter;
 
 /**
  * tests the episodeDAOImpl
@@ -68,12 +78,12 @@ public class EpisodeDAOImplTest extends AndroidTestCase {
         e2.setAuthor("author");
         e2.setDescription("description");
         e2.setFileSize(0);
-        e2.setGuid("guid");
+        e2.setGuid("guid2");
         e2.setLink("link");
         e2.setMimetype("mimetype");
         e2.setReleased(System.currentTimeMillis());
         e2.setTitle("title");
-        e2.setUrl("url");
+        e2.setUrl("url2");
         e2.setStorageState(StorageState.NOT_ON_DEVICE);
         e2.setFilePath("path");
 
@@ -190,6 +200,39 @@ public class EpisodeDAOImplTest extends AndroidTestCase {
         assertEquals(33, ep.getPlayPosition());
     }
 
+    /**
+     * tests that update does not write anything if nothing has been changed
+     */
+    public void testUpdateWithoutChanges() {
+        p1 = pdao.insertPodcast(p1);
+        e1 = edao.insertEpisode(e1);
+        assertEquals(0, e1.getDirtyFields());
+        assertEquals(0, edao.update(e1));
+    }
+
+    /**
+     * tests that update only writes the changed columns, so that two copies
+     * of an episode do not overwrite each other's changes
+     */
+    public void testUpdateWritesOnlyChangedFields() {
+        p1 = pdao.insertPodcast(p1);
+        e1 = edao.insertEpisode(e1);
+
+        SimpleEpisodeDAO simpleDAO = new SimpleEpisodeDAO(getContext());
+        Episode copy = simpleDAO.getEpisode(e1.getId());
+        assertNotSame(e1, copy);
+        assertEquals(0, copy.getDirtyFields());
+
+        e1.setPlayPosition(5000);
+        copy.setTitle("other title");
+        assertEquals(1, edao.update(e1));
+        assertEquals(1, simpleDAO.update(copy));
+
+        Episode stored = simpleDAO.getEpisode(e1.getId());
+        assertEquals("other title", stored.getTitle());
+        assertEquals(5000, stored.getPlayPosition());
+    }
+
     /**
      * tests the deletePodcast functionality which forces a on delete cascade
      * for the episodes
@@ -225,6 +268,138 @@ public class EpisodeDAOImplTest extends AndroidTestCase {
         assertNotNull(e1);
     }
 
+    /**
+     * tests the upsertEpisodes functionality
+     */
+    public void testUpsertEpisodes() {
+        p1 = pdao.insertPodcast(p1);
+        int countBeforeInsert = edao.getAllEpisodes().size();
+        List<Episode> added = edao.upsertEpisodes(p1, Arrays.asList(e1, e2));
+        assertNotNull(added);
+        assertEquals(2, added.size());
+        assertTrue(e1.getId() > 0);
+        assertTrue(e2.getId() > 0);
+        assertEquals(countBeforeInsert + 2, edao.getAllEpisodes().size());
+        assertEquals(2, edao.getEpisodes(p1).size());
+    }
+
+    /**
+     * tests that a failing episode rolls back the whole batch
+     */
+    public void testUpsertEpisodesRollsBack() {
+        p1 = pdao.insertPodcast(p1);
+        int countBeforeInsert = edao.getAllEpisodes().size();
+        e2.setUrl(null);
+        assertNull(edao.upsertEpisodes(p1, Arrays.asList(e1, e2)));
+        assertEquals(countBeforeInsert, edao.getAllEpisodes().size());
+        assertEquals(0, e1.getId());
+    }
+
+    /**
+     * tests that upserting already known episodes neither duplicates them nor
+     * overwrites their local state
+     */
+    public void testUpsertEpisodesMergesExisting() {
+        p1 = pdao.insertPodcast(p1);
+        e1 = edao.insertEpisode(e1);
+        e1.setPlayPosition(42000);
+        e1.setStorageState(StorageState.DOWNLOADED);
+        edao.update(e1);
+
+        Episode fromFeed = new Episode(p1);
+        fromFeed.setGuid(e1.getGuid());
+        fromFeed.setTitle("new title");
+        fromFeed.setUrl(e1.getUrl());
+
+        List<Episode> stored = edao.upsertEpisodes(p1, Arrays.asList(fromFeed, e2));
+        assertNotNull(stored);
+        assertEquals(2, stored.size());
+        assertEquals(2, edao.getEpisodes(p1).size());
+
+        Episode merged = stored.get(0);
+        assertEquals(e1.getId(), merged.getId());
+        assertEquals("new title", merged.getTitle());
+        assertEquals(42000, merged.getPlayPosition());
+        assertEquals(StorageState.DOWNLOADED, merged.getStorageState());
+        assertEquals("path", merged.getFilePath());
+    }
+
+    /**
+     * Listeners are notified with the cached instances of upserted episodes.
+     */
+    public void testUpsertEpisodesNotifiesCachedInstances() {
+        p1 = pdao.insertPodcast(p1);
+        e1 = edao.insertEpisode(e1);
+
+        final List<Episode> changed = new ArrayList<Episode>();
+        final List<Episode> added = new ArrayList<Episode>();
+        EpisodeDAO.OnEpisodeChangeListener listener = new EpisodeDAO.OnEpisodeChangeListener() {
+            @Override
+            public void onEpisodeChanged(Episode episode) {
+                changed.add(episode);
+            }
+
+            @Override
+            public void onEpisodeAdded(Episode episode) {
+                fail("Episodes should be added in bulk");
+            }
+
+            @Override
+            public void onEpisodeDeleted(Episode episode) {
+            }
+
+            @Override
+            public void onEpisodesAdded(List<Episode> episodes) {
+                added.addAll(episodes);
+            }
+
+            @Override
+            public void onEpisodesDeleted(Podcast podcast, Collection<Long> episodeIds) {
+            }
+        };
+
+        Episode fromFeed = new Episode(p1);
+        fromFeed.setGuid(e1.getGuid());
+        fromFeed.setTitle("new title");
+        fromFeed.setUrl(e1.getUrl());
+
+        List<Episode> stored;
+        edao.addEpisodeChangedListener(listener);
+        try {
+            stored = edao.upsertEpisodes(p1, Arrays.asList(fromFeed, e2));
+        } finally {
+            edao.removeEpisodeChangedListener(listener);
+        }
+
+        assertEquals(1, changed.size());
+        assertSame(e1, changed.get(0));
+        assertEquals("new title", changed.get(0).getTitle());
+        assertEquals(1, added.size());
+        assertSame(stored.get(1), added.get(0));
+    }
+
+    /**
+     * tests that getEpisodes only returns the episodes of the given podcast
+     */
+    public void testGetEpisodesOfPodcastOnly() {
+        p1 = pdao.insertPodcast(p1);
+        Podcast p2 = new Podcast();
+        p2.setTitle("other title");
+        p2.setUrl("other url");
+        p2 = pdao.insertPodcast(p2);
+
+        e1 = edao.insertEpisode(e1);
+        Episode other = new Episode(p2);
+        other.setTitle("other title");
+        other.setUrl("other url");
+        other = edao.insertEpisode(other);
+
+        List<Episode> eps = edao.getEpisodes(p1);
+        assertEquals(1, eps.size());
+        assertSame(e1, eps.get(0));
+        assertSame(other, edao.getEpisodeByUrlOrGuid("other url", null));
+    }
+
     public void testGetEpisodeByUrlOrGuid() {
         p1 = pdao.insertPodcast(p1);
         String newGuid = java.util.UUID.randomUUID().toString();
@@ -238,4 +413,345 @@ public class EpisodeDAOImplTest extends AndroidTestCase {
     public void testGetEpisodeByUrlOrGuidWhichNotExists() {
         assertNull(edao.getEpisodeByUrlOrGuid("thisurldoesntexist", "nosuchguidavailable"));
     }
+
+    public void testGetEpisodesById() {
+        p1 = pdao.insertPodcast(p1);
+        e1 = edao.insertEpisode(e1);
+        e2 = edao.insertEpisode(e2);
+
+        EpisodeCache.Stats before = ((CachingEpisodeDAO) edao).getCacheStats();
+        List<Episode> eps = edao.getEpisodesById(new long[] {
+                                                     e2.getId(), -1, e1.getId(), e2.getId()
+                                                 });
+        assertEquals(3, eps.size());
+        assertSame(e2, eps.get(0));
+        assertSame(e1, eps.get(1));
+        assertSame(e2, eps.get(2));
+
+        /* Each id is looked up in the cache once. */
+        EpisodeCache.Stats after = ((CachingEpisodeDAO) edao).getCacheStats();
+        assertEquals(3, after.getHits() - before.getHits());
+        assertEquals(1, after.getMisses() - before.getMisses());
+
+        SimpleEpisodeDAO simpleDAO = new SimpleEpisodeDAO(getContext());
+        eps = simpleDAO.getEpisodesById(new long[] {e1.getId()});
+        assertEquals(1, eps.size());
+        assertEquals(e1.getGuid(), eps.get(0).getGuid());
+    }
+
+    public void testSearchEpisodes() {
+        p1 = pdao.insertPodcast(p1);
+        e1.setTitle("Kernel Hacking");
+        e1.setDescription("<p>About <b>schedulers</b> &amp; locks</p>");
+        e1.setReleased(1000);
+        e1 = edao.insertEpisode(e1);
+        e2.setTitle("Weekly news");
+        e2.setDescription("Kernel scheduling in detail");
+        e2.setReleased(2000);
+        e2 = edao.insertEpisode(e2);
+
+        /* Title matches come first. */
+        assertEquals(Arrays.asList(e1.getId(), e2.getId()), edao.searchEpisodes("kern"));
+
+        /* All terms must match, latest first otherwise. */
+        assertEquals(Arrays.asList(e2.getId(), e1.getId()),
+                     edao.searchEpisodes("KERNEL sched"));
+        assertEquals(Arrays.asList(e1.getId()), edao.searchEpisodes("sched lock"));
+
+        /* Markup is not indexed. */
+        assertTrue(edao.searchEpisodes("b").isEmpty());
+        assertTrue(edao.searchEpisodes("amp").isEmpty());
+        assertTrue(edao.searchEpisodes(" \"* ").isEmpty());
+
+        e2.setTitle("Kernel news");
+        edao.update(e2);
+        assertEquals(Arrays.asList(e2.getId(), e1.getId()), edao.searchEpisodes("kern"));
+        assertTrue(edao.searchEpisodes("weekly").isEmpty());
+
+        edao.deleteEpisode(e1);
+        assertTrue(edao.searchEpisodes("hacking").isEmpty());
+    }
+
+    /**
+     * The case of non-ASCII letters is folded too.
+     */
+    public void testSearchEpisodesWithUmlauts() {
+        p1 = pdao.insertPodcast(p1);
+        e1.setTitle("Österreich spezial");
+        e1.setDescription("Über Ärzte");
+        e1 = edao.insertEpisode(e1);
+
+        assertEquals(Arrays.asList(e1.getId()), edao.searchEpisodes("österreich"));
+        assertEquals(Arrays.asList(e1.getId()), edao.searchEpisodes("ÖSTERR"));
+        assertEquals(Arrays.asList(e1.getId()), edao.searchEpisodes("über ärzte"));
+
+        FilterChain filters = new FilterChain().putEpisodeFilter(
+                                  new KeywordFilter().setKeyword("Österreich"));
+        assertEquals(Arrays.asList(e1), edao.query(filters, EpisodeSortChoice.ReleaseDate,
+                     false, EpisodeDAO.NO_LIMIT, 0));
+    }
+
+    public void testQueryRanksSearchResults() {
+        p1 = pdao.insertPodcast(p1);
+        e1.setTitle("Kernel Hacking");
+        e1.setReleased(1000);
+        e1 = edao.insertEpisode(e1);
+        e2.setTitle("Weekly news");
+        e2.setDescription("Kernel scheduling in detail");
+        e2.setReleased(2000);
+        e2 = edao.insertEpisode(e2);
+
+        /* Title matches first, regardless of the sort choice. */
+        FilterChain filters = new FilterChain().putEpisodeFilter(
+                                  new KeywordFilter().setKeyword("kern"));
+        assertEquals(Arrays.asList(e1, e2), edao.query(filters, EpisodeSortChoice.ReleaseDate,
+                     true, EpisodeDAO.NO_LIMIT, 0));
+        assertEquals(Arrays.asList(e2), edao.query(filters, EpisodeSortChoice.Podcast,
+                     false, 1, 1));
+
+        filters.putEpisodeFilter(new KeywordFilter().setKeyword("detail"));
+        assertEquals(Arrays.asList(e2), edao.query(filters, EpisodeSortChoice.ReleaseDate,
+                     false, EpisodeDAO.NO_LIMIT, 0));
+    }
+
+    public void testQuery() {
+        p1 = pdao.insertPodcast(p1);
+        e1.setReleased(1000);
+        e1.setActionState(ActionState.NEW);
+        e1 = edao.insertEpisode(e1);
+        e2.setReleased(2000);
+        e2.setActionState(ActionState.NEW);
+        e2 = edao.insertEpisode(e2);
+        Episode e3 = new Episode(p1);
+        e3.setTitle("title3");
+        e3.setGuid("guid3");
+        e3.setUrl("url3");
+        e3.setReleased(3000);
+        e3.setActionState(ActionState.PLAY);
+        e3 = edao.insertEpisode(e3);
+
+        FilterChain filters = new FilterChain().putEpisodeFilter(new PodcastFilter().setPodcast(p1));
+        assertEquals(Arrays.asList(e3, e2, e1), edao.query(filters, EpisodeSortChoice.ReleaseDate,
+                     false, EpisodeDAO.NO_LIMIT, 0));
+        assertEquals(Arrays.asList(e2), edao.query(filters, EpisodeSortChoice.ReleaseDate,
+                     true, 1, 1));
+
+        filters.putEpisodeFilter(new NewFilter());
+        assertEquals(Arrays.asList(e2, e1), edao.query(filters, EpisodeSortChoice.ReleaseDate,
+                     false, EpisodeDAO.NO_LIMIT, 0));
+
+        /* Filters without an SQL predicate are applied in memory, before the window. */
+        final long skipped = e2.getId();
+        filters.putEpisodeFilter(new EpisodeFilter() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean filter(Episode episode) {
+                return episode.getId() == skipped;
+            }
+
+            @Override
+            public String getFilterName() {
+                return "skip";
+            }
+        });
+        assertEquals(Arrays.asList(e1), edao.query(filters, EpisodeSortChoice.Podcast,
+                     true, 1, 0));
+        assertTrue(edao.query(filters, EpisodeSortChoice.Podcast, true, 1, 1).isEmpty());
+    }
+
+    public void testGetEpisodePage() {
+        p1 = pdao.insertPodcast(p1);
+        long[] released = {3000, 1000, 2000, 2000, 4000};
+        List<Episode> eps = new ArrayList<Episode>();
+        for (int i = 0; i < released.length; i++) {
+            Episode e = new Episode(p1);
+            e.setTitle("title" + i);
+            e.setGuid("pageGuid" + i);
+            e.setUrl("pageUrl" + i);
+            e.setReleased(released[i]);
+            eps.add(edao.insertEpisode(e));
+        }
+
+        /* Latest first, ties broken by the ID. */
+        List<Episode> expected = Arrays.asList(eps.get(4), eps.get(0), eps.get(3), eps.get(2),
+                                               eps.get(1));
+        FilterChain filters = new FilterChain().putEpisodeFilter(new PodcastFilter().setPodcast(p1));
+
+        List<Episode> page = edao.getEpisodePage(filters, EpisodeSortChoice.ReleaseDate, false, null, 2);
+        assertEquals(expected.subList(0, 2), page);
+        page = edao.getEpisodePage(filters, EpisodeSortChoice.ReleaseDate, false, page.get(1), 2);
+        assertEquals(expected.subList(2, 4), page);
+        page = edao.getEpisodePage(filters, EpisodeSortChoice.ReleaseDate, false, page.get(1), 2);
+        assertEquals(expected.subList(4, 5), page);
+
+        page = edao.getEpisodePage(filters, EpisodeSortChoice.ReleaseDate, true, eps.get(2), 2);
+        assertEquals(Arrays.asList(eps.get(3), eps.get(0)), page);
+
+        /* Pages are filled up if filters evaluated in memory drop episodes. */
+        final long skipped = eps.get(0).getId();
+        filters.putEpisodeFilter(new EpisodeFilter() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean filter(Episode episode) {
+                return episode.getId() == skipped;
+            }
+
+            @Override
+            public String getFilterName() {
+                return "skip";
+            }
+        });
+
+        EpisodePager pager = new EpisodePager(edao, filters, EpisodeSortChoice.ReleaseDate, false,
+                2);
+        assertEquals(Arrays.asList(eps.get(4), eps.get(3)), pager.nextPage());
+        assertEquals(Arrays.asList(eps.get(2), eps.get(1)), pager.nextPage());
+        assertFalse(pager.isExhausted());
+        assertTrue(pager.nextPage().isEmpty());
+        assertTrue(pager.isExhausted());
+    }
+
+    public void testGetEpisodePageByPodcast() {
+        p1 = pdao.insertPodcast(p1);
+        Podcast p2 = new Podcast();
+        p2.setTitle("other title");
+        p2.setUrl("other url");
+        p2 = pdao.insertPodcast(p2);
+
+        Podcast[] podcasts = {p2, p1, p2, p1};
+        List<Episode> eps = new ArrayList<Episode>();
+        for (int i = 0; i < podcasts.length; i++) {
+            Episode e = new Episode(podcasts[i]);
+            e.setTitle("title" + i);
+            e.setGuid("podcastPageGuid" + i);
+            e.setUrl("podcastPageUrl" + i);
+            eps.add(edao.insertEpisode(e));
+        }
+
+        /* Grouped by podcast, ties broken by the ID. */
+        FilterChain filters = new FilterChain();
+        EpisodePager pager = new EpisodePager(edao, filters, EpisodeSortChoice.Podcast, true, 3);
+        assertEquals(Arrays.asList(eps.get(1), eps.get(3), eps.get(0)), pager.nextPage());
+        assertEquals(Arrays.asList(eps.get(2)), pager.nextPage());
+        assertTrue(pager.isExhausted());
+
+        List<Episode> page = edao.getEpisodePage(filters, EpisodeSortChoice.Podcast, false,
+                             eps.get(2), 2);
+        assertEquals(Arrays.asList(eps.get(0), eps.get(3)), page);
+    }
+
+    public void testGetEpisodePageOfSearch() {
+        p1 = pdao.insertPodcast(p1);
+        String[] titles = {"Kernel news", "Weekly", "Kernel hacking", "Weekly"};
+        long[] released = {1000, 4000, 2000, 3000};
+        List<Episode> eps = new ArrayList<Episode>();
+        for (int i = 0; i < titles.length; i++) {
+            Episode e = new Episode(p1);
+            e.setTitle(titles[i]);
+            e.setDescription("All about the kernel");
+            e.setGuid("searchPageGuid" + i);
+            e.setUrl("searchPageUrl" + i);
+            e.setReleased(released[i]);
+            eps.add(edao.insertEpisode(e));
+        }
+
+        /* Title matches first, latest first among equal ranks. */
+        FilterChain filters = new FilterChain().putEpisodeFilter(
+                                  new KeywordFilter().setKeyword("kernel"));
+        EpisodePager pager = new EpisodePager(edao, filters, EpisodeSortChoice.Podcast, true, 3);
+        assertEquals(Arrays.asList(eps.get(2), eps.get(0), eps.get(1)), pager.nextPage());
+        assertEquals(Arrays.asList(eps.get(3)), pager.nextPage());
+        assertTrue(pager.isExhausted());
+    }
+
+    public void testQueryLoadsSummaries() {
+        p1 = pdao.insertPodcast(p1);
+        StringBuilder description = new StringBuilder();
+        while (description.length() <= EpisodeRowMapper.DESCRIPTION_EXCERPT_LENGTH) {
+            description.append("<p>A long description.</p>");
+        }
+        e1.setDescription(description.toString());
+        e1 = edao.insertEpisode(e1);
+        e2 = edao.insertEpisode(e2);
+
+        SimpleEpisodeDAO simpleDAO = new SimpleEpisodeDAO(getContext());
+        FilterChain filters = new FilterChain().putEpisodeFilter(new PodcastFilter().setPodcast(p1));
+        List<Episode> eps = simpleDAO.query(filters, EpisodeSortChoice.ReleaseDate, true,
+                                            EpisodeDAO.NO_LIMIT, 0);
+        assertEquals(2, eps.size());
+
+        /* The podcast is looked up once per query. */
+        assertSame(eps.get(0).getPodcast(), eps.get(1).getPodcast());
+
+        Episode summary = (eps.get(0).getId() == e1.getId() ? eps.get(0) : eps.get(1));
+        Episode shortSummary = (summary == eps.get(0) ? eps.get(1) : eps.get(0));
+        assertFalse(summary.isDescriptionComplete());
+        assertEquals(EpisodeRowMapper.DESCRIPTION_EXCERPT_LENGTH,
+                     summary.getDescription().length());
+        assertTrue(shortSummary.isDescriptionComplete());
+        assertEquals(e2.getDescription(), shortSummary.getDescription());
+
+        simpleDAO.loadDetails(summary);
+        assertTrue(summary.isDescriptionComplete());
+        assertEquals(description.toString(), summary.getDescription());
+        assertTrue(summary.takeChanges().isEmpty());
+    }
+
+    /**
+     * Tests that all episodes of a podcast are deleted at once, along with
+     * their playlist items, and that listeners get a single event.
+     */
+    public void testDeleteEpisodes() {
+        p1 = pdao.insertPodcast(p1);
+        e1 = edao.insertEpisode(e1);
+        e2 = edao.insertEpisode(e2);
+
+        PlaylistDAO playlistDAO = Singletons.i().getPlaylistDAO();
+        playlistDAO.clearPlaylist();
+        playlistDAO.addEpisodeToEndOfPlaylist(e1);
+
+        final List<Collection<Long>> events = new ArrayList<Collection<Long>>();
+        EpisodeDAO.OnEpisodeChangeListener listener = new EpisodeDAO.OnEpisodeChangeListener() {
+            @Override
+            public void onEpisodeChanged(Episode episode) {
+            }
+
+            @Override
+            public void onEpisodeAdded(Episode episode) {
+            }
+
+            @Override
+            public void onEpisodeDeleted(Episode episode) {
+                fail("Episodes should be deleted in bulk");
+            }
+
+            @Override
+            public void onEpisodesAdded(List<Episode> episodes) {
+            }
+
+            @Override
+            public void onEpisodesDeleted(Podcast podcast, Collection<Long> episodeIds) {
+                events.add(episodeIds);
+            }
+        };
+
+        edao.addEpisodeChangedListener(listener);
+        try {
+            assertEquals(2, edao.deleteEpisodes(p1));
+        } finally {
+            edao.removeEpisodeChangedListener(listener);
+        }
+
+        assertEquals(1, events.size());
+        assertEquals(new HashSet<Long>(Arrays.asList(e1.getId(), e2.getId())),
+                     new HashSet<Long>(events.get(0)));
+        assertTrue(edao.getEpisodes(p1).isEmpty());
+        assertNull(edao.getEpisode(e1.getId()));
+        assertFalse(playlistDAO.isInPlaylist(e1.getId()));
+        assertEquals(0, playlistDAO.getEpisodeIds().length);
+        assertTrue(playlistDAO.getNonCachedEpisodes().isEmpty());
+        assertNotNull(pdao.getPodcastById(p1.getId()));
+    }
 }
@@ -0,0 +1,169 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.Collection;
+
+import android.test.AndroidTestCase;
+import at.ac.tuwien.detlef.Singletons;
+import at.ac.tuwien.detlef.domain.Episode;
+import at.ac.tuwien.detlef.domain.Episode.ActionState;
+import at.ac.tuwien.detlef.domain.Podcast;
+
+public class EpisodeUpdateQueueTest extends AndroidTestCase {
+
+    private Podcast p1;
+    private Episode e1;
+    private Episode e2;
+
+    private EpisodeDAO edao;
+    private PodcastDAO pdao;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        edao = Singletons.i().getEpisodeDAO();
+        pdao = Singletons.i().getPodcastDAO();
+        pdao.deleteAllPodcasts();
+
+        p1 = new Podcast();
+        p1.setTitle("title");
+        p1.setUrl("queue podcast url");
+        p1 = pdao.insertPodcast(p1);
+
+        e1 = new Episode(p1);
+        e1.setGuid("queue guid1");
+        e1.setUrl("queue url1");
+        e1 = edao.insertEpisode(e1);
+
+        e2 = new Episode(p1);
+        e2.setGuid("queue guid2");
+        e2.setUrl("queue url2");
+        e2 = edao.insertEpisode(e2);
+    }
+
+    /**
+     * Nothing must be written before the window has passed or a flush is
+     * requested.
+     */
+    public void testUpdatesAreHeldBack() {
+        EpisodeUpdateQueue queue = new EpisodeUpdateQueue(edao, 60 * 1000);
+        e1.setPlayPosition(1000);
+        queue.enqueue(e1);
+
+        SimpleEpisodeDAO simpleDAO = new SimpleEpisodeDAO(getContext());
+        assertEquals(0, simpleDAO.getEpisode(e1.getId()).getPlayPosition());
+        assertEquals(1, queue.getPendingCount());
+
+        queue.flush();
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(1000, simpleDAO.getEpisode(e1.getId()).getPlayPosition());
+    }
+
+    /**
+     * Repeated updates of an episode are written once, with the latest values.
+     */
+    public void testUpdatesAreCoalesced() {
+        EpisodeUpdateQueue queue = new EpisodeUpdateQueue(edao, 60 * 1000);
+        for (int i = 1; i <= 10; i++) {
+            e1.setPlayPosition(i * 1000);
+            queue.enqueue(e1);
+        }
+        e2.setActionState(ActionState.PLAY);
+        queue.enqueue(e2);
+        assertEquals(2, queue.getPendingCount());
+
+        queue.flush();
+        assertEquals(0, e1.getDirtyFields());
+        assertEquals(0, e2.getDirtyFields());
+
+        SimpleEpisodeDAO simpleDAO = new SimpleEpisodeDAO(getContext());
+        assertEquals(10000, simpleDAO.getEpisode(e1.getId()).getPlayPosition());
+        assertEquals(ActionState.PLAY, simpleDAO.getEpisode(e2.getId()).getActionState());
+    }
+
+    /**
+     * Episodes whose update failed are written by the next flush.
+     */
+    public void testFailedUpdatesAreRetried() {
+        final int[] calls = {0};
+        EpisodeDAO failingDAO = new CachingEpisodeDAO(getContext()) {
+            @Override
+            public int update(Collection<Episode> episodes) {
+                if (calls[0]++ == 0) {
+                    return 0;
+                }
+                return super.update(episodes);
+            }
+        };
+
+        EpisodeUpdateQueue queue = new EpisodeUpdateQueue(failingDAO, 60 * 1000);
+        e1.setPlayPosition(1000);
+        queue.enqueue(e1);
+
+        queue.flush();
+        assertEquals(1, queue.getPendingCount());
+
+        queue.flush();
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(0, e1.getDirtyFields());
+
+        SimpleEpisodeDAO simpleDAO = new SimpleEpisodeDAO(getContext());
+        assertEquals(1000, simpleDAO.getEpisode(e1.getId()).getPlayPosition());
+    }
+
+    /**
+     * Updates of episodes which have been deleted in the meantime are
+     * dropped instead of retried.
+     */
+    public void testUpdatesOfDeletedEpisodesAreDropped() {
+        EpisodeUpdateQueue queue = new EpisodeUpdateQueue(edao, 60 * 1000);
+        edao.deleteEpisode(e1);
+        e1.setPlayPosition(1000);
+        queue.enqueue(e1);
+
+        queue.flush();
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(0, e1.getDirtyFields());
+    }
+
+    /**
+     * Updates which keep failing are given up after a few retries.
+     */
+    public void testFailedUpdatesAreGivenUp() {
+        EpisodeDAO failingDAO = new CachingEpisodeDAO(getContext()) {
+            @Override
+            public int update(Collection<Episode> episodes) {
+                return 0;
+            }
+        };
+
+        EpisodeUpdateQueue queue = new EpisodeUpdateQueue(failingDAO, 60 * 1000);
+        e1.setPlayPosition(1000);
+        queue.enqueue(e1);
+
+        for (int i = 0; i < EpisodeUpdateQueue.MAX_RETRIES; i++) {
+            queue.flush();
+            assertEquals(1, queue.getPendingCount());
+        }
+        queue.flush();
+        assertEquals(0, queue.getPendingCount());
+        assertTrue(e1.getDirtyFields() != 0);
+    }
+}
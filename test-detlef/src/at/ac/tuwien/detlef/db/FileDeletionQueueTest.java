@@ -0,0 +1,170 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import at.ac.tuwien.detlef.Singletons;
+import at.ac.tuwien.detlef.domain.Episode;
+import at.ac.tuwien.detlef.domain.Episode.StorageState;
+import at.ac.tuwien.detlef.domain.Podcast;
+
+/**
+ * Tests the FileDeletionQueue.
+ */
+public class FileDeletionQueueTest extends AndroidTestCase {
+
+    private FileDeletionQueue queue;
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        queue = Singletons.i().getFileDeletionQueue();
+        queue.drain();
+
+        dir = new File(getContext().getCacheDir(), "fileDeletionQueueTest");
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+        super.tearDown();
+    }
+
+    private List<File> createFiles(int n) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < n; i++) {
+            File file = new File(dir, "file" + i);
+            assertTrue(file.createNewFile());
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static List<String> paths(List<File> files) {
+        List<String> ret = new ArrayList<String>();
+        for (File file : files) {
+            ret.add(file.getPath());
+        }
+        return ret;
+    }
+
+    /**
+     * More files than fit into a batch are deleted by a single drain.
+     */
+    public void testDelete() throws IOException {
+        List<File> files = createFiles(FileDeletionQueue.BATCH_SIZE * 2 + 1);
+
+        queue.delete(paths(files));
+        queue.drain();
+
+        for (File file : files) {
+            assertFalse(file.exists());
+        }
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    /**
+     * Paths of files which are already gone, or which are enqueued twice,
+     * are simply dropped.
+     */
+    public void testDeleteIsIdempotent() throws IOException {
+        List<File> files = createFiles(1);
+        String path = files.get(0).getPath();
+
+        queue.delete(Arrays.asList(path, path, new File(dir, "missing").getPath()));
+        queue.delete(Arrays.asList(path));
+        queue.drain();
+
+        assertFalse(files.get(0).exists());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    /**
+     * Deleting an episode leaves its file to the queue.
+     */
+    public void testDeleteEpisode() throws IOException {
+        File file = createFiles(1).get(0);
+
+        PodcastDAO pdao = Singletons.i().getPodcastDAO();
+        EpisodeDAO edao = Singletons.i().getEpisodeDAO();
+        pdao.deleteAllPodcasts();
+
+        Podcast p = new Podcast();
+        p.setTitle("title");
+        p.setUrl("url");
+        p = pdao.insertPodcast(p);
+
+        Episode e = new Episode(p);
+        e.setGuid("guid");
+        e.setTitle("title");
+        e.setUrl("url");
+        e.setStorageState(StorageState.DOWNLOADED);
+        e.setFilePath(file.getPath());
+        e = edao.insertEpisode(e);
+
+        assertEquals(1, edao.deleteEpisode(e));
+        assertNull(e.getFilePath());
+
+        queue.drain();
+        assertFalse(file.exists());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    /**
+     * A file which an episode refers to again, e.g. after it has been
+     * downloaded anew, is kept.
+     */
+    public void testKeepFileInUse() throws IOException {
+        File file = createFiles(1).get(0);
+
+        PodcastDAO pdao = Singletons.i().getPodcastDAO();
+        EpisodeDAO edao = Singletons.i().getEpisodeDAO();
+        pdao.deleteAllPodcasts();
+
+        Podcast p = new Podcast();
+        p.setTitle("title");
+        p.setUrl("url");
+        p = pdao.insertPodcast(p);
+
+        Episode e = new Episode(p);
+        e.setGuid("guid");
+        e.setTitle("title");
+        e.setUrl("url");
+        e.setStorageState(StorageState.DOWNLOADED);
+        e.setFilePath(file.getPath());
+        e = edao.insertEpisode(e);
+
+        queue.delete(Arrays.asList(file.getPath()));
+        queue.drain();
+
+        assertTrue(file.exists());
+        assertEquals(0, queue.getPendingCount());
+    }
+}
@@ -0,0 +1,121 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class LongIdentityMapTest extends TestCase {
+
+    public void testPutGetRemove() {
+        LongIdentityMap<String> map = new LongIdentityMap<String>();
+        assertNull(map.put(1, "one"));
+        assertNull(map.put(-1, "minus one"));
+        assertEquals("one", map.put(1, "uno"));
+        assertEquals("uno", map.putIfAbsent(1, "eins"));
+
+        assertEquals("uno", map.get(1));
+        assertEquals("minus one", map.get(-1));
+        assertNull(map.get(2));
+        assertEquals(2, map.size());
+
+        assertEquals("uno", map.remove(1));
+        assertNull(map.remove(1));
+        assertNull(map.get(1));
+        assertEquals(1, map.size());
+
+        assertNull(map.putIfAbsent(1, "eins"));
+        assertEquals("eins", map.get(1));
+    }
+
+    public void testGrowAndTombstones() {
+        LongIdentityMap<Long> map = new LongIdentityMap<Long>();
+        final int n = 10000;
+        for (long i = 0; i < n; i++) {
+            map.put(i, i);
+        }
+        for (long i = 0; i < n; i += 2) {
+            map.remove(i);
+        }
+        for (long i = n; i < 2 * n; i++) {
+            map.put(i, i);
+        }
+
+        assertEquals(n / 2 + n, map.size());
+        assertEquals(map.size(), map.values().size());
+        for (long i = 0; i < 2 * n; i++) {
+            Long v = map.get(i);
+            if (i < n && i % 2 == 0) {
+                assertNull(v);
+            } else {
+                assertEquals(Long.valueOf(i), v);
+            }
+        }
+    }
+
+    public void testUnsupportedKey() {
+        LongIdentityMap<String> map = new LongIdentityMap<String>();
+        try {
+            map.put(Long.MIN_VALUE, "x");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Entries which are never modified must stay visible to readers while
+     * another thread keeps inserting and removing.
+     */
+    public void testConcurrentReads() throws InterruptedException {
+        final LongIdentityMap<Long> map = new LongIdentityMap<Long>();
+        final int stable = 1000;
+        for (long i = 0; i < stable; i++) {
+            map.put(i, i);
+        }
+
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    for (long i = 0; i < stable; i++) {
+                        Long v = map.get(i);
+                        if (v == null || v.longValue() != i) {
+                            failed.set(true);
+                        }
+                    }
+                }
+            }
+        };
+        reader.start();
+
+        for (long i = stable; i < 50 * stable; i++) {
+            map.put(i, i);
+            if (i % 3 == 0) {
+                map.remove(i - 1);
+            }
+        }
+
+        done.set(true);
+        reader.join();
+        assertFalse(failed.get());
+    }
+}
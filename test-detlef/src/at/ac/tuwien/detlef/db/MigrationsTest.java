@@ -0,0 +1,254 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import at.ac.tuwien.detlef.domain.Episode.ActionState;
+import at.ac.tuwien.detlef.domain.Episode.StorageState;
+
+/**
+ * Tests the migration steps on a version 15 database.
+ */
+public class MigrationsTest extends AndroidTestCase {
+
+    private SQLiteDatabase db;
+
+    private long podcast;
+    private long episode;
+    private long duplicate;
+    private long other;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        /* The schema of version 15: no guid, url and playlist indexes, dense
+         * playlist positions. */
+
+        db = SQLiteDatabase.create(null);
+        db.execSQL(DatabaseHelper.CREATE_PODCAST_TABLE);
+        db.execSQL(DatabaseHelper.CREATE_EPISODE_TABLE);
+        db.execSQL(DatabaseHelper.CREATE_EPISODE_ACTION_TABLE);
+        db.execSQL(DatabaseHelper.CREATE_EPISODE_PLAY_ACTION_TABLE);
+        db.execSQL(DatabaseHelper.CREATE_PLAYLIST_TABLE);
+        db.execSQL(DatabaseHelper.CREATE_PODCAST_LOCAL_DEL_TABLE);
+        db.execSQL(DatabaseHelper.CREATE_PODCAST_LOCAL_ADD_TABLE);
+        db.execSQL(DatabaseHelper.CREATE_EPISODE_RELEASED_INDEX);
+
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_PODCAST_URL, "podcast url");
+        values.put(DatabaseHelper.COLUMN_PODCAST_TITLE, "podcast title");
+        podcast = db.insert(DatabaseHelper.TABLE_PODCAST, null, values);
+
+        episode = insertEpisode("guid", "url");
+        duplicate = insertEpisode("guid", "url");
+        other = insertEpisode("other guid", "other url");
+
+        insertPlaylistItem(other, 0);
+        insertPlaylistItem(duplicate, 1);
+        insertPlaylistItem(episode, 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    private long insertEpisode(String guid, String url) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_EPISODE_GUID, guid);
+        values.put(DatabaseHelper.COLUMN_EPISODE_TITLE, "title " + guid);
+        values.put(DatabaseHelper.COLUMN_EPISODE_URL, url);
+        values.put(DatabaseHelper.COLUMN_EPISODE_PODCAST, podcast);
+        return db.insert(DatabaseHelper.TABLE_EPISODE, null, values);
+    }
+
+    private void insertPlaylistItem(long episodeId, long position) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_PLAYLIST_EPISODE, episodeId);
+        values.put(DatabaseHelper.COLUMN_PLAYLIST_POSITION, position);
+        db.insert(DatabaseHelper.TABLE_PLAYLIST, null, values);
+    }
+
+    private long count(String sql) {
+        Cursor c = db.rawQuery(sql, null);
+        try {
+            c.moveToFirst();
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private boolean hasIndex(String name) {
+        return count("SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = '"
+                     + name + "'") == 1;
+    }
+
+    public void testMigrationsReachCurrentVersion() {
+        assertEquals(DatabaseHelper.VERSION, Migrations.getLatestVersion());
+    }
+
+    public void testMigrateToVersion16() {
+        Migrations.migrate(db, 15, 16);
+
+        assertEquals(2, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_EPISODE));
+        assertEquals(0, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_EPISODE
+                              + " WHERE " + DatabaseHelper.COLUMN_EPISODE_ID + " = " + duplicate));
+        assertEquals(1, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_PLAYLIST
+                              + " WHERE " + DatabaseHelper.COLUMN_PLAYLIST_EPISODE + " = "
+                              + episode));
+        assertEquals(1, count("SELECT " + DatabaseHelper.COLUMN_PLAYLIST_POSITION + " FROM "
+                              + DatabaseHelper.TABLE_PLAYLIST + " WHERE "
+                              + DatabaseHelper.COLUMN_PLAYLIST_EPISODE + " = " + episode));
+        assertEquals(1, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_PODCAST));
+        assertTrue(hasIndex(DatabaseHelper.EPISODE_GUID_INDEX));
+        assertTrue(hasIndex(DatabaseHelper.EPISODE_URL_INDEX));
+        assertFalse(hasIndex(DatabaseHelper.PLAYLIST_POSITION_INDEX));
+    }
+
+    /**
+     * Of duplicate episodes, the one which has been downloaded and played
+     * must be kept, even if it was inserted later.
+     */
+    public void testMigrateToVersion16KeepsLocalState() {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_EPISODE_FILEPATH, "stale file");
+        db.update(DatabaseHelper.TABLE_EPISODE, values,
+                  DatabaseHelper.COLUMN_EPISODE_ID + " = " + episode, null);
+
+        values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_EPISODE_FILEPATH, "downloaded file");
+        values.put(DatabaseHelper.COLUMN_EPISODE_STATE, StorageState.DOWNLOADED.name());
+        values.put(DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION, 42);
+        values.put(DatabaseHelper.COLUMN_EPISODE_ACTIONSTATE, ActionState.PLAY.name());
+        db.update(DatabaseHelper.TABLE_EPISODE, values,
+                  DatabaseHelper.COLUMN_EPISODE_ID + " = " + duplicate, null);
+
+        Migrations.migrate(db, 15, 16);
+
+        assertEquals(0, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_EPISODE
+                              + " WHERE " + DatabaseHelper.COLUMN_EPISODE_ID + " = " + episode));
+        assertEquals(42, count("SELECT " + DatabaseHelper.COLUMN_EPISODE_PLAYPOSITION + " FROM "
+                               + DatabaseHelper.TABLE_EPISODE + " WHERE "
+                               + DatabaseHelper.COLUMN_EPISODE_ID + " = " + duplicate));
+        assertEquals(1, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_PLAYLIST
+                              + " WHERE " + DatabaseHelper.COLUMN_PLAYLIST_EPISODE + " = "
+                              + duplicate));
+        assertEquals(2, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_PLAYLIST));
+        assertEquals(1, count("SELECT COUNT(*) FROM "
+                              + DatabaseHelper.TABLE_PENDING_FILE_DELETION + " WHERE "
+                              + DatabaseHelper.COLUMN_PENDING_FILE_DELETION_PATH
+                              + " = 'stale file'"));
+    }
+
+    public void testMigrateToVersion17() {
+        Migrations.migrate(db, 15, 16);
+        Migrations.migrate(db, 16, 17);
+
+        assertEquals(2, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_PLAYLIST));
+        assertEquals(DatabaseHelper.PLAYLIST_POSITION_GAP,
+                     count("SELECT MAX(" + DatabaseHelper.COLUMN_PLAYLIST_POSITION + ") FROM "
+                           + DatabaseHelper.TABLE_PLAYLIST));
+        assertEquals(other, count("SELECT " + DatabaseHelper.COLUMN_PLAYLIST_EPISODE + " FROM "
+                                  + DatabaseHelper.TABLE_PLAYLIST + " ORDER BY "
+                                  + DatabaseHelper.COLUMN_PLAYLIST_POSITION + " LIMIT 1"));
+        assertTrue(hasIndex(DatabaseHelper.PLAYLIST_POSITION_INDEX));
+    }
+
+    public void testMigrateToVersion18() {
+        Migrations.migrate(db, 15, 18);
+
+        String search = "SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_EPISODE_SEARCH;
+        assertEquals(2, count(search));
+        assertEquals(1, count(search + " WHERE " + DatabaseHelper.TABLE_EPISODE_SEARCH
+                              + " MATCH 'othe*'"));
+
+        db.delete(DatabaseHelper.TABLE_PLAYLIST, null, null);
+        db.delete(DatabaseHelper.TABLE_EPISODE, DatabaseHelper.COLUMN_EPISODE_ID + " = " + other,
+                  null);
+        assertEquals(1, count(search));
+    }
+
+    public void testMigrateToVersion19() {
+        Migrations.migrate(db, 15, 19);
+
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_PENDING_FILE_DELETION_PATH, "path");
+        assertTrue(db.insert(DatabaseHelper.TABLE_PENDING_FILE_DELETION, null, values) > 0);
+        assertEquals(1, count("SELECT COUNT(*) FROM "
+                              + DatabaseHelper.TABLE_PENDING_FILE_DELETION));
+    }
+
+    public void testMigrateToVersion20() {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_EPISODE_TITLE, "Österreich");
+        db.update(DatabaseHelper.TABLE_EPISODE, values,
+                  DatabaseHelper.COLUMN_EPISODE_ID + " = " + other, null);
+
+        Migrations.migrate(db, 15, 20);
+
+        assertEquals(1, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_EPISODE_SEARCH
+                              + " WHERE " + DatabaseHelper.TABLE_EPISODE_SEARCH
+                              + " MATCH 'österreich*'"));
+    }
+
+    public void testMigrateToVersion21() {
+        Migrations.migrate(db, 15, 21);
+
+        assertTrue(hasIndex(DatabaseHelper.EPISODE_FILEPATH_INDEX));
+    }
+
+    /**
+     * A failing step must leave the database at its previous version.
+     */
+    public void testFailedMigrationRollsBack() {
+        db.execSQL(DatabaseHelper.CREATE_PLAYLIST_POSITION_INDEX);
+        try {
+            Migrations.migrate(db, 15, 17);
+            fail("Expected the index to exist already");
+        } catch (Exception e) {
+            // expected
+        }
+
+        assertEquals(3, count("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_EPISODE));
+        assertFalse(hasIndex(DatabaseHelper.EPISODE_GUID_INDEX));
+        assertEquals(2, count("SELECT MAX(" + DatabaseHelper.COLUMN_PLAYLIST_POSITION + ") FROM "
+                              + DatabaseHelper.TABLE_PLAYLIST));
+    }
+
+    public void testMissingSteps() {
+        try {
+            Migrations.migrate(db, 15, Migrations.getLatestVersion() + 1);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        try {
+            Migrations.migrate(db, 14, 15);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
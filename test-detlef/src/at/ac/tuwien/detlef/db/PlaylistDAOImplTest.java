@@ -19,9 +19,10 @@
 
 package at.ac.tuwien.detlef.db;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 import at.ac.tuwien.detlef.Singletons;
 import at.ac.tuwien.detlef.domain.Episode;
@@ -70,12 +71,12 @@ public class PlaylistDAOImplTest extends AndroidTestCase {
         e1.setAuthor("author");
         e1.setDescription("description");
         e1.setFileSize(0);
-        e1.setGuid("guid");
+        e1.setGuid("guid1");
         e1.setLink("link");
         e1.setMimetype("mimetype");
         e1.setReleased(System.currentTimeMillis());
         e1.setTitle("title");
-        e1.setUrl("url");
+        e1.setUrl("url1");
         e1.setStorageState(StorageState.NOT_ON_DEVICE);
         e1.setFilePath("path");
 
@@ -83,12 +84,12 @@ public class PlaylistDAOImplTest extends AndroidTestCase {
         e2.setAuthor("author");
         e2.setDescription("description");
         e2.setFileSize(0);
-        e2.setGuid("guid");
+        e2.setGuid("guid2");
         e2.setLink("link");
         e2.setMimetype("mimetype");
         e2.setReleased(System.currentTimeMillis());
         e2.setTitle("title");
-        e2.setUrl("url");
+        e2.setUrl("url2");
         e2.setStorageState(StorageState.NOT_ON_DEVICE);
         e2.setFilePath("path");
 
@@ -106,11 +107,11 @@ public class PlaylistDAOImplTest extends AndroidTestCase {
         super.tearDown();
     }
 
+    /**
+     * The DAO mirrors the playlist, so it has to be cleared through the DAO.
+     */
     private void clearDatabase() {
-        DatabaseHelper dbHelper = Singletons.i().getDatabaseHelper();
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.delete(DatabaseHelper.TABLE_PLAYLIST, null, null);
-        db.close();
+        ldao.clear();
     }
 
     public void testAddToBeginning() {
@@ -238,6 +239,36 @@ public class PlaylistDAOImplTest extends AndroidTestCase {
         assertTrue(playlist.get(2) == e1);
     }
 
+    /**
+     * Moving items between the same two neighbours again and again halves the
+     * gap between their ordering keys each time, until the keys have to be
+     * spread out again.
+     */
+    public void testMoveUntilKeysAreRenormalized() {
+        clearDatabase();
+
+        p1 = pdao.insertPodcast(p1);
+        e0 = edao.insertEpisode(e0);
+        e1 = edao.insertEpisode(e1);
+        e2 = edao.insertEpisode(e2);
+
+        ldao.addEpisodeToEndOfPlaylist(e0);
+        ldao.addEpisodeToEndOfPlaylist(e1);
+        ldao.addEpisodeToEndOfPlaylist(e2);
+        for (int i = 0; i < 64; i++) {
+            assertTrue(ldao.moveEpisode(2, 1));
+            assertTrue(ldao.checkNoGaps());
+        }
+
+        /* An even number of swaps restores the initial order. */
+
+        List<Episode> playlist = ldao.getNonCachedEpisodes();
+        assertTrue(playlist.size() == 3);
+        assertTrue(playlist.get(0) == e0);
+        assertTrue(playlist.get(1) == e1);
+        assertTrue(playlist.get(2) == e2);
+    }
+
     public void testBackgroundDelete() {
         clearDatabase();
 
@@ -348,4 +379,180 @@ public class PlaylistDAOImplTest extends AndroidTestCase {
         assertTrue(playlist.size() == 0);
         assertTrue(ldao.checkNoGaps());
     }
+
+    public void testAddAll() {
+        clearDatabase();
+
+        p1 = pdao.insertPodcast(p1);
+        e0 = edao.insertEpisode(e0);
+        e1 = edao.insertEpisode(e1);
+        e2 = edao.insertEpisode(e2);
+
+        assertTrue(ldao.addAll(Arrays.asList(e0, e2), 0));
+        assertTrue(ldao.addAll(Arrays.asList(e1, e1), 1));
+        assertTrue(ldao.addAll(Arrays.asList(e2), 0));
+        assertTrue(ldao.addAll(Arrays.asList(e0), 5));
+        assertFalse(ldao.addAll(Arrays.asList(e0), 7));
+        assertFalse(ldao.addAll(Arrays.asList(e0), -1));
+        assertFalse(ldao.addAll(new ArrayList<Episode>(), 7));
+        assertTrue(ldao.checkNoGaps());
+
+        List<Episode> playlist = ldao.getNonCachedEpisodes();
+        assertTrue(playlist.size() == 6);
+        assertTrue(playlist.get(0) == e2);
+        assertTrue(playlist.get(1) == e0);
+        assertTrue(playlist.get(2) == e1);
+        assertTrue(playlist.get(3) == e1);
+        assertTrue(playlist.get(4) == e2);
+        assertTrue(playlist.get(5) == e0);
+    }
+
+    /**
+     * Adding more items between two neighbours than there are free keys
+     * between them spreads out all keys.
+     */
+    public void testAddAllWithoutRoom() {
+        clearDatabase();
+
+        p1 = pdao.insertPodcast(p1);
+        e0 = edao.insertEpisode(e0);
+        e1 = edao.insertEpisode(e1);
+        e2 = edao.insertEpisode(e2);
+
+        ldao.addEpisodeToEndOfPlaylist(e0);
+        ldao.addEpisodeToEndOfPlaylist(e2);
+        List<Episode> many = new ArrayList<Episode>();
+        for (int i = 0; i < DatabaseHelper.PLAYLIST_POSITION_GAP; i++) {
+            many.add(e1);
+        }
+        assertTrue(ldao.addAll(many, 1));
+        assertTrue(ldao.checkNoGaps());
+
+        List<Episode> playlist = ldao.getNonCachedEpisodes();
+        assertEquals(many.size() + 2, playlist.size());
+        assertTrue(playlist.get(0) == e0);
+        assertTrue(playlist.get(1) == e1);
+        assertTrue(playlist.get(many.size()) == e1);
+        assertTrue(playlist.get(many.size() + 1) == e2);
+    }
+
+    public void testReorder() {
+        clearDatabase();
+
+        p1 = pdao.insertPodcast(p1);
+        e0 = edao.insertEpisode(e0);
+        e1 = edao.insertEpisode(e1);
+        e2 = edao.insertEpisode(e2);
+
+        assertTrue(ldao.addAll(Arrays.asList(e0, e1, e2), 0));
+        assertTrue(ldao.reorder(new int[] {2, 0, 1}));
+        assertTrue(ldao.checkNoGaps());
+
+        List<Episode> playlist = ldao.getNonCachedEpisodes();
+        assertTrue(playlist.size() == 3);
+        assertTrue(playlist.get(0) == e2);
+        assertTrue(playlist.get(1) == e0);
+        assertTrue(playlist.get(2) == e1);
+
+        assertFalse(ldao.reorder(new int[] {0, 1}));
+        assertFalse(ldao.reorder(new int[] {0, 1, 1}));
+        playlist = ldao.getNonCachedEpisodes();
+        assertTrue(playlist.get(0) == e2);
+        assertTrue(playlist.get(1) == e0);
+        assertTrue(playlist.get(2) == e1);
+    }
+
+    /**
+     * Bulk operations send a single bulk event instead of one event per item.
+     */
+    public void testBulkNotifications() {
+        clearDatabase();
+
+        p1 = pdao.insertPodcast(p1);
+        e0 = edao.insertEpisode(e0);
+        e1 = edao.insertEpisode(e1);
+        e2 = edao.insertEpisode(e2);
+
+        CountingListener listener = new CountingListener();
+        ldao.addPlaylistChangedListener(listener);
+        try {
+            ldao.addAll(Arrays.asList(e0, e1, e2, e1), 0);
+            assertEquals(1, listener.bulk);
+            assertEquals(4, listener.playlist.size());
+
+            assertEquals(2, ldao.removeAll(Arrays.asList(e1.getId())));
+            assertEquals(2, listener.bulk);
+            assertEquals(2, listener.playlist.size());
+
+            assertEquals(0, ldao.removeAll(Arrays.asList(e1.getId())));
+            assertEquals(2, listener.bulk);
+
+            assertTrue(ldao.clear());
+            assertEquals(3, listener.bulk);
+            assertTrue(listener.playlist.isEmpty());
+
+            assertEquals(0, listener.single);
+        } finally {
+            ldao.removePlaylistChangeListener(listener);
+        }
+    }
+
+    public void testIsInPlaylist() {
+        clearDatabase();
+
+        p1 = pdao.insertPodcast(p1);
+        e0 = edao.insertEpisode(e0);
+        e1 = edao.insertEpisode(e1);
+        e2 = edao.insertEpisode(e2);
+
+        ldao.addEpisodeToEndOfPlaylist(e0);
+        ldao.addEpisodeToBeginningOfPlaylist(e1);
+        ldao.addEpisodeToEndOfPlaylist(e1);
+        assertTrue(ldao.isInPlaylist(e0.getId()));
+        assertTrue(ldao.isInPlaylist(e1.getId()));
+        assertFalse(ldao.isInPlaylist(e2.getId()));
+
+        assertTrue(ldao.moveEpisode(0, 2));
+        long[] ids = ldao.getEpisodeIds();
+        assertEquals(3, ids.length);
+        assertEquals(e0.getId(), ids[0]);
+        assertEquals(e1.getId(), ids[1]);
+        assertEquals(e1.getId(), ids[2]);
+
+        assertTrue(ldao.removeEpisode(1));
+        assertTrue(ldao.isInPlaylist(e1.getId()));
+        assertTrue(ldao.removeEpisode(1));
+        assertFalse(ldao.isInPlaylist(e1.getId()));
+
+        edao.deleteEpisode(e0);
+        assertFalse(ldao.isInPlaylist(e0.getId()));
+        assertEquals(0, ldao.getEpisodeIds().length);
+    }
+
+    private static class CountingListener implements PlaylistDAO.OnPlaylistChangeListener {
+        private int single = 0;
+        private int bulk = 0;
+        private List<Episode> playlist;
+
+        @Override
+        public void onPlaylistEpisodeAdded(int position, Episode episode) {
+            single++;
+        }
+
+        @Override
+        public void onPlaylistEpisodePositionChanged(int firstPosition, int secondPosition) {
+            single++;
+        }
+
+        @Override
+        public void onPlaylistEpisodeRemoved(int position) {
+            single++;
+        }
+
+        @Override
+        public void onPlaylistBulkChanged(List<Episode> newPlaylist) {
+            bulk++;
+            playlist = newPlaylist;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PlaylistMirrorTest extends TestCase {
+
+    private static void assertIds(PlaylistMirror mirror, long... expected) {
+        assertTrue(Arrays.equals(expected, mirror.getIds()));
+    }
+
+    public void testChanges() {
+        PlaylistMirror m = PlaylistMirror.EMPTY.insert(0, 1, 2, 3);
+        assertIds(m, 1, 2, 3);
+
+        m = m.insert(1, 4);
+        assertIds(m, 1, 4, 2, 3);
+        m = m.insert(4, 1);
+        assertIds(m, 1, 4, 2, 3, 1);
+
+        m = m.move(0, 2);
+        assertIds(m, 4, 2, 1, 3, 1);
+        m = m.move(3, 0);
+        assertIds(m, 3, 4, 2, 1, 1);
+
+        m = m.remove(1);
+        assertIds(m, 3, 2, 1, 1);
+        m = m.reorder(new int[] {2, 0, 3, 1});
+        assertIds(m, 1, 3, 1, 2);
+
+        m = m.removeAll(Arrays.asList(1L, 5L));
+        assertIds(m, 3, 2);
+    }
+
+    public void testCounts() {
+        PlaylistMirror m = PlaylistMirror.EMPTY;
+        assertEquals(0, m.count(1));
+
+        for (long id = -500; id < 500; id++) {
+            m = m.insert(m.size(), id, id);
+        }
+        m = m.insert(0, 0);
+
+        assertEquals(2001, m.size());
+        assertEquals(3, m.count(0));
+        for (long id = -500; id < 500; id++) {
+            if (id != 0) {
+                assertEquals(2, m.count(id));
+            }
+        }
+        assertFalse(m.contains(500));
+        assertFalse(m.contains(Long.MAX_VALUE));
+
+        m = m.remove(0);
+        assertEquals(2, m.count(0));
+        assertTrue(m.getIds() != m.getIds());
+    }
+}
@@ -19,8 +19,13 @@
 
 package at.ac.tuwien.detlef.db;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import android.test.AndroidTestCase;
 import at.ac.tuwien.detlef.Singletons;
+import at.ac.tuwien.detlef.domain.Episode;
 import at.ac.tuwien.detlef.domain.Podcast;
 
 /**
@@ -84,6 +89,57 @@ public class PodcastDAOImplTest extends AndroidTestCase {
         assertNotSame(countBeforeDelete, countAfterDelete);
     }
 
+    /**
+     * The deletion of the episodes is only reported once the podcast is gone,
+     * too, and the episodes have left the cache.
+     */
+    public void testDeletePodcastNotifiesAfterCommit() {
+        p1 = pdao.insertPodcast(p1);
+        final EpisodeDAO edao = Singletons.i().getEpisodeDAO();
+        Episode e = new Episode(p1);
+        e.setGuid("guid");
+        e.setTitle("title");
+        e.setUrl("url");
+        final Episode inserted = edao.insertEpisode(e);
+
+        final SimplePodcastDAO simpleDAO = new SimplePodcastDAO(getContext());
+        final List<Collection<Long>> events = new ArrayList<Collection<Long>>();
+        EpisodeDAO.OnEpisodeChangeListener listener = new EpisodeDAO.OnEpisodeChangeListener() {
+            @Override
+            public void onEpisodeChanged(Episode episode) {
+            }
+
+            @Override
+            public void onEpisodeAdded(Episode episode) {
+            }
+
+            @Override
+            public void onEpisodeDeleted(Episode episode) {
+            }
+
+            @Override
+            public void onEpisodesAdded(List<Episode> episodes) {
+            }
+
+            @Override
+            public void onEpisodesDeleted(Podcast podcast, Collection<Long> episodeIds) {
+                assertNull(simpleDAO.getPodcastById(podcast.getId()));
+                assertNull(edao.getEpisode(inserted.getId()));
+                events.add(episodeIds);
+            }
+        };
+
+        edao.addEpisodeChangedListener(listener);
+        try {
+            assertEquals(1, pdao.deletePodcast(p1));
+        } finally {
+            edao.removeEpisodeChangedListener(listener);
+        }
+
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).contains(inserted.getId()));
+    }
+
     /**
      * tests the getPodcastById functionality
      */
@@ -147,6 +203,17 @@ public class PodcastDAOImplTest extends AndroidTestCase {
         assertEquals(url, nw.getUrl());
     }
 
+    /**
+     * Tests that getPodcastByUrl follows url changes made through update.
+     */
+    public void testGetPodcastByUrlAfterUpdate() {
+        pdao.insertPodcast(p1);
+        p1.setUrl("new url");
+        pdao.update(p1);
+        assertSame(p1, pdao.getPodcastByUrl("new url"));
+        assertNull(pdao.getPodcastByUrl("url"));
+    }
+
     /**
      * Tests adding a podcast locally.
      */
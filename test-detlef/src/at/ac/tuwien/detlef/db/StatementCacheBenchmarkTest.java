@@ -0,0 +1,147 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Measures how many playlist style inserts, updates and deletes run per
+ * second through ContentValues and through the compiled statements of a
+ * {@link StatementCache}. The results are logged with the tag of this class.
+ */
+public class StatementCacheBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = StatementCacheBenchmarkTest.class.getName();
+
+    private static final int ROWS = 5000;
+
+    private static final String INSERT = "INSERT INTO item (episode, position) VALUES (?, ?)";
+    private static final String UPDATE = "UPDATE item SET position = ? WHERE _ID = ?";
+    private static final String DELETE = "DELETE FROM item WHERE _ID = ?";
+
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE item (_ID INTEGER PRIMARY KEY, episode INTEGER, "
+                   + "position INTEGER)");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testStatementsPerSecond() {
+        double plain = runContentValues();
+        double cached = runStatementCache();
+
+        Log.i(TAG, String.format("ContentValues:  %.0f statements/s", plain));
+        Log.i(TAG, String.format("StatementCache: %.0f statements/s", cached));
+
+        assertTrue(plain > 0);
+        assertTrue(cached > 0);
+    }
+
+    private static double perSecond(long nanos) {
+        return 3 * ROWS / (nanos / 1e9);
+    }
+
+    private double runContentValues() {
+        db.delete("item", null, null);
+
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (int i = 1; i <= ROWS; i++) {
+                ContentValues values = new ContentValues();
+                values.put("episode", i);
+                values.put("position", i);
+                db.insert("item", null, values);
+            }
+            for (int i = 1; i <= ROWS; i++) {
+                ContentValues values = new ContentValues();
+                values.put("position", -i);
+                db.update("item", values, "_ID = ?", new String[] {
+                              String.valueOf(i)
+                          });
+            }
+            for (int i = 1; i <= ROWS; i++) {
+                db.delete("item", "_ID = ?", new String[] {
+                              String.valueOf(i)
+                          });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return perSecond(System.nanoTime() - start);
+    }
+
+    private double runStatementCache() {
+        db.delete("item", null, null);
+        StatementCache cache = new StatementCache();
+
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            /* Acquired per statement like the DAOs do, not once per loop. */
+            for (int i = 1; i <= ROWS; i++) {
+                SQLiteStatement stmt = cache.acquire(db, INSERT);
+                try {
+                    stmt.bindLong(1, i);
+                    stmt.bindLong(2, i);
+                    stmt.executeInsert();
+                } finally {
+                    cache.release(db, INSERT, stmt);
+                }
+            }
+            for (int i = 1; i <= ROWS; i++) {
+                SQLiteStatement stmt = cache.acquire(db, UPDATE);
+                try {
+                    stmt.bindLong(1, -i);
+                    stmt.bindLong(2, i);
+                    stmt.executeUpdateDelete();
+                } finally {
+                    cache.release(db, UPDATE, stmt);
+                }
+            }
+            for (int i = 1; i <= ROWS; i++) {
+                SQLiteStatement stmt = cache.acquire(db, DELETE);
+                try {
+                    stmt.bindLong(1, i);
+                    stmt.executeUpdateDelete();
+                } finally {
+                    cache.release(db, DELETE, stmt);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            cache.clear();
+        }
+        return perSecond(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,110 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the StatementCache.
+ */
+public class StatementCacheTest extends AndroidTestCase {
+
+    private static final String INSERT = "INSERT INTO item (title) VALUES (?)";
+
+    private SQLiteDatabase db;
+    private StatementCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE item (_ID INTEGER PRIMARY KEY, title TEXT)");
+        cache = new StatementCache();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.clear();
+        db.close();
+        super.tearDown();
+    }
+
+    public void testReuse() {
+        SQLiteStatement first = cache.acquire(db, INSERT);
+        first.bindString(1, "title");
+        assertEquals(1, first.executeInsert());
+        cache.release(db, INSERT, first);
+        assertEquals(1, cache.getIdleCount());
+
+        SQLiteStatement second = cache.acquire(db, INSERT);
+        assertSame(first, second);
+        assertEquals(0, cache.getIdleCount());
+
+        /* The bindings have been cleared on release. */
+        assertEquals(2, second.executeInsert());
+        cache.release(db, INSERT, second);
+    }
+
+    /**
+     * Statements in use are never handed out twice.
+     */
+    public void testConcurrentUse() {
+        SQLiteStatement first = cache.acquire(db, INSERT);
+        SQLiteStatement second = cache.acquire(db, INSERT);
+        assertNotSame(first, second);
+
+        cache.release(db, INSERT, first);
+        cache.release(db, INSERT, second);
+        assertEquals(2, cache.getIdleCount());
+    }
+
+    /**
+     * Statements of another database are dropped, including those released
+     * after the switch.
+     */
+    public void testOtherDatabase() {
+        SQLiteStatement stmt = cache.acquire(db, INSERT);
+        cache.release(db, INSERT, cache.acquire(db, INSERT));
+
+        SQLiteDatabase other = SQLiteDatabase.create(null);
+        try {
+            other.execSQL("CREATE TABLE item (_ID INTEGER PRIMARY KEY, title TEXT)");
+            cache.release(other, INSERT, cache.acquire(other, INSERT));
+            assertEquals(1, cache.getIdleCount());
+
+            cache.release(db, INSERT, stmt);
+            assertEquals(1, cache.getIdleCount());
+        } finally {
+            cache.clear();
+            other.close();
+        }
+    }
+
+    public void testClear() {
+        cache.release(db, INSERT, cache.acquire(db, INSERT));
+        cache.clear();
+        assertEquals(0, cache.getIdleCount());
+
+        SQLiteStatement stmt = cache.acquire(db, INSERT);
+        stmt.bindString(1, "title");
+        assertEquals(1, stmt.executeInsert());
+        cache.release(db, INSERT, stmt);
+    }
+}
@@ -0,0 +1,241 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.db;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Measures the latency of reads while another thread runs a bulk write
+ * transaction, similar to the episode list being scrolled during a feed
+ * refresh. The results are logged with the tag of this class; run once with
+ * the rollback journal and once with the configuration of
+ * {@link DatabaseHelper}.
+ */
+public class WalBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = WalBenchmarkTest.class.getName();
+
+    private static final int INITIAL_ROWS = 2000;
+    private static final int WRITTEN_ROWS = 20000;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private File dbFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dbFile = getContext().getDatabasePath("walBenchmark");
+        dbFile.getParentFile().mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDatabase();
+        super.tearDown();
+    }
+
+    private void deleteDatabase() {
+        for (String suffix : new String[] {"", "-journal", "-wal", "-shm"}) {
+            new File(dbFile.getPath() + suffix).delete();
+        }
+    }
+
+    private static String pragma(SQLiteDatabase db, String name) {
+        Cursor c = db.rawQuery("PRAGMA " + name, null);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getString(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testConfiguration() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        try {
+            DatabaseHelper.configure(db);
+
+            assertEquals("wal", pragma(db, "journal_mode").toLowerCase());
+            assertEquals("1", pragma(db, "synchronous"));
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * A read must complete while a write transaction is open on another
+     * thread, and must not see its uncommitted rows.
+     */
+    public void testReadersAreNotBlockedByWriter() throws InterruptedException {
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        try {
+            DatabaseHelper.configure(db);
+            db.execSQL("CREATE TABLE item (_ID INTEGER PRIMARY KEY, title TEXT, body TEXT)");
+            insert(db, INITIAL_ROWS);
+
+            final CountDownLatch writing = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    db.beginTransaction();
+                    try {
+                        insert(db, 100);
+                        writing.countDown();
+                        release.await();
+                        db.setTransactionSuccessful();
+                    } catch (InterruptedException e) {
+                        /* Roll back. */
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+            };
+            writer.start();
+            assertTrue(writing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            final int[] count = new int[] {-1};
+            final CountDownLatch read = new CountDownLatch(1);
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    Cursor c = db.rawQuery("SELECT count(*) FROM item", null);
+                    try {
+                        c.moveToFirst();
+                        count[0] = c.getInt(0);
+                    } finally {
+                        c.close();
+                    }
+                    read.countDown();
+                }
+            };
+            reader.start();
+
+            try {
+                assertTrue("read blocked by the open write transaction",
+                           read.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                assertEquals(INITIAL_ROWS, count[0]);
+                assertTrue(writer.isAlive());
+            } finally {
+                release.countDown();
+                writer.join();
+                reader.join();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testReadLatencyDuringBulkWrite() throws InterruptedException {
+        Result rollback = run(false);
+        Result wal = run(true);
+
+        Log.i(TAG, "rollback journal: " + rollback);
+        Log.i(TAG, "write-ahead log:  " + wal);
+
+        assertTrue(rollback.reads > 0);
+        assertTrue(wal.reads > 0);
+    }
+
+    private static final class Result {
+        private int reads;
+        private long totalNanos;
+        private long maxNanos;
+
+        @Override
+        public String toString() {
+            return String.format("%d reads, avg %.2f ms, max %.2f ms", reads,
+                                 reads == 0 ? 0.0 : totalNanos / 1e6 / reads, maxNanos / 1e6);
+        }
+    }
+
+    private Result run(boolean wal) throws InterruptedException {
+        deleteDatabase();
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        try {
+            if (wal) {
+                DatabaseHelper.configure(db);
+            }
+
+            db.execSQL("CREATE TABLE item (_ID INTEGER PRIMARY KEY, title TEXT, body TEXT)");
+            insert(db, INITIAL_ROWS);
+
+            final CountDownLatch writing = new CountDownLatch(1);
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    db.beginTransaction();
+                    try {
+                        writing.countDown();
+                        insert(db, WRITTEN_ROWS);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+            };
+            writer.start();
+            writing.await();
+
+            Result result = new Result();
+            do {
+                long start = System.nanoTime();
+                Cursor c = db.rawQuery(
+                               "SELECT _ID, title FROM item ORDER BY _ID DESC LIMIT 50", null);
+                c.getCount();
+                c.close();
+                long nanos = System.nanoTime() - start;
+
+                result.reads++;
+                result.totalNanos += nanos;
+                result.maxNanos = Math.max(result.maxNanos, nanos);
+            } while (writer.isAlive());
+            writer.join();
+
+            return result;
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void insert(SQLiteDatabase db, int rows) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            body.append("Lorem ipsum dolor sit amet. ");
+        }
+
+        SQLiteStatement stmt = db.compileStatement("INSERT INTO item (title, body) VALUES (?, ?)");
+        try {
+            for (int i = 0; i < rows; i++) {
+                stmt.bindString(1, "title " + i);
+                stmt.bindString(2, body.toString());
+                stmt.executeInsert();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+}
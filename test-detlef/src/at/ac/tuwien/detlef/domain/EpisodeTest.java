@@ -118,4 +118,30 @@ public class EpisodeTest extends TestCase {
         assertEquals(e.getUrl(), e.getEnclosure().getUrl());
     }
 
+    public void testDirtyFields() {
+        Episode e = new Episode(new Podcast());
+        assertEquals(Episode.ALL_FIELDS, e.getDirtyFields());
+
+        e.setPlayPosition(1000);
+        e.markClean();
+        assertEquals(0, e.getDirtyFields());
+
+        e.setTitle("title");
+        e.setPlayPosition(2000);
+        assertEquals(Episode.FIELD_TITLE | Episode.FIELD_PLAY_POSITION, e.getDirtyFields());
+
+        Episode.Changes changes = e.takeChanges();
+        assertEquals(0, e.getDirtyFields());
+        assertTrue(changes.contains(Episode.FIELD_PLAY_POSITION));
+        assertFalse(changes.contains(Episode.FIELD_STORAGE_STATE));
+        assertEquals(1000, changes.getPreviousPlayPosition());
+
+        /* A failed write makes the changes pending again. */
+
+        e.restoreChanges(changes);
+        assertEquals(Episode.FIELD_TITLE | Episode.FIELD_PLAY_POSITION, e.getDirtyFields());
+        assertEquals(1000, e.takeChanges().getPreviousPlayPosition());
+        assertEquals(2000, e.takeChanges().getPreviousPlayPosition());
+    }
+
 }
@@ -212,5 +212,39 @@ public class FilterChainTest extends TestCase {
 
     }
 
+    public void testToSqlPredicate_combinesSqlFilters() {
 
+        SqlEpisodeFilter podcast = Mockito.mock(SqlEpisodeFilter.class);
+        Mockito.when(podcast.getFilterName()).thenReturn("podcast");
+        Mockito.when(podcast.toSqlPredicate()).thenReturn(new SqlPredicate("podcast = ?", "1"));
+
+        SqlEpisodeFilter all = Mockito.mock(SqlEpisodeFilter.class);
+        Mockito.when(all.getFilterName()).thenReturn("all");
+        Mockito.when(all.toSqlPredicate()).thenReturn(SqlPredicate.ALL);
+
+        SqlEpisodeFilter unresolved = Mockito.mock(SqlEpisodeFilter.class);
+        Mockito.when(unresolved.getFilterName()).thenReturn("unresolved");
+        Mockito.when(unresolved.toSqlPredicate()).thenReturn(null);
+
+        EpisodeFilter plain = Mockito.mock(EpisodeFilter.class);
+        Mockito.when(plain.getFilterName()).thenReturn("plain");
+
+        FilterChain filterChain = new FilterChain();
+        filterChain.putEpisodeFilter(podcast);
+        filterChain.putEpisodeFilter(all);
+        filterChain.putEpisodeFilter(unresolved);
+        filterChain.putEpisodeFilter(plain);
+
+        SqlPredicate predicate = filterChain.toSqlPredicate();
+        Assert.assertEquals("(podcast = ?)", predicate.getSelection());
+        Assert.assertEquals(1, predicate.getSelectionArgs().length);
+        Assert.assertEquals("1", predicate.getSelectionArgs()[0]);
+
+        FilterChain remaining = filterChain.getRemainingFilters();
+        Assert.assertEquals(2, remaining.countFilters());
+        Assert.assertTrue(remaining.contains(unresolved));
+        Assert.assertTrue(remaining.contains(plain));
+
+        Assert.assertSame(SqlPredicate.ALL, new FilterChain().toSqlPredicate());
+    }
 }
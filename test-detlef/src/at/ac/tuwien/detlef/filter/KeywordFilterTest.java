@@ -143,4 +143,54 @@ public class KeywordFilterTest extends TestCase {
         );
     }
 
+    public void testFilter_MatchesWordPrefixes() {
+
+        Episode episode = new Episode(new Podcast().setId(1));
+
+        episode.setTitle("Deus ex machina.");
+
+        KeywordFilter filter = new KeywordFilter();
+        filter.setKeyword("mach");
+        Assert.assertFalse(filter.filter(episode));
+
+        filter.setKeyword("achina");
+        Assert.assertTrue(
+            "Epsiode should be filtered, because the keyword "
+            + "only occurs within a word",
+            filter.filter(episode)
+        );
+    }
+
+    public void testFilter_IgnoresMarkup() {
+
+        Episode episode = new Episode(new Podcast().setId(1));
+
+        episode.setDescription("<strong>Bold</strong> &amp; brave");
+
+        KeywordFilter filter = new KeywordFilter();
+        filter.setKeyword("strong");
+        Assert.assertTrue(filter.filter(episode));
+
+        filter.setKeyword("amp");
+        Assert.assertTrue(filter.filter(episode));
+
+        filter.setKeyword("bold brave");
+        Assert.assertFalse(filter.filter(episode));
+    }
+
+    public void testFilter_AllWordsMustMatch() {
+
+        Episode episode = new Episode(new Podcast().setId(1));
+
+        episode.setTitle("Deus ex machina.");
+        episode.setDescription("And this is the description.");
+
+        KeywordFilter filter = new KeywordFilter();
+        filter.setKeyword("machina descr");
+        Assert.assertFalse(filter.filter(episode));
+
+        filter.setKeyword("machina maschine");
+        Assert.assertTrue(filter.filter(episode));
+    }
+
 }
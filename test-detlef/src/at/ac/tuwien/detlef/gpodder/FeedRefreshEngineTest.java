@@ -0,0 +1,195 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import at.ac.tuwien.detlef.domain.Podcast;
+
+/**
+ * Tests the {@link FeedRefreshEngine}.
+ */
+public class FeedRefreshEngineTest extends TestCase {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * Counts the running tasks and remembers the maximum.
+     */
+    private static final class Monitor {
+        private int running = 0;
+        private int maxRunning = 0;
+
+        synchronized void start() {
+            running++;
+            maxRunning = Math.max(maxRunning, running);
+        }
+
+        synchronized void stop() {
+            running--;
+        }
+    }
+
+    public void testLimit() throws InterruptedException {
+        FeedRefreshEngine engine = new FeedRefreshEngine(3, 1);
+        final Monitor monitor = new Monitor();
+        final CountDownLatch complete = new CountDownLatch(1);
+
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < 24; i++) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    monitor.start();
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        monitor.stop();
+                    }
+                }
+            });
+        }
+
+        FeedRefreshEngine.Batch batch = engine.submit(tasks, new Runnable() {
+            @Override
+            public void run() {
+                complete.countDown();
+            }
+        });
+
+        assertTrue(complete.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(batch.isComplete());
+        assertEquals(tasks.size(), batch.getDone());
+        assertEquals(tasks.size(), batch.getTotal());
+
+        assertEquals(3, monitor.maxRunning);
+    }
+
+    /**
+     * Waiting tasks are started in the order they have been submitted.
+     */
+    public void testOrder() throws InterruptedException {
+        FeedRefreshEngine engine = new FeedRefreshEngine(1, 1);
+        final List<Integer> started = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch complete = new CountDownLatch(1);
+
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < 5; i++) {
+            final int index = i;
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    started.add(index);
+                }
+            });
+        }
+
+        engine.submit(tasks, new Runnable() {
+            @Override
+            public void run() {
+                complete.countDown();
+            }
+        });
+
+        assertTrue(complete.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), started);
+    }
+
+    public void testEmptyBatch() {
+        final boolean[] completed = new boolean[1];
+        FeedRefreshEngine.Batch batch = new FeedRefreshEngine().submit(
+                                            new ArrayList<Runnable>(),
+        new Runnable() {
+            @Override
+            public void run() {
+                completed[0] = true;
+            }
+        });
+
+        assertTrue(batch.isComplete());
+        assertEquals(0, batch.getTotal());
+        assertTrue(completed[0]);
+    }
+
+    /**
+     * Tasks refreshing several feeds count with their size.
+     */
+    public void testSizes() throws InterruptedException {
+        final CountDownLatch complete = new CountDownLatch(1);
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+
+        FeedRefreshEngine.Batch batch = new FeedRefreshEngine().submit(tasks,
+        new int[] {20, 20, 5}, new Runnable() {
+            @Override
+            public void run() {
+                complete.countDown();
+            }
+        });
+
+        assertTrue(complete.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(45, batch.getTotal());
+        assertEquals(45, batch.getDone());
+    }
+
+    public void testGroup() {
+        List<Podcast> podcasts = new ArrayList<Podcast>();
+        for (String url : new String[] {"e", "a", "c", "b", "d"}) {
+            podcasts.add(new Podcast().setUrl(url));
+        }
+
+        List<List<Podcast>> groups = FeedRefreshEngine.group(podcasts, 2);
+        assertEquals(3, groups.size());
+        assertEquals("a", groups.get(0).get(0).getUrl());
+        assertEquals("b", groups.get(0).get(1).getUrl());
+        assertEquals("c", groups.get(1).get(0).getUrl());
+        assertEquals("d", groups.get(1).get(1).getUrl());
+        assertEquals(1, groups.get(2).size());
+        assertEquals("e", groups.get(2).get(0).getUrl());
+    }
+
+    /**
+     * Updated podcasts stay in their group, so the requests of the other
+     * groups are the same as before.
+     */
+    public void testGroupsAreStable() {
+        List<Podcast> podcasts = new ArrayList<Podcast>();
+        for (String url : new String[] {"a", "b", "c", "d"}) {
+            podcasts.add(new Podcast().setUrl(url).setLastUpdate(100));
+        }
+        List<List<Podcast>> before = FeedRefreshEngine.group(podcasts, 2);
+
+        podcasts.get(3).setLastUpdate(500);
+        podcasts.get(0).setLastUpdate(0);
+        assertEquals(before, FeedRefreshEngine.group(podcasts, 2));
+    }
+}
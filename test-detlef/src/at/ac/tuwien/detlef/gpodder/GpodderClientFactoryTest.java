@@ -0,0 +1,256 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.HttpResponseException;
+
+/**
+ * Tests the {@link GpodderClientFactory} against a local stand-in server
+ * which keeps its connections alive.
+ */
+public class GpodderClientFactoryTest extends TestCase {
+
+    private static final String BODY = "[{\"title\": \"a podcast\"}]";
+
+    /**
+     * A minimal HTTP/1.1 server which answers every request with
+     * {@link #BODY}, gzip compressed if the client accepts it.
+     */
+    private static final class StandInServer extends Thread {
+        private final ServerSocket socket;
+
+        /* Guarded by this. */
+        private int status = 200;
+        private int connections = 0;
+        private final List<String> acceptEncodings = new ArrayList<String>();
+        private final List<String> authorizations = new ArrayList<String>();
+
+        StandInServer() throws IOException {
+            socket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        }
+
+        String getUrl(String path) {
+            return "http://127.0.0.1:" + socket.getLocalPort() + path;
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    final Socket s = socket.accept();
+                    synchronized (this) {
+                        connections++;
+                    }
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                while (handle(s)) {
+                                    /* Serve the next request on this connection. */
+                                }
+                                s.close();
+                            } catch (IOException e) {
+                                /* Closed by the client. */
+                            }
+                        }
+                    } .start();
+                } catch (IOException e) {
+                    /* Closed. */
+                }
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    return null;
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+
+        /**
+         * @return Whether the connection stays open.
+         */
+        private boolean handle(Socket s) throws IOException {
+            InputStream in = s.getInputStream();
+            if (readLine(in) == null) {
+                return false;
+            }
+
+            String acceptEncoding = null;
+            String authorization = null;
+            String line;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                String lower = line.toLowerCase();
+                if (lower.startsWith("accept-encoding:")) {
+                    acceptEncoding = line.substring("accept-encoding:".length()).trim();
+                } else if (lower.startsWith("authorization:")) {
+                    authorization = line.substring("authorization:".length()).trim();
+                }
+            }
+
+            int code;
+            synchronized (this) {
+                acceptEncodings.add(acceptEncoding);
+                authorizations.add(authorization);
+                code = status;
+            }
+
+            byte[] body = new byte[0];
+            StringBuilder response = new StringBuilder();
+            if (code != 200) {
+                response.append("HTTP/1.1 " + code + " Failed\r\n");
+                body = "failed".getBytes("UTF-8");
+            } else {
+                response.append("HTTP/1.1 200 OK\r\n");
+                response.append("Content-Type: application/json\r\n");
+                body = BODY.getBytes("UTF-8");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    response.append("Content-Encoding: gzip\r\n");
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+                    gzip.write(body);
+                    gzip.close();
+                    body = bytes.toByteArray();
+                }
+            }
+            response.append("Content-Length: " + body.length + "\r\n\r\n");
+
+            OutputStream out = s.getOutputStream();
+            out.write(response.toString().getBytes("UTF-8"));
+            out.write(body);
+            out.flush();
+            return true;
+        }
+
+        void shutdown() throws IOException {
+            socket.close();
+        }
+    }
+
+    private StandInServer server;
+    private GpodderClientFactory clients;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StandInServer();
+        server.start();
+        clients = new GpodderClientFactory(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clients.getConnectionManager().shutdown();
+        server.shutdown();
+        server.join();
+        super.tearDown();
+    }
+
+    private String get(String username, String password) throws IOException {
+        return new CachingJsonClient(username, password, null, clients.getConnectionManager())
+               .GET(server.getUrl("/toplist.json"));
+    }
+
+    public void testClientsAreReused() {
+        assertSame(clients.getMygPodderClient("gpodder.net", "user", "secret"),
+                   clients.getMygPodderClient("gpodder.net", "user", "secret"));
+        assertNotSame(clients.getMygPodderClient("gpodder.net", "user", "secret"),
+                      clients.getMygPodderClient("gpodder.net", "other", "secret"));
+        assertSame(clients.getPublicClient(null), clients.getPublicClient(null));
+        assertNotSame(clients.getPublicClient(null), clients.getPublicClient("example.com"));
+        assertSame(clients.getFeedServiceClient("http://example.com", "user", "secret"),
+                   clients.getFeedServiceClient("http://example.com", "user", "secret"));
+    }
+
+    public void testChangedPasswordReplacesClient() {
+        Object client = clients.getMygPodderClient("gpodder.net", "user", "secret");
+        assertNotSame(client, clients.getMygPodderClient("gpodder.net", "user", "changed"));
+        assertNotSame(client, clients.getMygPodderClient("gpodder.net", "user", "secret"));
+    }
+
+    public void testConnectionIsReused() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BODY, get(null, null).trim());
+        }
+
+        synchronized (server) {
+            assertEquals(1, server.connections);
+        }
+    }
+
+    public void testGzip() throws IOException {
+        assertEquals(BODY, get(null, null).trim());
+
+        synchronized (server) {
+            assertEquals("gzip", server.acceptEncodings.get(0));
+        }
+    }
+
+    public void testPreemptiveAuthentication() throws IOException {
+        get("user", "secret");
+
+        synchronized (server) {
+            assertEquals(1, server.authorizations.size());
+            assertTrue(server.authorizations.get(0).startsWith("Basic "));
+        }
+    }
+
+    /**
+     * Failed responses must give their connection back; otherwise the pool
+     * runs dry after a few failures.
+     */
+    public void testFailuresReleaseConnections() throws IOException {
+        synchronized (server) {
+            server.status = 500;
+        }
+        for (int i = 0; i < 10; i++) {
+            try {
+                get(null, null);
+                fail("Expected an HttpResponseException");
+            } catch (HttpResponseException e) {
+                assertEquals(500, e.getStatusCode());
+            }
+        }
+
+        synchronized (server) {
+            server.status = 200;
+        }
+        assertEquals(BODY, get(null, null).trim());
+    }
+}
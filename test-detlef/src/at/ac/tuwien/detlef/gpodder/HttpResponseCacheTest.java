@@ -0,0 +1,274 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.HttpResponseException;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the {@link HttpResponseCache} against a local stand-in for the
+ * gpodder.net servers.
+ */
+public class HttpResponseCacheTest extends AndroidTestCase {
+
+    private static final String BODY = "[{\"title\": \"a podcast\"}]";
+
+    /**
+     * A minimal HTTP server which answers every request with {@link #BODY},
+     * or with 304 Not Modified if the request carries the current ETag.
+     */
+    private static final class StandInServer extends Thread {
+        private final ServerSocket socket;
+
+        /* Guarded by this. */
+        private String etag = "\"v1\"";
+        private String cacheControl = null;
+        private int status = 200;
+        private int requests = 0;
+        private int fullResponses = 0;
+        private final List<String> conditions = new ArrayList<String>();
+
+        StandInServer() throws IOException {
+            socket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        }
+
+        String getUrl(String path) {
+            return "http://127.0.0.1:" + socket.getLocalPort() + path;
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket s = socket.accept();
+                    try {
+                        handle(s);
+                    } finally {
+                        s.close();
+                    }
+                } catch (IOException e) {
+                    /* Closed. */
+                }
+            }
+        }
+
+        private void handle(Socket s) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(),
+                                                   "ISO-8859-1"));
+            String ifNoneMatch = null;
+            String line = in.readLine();
+            while ((line = in.readLine()) != null && line.length() > 0) {
+                if (line.toLowerCase().startsWith("if-none-match:")) {
+                    ifNoneMatch = line.substring("if-none-match:".length()).trim();
+                }
+            }
+
+            StringBuilder response = new StringBuilder();
+            synchronized (this) {
+                requests++;
+                conditions.add(ifNoneMatch);
+
+                if (status != 200) {
+                    response.append("HTTP/1.1 " + status + " Failed\r\n");
+                    response.append("Content-Length: 0\r\n");
+                } else if (etag != null && etag.equals(ifNoneMatch)) {
+                    response.append("HTTP/1.1 304 Not Modified\r\n");
+                    response.append("ETag: " + etag + "\r\n");
+                } else {
+                    fullResponses++;
+                    response.append("HTTP/1.1 200 OK\r\n");
+                    response.append("Content-Type: application/json\r\n");
+                    response.append("Content-Length: " + BODY.length() + "\r\n");
+                    if (etag != null) {
+                        response.append("ETag: " + etag + "\r\n");
+                    }
+                    if (cacheControl != null) {
+                        response.append("Cache-Control: " + cacheControl + "\r\n");
+                    }
+                }
+            }
+            response.append("Connection: close\r\n\r\n");
+            if (response.indexOf("200 OK") >= 0) {
+                response.append(BODY);
+            }
+
+            OutputStream out = s.getOutputStream();
+            out.write(response.toString().getBytes("UTF-8"));
+            out.flush();
+        }
+
+        void shutdown() throws IOException {
+            socket.close();
+        }
+    }
+
+    private StandInServer server;
+    private File directory;
+    private HttpResponseCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StandInServer();
+        server.start();
+
+        directory = new File(getContext().getCacheDir(), "httpResponseCacheTest");
+        cache = new HttpResponseCache(directory, 1024 * 1024);
+        cache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.clear();
+        server.shutdown();
+        server.join();
+        super.tearDown();
+    }
+
+    private String get(HttpResponseCache c, String path) throws IOException {
+        return new CachingJsonClient(null, null, c, null).GET(server.getUrl(path));
+    }
+
+    public void testRevalidation() throws IOException {
+        assertEquals(BODY, get(cache, "/toplist.json").trim());
+        assertEquals(BODY, get(cache, "/toplist.json").trim());
+
+        synchronized (server) {
+            assertEquals(2, server.requests);
+            assertEquals(1, server.fullResponses);
+            assertNull(server.conditions.get(0));
+            assertEquals("\"v1\"", server.conditions.get(1));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getRevalidationCount());
+        assertEquals(0.5, cache.getHitRatio(), 0.001);
+    }
+
+    public void testChangedResponse() throws IOException {
+        get(cache, "/toplist.json");
+        synchronized (server) {
+            server.etag = "\"v2\"";
+        }
+        get(cache, "/toplist.json");
+        get(cache, "/toplist.json");
+
+        synchronized (server) {
+            assertEquals(3, server.requests);
+            assertEquals(2, server.fullResponses);
+        }
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getRevalidationCount());
+    }
+
+    public void testMaxAge() throws IOException {
+        synchronized (server) {
+            server.cacheControl = "public, max-age=3600";
+        }
+        get(cache, "/toplist.json");
+        assertEquals(BODY, get(cache, "/toplist.json").trim());
+
+        synchronized (server) {
+            assertEquals(1, server.requests);
+        }
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testNoStore() throws IOException {
+        synchronized (server) {
+            server.cacheControl = "no-store";
+        }
+        get(cache, "/toplist.json");
+        get(cache, "/toplist.json");
+
+        synchronized (server) {
+            assertEquals(2, server.fullResponses);
+        }
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * Entries survive the cache instance, like they survive a restart.
+     */
+    public void testPersistence() throws IOException {
+        get(cache, "/toplist.json");
+
+        HttpResponseCache reopened = new HttpResponseCache(directory, 1024 * 1024);
+        assertEquals(BODY, get(reopened, "/toplist.json").trim());
+        assertEquals(1, reopened.getRevalidationCount());
+    }
+
+    public void testEviction() throws IOException {
+        get(cache, "/a.json");
+        long entrySize = cache.getSize();
+        assertTrue(entrySize > 0);
+
+        HttpResponseCache small = new HttpResponseCache(directory, entrySize * 2);
+        get(small, "/b.json");
+        get(small, "/a.json");
+        get(small, "/c.json");
+        assertTrue(small.getSize() <= entrySize * 2);
+
+        /* b was used least recently, a is still stored. */
+        get(small, "/a.json");
+        get(small, "/b.json");
+        assertEquals(2, small.getRevalidationCount());
+        assertEquals(3, small.getMissCount());
+    }
+
+    /**
+     * Only stale temporary files are removed, younger ones may still be
+     * written by another process.
+     */
+    public void testStaleTempFilesAreRemoved() throws IOException {
+        File fresh = File.createTempFile("entry", ".tmp", directory);
+        File stale = File.createTempFile("entry", ".tmp", directory);
+        assertTrue(stale.setLastModified(System.currentTimeMillis()
+                                         - 2 * HttpResponseCache.STALE_TEMP_FILE_AGE));
+
+        HttpResponseCache reopened = new HttpResponseCache(directory, 1024 * 1024);
+        assertEquals(0, reopened.getSize());
+        assertTrue(fresh.exists());
+        assertFalse(stale.exists());
+
+        fresh.delete();
+    }
+
+    public void testFailure() throws IOException {
+        synchronized (server) {
+            server.status = 500;
+        }
+        try {
+            get(cache, "/toplist.json");
+            fail("Expected an HttpResponseException");
+        } catch (HttpResponseException e) {
+            assertEquals(500, e.getStatusCode());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.dragontek.mygpoclient.simple.IPodcast;
+import com.dragontek.mygpoclient.simple.Podcast;
+
+/**
+ * Tests the {@link PodcastMetadataService}.
+ */
+public class PodcastMetadataServiceTest extends TestCase {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * Counts fetches per url and the number of concurrent fetches. Urls
+     * starting with "unknown" are not found, urls starting with "broken"
+     * fail.
+     */
+    private static class CountingFetcher implements PodcastMetadataService.Fetcher {
+        private final Map<String, Integer> fetches = new HashMap<String, Integer>();
+        private int running = 0;
+        private int maxRunning = 0;
+
+        @Override
+        public IPodcast fetch(String host, String url) throws IOException {
+            synchronized (this) {
+                Integer n = fetches.get(url);
+                fetches.put(url, n == null ? 1 : n + 1);
+                running++;
+                maxRunning = Math.max(maxRunning, running);
+            }
+
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (this) {
+                    running--;
+                }
+            }
+
+            if (url.startsWith("broken")) {
+                throw new IOException("broken");
+            }
+            return url.startsWith("unknown") ? null : new Podcast(url, "title " + url);
+        }
+
+        synchronized int getFetches(String url) {
+            Integer n = fetches.get(url);
+            return n == null ? 0 : n;
+        }
+    }
+
+    private static List<String> urls(List<IPodcast> podcasts) {
+        List<String> ret = new ArrayList<String>();
+        for (IPodcast p : podcasts) {
+            ret.add(p.getUrl());
+        }
+        return ret;
+    }
+
+    public void testOrderAndFailures() {
+        CountingFetcher fetcher = new CountingFetcher();
+        PodcastMetadataService service = new PodcastMetadataService(fetcher, 60000, 4);
+
+        List<IPodcast> podcasts = service.getPodcasts(null,
+                                  Arrays.asList("a", "unknown", "b", "broken", "c", "a"));
+        assertEquals(Arrays.asList("a", "b", "c"), urls(podcasts));
+        assertEquals(1, fetcher.getFetches("a"));
+    }
+
+    public void testCache() {
+        CountingFetcher fetcher = new CountingFetcher();
+        PodcastMetadataService service = new PodcastMetadataService(fetcher, 60000, 4);
+
+        service.getPodcasts(null, Arrays.asList("a", "broken"));
+        service.getPodcasts(null, Arrays.asList("a", "broken"));
+        assertEquals(1, fetcher.getFetches("a"));
+
+        /* Failures are retried. */
+        assertEquals(2, fetcher.getFetches("broken"));
+
+        /* Other hosts have their own entries. */
+        service.getPodcasts("example.com", Arrays.asList("a"));
+        assertEquals(2, fetcher.getFetches("a"));
+    }
+
+    public void testTtl() {
+        CountingFetcher fetcher = new CountingFetcher();
+        PodcastMetadataService service = new PodcastMetadataService(fetcher, 0, 4);
+
+        service.getPodcasts(null, Arrays.asList("a"));
+        service.getPodcasts(null, Arrays.asList("a"));
+        assertEquals(2, fetcher.getFetches("a"));
+    }
+
+    public void testParallelism() {
+        CountingFetcher fetcher = new CountingFetcher();
+        PodcastMetadataService service = new PodcastMetadataService(fetcher, 60000, 3);
+
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < 30; i++) {
+            urls.add("podcast" + i);
+        }
+
+        assertEquals(urls, urls(service.getPodcasts(null, urls)));
+        synchronized (fetcher) {
+            assertTrue(fetcher.maxRunning > 1);
+            assertTrue(fetcher.maxRunning <= 3);
+        }
+    }
+
+    /**
+     * Concurrent callers share a fetch which is in progress.
+     */
+    public void testInFlightDeduplication() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingFetcher fetcher = new CountingFetcher() {
+            @Override
+            public IPodcast fetch(String host, String url) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.fetch(host, url);
+            }
+        };
+        final PodcastMetadataService service = new PodcastMetadataService(fetcher, 60000, 4);
+
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    if (service.getPodcasts(null, Arrays.asList("a")).size() == 1) {
+                        done.countDown();
+                    }
+                }
+            } .start();
+        }
+
+        Thread.sleep(100);
+        release.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, fetcher.getFetches("a"));
+    }
+}
@@ -197,7 +197,8 @@ public class PodderServiceTest extends ServiceTestCase<PodderService> {
         }
 
         @Override
-        public void getPodcastInfoSucceeded(int reqId, Podcast result) throws RemoteException {
+        public void getPodcastInfoSucceeded(int reqId, List<Podcast> results)
+        throws RemoteException {
             /* Unused. */
         }
     }
@@ -0,0 +1,76 @@
+/* *************************************************************************
+ *  Copyright 2012 The detlef developers                                   *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU General Public License as published by   *
+ *  the Free Software Foundation, either version 2 of the License, or      *
+ *  (at your option) any later version.                                    *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU General Public License for more details.                           *
+ *                                                                         *
+ *  You should have received a copy of the GNU General Public License      *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  *
+ ************************************************************************* */
+
+package at.ac.tuwien.detlef.gpodder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import at.ac.tuwien.detlef.domain.Podcast;
+
+import com.dragontek.mygpoclient.feeds.Feed;
+import com.dragontek.mygpoclient.feeds.IFeed;
+
+/**
+ * Tests how {@link PullFeedAsyncTask} assigns the feeds of a multi feed
+ * response to its podcasts.
+ */
+public class PullFeedAsyncTaskTest extends TestCase {
+
+    private static Podcast podcast(String url) {
+        return new Podcast().setUrl(url);
+    }
+
+    private static Feed feed(String url) {
+        Feed f = new Feed();
+        f.setUrl(url);
+        return f;
+    }
+
+    public void testDemultiplexByUrl() {
+        List<Podcast> batch = Arrays.asList(podcast("a"), podcast("b"), podcast("c"));
+        Feed c = feed("c");
+        Feed a = feed("a");
+
+        List<IFeed> feeds = PullFeedAsyncTask.demultiplex(batch, Arrays.asList(c, a));
+        assertSame(a, feeds.get(0));
+        assertNull(feeds.get(1));
+        assertSame(c, feeds.get(2));
+    }
+
+    /**
+     * A feed whose url changed is assigned by position if the response
+     * contains all requested feeds.
+     */
+    public void testDemultiplexByPosition() {
+        List<Podcast> batch = Arrays.asList(podcast("a"), podcast("b"));
+        Feed a = feed("a");
+        Feed moved = feed("b-new");
+
+        List<IFeed> feeds = PullFeedAsyncTask.demultiplex(batch, Arrays.asList(a, moved));
+        assertSame(a, feeds.get(0));
+        assertSame(moved, feeds.get(1));
+    }
+
+    public void testDemultiplexEmpty() {
+        List<Podcast> batch = Arrays.asList(podcast("a"));
+        assertNull(PullFeedAsyncTask.demultiplex(batch, null).get(0));
+        assertNull(PullFeedAsyncTask.demultiplex(batch, new ArrayList<Feed>()).get(0));
+    }
+}